@@ -0,0 +1,87 @@
+package se.sundsvall.emailreader.api;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import se.sundsvall.dept44.common.validators.annotation.ValidMunicipalityId;
+import se.sundsvall.dept44.problem.Problem;
+import se.sundsvall.dept44.problem.violations.ConstraintViolationProblem;
+import se.sundsvall.emailreader.api.model.GraphNotifications;
+import se.sundsvall.emailreader.service.scheduler.GraphSubscriptionManager;
+
+import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.MediaType.ALL_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
+import static org.springframework.http.MediaType.APPLICATION_PROBLEM_JSON_VALUE;
+import static org.springframework.http.MediaType.TEXT_PLAIN_VALUE;
+import static org.springframework.http.ResponseEntity.accepted;
+import static org.springframework.http.ResponseEntity.ok;
+
+@RestController
+@Validated
+@Tag(name = "Graph Notifications", description = "Change notifications from Microsoft Graph")
+@RequestMapping(path = "/{municipalityId}/graph/notifications")
+@ApiResponse(
+	responseCode = "400",
+	description = "Bad request",
+	content = @Content(mediaType = APPLICATION_PROBLEM_JSON_VALUE, schema = @Schema(oneOf = {
+		Problem.class, ConstraintViolationProblem.class
+	})))
+@ApiResponse(
+	responseCode = "500",
+	description = "Internal Server Error",
+	content = @Content(mediaType = APPLICATION_PROBLEM_JSON_VALUE, schema = @Schema(implementation = Problem.class)))
+@ApiResponse(
+	responseCode = "502",
+	description = "Bad Gateway",
+	content = @Content(mediaType = APPLICATION_PROBLEM_JSON_VALUE, schema = @Schema(implementation = Problem.class)))
+class GraphNotificationResource {
+
+	private final GraphSubscriptionManager graphSubscriptionManager;
+
+	GraphNotificationResource(final GraphSubscriptionManager graphSubscriptionManager) {
+		this.graphSubscriptionManager = graphSubscriptionManager;
+	}
+
+	/**
+	 * Graph validates the notification url, when a subscription is created, by posting a validation token that must be
+	 * returned as plain text.
+	 */
+	@Operation(hidden = true)
+	@PostMapping(params = "validationToken", produces = TEXT_PLAIN_VALUE)
+	ResponseEntity<String> validate(
+		@PathVariable @ValidMunicipalityId final String municipalityId,
+		@RequestParam final String validationToken) {
+
+		return ok()
+			.header(CONTENT_TYPE, TEXT_PLAIN_VALUE)
+			.body(validationToken);
+	}
+
+	@Operation(description = "Receive change and lifecycle notifications for Graph subscriptions", responses = {
+		@ApiResponse(responseCode = "202", description = "Accepted")
+	})
+	@PostMapping(consumes = APPLICATION_JSON_VALUE, produces = ALL_VALUE)
+	ResponseEntity<Void> receive(
+		@Parameter(name = "municipalityId", description = "Municipality id", example = "2281") @PathVariable @ValidMunicipalityId final String municipalityId,
+		@Valid @RequestBody final GraphNotifications notifications) {
+
+		graphSubscriptionManager.handleNotifications(municipalityId, notifications.value());
+
+		return accepted()
+			.header(CONTENT_TYPE, ALL_VALUE)
+			.build();
+	}
+}
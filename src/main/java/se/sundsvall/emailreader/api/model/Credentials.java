@@ -39,6 +39,8 @@ public record Credentials(
 
 	@NotBlank @Schema(description = "The folder to move emails to after processing", examples = "Processed") String destinationFolder,
 
-	@Schema(description = "If this configuration is active and should fetch emails") boolean enabled) {
+	@Schema(description = "If this configuration is active and should fetch emails") boolean enabled,
+
+	@Schema(description = "If attachment content should be fetched from the mailbox on first download instead of when the email is read", examples = "false") boolean lazyAttachments) {
 
 }
@@ -0,0 +1,34 @@
+package se.sundsvall.emailreader.api.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Builder;
+import lombok.With;
+
+import static io.swagger.v3.oas.annotations.media.Schema.RequiredMode.REQUIRED;
+
+@With
+@Builder(setterPrefix = "with")
+@Schema(name = "GraphNotification", description = "A change or lifecycle notification for a Microsoft Graph subscription")
+public record GraphNotification(
+
+	@NotBlank @Schema(description = "Id of the subscription the notification belongs to", examples = "7f105c7d-2dc5-4530-97cd-4e7ae6534c07", requiredMode = REQUIRED) String subscriptionId,
+
+	@Schema(description = "The secret given when the subscription was created", examples = "secretClientState") String clientState,
+
+	@Schema(description = "Type of change, for change notifications", examples = "created") String changeType,
+
+	@Schema(description = "The lifecycle event, for lifecycle notifications", examples = "reauthorizationRequired") String lifecycleEvent,
+
+	@Schema(description = "Path of the changed resource", examples = "Users/7b2e4a5c-0c7e-4d0f-9b40-4d1b2a8c1f2e/Messages/AAMkAGUAAAwAAA=") String resource,
+
+	@Schema(description = "The changed resource") ResourceData resourceData) {
+
+	@With
+	@Builder(setterPrefix = "with")
+	@Schema(name = "GraphNotificationResourceData", description = "The resource that a change notification is about")
+	public record ResourceData(
+
+		@Schema(description = "Id of the changed resource", examples = "AAMkAGUAAAwAAA=") String id) {
+	}
+}
@@ -0,0 +1,20 @@
+package se.sundsvall.emailreader.api.model;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
+import java.util.List;
+import lombok.Builder;
+import lombok.With;
+
+import static io.swagger.v3.oas.annotations.media.Schema.RequiredMode.REQUIRED;
+
+@With
+@Builder(setterPrefix = "with")
+@Schema(name = "GraphNotifications", description = "Change or lifecycle notifications sent by Microsoft Graph")
+public record GraphNotifications(
+
+	@NotNull @Valid @ArraySchema(arraySchema = @Schema(description = "The notifications", requiredMode = REQUIRED), schema = @Schema(implementation = GraphNotification.class)) List<GraphNotification> value) {
+
+}
@@ -1,8 +1,15 @@
 package se.sundsvall.emailreader.integration.db;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 
 public interface AttachmentRepository extends JpaRepository<AttachmentEntity, Long> {
 
+	@Modifying
+	@Query("update AttachmentEntity a set a.sourceItemId = :newItemId where a.sourceItemId = :itemId")
+	int updateSourceItemId(@Param("itemId") final String itemId, @Param("newItemId") final String newItemId);
+
 }
@@ -0,0 +1,17 @@
+package se.sundsvall.emailreader.integration.db;
+
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.transaction.annotation.Transactional;
+import se.sundsvall.emailreader.integration.db.entity.EwsFolderIdEntity;
+
+@CircuitBreaker(name = "ewsFolderIdRepository")
+public interface EwsFolderIdRepository extends JpaRepository<EwsFolderIdEntity, String> {
+
+	Optional<EwsFolderIdEntity> findByEmailAddressAndFolderName(final String emailAddress, final String folderName);
+
+	@Transactional
+	void deleteByEmailAddressAndFolderName(final String emailAddress, final String folderName);
+
+}
@@ -0,0 +1,15 @@
+package se.sundsvall.emailreader.integration.db;
+
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import se.sundsvall.emailreader.integration.db.entity.EwsSyncStateEntity;
+
+@CircuitBreaker(name = "ewsSyncStateRepository")
+public interface EwsSyncStateRepository extends JpaRepository<EwsSyncStateEntity, String> {
+
+	Optional<EwsSyncStateEntity> findByCredentialsIdAndEmailAddress(final String credentialsId, final String emailAddress);
+
+	void deleteByCredentialsId(final String credentialsId);
+
+}
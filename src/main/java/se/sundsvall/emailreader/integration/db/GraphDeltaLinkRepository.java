@@ -0,0 +1,15 @@
+package se.sundsvall.emailreader.integration.db;
+
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import se.sundsvall.emailreader.integration.db.entity.GraphDeltaLinkEntity;
+
+@CircuitBreaker(name = "graphDeltaLinkRepository")
+public interface GraphDeltaLinkRepository extends JpaRepository<GraphDeltaLinkEntity, String> {
+
+	Optional<GraphDeltaLinkEntity> findByGraphCredentialsIdAndEmailAddress(final String graphCredentialsId, final String emailAddress);
+
+	void deleteByGraphCredentialsId(final String graphCredentialsId);
+
+}
@@ -0,0 +1,15 @@
+package se.sundsvall.emailreader.integration.db;
+
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import se.sundsvall.emailreader.integration.db.entity.GraphSubscriptionEntity;
+
+@CircuitBreaker(name = "graphSubscriptionRepository")
+public interface GraphSubscriptionRepository extends JpaRepository<GraphSubscriptionEntity, String> {
+
+	Optional<GraphSubscriptionEntity> findBySubscriptionId(final String subscriptionId);
+
+	void deleteByGraphCredentialsId(final String graphCredentialsId);
+
+}
@@ -7,10 +7,12 @@ import jakarta.persistence.ForeignKey;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.Lob;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import java.sql.Blob;
 import java.time.LocalDateTime;
@@ -23,7 +25,8 @@ import lombok.NoArgsConstructor;
 import lombok.ToString;
 
 @Entity
-@Table(name = "attachment")
+@Table(name = "attachment",
+	indexes = @Index(name = "idx_attachment_source_item_id", columnList = "source_item_id"))
 @Data
 @Builder(setterPrefix = "with")
 @NoArgsConstructor
@@ -32,8 +35,10 @@ import lombok.ToString;
 @ToString(exclude = "email")
 public class AttachmentEntity {
 
+	// Ids are taken from a pooled sequence, 50 at a time, since IDENTITY makes Hibernate insert every attachment on its own
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "attachment_seq")
+	@SequenceGenerator(name = "attachment_seq", sequenceName = "attachment_seq", allocationSize = 50)
 	@Column(name = "id")
 	private Long id;
 
@@ -52,6 +57,20 @@ public class AttachmentEntity {
 	@Column(name = "content_type")
 	private String contentType;
 
+	@Column(name = "size")
+	private Long size;
+
+	// Where to fetch the content from on first access, when it was not stored at ingest
+	@Column(name = "source_credentials_id")
+	private String sourceCredentialsId;
+
+	@Column(name = "source_item_id", length = 512)
+	private String sourceItemId;
+
+	// The id of the attachment in the email when it was read, the name and size are used to check it
+	@Column(name = "source_attachment_id", length = 512)
+	private String sourceAttachmentId;
+
 	@Column(name = "created_at")
 	private LocalDateTime createdAt;
 
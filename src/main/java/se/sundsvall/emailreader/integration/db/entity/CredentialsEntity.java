@@ -74,6 +74,9 @@ public class CredentialsEntity {
 	@Column(name = "enabled")
 	private boolean enabled;
 
+	@Column(name = "lazy_attachments")
+	private boolean lazyAttachments;
+
 	@PrePersist
 	void prePersist() {
 		createdAt = LocalDateTime.now();
@@ -0,0 +1,49 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.OffsetDateTime;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.TimeZoneStorage;
+import org.hibernate.annotations.UuidGenerator;
+
+import static org.hibernate.annotations.TimeZoneStorageType.NORMALIZE;
+
+@Entity
+@Table(name = "ews_folder_id",
+	uniqueConstraints = @UniqueConstraint(
+		name = "uk_ews_folder_id_email_address_folder_name",
+		columnNames = {
+			"email_address", "folder_name"
+		}))
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PROTECTED)
+public class EwsFolderIdEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "email_address")
+	private String emailAddress;
+
+	@Column(name = "folder_name")
+	private String folderName;
+
+	@Column(name = "folder_id", length = 512)
+	private String folderId;
+
+	@Column(name = "resolved_at")
+	@TimeZoneStorage(NORMALIZE)
+	private OffsetDateTime resolvedAt;
+}
@@ -0,0 +1,73 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.OffsetDateTime;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.Length;
+import org.hibernate.annotations.TimeZoneStorage;
+import org.hibernate.annotations.UuidGenerator;
+
+import static org.hibernate.annotations.TimeZoneStorageType.NORMALIZE;
+
+@Entity
+@Table(name = "ews_sync_state",
+	uniqueConstraints = @UniqueConstraint(
+		name = "uk_ews_sync_state_credentials_id_email_address",
+		columnNames = {
+			"credentials_id", "email_address"
+		}))
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PROTECTED)
+public class EwsSyncStateEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "credentials_id")
+	private String credentialsId;
+
+	@Column(name = "email_address")
+	private String emailAddress;
+
+	@Column(name = "sync_state", length = Length.LONG32)
+	private String syncState;
+
+	// Emails covered by the sync state that could not be handled, and are retried on the next run
+	@ElementCollection(fetch = FetchType.EAGER)
+	@CollectionTable(name = "ews_sync_state_pending_item",
+		joinColumns = @JoinColumn(name = "ews_sync_state_id",
+			referencedColumnName = "id",
+			foreignKey = @ForeignKey(name = "fk_ews_sync_state_pending_item_ews_sync_state_id")))
+	@Column(name = "item_id", length = 512)
+	private Set<String> pendingItemIds;
+
+	@Column(name = "updated_at")
+	@TimeZoneStorage(NORMALIZE)
+	private OffsetDateTime updatedAt;
+
+	@PrePersist
+	@PreUpdate
+	void preSave() {
+		updatedAt = OffsetDateTime.now();
+	}
+}
@@ -0,0 +1,73 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import jakarta.persistence.CollectionTable;
+import jakarta.persistence.Column;
+import jakarta.persistence.ElementCollection;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.ForeignKey;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.OffsetDateTime;
+import java.util.Set;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.Length;
+import org.hibernate.annotations.TimeZoneStorage;
+import org.hibernate.annotations.UuidGenerator;
+
+import static org.hibernate.annotations.TimeZoneStorageType.NORMALIZE;
+
+@Entity
+@Table(name = "graph_delta_link",
+	uniqueConstraints = @UniqueConstraint(
+		name = "uk_graph_delta_link_graph_credentials_id_email_address",
+		columnNames = {
+			"graph_credentials_id", "email_address"
+		}))
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PROTECTED)
+public class GraphDeltaLinkEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "graph_credentials_id")
+	private String graphCredentialsId;
+
+	@Column(name = "email_address")
+	private String emailAddress;
+
+	@Column(name = "delta_link", length = Length.LONG32)
+	private String deltaLink;
+
+	// Emails covered by the delta link that could not be handled, and are retried on the next run
+	@ElementCollection(fetch = FetchType.EAGER)
+	@CollectionTable(name = "graph_delta_link_pending_message",
+		joinColumns = @JoinColumn(name = "graph_delta_link_id",
+			referencedColumnName = "id",
+			foreignKey = @ForeignKey(name = "fk_graph_delta_link_pending_message_graph_delta_link_id")))
+	@Column(name = "message_id", length = 512)
+	private Set<String> pendingMessageIds;
+
+	@Column(name = "updated_at")
+	@TimeZoneStorage(NORMALIZE)
+	private OffsetDateTime updatedAt;
+
+	@PrePersist
+	@PreUpdate
+	void preSave() {
+		updatedAt = OffsetDateTime.now();
+	}
+}
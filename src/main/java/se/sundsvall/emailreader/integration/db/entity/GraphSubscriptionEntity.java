@@ -0,0 +1,71 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+import java.time.OffsetDateTime;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.TimeZoneStorage;
+import org.hibernate.annotations.UuidGenerator;
+
+import static org.hibernate.annotations.TimeZoneStorageType.NORMALIZE;
+
+@Entity
+@Table(name = "graph_subscription",
+	uniqueConstraints = {
+		@UniqueConstraint(
+			name = "uk_graph_subscription_graph_credentials_id_email_address",
+			columnNames = {
+				"graph_credentials_id", "email_address"
+			}),
+		@UniqueConstraint(
+			name = "uk_graph_subscription_subscription_id",
+			columnNames = {
+				"subscription_id"
+			})
+	})
+@Data
+@Builder(setterPrefix = "with")
+@NoArgsConstructor
+@AllArgsConstructor(access = AccessLevel.PROTECTED)
+public class GraphSubscriptionEntity {
+
+	@Id
+	@UuidGenerator
+	@Column(name = "id")
+	private String id;
+
+	@Column(name = "graph_credentials_id")
+	private String graphCredentialsId;
+
+	@Column(name = "email_address")
+	private String emailAddress;
+
+	@Column(name = "subscription_id")
+	private String subscriptionId;
+
+	@Column(name = "client_state")
+	private String clientState;
+
+	@Column(name = "expires_at")
+	@TimeZoneStorage(NORMALIZE)
+	private OffsetDateTime expiresAt;
+
+	@Column(name = "updated_at")
+	@TimeZoneStorage(NORMALIZE)
+	private OffsetDateTime updatedAt;
+
+	@PrePersist
+	@PreUpdate
+	void preSave() {
+		updatedAt = OffsetDateTime.now();
+	}
+}
@@ -1,30 +1,53 @@
 package se.sundsvall.emailreader.integration.ews;
 
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.io.OutputStream;
 import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import microsoft.exchange.webservices.data.core.ExchangeService;
 import microsoft.exchange.webservices.data.core.PropertySet;
-import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
 import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.property.BodyType;
+import microsoft.exchange.webservices.data.core.enumeration.property.MapiPropertyType;
 import microsoft.exchange.webservices.data.core.enumeration.property.WellKnownFolderName;
+import microsoft.exchange.webservices.data.core.enumeration.search.SortDirection;
 import microsoft.exchange.webservices.data.core.enumeration.service.ConflictResolutionMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.MessageDisposition;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
+import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceVersionException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
 import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.EmailMessageSchema;
 import microsoft.exchange.webservices.data.core.service.schema.FolderSchema;
 import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
-import microsoft.exchange.webservices.data.credential.WebCredentials;
+import microsoft.exchange.webservices.data.misc.OutParam;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection;
+import microsoft.exchange.webservices.data.property.complex.Attachment;
+import microsoft.exchange.webservices.data.property.complex.FileAttachment;
 import microsoft.exchange.webservices.data.property.complex.FolderId;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
 import microsoft.exchange.webservices.data.property.complex.Mailbox;
+import microsoft.exchange.webservices.data.property.definition.ExtendedPropertyDefinition;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.FolderView;
 import microsoft.exchange.webservices.data.search.ItemView;
@@ -34,7 +57,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import se.sundsvall.dept44.common.validators.annotation.impl.ValidMSISDNConstraintValidator;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+import se.sundsvall.emailreader.utility.HtmlToPlainText;
 
+import static java.lang.Math.min;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode.HardDelete;
 
@@ -48,95 +76,671 @@ public class EWSIntegration {
 	private static final Logger LOG = LoggerFactory.getLogger(EWSIntegration.class);
 	private static final List<String> SMS_MAIL_MESSAGE_KEYS_TO_PARSE = List.of("Message", "Recipient", "Sender");
 	private static final String COULD_NOT_LOAD_MESSAGE = "Could not load message";
-	private final FolderView folderView = new FolderView(10);
-	private final ExchangeService exchangeService = new ExchangeService(ExchangeVersion.Exchange2010_SP2);
+	// Largest number of changes Exchange returns per SyncFolderItems request
+	private static final int MAX_SYNC_CHANGES = 512;
+	// Number of emails fetched per FindItem request when paging through the inbox
+	private static final int INBOX_PAGE_SIZE = 50;
+	// Number of emails larger than the max allowed size listed per FindItem request
+	private static final int OVERSIZED_PAGE_SIZE = 100;
+	// Number of emails marked as read and moved per batched request
+	private static final int BULK_CHUNK_SIZE = 50;
+	// Largest number of attachments and total attachment size loaded per batched GetAttachment request
+	private static final int ATTACHMENT_BATCH_SIZE = 50;
+	private static final long ATTACHMENT_BATCH_BYTES = 25L * 1024 * 1024;
+	// Largest total attachment size loaded into memory per page, the rest is streamed one by one when mapped
+	private static final long ATTACHMENT_PAGE_BYTES = 50L * 1024 * 1024;
+	// PidTagBody, the plain-text body of the message
+	private static final ExtendedPropertyDefinition PID_TAG_BODY = new ExtendedPropertyDefinition(0x1000, MapiPropertyType.String);
+	private static final String THROTTLING_KEY_PREFIX = "ews:";
+	// Error detail in which Exchange tells how long to back off when busy
+	private static final String BACK_OFF_MILLISECONDS = "BackOffMilliseconds";
+	private static final List<Integer> THROTTLED_STATUS_CODES = List.of(429, 503);
+	private final ExchangeServicePool exchangeServicePool;
+	private final EwsFolderIdCache folderIdCache;
+	private final ThrottlingGovernor throttlingGovernor;
+	private final EwsOversizedEmails oversizedEmails = new EwsOversizedEmails();
 	private final PropertySet propertySetTextBody = new PropertySet(BasePropertySet.FirstClassProperties, ItemSchema.Body);
 	private final PropertySet propertySetHTMLBody = new PropertySet(BasePropertySet.FirstClassProperties, ItemSchema.Body);
+	private final PropertySet propertySetIdOnly = new PropertySet(BasePropertySet.IdOnly);
+	private final PropertySet propertySetIdAndSize = new PropertySet(BasePropertySet.IdOnly, ItemSchema.Size);
+	private final PropertySet propertySetInboxListing = new PropertySet(BasePropertySet.IdOnly, ItemSchema.Size, ItemSchema.DateTimeReceived);
+	private final PropertySet propertySetSmsInboxListing = new PropertySet(BasePropertySet.IdOnly, ItemSchema.Size, ItemSchema.DateTimeReceived, EmailMessageSchema.ReceivedBy);
+	private final PropertySet propertySetAttachments = new PropertySet(BasePropertySet.IdOnly, ItemSchema.Attachments);
+	private final PropertySet propertySetHTMLAndTextBody = new PropertySet(BasePropertySet.FirstClassProperties, ItemSchema.Body, PID_TAG_BODY);
 	@Value("${scheduled.check-for-new-emails.ews.maxFileSize:10485760}") // Default to 10 MB
 	private String maxFileSize;
+	@Value("${integration.ews.single-body-request:false}")
+	private boolean singleBodyRequest;
+	@Value("${integration.ews.inbox.read-ahead-pages:1}")
+	private int readAheadPages;
+	@Value("${integration.ews.attachments.batch-load:false}")
+	private boolean batchLoadAttachments;
+	@Value("${integration.ews.attachments.max-size:10485760}") // Default to 10 MB
+	private long maxAttachmentSize;
 
-	public EWSIntegration() {
+	public EWSIntegration(final ExchangeServicePool exchangeServicePool, final EwsFolderIdCache folderIdCache, final ThrottlingGovernor throttlingGovernor) {
+		this.exchangeServicePool = exchangeServicePool;
+		this.folderIdCache = folderIdCache;
+		this.throttlingGovernor = throttlingGovernor;
 		this.propertySetTextBody.setRequestedBodyType(BodyType.Text);
 		this.propertySetHTMLBody.setRequestedBodyType(BodyType.HTML);
+		this.propertySetHTMLAndTextBody.setRequestedBodyType(BodyType.HTML);
 	}
 
-	public List<EmailMessage> pageThroughEntireInbox(final String username, final String password, final String domain, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
-
-		// These properties should be replaced with credentials from the database in a later step
-		exchangeService.setCredentials(new WebCredentials(username, password));
-		exchangeService.setUrl(URI.create(domain));
+	/**
+	 * Lists all emails in the inbox.
+	 *
+	 * @param  credential           the credential to use
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the emails, to be closed once they have been handled, which ends the lease on the
+	 *                              pooled ExchangeService the emails are loaded with
+	 */
+	public LeasedEmails pageThroughEntireInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		final var lease = exchangeServicePool.lease(credential);
+		try {
+			return new LeasedEmails(listInbox(lease.service(), emailAddress, setUnHealthyConsumer), lease);
+		} catch (final RuntimeException e) {
+			lease.close();
+			throw e;
+		}
+	}
 
+	private List<EmailMessage> listInbox(final ExchangeService exchangeService, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
 		final var emails = new ArrayList<EmailMessage>();
 
-		final var pageSize = 50;
-		final var view = new ItemView(pageSize);
+		final var view = new ItemView(INBOX_PAGE_SIZE);
+		view.setPropertySet(propertySetSmsInboxListing);
 
 		FindItemsResults<Item> findResults;
 		final var userMailbox = new Mailbox(emailAddress);
 		final var folderId = new FolderId(WellKnownFolderName.Inbox, userMailbox);
 
+		reportOversizedEmails(exchangeService, folderId, emailAddress, setUnHealthyConsumer);
 		do {
 			try {
-				findResults = exchangeService.findItems(folderId, view);
+				findResults = throttled(exchangeService, () -> exchangeService.findItems(folderId, withinMaxSize(), view));
 			} catch (final Exception e) {
 				setUnHealthyConsumer.accept("[EWS] Could not find items, address: " + emailAddress);
 				LOG.error("Could not find items", e);
 				return emails;
 			}
 			findResults.getItems().forEach(item -> {
-				try {
-					if (item instanceof final EmailMessage message) {
-						if (message.getSize() > Long.parseLong(maxFileSize)) {
-							setUnHealthyConsumer.accept("[EWS] Email size exceeds maximum allowed size for address: " + emailAddress);
-							LOG.warn("Skipping email with size {} bytes, larger than max allowed size of {} bytes for address {}", message.getSize(), maxFileSize, emailAddress);
-							return;
-						}
+				if (item instanceof final EmailMessage message) {
+					emails.add(message);
+				}
+			});
+
+			view.setOffset(view.getOffset() + INBOX_PAGE_SIZE);
+
+		} while (findResults.isMoreAvailable());
+		return emails;
+	}
+
+	/**
+	 * Iterates lazily over the emails in the inbox, one page at a time, with the next pages fetched while the current one
+	 * is handled.
+	 * <p>
+	 * Handled emails are moved out of the inbox, which shifts the position of every email after them. The inbox is
+	 * therefore sorted oldest first and paged from the end, so that moving the emails of one page never changes which
+	 * emails the pages before it contain. Emails that arrive in the meantime end up after the last page, and are fetched on
+	 * the next run.
+	 *
+	 * @param  credential           the credential to use
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the pages of emails, to be closed when done, which also ends the leases on the pooled
+	 *                              ExchangeService instances the pages were fetched with
+	 */
+	public EwsInboxPages streamInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		final var folderId = new FolderId(WellKnownFolderName.Inbox, new Mailbox(emailAddress));
+		// The first page is leased right away, so that a credential that can not be used fails the call
+		final var firstLease = exchangeServicePool.lease(credential);
+		return new EwsInboxPages(new InboxPageSource(credential, firstLease, folderId, emailAddress, setUnHealthyConsumer), readAheadPages);
+	}
+
+	/**
+	 * Fetches the emails created or changed in the inbox since the given sync state, using SyncFolderItems. Without a sync
+	 * state, or if Exchange no longer accepts the given one, all emails in the inbox are returned. If an error occurs part
+	 * way, the emails received so far are returned together with the sync state that covers them.
+	 *
+	 * @param  credential           the credential to use
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  syncState            the sync state from the last successful run, or null to sync from the beginning
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the created or changed emails and the sync state to use on the next run, to be closed
+	 *                              once the emails have been handled, which ends the lease on the pooled ExchangeService
+	 *                              the emails are loaded with
+	 */
+	public InboxSync syncInbox(final CredentialsEntity credential, final String emailAddress, final String syncState, final Consumer<String> setUnHealthyConsumer) {
+		final var lease = exchangeServicePool.lease(credential);
+		try {
+			final var inboxSync = syncItems(lease.service(), emailAddress, syncState, setUnHealthyConsumer);
+			return new InboxSync(inboxSync.emails(), inboxSync.syncState(), lease);
+		} catch (final RuntimeException e) {
+			lease.close();
+			throw e;
+		}
+	}
+
+	private InboxSync syncItems(final ExchangeService exchangeService, final String emailAddress, final String syncState, final Consumer<String> setUnHealthyConsumer) {
+		final var folderId = new FolderId(WellKnownFolderName.Inbox, new Mailbox(emailAddress));
+
+		final var emails = new ArrayList<EmailMessage>();
+		var currentSyncState = syncState;
+
+		try {
+			var moreChangesAvailable = true;
+			while (moreChangesAvailable) {
+				final var fromSyncState = currentSyncState;
+				final var changes = throttled(exchangeService,
+					() -> exchangeService.syncFolderItems(folderId, propertySetIdAndSize, null, MAX_SYNC_CHANGES, SyncFolderItemsScope.NormalItems, fromSyncState));
+				for (final var change : changes) {
+					if ((change.getChangeType() == ChangeType.Create || change.getChangeType() == ChangeType.Update)
+						&& change.getItem() instanceof final EmailMessage message && isWithinMaxSize(message, emailAddress, setUnHealthyConsumer)) {
 						emails.add(message);
 					}
+				}
+				currentSyncState = changes.getSyncState();
+				moreChangesAvailable = changes.getMoreChangesAvailable();
+			}
+		} catch (final Exception e) {
+			if (currentSyncState != null && e instanceof final ServiceResponseException responseException && responseException.getErrorCode() == ServiceError.ErrorInvalidSyncStateData) {
+				LOG.warn("[{}]: Sync state is no longer valid, falling back to a full sync of the inbox", emailAddress);
+				return syncItems(exchangeService, emailAddress, null, setUnHealthyConsumer);
+			}
+			setUnHealthyConsumer.accept("[EWS] Could not sync items, address: " + emailAddress);
+			LOG.error("Could not sync items", e);
+		}
+		return new InboxSync(emails, currentSyncState);
+	}
+
+	/**
+	 * Binds the emails with the given ids, as reported by a streaming notification. Emails that can not be bound, for
+	 * example because they have already been moved, are left out of the result.
+	 *
+	 * @param  credential           the credential to use
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  itemIds              the ids of the emails
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the bound emails, with id and size loaded, to be closed once they have been handled,
+	 *                              which ends the lease on the pooled ExchangeService the emails are loaded with
+	 */
+	public LeasedEmails bindEmails(final CredentialsEntity credential, final String emailAddress, final List<ItemId> itemIds, final Consumer<String> setUnHealthyConsumer) {
+		if (itemIds.isEmpty()) {
+			return LeasedEmails.empty();
+		}
+
+		final var lease = exchangeServicePool.lease(credential);
+		try {
+			return new LeasedEmails(bindEmailsOrThrow(lease, emailAddress, itemIds, setUnHealthyConsumer), lease);
+		} catch (final Exception e) {
+			lease.close();
+			setUnHealthyConsumer.accept("[EWS] Could not bind items, address: " + emailAddress);
+			LOG.error("Could not bind items", e);
+			return LeasedEmails.empty();
+		}
+	}
+
+	/**
+	 * Binds the emails with the given ids with the service of the lease, like
+	 * {@link #bindEmails(CredentialsEntity, String, List, Consumer)}, but throws if the request fails as a whole, so that
+	 * the caller can tell emails that no longer exist from emails that were not bound at all. The lease is to be kept
+	 * open until the emails have been handled.
+	 *
+	 * @param  lease                the lease on the service to bind the emails with
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  itemIds              the ids of the emails
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the bound emails, with id and size loaded
+	 * @throws Exception            if the emails could not be bound
+	 */
+	public List<EmailMessage> bindEmailsOrThrow(final ExchangeServicePool.Lease lease, final String emailAddress, final List<ItemId> itemIds, final Consumer<String> setUnHealthyConsumer)
+		throws Exception {
+		if (itemIds.isEmpty()) {
+			return emptyList();
+		}
+
+		final var exchangeService = lease.service();
+		final var emails = new ArrayList<EmailMessage>();
+		for (final var response : throttled(exchangeService, () -> exchangeService.bindToItems(itemIds, propertySetIdAndSize))) {
+			if (response.getResult() == ServiceResult.Error) {
+				LOG.warn("[{}]: Could not bind item: {} {}", emailAddress, response.getErrorCode(), response.getErrorMessage());
+			} else if (response.getItem() instanceof final EmailMessage message && isWithinMaxSize(message, emailAddress, setUnHealthyConsumer)) {
+				emails.add(message);
+			}
+		}
+		return emails;
+	}
+
+	/**
+	 * Opens a streaming subscription for new emails in the inbox. The subscription uses its own ExchangeService, since the
+	 * connection is held open far longer than pooled instances are kept when idle.
+	 *
+	 * @param  credential      the credential to use
+	 * @param  emailAddress    the address of the mailbox
+	 * @param  lifetimeMinutes the number of minutes Exchange keeps the connection open, 1 to 30
+	 * @param  listener        the listener to notify about new emails and errors
+	 * @return                 the open subscription
+	 * @throws Exception       if the subscription could not be created or the connection could not be opened
+	 */
+	public EwsInboxSubscription subscribeToInbox(final CredentialsEntity credential, final String emailAddress, final int lifetimeMinutes,
+		final EwsInboxSubscription.Listener listener) throws Exception {
+
+		final var exchangeService = exchangeServicePool.createService(credential);
+		try {
+			final var folderId = new FolderId(WellKnownFolderName.Inbox, new Mailbox(emailAddress));
+			final var subscription = throttled(exchangeService, () -> exchangeService.subscribeToStreamingNotifications(List.of(folderId), EventType.NewMail));
+			final var connection = createStreamingConnection(exchangeService, lifetimeMinutes);
+			connection.addSubscription(subscription);
+			final var inboxSubscription = new EwsInboxSubscription(exchangeService, connection, listener);
+			inboxSubscription.open();
+			return inboxSubscription;
+		} catch (final Exception e) {
+			exchangeService.close();
+			throw e;
+		}
+	}
+
+	private final class InboxPageSource implements EwsInboxPages.PageSource {
+
+		private final CredentialsEntity credential;
+		private final FolderId folderId;
+		private final String emailAddress;
+		private final Consumer<String> setUnHealthyConsumer;
+		// Lease to fetch the first page with, taken when the pages are opened
+		private ExchangeServicePool.Lease firstLease;
+		// Offset of the next page to fetch, unknown until the number of emails in the inbox has been counted
+		private Integer offset;
+
+		private InboxPageSource(final CredentialsEntity credential, final ExchangeServicePool.Lease firstLease, final FolderId folderId, final String emailAddress,
+			final Consumer<String> setUnHealthyConsumer) {
+			this.credential = credential;
+			this.firstLease = firstLease;
+			this.folderId = folderId;
+			this.emailAddress = emailAddress;
+			this.setUnHealthyConsumer = setUnHealthyConsumer;
+		}
+
+		@Override
+		public LeasedEmails nextPage() {
+			final var lease = nextLease();
+			final var exchangeService = lease.service();
+			final FindItemsResults<Item> findResults;
+			try {
+				if (offset == null) {
+					reportOversizedEmails(exchangeService, folderId, emailAddress, setUnHealthyConsumer);
+					offset = lastPageOffset(countItems(exchangeService));
+				}
+				if (offset < 0) {
+					lease.close();
+					return null;
+				}
+				final var view = new ItemView(INBOX_PAGE_SIZE, offset);
+				view.setPropertySet(propertySetInboxListing);
+				view.getOrderBy().add(ItemSchema.DateTimeReceived, SortDirection.Ascending);
+				findResults = throttled(exchangeService, () -> exchangeService.findItems(folderId, withinMaxSize(), view));
+				offset -= INBOX_PAGE_SIZE;
+			} catch (final Exception e) {
+				lease.close();
+				setUnHealthyConsumer.accept("[EWS] Could not find items, address: " + emailAddress);
+				LOG.error("Could not find items", e);
+				return null;
+			}
+
+			final var page = new ArrayList<EmailMessage>(findResults.getItems().size());
+			for (final var item : findResults.getItems()) {
+				if (item instanceof final EmailMessage message) {
+					page.add(message);
+				}
+			}
+			return new LeasedEmails(page, lease);
+		}
+
+		private ExchangeServicePool.Lease nextLease() {
+			if (firstLease != null) {
+				final var lease = firstLease;
+				firstLease = null;
+				return lease;
+			}
+			return exchangeServicePool.lease(credential);
+		}
+
+		private int countItems(final ExchangeService exchangeService) throws Exception {
+			final var view = new ItemView(1);
+			view.setPropertySet(propertySetIdOnly);
+			return throttled(exchangeService, () -> exchangeService.findItems(folderId, withinMaxSize(), view)).getTotalCount();
+		}
+
+		private static int lastPageOffset(final int count) {
+			return count == 0 ? -1 : (count - 1) / INBOX_PAGE_SIZE * INBOX_PAGE_SIZE;
+		}
+	}
+
+	StreamingSubscriptionConnection createStreamingConnection(final ExchangeService exchangeService, final int lifetimeMinutes) throws Exception {
+		return new StreamingSubscriptionConnection(exchangeService, lifetimeMinutes);
+	}
+
+	private boolean isWithinMaxSize(final EmailMessage message, final String emailAddress, final Consumer<String> setUnHealthyConsumer) throws ServiceLocalException {
+		if (message.getSize() > Long.parseLong(maxFileSize)) {
+			reportOversized(message, emailAddress, setUnHealthyConsumer);
+			return false;
+		}
+		return true;
+	}
+
+	private SearchFilter withinMaxSize() {
+		return new SearchFilter.IsLessThanOrEqualTo(ItemSchema.Size, Long.parseLong(maxFileSize));
+	}
+
+	/**
+	 * Reports the emails in the inbox that are larger than the max allowed size, and are therefore left out when listing the
+	 * inbox. Each email is only reported the first time it is found. Failing to list them does not stop the inbox from
+	 * being handled.
+	 */
+	private void reportOversizedEmails(final ExchangeService exchangeService, final FolderId folderId, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		final var view = new ItemView(OVERSIZED_PAGE_SIZE);
+		view.setPropertySet(propertySetIdAndSize);
+		final var filter = new SearchFilter.IsGreaterThan(ItemSchema.Size, Long.parseLong(maxFileSize));
+		final var oversizedIds = new HashSet<String>();
+		try {
+			FindItemsResults<Item> findResults;
+			do {
+				findResults = throttled(exchangeService, () -> exchangeService.findItems(folderId, filter, view));
+				for (final var item : findResults.getItems()) {
+					oversizedIds.add(item.getId().getUniqueId());
+					reportOversized(item, emailAddress, setUnHealthyConsumer);
+				}
+				view.setOffset(view.getOffset() + OVERSIZED_PAGE_SIZE);
+			} while (findResults.isMoreAvailable());
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not find emails larger than max allowed size", emailAddress, e);
+			return;
+		}
+		oversizedEmails.retainOnly(emailAddress, oversizedIds);
+		if (!oversizedIds.isEmpty()) {
+			LOG.info("[{}]: {} emails larger than max allowed size of {} bytes left in inbox", emailAddress, oversizedIds.size(), maxFileSize);
+		}
+	}
+
+	private void reportOversized(final Item item, final String emailAddress, final Consumer<String> setUnHealthyConsumer) throws ServiceLocalException {
+		if (oversizedEmails.markReported(emailAddress, item.getId().getUniqueId())) {
+			setUnHealthyConsumer.accept("[EWS] Email size exceeds maximum allowed size for address: " + emailAddress);
+			LOG.warn("Skipping email with size {} bytes, larger than max allowed size of {} bytes for address {}", item.getSize(), maxFileSize, emailAddress);
+		}
+	}
+
+	public void moveEmail(final CredentialsEntity credential, final ItemId emailId, final String emailAddress, final String folderName) throws Exception {
+
+		try (final var lease = exchangeServicePool.lease(credential)) {
+			final var exchangeService = lease.service();
+			final EwsFolderIdCache.FolderIdResolver resolver = () -> findFolder(exchangeService, emailAddress, folderName).getId();
+			final var destinationFolderId = folderIdCache.get(emailAddress, folderName, resolver);
+
+			final var email = throttled(exchangeService, () -> exchangeService.bindToItem(emailId, new PropertySet()));
+
+			if (email instanceof final EmailMessage message) {
+				message.setIsRead(true);
+				throttled(exchangeService, () -> {
+					message.update(ConflictResolutionMode.AutoResolve);
+					return message;
+				});
+				try {
+					throttled(exchangeService, () -> message.move(destinationFolderId));
+				} catch (final ServiceResponseException e) {
+					if (e.getErrorCode() != ServiceError.ErrorItemNotFound && !isDestinationNotFound(e.getErrorCode())) {
+						throw e;
+					}
+					// The cached folder may have been removed or recreated, resolve it again and retry once
+					LOG.info("[{}]: Destination folder '{}' not found, resolving it again", emailAddress, folderName);
+					folderIdCache.invalidate(emailAddress, folderName);
+					final var resolvedFolderId = folderIdCache.get(emailAddress, folderName, resolver);
+					throttled(exchangeService, () -> message.move(resolvedFolderId));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks the emails as read and moves them to the folder, using batched requests of at most {@value #BULK_CHUNK_SIZE}
+	 * emails each. Every chunk costs one request to bind the emails, one to mark them as read and one to move them,
+	 * instead of three requests per email. An email that can not be marked as read is not moved.
+	 *
+	 * @param  credential   the credential to use
+	 * @param  itemIds      the ids of the emails to move
+	 * @param  emailAddress the address of the mailbox
+	 * @param  folderName   the display name of the destination folder
+	 * @return              the new id of each moved email and the reason for each email that could not be moved, keyed by
+	 *                      the unique id of the email. Emails not among the failures have been moved.
+	 * @throws Exception    if the destination folder could not be resolved
+	 */
+	public MoveResult markAsReadAndMoveEmails(final CredentialsEntity credential, final List<ItemId> itemIds, final String emailAddress, final String folderName) throws Exception {
+		if (itemIds.isEmpty()) {
+			return new MoveResult(emptyMap(), emptyMap());
+		}
+
+		try (final var lease = exchangeServicePool.lease(credential)) {
+			final var exchangeService = lease.service();
+			final EwsFolderIdCache.FolderIdResolver resolver = () -> findFolder(exchangeService, emailAddress, folderName).getId();
+			final var destinationFolderId = folderIdCache.get(emailAddress, folderName, resolver);
+
+			final var movedIds = new HashMap<String, String>();
+			final var failedMoves = new HashMap<String, String>();
+			for (var from = 0; from < itemIds.size(); from += BULK_CHUNK_SIZE) {
+				final var chunk = itemIds.subList(from, min(from + BULK_CHUNK_SIZE, itemIds.size()));
+				try {
+					final var readIds = markAsRead(exchangeService, chunk, failedMoves);
+					final var notFound = moveItems(exchangeService, readIds, destinationFolderId, movedIds, failedMoves);
+					if (!notFound.isEmpty()) {
+						// The cached folder may have been removed or recreated, resolve it again and retry once
+						LOG.info("[{}]: Destination folder '{}' not found, resolving it again", emailAddress, folderName);
+						folderIdCache.invalidate(emailAddress, folderName);
+						moveItems(exchangeService, notFound, folderIdCache.get(emailAddress, folderName, resolver), movedIds, failedMoves);
+					}
 				} catch (final Exception e) {
-					setUnHealthyConsumer.accept("[EWS] Could not load message for address: " + emailAddress);
-					LOG.error(COULD_NOT_LOAD_MESSAGE, e);
+					LOG.error("[{}]: Could not move chunk of {} emails", emailAddress, chunk.size(), e);
+					// Emails of the chunk that were moved before the failure are not failures
+					chunk.stream()
+						.map(ItemId::getUniqueId)
+						.filter(uniqueId -> !movedIds.containsKey(uniqueId))
+						.forEach(uniqueId -> failedMoves.putIfAbsent(uniqueId, String.valueOf(e.getMessage())));
+				}
+			}
+			return new MoveResult(movedIds, failedMoves);
+		}
+	}
+
+	/**
+	 * Binds the emails and marks them as read.
+	 *
+	 * @return the ids of the emails marked as read, in the form returned by the update
+	 */
+	private Map<String, ItemId> markAsRead(final ExchangeService exchangeService, final List<ItemId> itemIds, final Map<String, String> failedMoves) throws Exception {
+		final var messages = new ArrayList<Item>();
+		final var originalIds = new ArrayList<String>();
+		final var bindResponses = throttled(exchangeService, () -> exchangeService.bindToItems(itemIds, propertySetIdOnly));
+		for (var i = 0; i < itemIds.size(); i++) {
+			final var response = bindResponses.getResponseAtIndex(i);
+			if (response.getResult() == ServiceResult.Error) {
+				failedMoves.put(itemIds.get(i).getUniqueId(), errorOf(response));
+			} else if (response.getItem() instanceof final EmailMessage message) {
+				message.setIsRead(true);
+				messages.add(message);
+				originalIds.add(itemIds.get(i).getUniqueId());
+			}
+		}
+		if (messages.isEmpty()) {
+			return emptyMap();
+		}
+
+		final var readIds = new LinkedHashMap<String, ItemId>();
+		final var updateResponses = throttled(exchangeService,
+			() -> exchangeService.updateItems(messages, null, ConflictResolutionMode.AutoResolve, MessageDisposition.SaveOnly, null));
+		for (var i = 0; i < messages.size(); i++) {
+			final var response = updateResponses.getResponseAtIndex(i);
+			if (response.getResult() == ServiceResult.Error) {
+				failedMoves.put(originalIds.get(i), errorOf(response));
+			} else {
+				readIds.put(originalIds.get(i), messages.get(i).getId());
+			}
+		}
+		return readIds;
+	}
+
+	/**
+	 * Moves the emails to the folder.
+	 *
+	 * @return the emails that were not moved because the destination folder could not be found
+	 */
+	private Map<String, ItemId> moveItems(final ExchangeService exchangeService, final Map<String, ItemId> itemIds, final FolderId destinationFolderId,
+		final Map<String, String> movedIds, final Map<String, String> failedMoves) throws Exception {
+		if (itemIds.isEmpty()) {
+			return emptyMap();
+		}
+
+		final var originalIds = new ArrayList<>(itemIds.keySet());
+		final var notFound = new LinkedHashMap<String, ItemId>();
+		final var responses = throttled(exchangeService, () -> exchangeService.moveItems(itemIds.values(), destinationFolderId));
+		for (var i = 0; i < originalIds.size(); i++) {
+			final var originalId = originalIds.get(i);
+			final var response = responses.getResponseAtIndex(i);
+			if (response.getResult() != ServiceResult.Error) {
+				failedMoves.remove(originalId);
+				if (response.getItem() != null) {
+					movedIds.put(originalId, response.getItem().getId().getUniqueId());
 				}
+			} else if (isDestinationNotFound(response.getErrorCode())) {
+				notFound.put(originalId, itemIds.get(originalId));
+				failedMoves.put(originalId, errorOf(response));
+			} else {
+				failedMoves.put(originalId, errorOf(response));
+			}
+		}
+		return notFound;
+	}
+
+	private static boolean isDestinationNotFound(final ServiceError error) {
+		return error == ServiceError.ErrorToFolderNotFound || error == ServiceError.ErrorFolderNotFound;
+	}
+
+	private static String errorOf(final ServiceResponse response) {
+		return response.getErrorCode() + ": " + response.getErrorMessage();
+	}
+
+	/**
+	 * Writes the content of a file attachment of an email to the stream. The attachment is found by its id and checked
+	 * against the name and size it had when the email was read. Exchange gives the attachments of an email new ids when the
+	 * email is moved, so when no attachment has the id, the only file attachment with the same name and size is used.
+	 *
+	 * @param  credential   the credential to use
+	 * @param  itemId       the unique id of the email
+	 * @param  attachmentId the id of the attachment when the email was read, or null if not known
+	 * @param  name         the name of the attachment
+	 * @param  size         the size of the attachment in bytes, or null if not known
+	 * @param  content      the stream to write the content to
+	 * @throws Exception    if the email or the attachment could not be found, or the content could not be loaded
+	 */
+	public void loadAttachment(final CredentialsEntity credential, final String itemId, final String attachmentId, final String name, final Long size, final OutputStream content)
+		throws Exception {
+
+		try (final var lease = exchangeServicePool.lease(credential)) {
+			final var exchangeService = lease.service();
+			final var item = throttled(exchangeService, () -> exchangeService.bindToItem(new ItemId(itemId), propertySetAttachments));
+			final var fileAttachment = findFileAttachment(item, attachmentId, name, size);
+			throttled(exchangeService, () -> {
+				fileAttachment.load(content);
+				return fileAttachment;
 			});
+		}
+	}
+
+	private static FileAttachment findFileAttachment(final Item item, final String attachmentId, final String name, final Long size) throws ServiceLocalException {
+		final var fileAttachments = item.getAttachments().getItems().stream()
+			.filter(FileAttachment.class::isInstance)
+			.map(FileAttachment.class::cast)
+			.toList();
 
-			view.setOffset(view.getOffset() + pageSize);
+		final var byId = fileAttachments.stream()
+			.filter(fileAttachment -> attachmentId != null && attachmentId.equals(fileAttachment.getId()))
+			.findFirst();
+		if (byId.isPresent()) {
+			if (!hasNameAndSize(byId.get(), name, size)) {
+				throw new IllegalStateException("File attachment with id '%s' is not named '%s' with size %s".formatted(attachmentId, name, size));
+			}
+			return byId.get();
+		}
 
-		} while (findResults.isMoreAvailable());
-		return emails;
+		final var byNameAndSize = fileAttachments.stream()
+			.filter(fileAttachment -> hasNameAndSize(fileAttachment, name, size))
+			.toList();
+		if (byNameAndSize.size() != 1) {
+			throw new IllegalStateException("Email has %d file attachments named '%s' with size %s, expected one".formatted(byNameAndSize.size(), name, size));
+		}
+		return byNameAndSize.getFirst();
 	}
 
-	public void moveEmail(final ItemId emailId, final String emailAddress, final String folderName) throws Exception {
+	private static boolean hasNameAndSize(final FileAttachment fileAttachment, final String name, final Long size) {
+		return Objects.equals(fileAttachment.getName(), name) && (size == null || sizeOf(fileAttachment) == size);
+	}
 
-		final Folder destinationFolder;
+	/**
+	 * Finds emails in the folder by their internet message id. Used for emails that were moved to the folder without
+	 * Exchange returning their new id.
+	 *
+	 * @param  credential         the credential to use
+	 * @param  emailAddress       the address of the mailbox
+	 * @param  folderName         the display name of the folder
+	 * @param  internetMessageIds the internet message id of each email, keyed by the id the email had before it was moved
+	 * @return                    the unique id of each email found in the folder, keyed like the internet message ids
+	 * @throws Exception          if the folder could not be resolved or searched
+	 */
+	public Map<String, String> findItemIds(final CredentialsEntity credential, final String emailAddress, final String folderName, final Map<String, String> internetMessageIds)
+		throws Exception {
 
-		destinationFolder = findFolder(emailAddress, folderName);
+		if (internetMessageIds.isEmpty()) {
+			return emptyMap();
+		}
 
-		final var email = exchangeService.bindToItem(emailId, new PropertySet());
+		try (final var lease = exchangeServicePool.lease(credential)) {
+			final var exchangeService = lease.service();
+			final EwsFolderIdCache.FolderIdResolver resolver = () -> findFolder(exchangeService, emailAddress, folderName).getId();
+			final var folderId = folderIdCache.get(emailAddress, folderName, resolver);
 
-		if (email instanceof final EmailMessage message) {
-			message.setIsRead(true);
-			message.update(ConflictResolutionMode.AutoResolve);
-			message.move(destinationFolder.getId());
+			final var itemIds = new HashMap<String, String>();
+			for (final var entry : internetMessageIds.entrySet()) {
+				final var view = new ItemView(1);
+				view.setPropertySet(propertySetIdOnly);
+				final var filter = new SearchFilter.IsEqualTo(EmailMessageSchema.InternetMessageId, entry.getValue());
+				final var findResults = throttled(exchangeService, () -> exchangeService.findItems(folderId, filter, view));
+				for (final var item : findResults.getItems()) {
+					itemIds.put(entry.getKey(), item.getId().getUniqueId());
+				}
+			}
+			return itemIds;
 		}
 	}
 
-	public void deleteEmail(final ItemId emailId) throws Exception {
-		final var email = exchangeService.bindToItem(emailId, new PropertySet());
-		if (email instanceof final EmailMessage message) {
-			message.delete(HardDelete);
+	public void deleteEmail(final CredentialsEntity credential, final ItemId emailId) throws Exception {
+		try (final var lease = exchangeServicePool.lease(credential)) {
+			final var exchangeService = lease.service();
+			final var email = throttled(exchangeService, () -> exchangeService.bindToItem(emailId, new PropertySet()));
+			if (email instanceof final EmailMessage message) {
+				message.delete(HardDelete);
+			}
 		}
 	}
 
-	private Folder findFolder(final String emailAddress, final String folderName) throws Exception {
+	private Folder findFolder(final ExchangeService exchangeService, final String emailAddress, final String folderName) throws Exception {
 
 		final var userMailbox = new Mailbox(emailAddress);
 		final var folderId = new FolderId(WellKnownFolderName.MsgFolderRoot, userMailbox);
 
 		// Max number of folders to retrieve
+		final var folderView = new FolderView(10);
 		folderView.setPropertySet(new PropertySet(BasePropertySet.IdOnly, FolderSchema.DisplayName));
 
 		final var searchFilter = new SearchFilter.IsEqualTo(FolderSchema.DisplayName, folderName);
-		final var findFoldersResults = exchangeService.findFolders(folderId, searchFilter, folderView);
+		final var findFoldersResults = throttled(exchangeService, () -> exchangeService.findFolders(folderId, searchFilter, folderView));
 
 		if ((findFoldersResults != null) && (findFoldersResults.getFolders().size() > 1)) {
 			throw new IllegalArgumentException("Could not determine a unique folder with the name: " + folderName);
@@ -145,44 +749,247 @@ public class EWSIntegration {
 		if ((findFoldersResults == null) || (findFoldersResults.getFolders().isEmpty())) {
 			final var newFolder = new Folder(exchangeService);
 			newFolder.setDisplayName(folderName);
-			exchangeService.createFolder(newFolder, folderId);
+			throttled(exchangeService, () -> {
+				exchangeService.createFolder(newFolder, folderId);
+				return newFolder;
+			});
 			return newFolder;
 		}
 
 		return findFoldersResults.getFolders().getFirst();
 	}
 
-	public EmailMessage loadMessage(final EmailMessage emailMessage, final Consumer<String> setUnHealthyConsumer) {
+	/**
+	 * Loads a page of messages with as few GetItem requests as possible. By default one request per body type is made for
+	 * the whole page. With single body request enabled, the HTML body and the plain-text body property are fetched in one
+	 * request, and the plain-text body is derived from the HTML body for messages where the server does not return it.
+	 * Messages that Exchange could not load are left out of the result. The messages are loaded with the ExchangeService
+	 * they are bound to, whose lease must still be open.
+	 *
+	 * @param  emailMessages        the messages to load, at most one page as returned by findItems
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the loaded messages together with their text and HTML body
+	 */
+	public List<LoadedEmailMessage> loadMessages(final List<EmailMessage> emailMessages, final Consumer<String> setUnHealthyConsumer) {
+		if (emailMessages.isEmpty()) {
+			return emptyList();
+		}
 
 		try {
-			emailMessage.load(); // Load the full message data
-			exchangeService.loadPropertiesForItems(List.of(emailMessage), propertySetTextBody);
-			return emailMessage;
+			final var service = emailMessages.getFirst().getService();
+			return singleBodyRequest
+				? loadWithSingleBodyRequest(service, emailMessages, setUnHealthyConsumer)
+				: loadWithBodyRequestPerType(service, emailMessages, setUnHealthyConsumer);
 		} catch (final Exception e) {
 			setUnHealthyConsumer.accept("[EWS] " + COULD_NOT_LOAD_MESSAGE);
-			LOG.error(COULD_NOT_LOAD_MESSAGE, e);
+			LOG.error("Could not load page of {} messages", emailMessages.size(), e);
 		}
-		return null;
+		return emptyList();
 	}
 
-	public EmailMessage loadHTMLMessage(final EmailMessage emailMessage, final Consumer<String> setUnHealthyConsumer) {
+	private List<LoadedEmailMessage> loadWithSingleBodyRequest(final ExchangeService service, final List<EmailMessage> emailMessages, final Consumer<String> setUnHealthyConsumer) throws Exception {
+		final var result = new ArrayList<LoadedEmailMessage>();
+		final var responses = throttled(service, () -> service.loadPropertiesForItems(new ArrayList<Item>(emailMessages), propertySetHTMLAndTextBody));
+		for (var i = 0; i < emailMessages.size(); i++) {
+			final var emailMessage = emailMessages.get(i);
+			if (isLoaded(responses.getResponseAtIndex(i), emailMessage, setUnHealthyConsumer)) {
+				final var htmlBody = bodyOf(emailMessage);
+				final var textBody = textBodyPropertyOf(emailMessage)
+					.orElseGet(() -> HtmlToPlainText.convert(htmlBody));
+				result.add(new LoadedEmailMessage(emailMessage, textBody, htmlBody));
+			}
+		}
+		return result;
+	}
+
+	private List<LoadedEmailMessage> loadWithBodyRequestPerType(final ExchangeService service, final List<EmailMessage> emailMessages, final Consumer<String> setUnHealthyConsumer) throws Exception {
+		final var htmlLoaded = new ArrayList<EmailMessage>();
+		final var htmlBodies = new ArrayList<String>();
+		final var htmlResponses = throttled(service, () -> service.loadPropertiesForItems(new ArrayList<Item>(emailMessages), propertySetHTMLBody));
+		for (var i = 0; i < emailMessages.size(); i++) {
+			final var emailMessage = emailMessages.get(i);
+			if (isLoaded(htmlResponses.getResponseAtIndex(i), emailMessage, setUnHealthyConsumer)) {
+				htmlLoaded.add(emailMessage);
+				htmlBodies.add(bodyOf(emailMessage));
+			}
+		}
+		if (htmlLoaded.isEmpty()) {
+			return emptyList();
+		}
+
+		final var result = new ArrayList<LoadedEmailMessage>();
+		final var textResponses = throttled(service, () -> service.loadPropertiesForItems(new ArrayList<Item>(htmlLoaded), propertySetTextBody));
+		for (var i = 0; i < htmlLoaded.size(); i++) {
+			final var emailMessage = htmlLoaded.get(i);
+			if (isLoaded(textResponses.getResponseAtIndex(i), emailMessage, setUnHealthyConsumer)) {
+				result.add(new LoadedEmailMessage(emailMessage, bodyOf(emailMessage), htmlBodies.get(i)));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the content of the file attachments of a page of messages with batched GetAttachment requests, instead of one
+	 * request per attachment when the messages are mapped. Attachments larger than the max attachment size are left out.
+	 * Since the loaded content is held in memory until the page has been handled, at most
+	 * {@value #ATTACHMENT_PAGE_BYTES} bytes are loaded per page. Attachments beyond that, and attachments that Exchange
+	 * could not return, are kept without content and are streamed one by one when the message is mapped. Does nothing
+	 * unless batch loading of attachments is enabled.
+	 *
+	 * @param  loadedMessages the loaded messages
+	 * @return                the messages together with their file attachments
+	 */
+	public List<LoadedEmailMessage> loadAttachments(final List<LoadedEmailMessage> loadedMessages) {
+		if (!batchLoadAttachments || loadedMessages.isEmpty()) {
+			return loadedMessages;
+		}
+
+		final var result = new ArrayList<LoadedEmailMessage>();
+		final var toLoad = new ArrayList<FileAttachment>();
+		var pageBytes = 0L;
+		try {
+			for (final var loaded : loadedMessages) {
+				final var attachments = fileAttachmentsWithinMaxSize(loaded.message());
+				for (final var attachment : attachments) {
+					if (pageBytes + sizeOf(attachment) <= ATTACHMENT_PAGE_BYTES) {
+						pageBytes += sizeOf(attachment);
+						toLoad.add(attachment);
+					}
+				}
+				result.add(loaded.withAttachments(attachments));
+			}
+		} catch (final Exception e) {
+			LOG.warn("Could not list attachments of {} messages, loading them one by one", loadedMessages.size(), e);
+			return loadedMessages;
+		}
 
 		try {
-			emailMessage.load(); // Load the full message data
-			exchangeService.loadPropertiesForItems(List.of(emailMessage), propertySetHTMLBody);
-			return emailMessage;
+			loadInBatches(loadedMessages.getFirst().message().getService(), toLoad);
 		} catch (final Exception e) {
+			LOG.warn("Could not load {} attachments in batches, loading them one by one", toLoad.size(), e);
+		}
+		return result;
+	}
+
+	private List<FileAttachment> fileAttachmentsWithinMaxSize(final EmailMessage emailMessage) throws ServiceLocalException {
+		final var attachments = new ArrayList<FileAttachment>();
+		if (emailMessage.getAttachments() == null) {
+			return attachments;
+		}
+		for (final var attachment : emailMessage.getAttachments().getItems()) {
+			if (attachment instanceof final FileAttachment fileAttachment) {
+				if (sizeOf(fileAttachment) > maxAttachmentSize) {
+					LOG.warn("Skipping attachment '{}' of message with id '{}', larger than the max allowed size of {} bytes", fileAttachment.getName(), emailMessage.getId(), maxAttachmentSize);
+				} else {
+					attachments.add(fileAttachment);
+				}
+			}
+		}
+		return attachments;
+	}
+
+	/**
+	 * Loads the content of the attachments into the attachment objects, with batches bounded by number of attachments and
+	 * total size.
+	 */
+	private void loadInBatches(final ExchangeService service, final List<FileAttachment> attachments) throws Exception {
+		var from = 0;
+		while (from < attachments.size()) {
+			var to = from + 1;
+			var batchBytes = sizeOf(attachments.get(from));
+			while (to < attachments.size() && to - from < ATTACHMENT_BATCH_SIZE && batchBytes + sizeOf(attachments.get(to)) <= ATTACHMENT_BATCH_BYTES) {
+				batchBytes += sizeOf(attachments.get(to));
+				to++;
+			}
+
+			final var batch = attachments.subList(from, to);
+			final var responses = throttled(service, () -> service.getAttachments(batch.toArray(new Attachment[0]), null, null));
+			for (var i = 0; i < batch.size(); i++) {
+				final var response = responses.getResponseAtIndex(i);
+				if (response.getResult() == ServiceResult.Error) {
+					LOG.warn("Could not load attachment '{}' in batch: {}", batch.get(i).getName(), errorOf(response));
+				}
+			}
+			from = to;
+		}
+	}
+
+	/**
+	 * Makes the call when the throttling governor allows it, paced per Exchange endpoint. A call that Exchange turns down
+	 * because it is busy is made again after the back-off Exchange asks for.
+	 */
+	private <T> T throttled(final ExchangeService exchangeService, final ThrottlingGovernor.ThrottledCall<T> call) throws Exception {
+		return throttlingGovernor.execute(throttlingKey(exchangeService), call, EWSIntegration::backOffHint);
+	}
+
+	static String throttlingKey(final ExchangeService exchangeService) {
+		return THROTTLING_KEY_PREFIX + Optional.ofNullable(exchangeService).map(ExchangeService::getUrl).map(URI::getHost).orElse("default");
+	}
+
+	/**
+	 * Returns the back-off to use if the exception means that Exchange throttled the call, that is ErrorServerBusy with the
+	 * back-off in its error details, or HTTP 429 or 503. Zero means that Exchange gave no back-off.
+	 */
+	static Optional<Duration> backOffHint(final Exception exception) {
+		if (exception instanceof final ServiceResponseException responseException && responseException.getErrorCode() == ServiceError.ErrorServerBusy) {
+			return Optional.of(Optional.ofNullable(responseException.getResponse())
+				.map(ServiceResponse::getErrorDetails)
+				.map(details -> details.get(BACK_OFF_MILLISECONDS))
+				.map(EWSIntegration::parseBackOff)
+				.orElse(Duration.ZERO));
+		}
+		for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+			if (cause instanceof final HttpErrorException httpErrorException && THROTTLED_STATUS_CODES.contains(httpErrorException.getHttpErrorCode())) {
+				return Optional.of(Duration.ZERO);
+			}
+		}
+		return Optional.empty();
+	}
+
+	private static Duration parseBackOff(final String backOffMilliseconds) {
+		try {
+			return Duration.ofMillis(Long.parseLong(backOffMilliseconds.trim()));
+		} catch (final NumberFormatException e) {
+			return Duration.ZERO;
+		}
+	}
+
+	private static long sizeOf(final FileAttachment fileAttachment) {
+		try {
+			return fileAttachment.getSize();
+		} catch (final ServiceVersionException e) {
+			// The size is not returned by Exchange versions before 2010
+			return 0;
+		}
+	}
+
+	private String bodyOf(final EmailMessage emailMessage) throws ServiceLocalException {
+		return Optional.ofNullable(emailMessage.getBody()).map(Objects::toString).orElse(null);
+	}
+
+	private Optional<String> textBodyPropertyOf(final EmailMessage emailMessage) throws Exception {
+		final var value = new OutParam<String>();
+		if (emailMessage.getExtendedProperties().tryGetValue(String.class, PID_TAG_BODY, value)) {
+			return Optional.ofNullable((String) value.getParam());
+		}
+		LOG.debug("Plain-text body not returned for message with id '{}', deriving it from the HTML body", emailMessage.getId());
+		return Optional.empty();
+	}
+
+	private boolean isLoaded(final ServiceResponse response, final EmailMessage emailMessage, final Consumer<String> setUnHealthyConsumer) throws ServiceLocalException {
+		if (response.getResult() == ServiceResult.Error) {
 			setUnHealthyConsumer.accept("[EWS] " + COULD_NOT_LOAD_MESSAGE);
-			LOG.error(COULD_NOT_LOAD_MESSAGE, e);
+			LOG.error("{} with id '{}': {} {}", COULD_NOT_LOAD_MESSAGE, emailMessage.getId(), response.getErrorCode(), response.getErrorMessage());
+			return false;
 		}
-		return null;
+		return true;
 	}
 
 	public Map<String, String> extractValuesEmailMessage(final EmailMessage emailMessage) {
 		try {
 
 			emailMessage.load();
-			exchangeService.loadPropertiesForItems(List.of(emailMessage), propertySetTextBody);
+			emailMessage.getService().loadPropertiesForItems(List.of(emailMessage), propertySetTextBody);
 
 			return Arrays.stream(emailMessage.getBody().toString().split("\n"))
 				.map(line -> line.split("=", 2))
@@ -225,4 +1032,75 @@ public class EWSIntegration {
 		return validationMap;
 	}
 
+	/**
+	 * A loaded message together with its plain-text and HTML body.
+	 *
+	 * @param message     the loaded message
+	 * @param textBody    the plain-text body of the message
+	 * @param htmlBody    the HTML body of the message
+	 * @param attachments the file attachments of the message, with content loaded in batches, or null if the attachments
+	 *                    are loaded when the message is mapped
+	 */
+	public record LoadedEmailMessage(EmailMessage message, String textBody, String htmlBody, List<FileAttachment> attachments) {
+
+		public LoadedEmailMessage(final EmailMessage message, final String textBody, final String htmlBody) {
+			this(message, textBody, htmlBody, null);
+		}
+
+		LoadedEmailMessage withAttachments(final List<FileAttachment> attachments) {
+			return new LoadedEmailMessage(message, textBody, htmlBody, attachments);
+		}
+	}
+
+	/**
+	 * The emails created or changed in an inbox, together with the sync state to use on the next run. The emails are bound
+	 * to a leased ExchangeService, which loads them when they are handled, and the lease is ended when the sync is closed.
+	 *
+	 * @param emails    the created or changed emails
+	 * @param syncState the sync state covering the returned emails
+	 * @param lease     the lease on the service the emails are bound to, or null if there is none
+	 */
+	public record InboxSync(List<EmailMessage> emails, String syncState, ExchangeServicePool.Lease lease) implements AutoCloseable {
+
+		public InboxSync(final List<EmailMessage> emails, final String syncState) {
+			this(emails, syncState, null);
+		}
+
+		@Override
+		public void close() {
+			if (lease != null) {
+				lease.close();
+			}
+		}
+	}
+
+	/**
+	 * Emails bound to a leased ExchangeService, which loads them when they are handled. The lease is ended when the emails
+	 * are closed.
+	 *
+	 * @param emails the emails
+	 * @param lease  the lease on the service the emails are bound to, or null if there is none
+	 */
+	public record LeasedEmails(List<EmailMessage> emails, ExchangeServicePool.Lease lease) implements AutoCloseable {
+
+		public static LeasedEmails empty() {
+			return new LeasedEmails(emptyList(), null);
+		}
+
+		@Override
+		public void close() {
+			if (lease != null) {
+				lease.close();
+			}
+		}
+	}
+
+	/**
+	 * The outcome of moving emails, keyed by the original id of each email.
+	 *
+	 * @param movedIds the id of each moved email in the destination folder, when returned by Exchange
+	 * @param failures the reason for each email that could not be moved
+	 */
+	public record MoveResult(Map<String, String> movedIds, Map<String, String> failures) {
+	}
 }
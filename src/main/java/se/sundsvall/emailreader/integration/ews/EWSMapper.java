@@ -1,8 +1,14 @@
 package se.sundsvall.emailreader.integration.ews;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -11,19 +17,25 @@ import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceVersionException;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.core.service.item.Item;
 import microsoft.exchange.webservices.data.property.complex.EmailAddress;
 import microsoft.exchange.webservices.data.property.complex.FileAttachment;
 import microsoft.exchange.webservices.data.property.complex.InternetMessageHeader;
 import microsoft.exchange.webservices.data.property.complex.InternetMessageHeaderCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import se.sundsvall.emailreader.api.model.Header;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailHeaderEntity;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LoadedEmailMessage;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
 import se.sundsvall.emailreader.utility.BlobBuilder;
+import se.sundsvall.emailreader.utility.TempFileInputStream;
 
 import static java.util.Collections.emptyList;
 import static se.sundsvall.emailreader.api.model.Header.AUTO_SUBMITTED;
@@ -38,10 +50,17 @@ import static se.sundsvall.emailreader.utility.ServiceUtil.detectMimeType;
 public final class EWSMapper {
 
 	private static final Logger LOG = LoggerFactory.getLogger(EWSMapper.class);
+	private static final String TEMP_FILE_PREFIX = "ews-attachment-";
+	// Number of bytes at the start of an attachment used to detect its MIME type
+	private static final int MIME_DETECTION_BYTES = 8192;
 	private final BlobBuilder blobBuilder;
+	private final ThrottlingGovernor throttlingGovernor;
+	@Value("${integration.ews.attachments.max-size:10485760}") // Default to 10 MB
+	private long maxAttachmentSize;
 
-	public EWSMapper(final BlobBuilder blobBuilder) {
+	public EWSMapper(final BlobBuilder blobBuilder, final ThrottlingGovernor throttlingGovernor) {
 		this.blobBuilder = blobBuilder;
+		this.throttlingGovernor = throttlingGovernor;
 	}
 
 	List<EmailHeaderEntity> toHeaders(final EmailMessage emailMessage) {
@@ -89,12 +108,31 @@ public final class EWSMapper {
 			.orElse(emptyList());
 	}
 
-	public EmailEntity toEmail(final EmailMessage emailMessage, final String municipalityId, final String namespace, final Map<String, String> metadata) throws ServiceLocalException {
+	public EmailEntity toEmail(final LoadedEmailMessage loadedMessage, final String municipalityId, final String namespace, final Map<String, String> metadata) throws ServiceLocalException {
+		return toEmail(loadedMessage, municipalityId, namespace, metadata, null);
+	}
+
+	/**
+	 * Maps a loaded message to an email entity.
+	 *
+	 * @param  loadedMessage           the loaded message
+	 * @param  municipalityId          the municipality id of the email
+	 * @param  namespace               the namespace of the email
+	 * @param  metadata                the metadata of the email
+	 * @param  lazyAttachmentsSourceId the id of the credential to fetch attachment content with on first download, or
+	 *                                 null to load the attachment content right away
+	 * @return                         the email entity, or null if there is no message
+	 * @throws ServiceLocalException   if a property of the message is not loaded
+	 */
+	public EmailEntity toEmail(final LoadedEmailMessage loadedMessage, final String municipalityId, final String namespace, final Map<String, String> metadata,
+		final String lazyAttachmentsSourceId) throws ServiceLocalException {
 
-		if (emailMessage == null) {
+		if (loadedMessage == null || loadedMessage.message() == null) {
 			return null;
 		}
 
+		final var emailMessage = loadedMessage.message();
+
 		final var recipients = emailMessage.getToRecipients().getItems().stream()
 			.map(EmailAddress::getAddress)
 			.toList();
@@ -105,12 +143,18 @@ public final class EWSMapper {
 				.toList())
 			.orElse(emptyList());
 
-		final var attachments = Optional.ofNullable(emailMessage.getAttachments()).stream()
+		final var fileAttachments = Optional.ofNullable(emailMessage.getAttachments()).stream()
 			.flatMap(emailAttachments -> emailAttachments.getItems().stream())
 			.filter(FileAttachment.class::isInstance)
 			.map(FileAttachment.class::cast)
-			.map(this::toAttachment)
 			.toList();
+		final var attachments = lazyAttachmentsSourceId != null
+			? fileAttachments.stream()
+				.map(fileAttachment -> toAttachmentReference(fileAttachment, lazyAttachmentsSourceId, emailMessage.getId().getUniqueId()))
+				.toList()
+			: Optional.ofNullable(loadedMessage.attachments())
+				.map(loaded -> loaded.stream().map(this::toBatchLoadedAttachment).toList())
+				.orElseGet(() -> fileAttachments.stream().filter(this::isWithinMaxSize).map(this::toAttachment).toList());
 
 		final var receivedAt = Optional.ofNullable(emailMessage.getDateTimeReceived())
 			.map(Date::toInstant)
@@ -133,27 +177,145 @@ public final class EWSMapper {
 			.build();
 
 		// Normalize Windows CRLF and collapse excessive blank lines to avoid double linebreaks from Windows senders
-		final var normalizedBody = Optional.ofNullable(emailMessage.getBody())
-			.map(body -> body.toString().replace("\r\n\r\n", "\n"))
+		final var normalizedBody = Optional.ofNullable(loadedMessage.textBody())
+			.map(body -> body.replace("\r\n\r\n", "\n"))
 			.orElse(null);
 
 		emailEntity.setMessage(normalizedBody);
+		emailEntity.setHtmlMessage(loadedMessage.htmlBody());
 
 		return emailEntity;
 	}
 
+	/**
+	 * Maps a file attachment without holding its content in memory. The content is written to a temporary file, the MIME
+	 * type is detected from the start of the file, and the blob opens and reads the file when the email is persisted. The
+	 * file is deleted once it has been read, or when the blob is freed after the email has been saved.
+	 *
+	 * @param  fileAttachment the attachment to map
+	 * @return                the attachment entity, or null if the attachment could not be loaded
+	 */
 	AttachmentEntity toAttachment(final FileAttachment fileAttachment) {
 
+		Path file = null;
 		try {
-			fileAttachment.load();
+			file = Files.createTempFile(TEMP_FILE_PREFIX, null);
+			try (final var content = new BufferedOutputStream(Files.newOutputStream(file))) {
+				load(fileAttachment, content);
+			}
+			final var contentType = detectMimeType(fileAttachment.getName(), readStart(file));
+			final var size = Files.size(file);
 			return AttachmentEntity.builder()
 				.withName(fileAttachment.getName())
-				.withContent(blobBuilder.createBlob(fileAttachment.getContent()))
-				.withContentType(detectMimeType(fileAttachment.getName(), fileAttachment.getContent()))
+				.withContent(blobBuilder.createBlob(new TempFileInputStream(file, size), size))
+				.withContentType(contentType)
+				.withSize(size)
 				.build();
 		} catch (final Exception e) {
 			LOG.warn("Could not load attachment", e);
+			deleteQuietly(file);
+			return null;
+		}
+	}
+
+	/**
+	 * Maps a file attachment whose content was loaded in a batch. The content is written to a temporary file, in the same
+	 * way as for attachments loaded one by one, so that the blob does not hold another copy of it. Attachments that were
+	 * not loaded in the batch are loaded one by one.
+	 *
+	 * @param  fileAttachment the attachment to map
+	 * @return                the attachment entity, or null if the attachment could not be loaded
+	 */
+	AttachmentEntity toBatchLoadedAttachment(final FileAttachment fileAttachment) {
+		final var content = fileAttachment.getContent();
+		if (content == null) {
+			return toAttachment(fileAttachment);
+		}
+		Path file = null;
+		try {
+			file = Files.write(Files.createTempFile(TEMP_FILE_PREFIX, null), content);
+			final var size = (long) content.length;
+			return AttachmentEntity.builder()
+				.withName(fileAttachment.getName())
+				.withContent(blobBuilder.createBlob(new TempFileInputStream(file, size), size))
+				.withContentType(detectMimeType(fileAttachment.getName(), Arrays.copyOf(content, Math.min(content.length, MIME_DETECTION_BYTES))))
+				.withSize(size)
+				.build();
+		} catch (final Exception e) {
+			LOG.warn("Could not map attachment", e);
+			deleteQuietly(file);
+			return null;
+		}
+	}
+
+	/**
+	 * Maps a file attachment without its content. The content is fetched from the mailbox on first download, using the
+	 * source of the attachment.
+	 *
+	 * @param  fileAttachment the attachment to map
+	 * @param  credentialsId  the id of the credential to fetch the content with
+	 * @param  itemId         the id of the email in the mailbox
+	 * @return                the attachment entity
+	 */
+	AttachmentEntity toAttachmentReference(final FileAttachment fileAttachment, final String credentialsId, final String itemId) {
+		final var contentType = Optional.ofNullable(fileAttachment.getContentType())
+			.filter(type -> !type.isBlank())
+			.orElseGet(() -> detectMimeType(fileAttachment.getName(), new byte[0]));
+		return AttachmentEntity.builder()
+			.withName(fileAttachment.getName())
+			.withContentType(contentType)
+			.withSize(sizeOf(fileAttachment))
+			.withSourceCredentialsId(credentialsId)
+			.withSourceItemId(itemId)
+			.withSourceAttachmentId(fileAttachment.getId())
+			.build();
+	}
+
+	/**
+	 * Loads the content of the attachment, paced by the throttling governor like the other calls to the Exchange endpoint
+	 * of the mailbox.
+	 */
+	private void load(final FileAttachment fileAttachment, final OutputStream content) throws Exception {
+		final var exchangeService = Optional.ofNullable(fileAttachment.getOwner())
+			.map(Item::getService)
+			.orElse(null);
+		throttlingGovernor.execute(EWSIntegration.throttlingKey(exchangeService), () -> {
+			fileAttachment.load(content);
+			return fileAttachment;
+		}, EWSIntegration::backOffHint);
+	}
+
+	private boolean isWithinMaxSize(final FileAttachment fileAttachment) {
+		final var size = sizeOf(fileAttachment);
+		if (size != null && size > maxAttachmentSize) {
+			LOG.warn("Skipping attachment '{}', larger than the max allowed size of {} bytes", fileAttachment.getName(), maxAttachmentSize);
+			return false;
+		}
+		return true;
+	}
+
+	private static Long sizeOf(final FileAttachment fileAttachment) {
+		try {
+			return (long) fileAttachment.getSize();
+		} catch (final ServiceVersionException e) {
 			return null;
 		}
 	}
+
+	private static byte[] readStart(final Path file) throws IOException {
+		try (final var content = Files.newInputStream(file)) {
+			return content.readNBytes(MIME_DETECTION_BYTES);
+		}
+	}
+
+	private static void deleteQuietly(final Path file) {
+		if (file == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(file);
+		} catch (final IOException e) {
+			LOG.warn("Could not delete temporary attachment file {}", file, e);
+		}
+	}
 }
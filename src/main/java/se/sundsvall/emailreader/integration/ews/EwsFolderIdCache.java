@@ -0,0 +1,153 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.sundsvall.emailreader.integration.db.EwsFolderIdRepository;
+import se.sundsvall.emailreader.integration.db.entity.EwsFolderIdEntity;
+
+import static java.time.ZoneOffset.UTC;
+import static java.util.Locale.ROOT;
+
+/**
+ * Cache of resolved folder ids, keyed by mailbox address and folder display name.
+ * <p>
+ * Resolved ids are kept in memory and stored in the database, so that they survive restarts. Entries older than the
+ * time to live are resolved again, and entries for folders that turn out to no longer exist are removed with
+ * {@link #invalidate(String, String)}. Failing to read or write the database only costs an extra lookup in Exchange.
+ */
+@Component
+public class EwsFolderIdCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EwsFolderIdCache.class);
+	private static final String METRIC_PREFIX = "emailreader.ews.folder.cache";
+
+	private final Map<FolderKey, CachedFolderId> folderIds = new ConcurrentHashMap<>();
+	private final EwsFolderIdRepository ewsFolderIdRepository;
+	private final Duration ttl;
+	private final Clock clock;
+	private final Counter hitCounter;
+	private final Counter missCounter;
+
+	public EwsFolderIdCache(final EwsFolderIdRepository ewsFolderIdRepository, final MeterRegistry meterRegistry,
+		@Value("${integration.ews.folder-cache.ttl:PT24H}") final Duration ttl) {
+		this(ewsFolderIdRepository, meterRegistry, ttl, Clock.systemUTC());
+	}
+
+	EwsFolderIdCache(final EwsFolderIdRepository ewsFolderIdRepository, final MeterRegistry meterRegistry, final Duration ttl, final Clock clock) {
+		this.ewsFolderIdRepository = ewsFolderIdRepository;
+		this.ttl = ttl;
+		this.clock = clock;
+		this.hitCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").register(meterRegistry);
+		this.missCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".size", folderIds, Map::size).register(meterRegistry);
+	}
+
+	/**
+	 * Returns the id of the folder, using the resolver if no fresh id is cached.
+	 *
+	 * @param  emailAddress the address of the mailbox
+	 * @param  folderName   the display name of the folder
+	 * @param  resolver     resolves the folder id from Exchange
+	 * @return              the folder id
+	 * @throws Exception    if the resolver fails
+	 */
+	public FolderId get(final String emailAddress, final String folderName, final FolderIdResolver resolver) throws Exception {
+		final var key = new FolderKey(emailAddress.toLowerCase(ROOT), folderName);
+		final var now = clock.instant();
+
+		final var cached = Optional.ofNullable(folderIds.get(key))
+			.filter(folderId -> isFresh(folderId, now))
+			.or(() -> findPersisted(key, now));
+		if (cached.isPresent()) {
+			hitCounter.increment();
+			folderIds.put(key, cached.get());
+			return new FolderId(cached.get().uniqueId());
+		}
+
+		missCounter.increment();
+		final var folderId = resolver.resolve();
+		if (folderId != null && folderId.getUniqueId() != null) {
+			final var resolved = new CachedFolderId(folderId.getUniqueId(), now);
+			folderIds.put(key, resolved);
+			persist(key, resolved);
+		}
+		return folderId;
+	}
+
+	/**
+	 * Removes the cached id of the folder, for example because Exchange no longer finds it.
+	 *
+	 * @param emailAddress the address of the mailbox
+	 * @param folderName   the display name of the folder
+	 */
+	public void invalidate(final String emailAddress, final String folderName) {
+		final var key = new FolderKey(emailAddress.toLowerCase(ROOT), folderName);
+		folderIds.remove(key);
+		try {
+			ewsFolderIdRepository.deleteByEmailAddressAndFolderName(key.emailAddress(), key.folderName());
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not remove stored id of folder '{}'", key.emailAddress(), folderName, e);
+		}
+	}
+
+	int size() {
+		return folderIds.size();
+	}
+
+	private boolean isFresh(final CachedFolderId folderId, final Instant now) {
+		return folderId.resolvedAt().plus(ttl).isAfter(now);
+	}
+
+	private Optional<CachedFolderId> findPersisted(final FolderKey key, final Instant now) {
+		try {
+			return ewsFolderIdRepository.findByEmailAddressAndFolderName(key.emailAddress(), key.folderName())
+				.map(entity -> new CachedFolderId(entity.getFolderId(), entity.getResolvedAt().toInstant()))
+				.filter(folderId -> isFresh(folderId, now));
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not read stored id of folder '{}'", key.emailAddress(), key.folderName(), e);
+			return Optional.empty();
+		}
+	}
+
+	private void persist(final FolderKey key, final CachedFolderId folderId) {
+		try {
+			final var entity = ewsFolderIdRepository.findByEmailAddressAndFolderName(key.emailAddress(), key.folderName())
+				.orElseGet(() -> EwsFolderIdEntity.builder()
+					.withEmailAddress(key.emailAddress())
+					.withFolderName(key.folderName())
+					.build());
+			entity.setFolderId(folderId.uniqueId());
+			entity.setResolvedAt(folderId.resolvedAt().atOffset(UTC));
+			ewsFolderIdRepository.save(entity);
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not store id of folder '{}'", key.emailAddress(), key.folderName(), e);
+		}
+	}
+
+	/**
+	 * Resolves a folder id from Exchange.
+	 */
+	@FunctionalInterface
+	public interface FolderIdResolver {
+
+		FolderId resolve() throws Exception;
+	}
+
+	private record FolderKey(String emailAddress, String folderName) {
+	}
+
+	private record CachedFolderId(String uniqueId, Instant resolvedAt) {
+	}
+}
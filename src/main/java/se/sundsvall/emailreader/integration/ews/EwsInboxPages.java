@@ -0,0 +1,153 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LeasedEmails;
+
+import static java.lang.Math.max;
+
+/**
+ * Lazy, page by page iteration over the emails in an inbox.
+ * <p>
+ * Pages are fetched on a virtual thread ahead of the caller, so that the next page is being fetched while the current
+ * one is handled. At most the given number of pages are fetched ahead, and a page is no longer referenced once it has
+ * been returned by {@link #next()}. Each page is fetched with its own lease on a pooled ExchangeService, which is closed
+ * when the next page is returned or the pages are closed, so the emails of a page can be loaded while they are handled.
+ * Closing stops the fetching of further pages.
+ */
+public final class EwsInboxPages implements Iterator<List<EmailMessage>>, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EwsInboxPages.class);
+	// Marks the end of the pages in the queue, compared by identity
+	private static final LeasedEmails END = LeasedEmails.empty();
+
+	private final BlockingQueue<LeasedEmails> pages;
+	private final Thread fetcher;
+	private LeasedEmails currentPage;
+	private LeasedEmails nextPage;
+	private boolean done;
+	private volatile boolean closed;
+
+	/**
+	 * @param source    the source of the pages
+	 * @param readAhead the largest number of pages fetched ahead of the caller
+	 */
+	public EwsInboxPages(final PageSource source, final int readAhead) {
+		this.pages = new ArrayBlockingQueue<>(max(1, readAhead));
+		this.fetcher = Thread.ofVirtual().name("ews-inbox-pages").start(() -> fetch(source));
+	}
+
+	public static EwsInboxPages empty() {
+		return new EwsInboxPages(() -> null, 1);
+	}
+
+	private void fetch(final PageSource source) {
+		try {
+			try {
+				for (var page = source.nextPage(); page != null; page = source.nextPage()) {
+					if (Thread.currentThread().isInterrupted()) {
+						page.close();
+						break;
+					}
+					if (page.emails().isEmpty()) {
+						page.close();
+						continue;
+					}
+					try {
+						pages.put(page);
+					} catch (final InterruptedException e) {
+						page.close();
+						throw e;
+					}
+				}
+			} catch (final InterruptedException e) {
+				throw e;
+			} catch (final Exception e) {
+				LOG.error("Could not fetch page of inbox", e);
+			}
+			pages.put(END);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			// A page put after the pages were closed is not taken by the caller
+			if (closed) {
+				closeQueuedPages();
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextPage == null && !done) {
+			try {
+				final var page = pages.take();
+				if (page == END) {
+					done = true;
+				} else {
+					nextPage = page;
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				close();
+			}
+		}
+		return nextPage != null;
+	}
+
+	@Override
+	public List<EmailMessage> next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		closeCurrentPage();
+		currentPage = nextPage;
+		nextPage = null;
+		return currentPage.emails();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		done = true;
+		fetcher.interrupt();
+		closeCurrentPage();
+		if (nextPage != null) {
+			nextPage.close();
+			nextPage = null;
+		}
+		closeQueuedPages();
+	}
+
+	private void closeCurrentPage() {
+		if (currentPage != null) {
+			currentPage.close();
+			currentPage = null;
+		}
+	}
+
+	private void closeQueuedPages() {
+		for (var page = pages.poll(); page != null; page = pages.poll()) {
+			page.close();
+		}
+	}
+
+	/**
+	 * Fetches the pages of an inbox, one at a time.
+	 */
+	@FunctionalInterface
+	public interface PageSource {
+
+		/**
+		 * @return           the next page, together with the lease on the ExchangeService its emails are bound to, or null
+		 *                   when there are no more pages
+		 * @throws Exception if the page could not be fetched
+		 */
+		LeasedEmails nextPage() throws Exception;
+	}
+}
@@ -0,0 +1,103 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.ArrayList;
+import java.util.List;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.notification.ItemEvent;
+import microsoft.exchange.webservices.data.notification.NotificationEventArgs;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection;
+import microsoft.exchange.webservices.data.notification.SubscriptionErrorEventArgs;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An open streaming subscription for new emails in an inbox.
+ * <p>
+ * Exchange closes the connection when its lifetime ends, which is reported as a disconnect. The subscription itself
+ * stays valid for a while after that, so the connection can be renewed by reopening it.
+ */
+public final class EwsInboxSubscription {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EwsInboxSubscription.class);
+
+	private final ExchangeService exchangeService;
+	private final StreamingSubscriptionConnection connection;
+
+	EwsInboxSubscription(final ExchangeService exchangeService, final StreamingSubscriptionConnection connection, final Listener listener) {
+		this.exchangeService = exchangeService;
+		this.connection = connection;
+		connection.addOnNotificationEvent((sender, args) -> onNotification(args, listener));
+		connection.addOnDisconnect((sender, args) -> listener.onDisconnect(exceptionOf(args)));
+		connection.addOnSubscriptionError((sender, args) -> listener.onSubscriptionError(exceptionOf(args)));
+	}
+
+	/**
+	 * Opens the connection, or reopens it after a disconnect.
+	 *
+	 * @throws Exception if the connection could not be opened, for example because the subscription has expired
+	 */
+	public void open() throws Exception {
+		connection.open();
+	}
+
+	/**
+	 * Closes the connection and the ExchangeService used by it.
+	 */
+	public void close() {
+		try {
+			if (connection.getIsOpen()) {
+				connection.close();
+			}
+		} catch (final Exception e) {
+			LOG.debug("Could not close streaming connection", e);
+		} finally {
+			exchangeService.close();
+		}
+	}
+
+	private static void onNotification(final NotificationEventArgs args, final Listener listener) {
+		final var itemIds = new ArrayList<ItemId>();
+		for (final var event : args.getEvents()) {
+			if (event.getEventType() == EventType.NewMail && event instanceof final ItemEvent itemEvent) {
+				itemIds.add(itemEvent.getItemId());
+			}
+		}
+		if (!itemIds.isEmpty()) {
+			listener.onNewEmails(itemIds);
+		}
+	}
+
+	private static Exception exceptionOf(final SubscriptionErrorEventArgs args) {
+		return args == null ? null : args.getException();
+	}
+
+	/**
+	 * Receives the events of a subscription. The methods are called on the thread reading the connection, and should
+	 * return quickly.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when new emails have arrived in the inbox.
+		 *
+		 * @param itemIds the ids of the new emails
+		 */
+		void onNewEmails(List<ItemId> itemIds);
+
+		/**
+		 * Called when the connection has been closed, either because its lifetime ended or because of an error.
+		 *
+		 * @param exception the error that caused the disconnect, or null if the lifetime ended
+		 */
+		void onDisconnect(Exception exception);
+
+		/**
+		 * Called when the subscription can no longer be used and has to be recreated.
+		 *
+		 * @param exception the error reported by Exchange
+		 */
+		void onSubscriptionError(Exception exception);
+	}
+}
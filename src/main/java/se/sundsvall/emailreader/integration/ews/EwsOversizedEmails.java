@@ -0,0 +1,42 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Keeps track of the emails that are too large to be handled, per mailbox, so that each of them is reported once
+ * instead of on every run.
+ */
+final class EwsOversizedEmails {
+
+	private final Map<String, Set<String>> reportedIds = new ConcurrentHashMap<>();
+
+	/**
+	 * @param  emailAddress the address of the mailbox
+	 * @param  uniqueId     the id of the email
+	 * @return              true if the email had not been reported before
+	 */
+	boolean markReported(final String emailAddress, final String uniqueId) {
+		return reportedIds.computeIfAbsent(emailAddress.toLowerCase(ROOT), key -> ConcurrentHashMap.newKeySet()).add(uniqueId);
+	}
+
+	/**
+	 * Forgets the reported emails that are no longer in the mailbox.
+	 *
+	 * @param emailAddress the address of the mailbox
+	 * @param uniqueIds    the ids of the emails that are still too large and in the mailbox
+	 */
+	void retainOnly(final String emailAddress, final Set<String> uniqueIds) {
+		reportedIds.computeIfPresent(emailAddress.toLowerCase(ROOT), (key, ids) -> {
+			ids.retainAll(uniqueIds);
+			return ids.isEmpty() ? null : ids;
+		});
+	}
+
+	int size(final String emailAddress) {
+		return reportedIds.getOrDefault(emailAddress.toLowerCase(ROOT), Set.of()).size();
+	}
+}
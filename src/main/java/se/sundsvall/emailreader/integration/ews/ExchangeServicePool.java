@@ -0,0 +1,267 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.credential.WebCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+/**
+ * Pool of configured ExchangeService instances, keyed by credential id and EWS endpoint.
+ * <p>
+ * An ExchangeService keeps per-instance HTTP state, such as cookies and the authentication state of its connections,
+ * and is not safe to use from more than one thread at a time. Each lease is therefore exclusive: an instance is handed
+ * out to one lease at a time, and a new instance is created for the key when all pooled instances are leased. Closed
+ * leases return their instance to the pool, where it keeps its connections and authentication state for the next lease.
+ * Instances that have not been leased within the idle timeout are evicted, and instances that are replaced or
+ * invalidated while leased are closed when their lease is closed.
+ */
+@Component
+public class ExchangeServicePool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ExchangeServicePool.class);
+	private static final String METRIC_PREFIX = "emailreader.ews.service.pool";
+
+	private final Map<PoolKey, PooledServices> services = new ConcurrentHashMap<>();
+	private final EncryptionUtility encryptionUtility;
+	private final Duration idleTimeout;
+	private final Clock clock;
+	private final Counter hitCounter;
+	private final Counter missCounter;
+
+	public ExchangeServicePool(final EncryptionUtility encryptionUtility, final MeterRegistry meterRegistry,
+		@Value("${integration.ews.pool.idle-timeout:PT15M}") final Duration idleTimeout) {
+		this(encryptionUtility, meterRegistry, idleTimeout, Clock.systemUTC());
+	}
+
+	ExchangeServicePool(final EncryptionUtility encryptionUtility, final MeterRegistry meterRegistry, final Duration idleTimeout, final Clock clock) {
+		this.encryptionUtility = encryptionUtility;
+		this.idleTimeout = idleTimeout;
+		this.clock = clock;
+		this.hitCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").register(meterRegistry);
+		this.missCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".size", this, ExchangeServicePool::size).register(meterRegistry);
+	}
+
+	/**
+	 * Leases an ExchangeService for the credential, reusing an instance that is not leased or creating a new one if all
+	 * are. The pooled instances are replaced if the username or password of the credential has changed since they were
+	 * created. The instance is not handed out to another lease, nor closed by the pool, until the lease has been closed.
+	 *
+	 * @param  credential the credential to get a service for
+	 * @return            an exclusive lease on a configured ExchangeService, to be closed when the service is no longer used
+	 */
+	public Lease lease(final CredentialsEntity credential) {
+		evictIdle();
+
+		final var key = new PoolKey(credential.getId(), credential.getDomain());
+		final var fingerprint = credential.getUsername() + ":" + credential.getPassword();
+
+		final var leased = new AtomicReference<PooledService>();
+		services.compute(key, (poolKey, existing) -> {
+			var pooledServices = existing != null && existing.fingerprint().equals(fingerprint) ? existing : null;
+			var pooledService = pooledServices != null ? pooledServices.acquireIdle() : null;
+			if (pooledService != null) {
+				hitCounter.increment();
+			} else {
+				missCounter.increment();
+				final var service = createService(credential);
+				if (pooledServices == null) {
+					pooledServices = new PooledServices(fingerprint);
+				}
+				pooledService = pooledServices.acquireNew(service);
+			}
+			if (existing != null && existing != pooledServices) {
+				LOG.info("Credentials with id '{}' have changed, replacing pooled ExchangeService", poolKey.credentialId());
+				existing.retire();
+			}
+			leased.set(pooledService);
+			return pooledServices;
+		});
+		final var pooledService = leased.get();
+		return new Lease(pooledService.service(), () -> pooledService.release(clock.instant()));
+	}
+
+	/**
+	 * Removes all pooled instances for the given credential id. Instances are closed at once if they are not leased, and
+	 * otherwise when their lease is closed.
+	 *
+	 * @param credentialId the id of the credential
+	 */
+	public void invalidate(final String credentialId) {
+		services.keySet().stream()
+			.filter(key -> Objects.equals(key.credentialId(), credentialId))
+			.forEach(key -> services.computeIfPresent(key, (poolKey, existing) -> {
+				existing.retire();
+				return null;
+			}));
+	}
+
+	int size() {
+		return services.values().stream()
+			.mapToInt(PooledServices::size)
+			.sum();
+	}
+
+	void evictIdle() {
+		final var threshold = clock.instant().minus(idleTimeout);
+		// Leases are only acquired from within compute, so a key found without instances here can not be leased before it is removed
+		services.keySet().forEach(key -> services.computeIfPresent(key, (poolKey, existing) -> {
+			final var evicted = existing.evictIdleSince(threshold);
+			if (evicted > 0) {
+				LOG.debug("Evicted {} idle ExchangeService instances for credentials with id '{}'", evicted, poolKey.credentialId());
+			}
+			return existing.size() == 0 ? null : existing;
+		}));
+	}
+
+	@PreDestroy
+	void close() {
+		services.values().forEach(PooledServices::retire);
+		services.clear();
+	}
+
+	ExchangeService createService(final CredentialsEntity credential) {
+		final var service = new ExchangeService(ExchangeVersion.Exchange2010_SP2);
+		service.setCredentials(new WebCredentials(credential.getUsername(), encryptionUtility.decrypt(credential.getPassword())));
+		service.setUrl(URI.create(credential.getDomain()));
+		return service;
+	}
+
+	/**
+	 * An exclusive lease on a pooled ExchangeService. Closing the lease more than once has no further effect.
+	 */
+	public static final class Lease implements AutoCloseable {
+
+		private final ExchangeService service;
+		private final Runnable release;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Lease(final ExchangeService service, final Runnable release) {
+			this.service = service;
+			this.release = release;
+		}
+
+		public ExchangeService service() {
+			return service;
+		}
+
+		@Override
+		public void close() {
+			if (closed.compareAndSet(false, true)) {
+				release.run();
+			}
+		}
+	}
+
+	private record PoolKey(String credentialId, String endpoint) {
+	}
+
+	/**
+	 * The instances pooled for one key, created with the same username and password.
+	 */
+	private static final class PooledServices {
+
+		private final String fingerprint;
+		// Most recently released first
+		private final Deque<PooledService> idle = new ArrayDeque<>();
+		private int leased;
+		private boolean retired;
+
+		private PooledServices(final String fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		String fingerprint() {
+			return fingerprint;
+		}
+
+		synchronized PooledService acquireIdle() {
+			final var pooledService = idle.pollFirst();
+			if (pooledService != null) {
+				leased++;
+			}
+			return pooledService;
+		}
+
+		synchronized PooledService acquireNew(final ExchangeService service) {
+			leased++;
+			return new PooledService(this, service);
+		}
+
+		synchronized void release(final PooledService pooledService, final Instant now) {
+			leased--;
+			if (retired) {
+				pooledService.close();
+			} else {
+				pooledService.lastUsed = now;
+				idle.addFirst(pooledService);
+			}
+		}
+
+		synchronized int evictIdleSince(final Instant threshold) {
+			var evicted = 0;
+			while (!idle.isEmpty() && idle.peekLast().lastUsed.isBefore(threshold)) {
+				idle.pollLast().close();
+				evicted++;
+			}
+			return evicted;
+		}
+
+		synchronized int size() {
+			return idle.size() + leased;
+		}
+
+		/**
+		 * Marks the instances as no longer pooled, closing the ones not leased and the leased ones when they are released.
+		 */
+		synchronized void retire() {
+			retired = true;
+			idle.forEach(PooledService::close);
+			idle.clear();
+		}
+	}
+
+	private static final class PooledService {
+
+		private final PooledServices owner;
+		private final ExchangeService service;
+		private Instant lastUsed;
+
+		private PooledService(final PooledServices owner, final ExchangeService service) {
+			this.owner = owner;
+			this.service = service;
+		}
+
+		ExchangeService service() {
+			return service;
+		}
+
+		void release(final Instant now) {
+			owner.release(this, now);
+		}
+
+		void close() {
+			service.close();
+		}
+	}
+}
@@ -1,54 +1,132 @@
 package se.sundsvall.emailreader.integration.graph;
 
-import com.azure.core.credential.TokenCredential;
+import com.microsoft.graph.core.content.BatchRequestContentCollection;
+import com.microsoft.graph.core.content.BatchResponseContentCollection;
 import com.microsoft.graph.models.Attachment;
+import com.microsoft.graph.models.AttachmentCollectionResponse;
+import com.microsoft.graph.models.FileAttachment;
 import com.microsoft.graph.models.MailFolder;
+import com.microsoft.graph.models.MailFolderCollectionResponse;
+import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.Subscription;
+import com.microsoft.graph.models.odataerrors.ODataError;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.graph.users.item.mailfolders.item.messages.delta.DeltaGetResponse;
+import com.microsoft.graph.users.item.mailfolders.item.messages.delta.DeltaRequestBuilder;
 import com.microsoft.graph.users.item.messages.item.move.MovePostRequestBody;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.Parsable;
+import com.microsoft.kiota.serialization.ParsableFactory;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toSet;
 
+/**
+ * Calls to Microsoft Graph. Holds no state of its own, the client to use is passed to each call. The requests are paced
+ * by the throttling governor, through the interceptor of the pooled client.
+ */
 @Service
 @CircuitBreaker(name = "GraphIntegration")
 public class GraphClient {
-	private static final String[] GRAPH_SCOPES = new String[] {
-		"https://graph.microsoft.com/.default"
-	};
 
 	private static final Logger LOG = LoggerFactory.getLogger(GraphClient.class);
-	private GraphServiceClient graphServiceClient;
+	private static final String[] MESSAGE_PROPERTIES = {
+		"id", "toRecipients", "sender", "subject", "internetMessageHeaders", "body", "receivedDateTime", "hasAttachments", "parentFolderId"
+	};
+	private static final String[] ATTACHMENT_METADATA_PROPERTIES = {
+		"id", "name", "contentType", "size", "isInline"
+	};
+	private static final String ATTACHMENT_VALUE_URL_TEMPLATE = "{+baseurl}/users/{user%2Did}/messages/{message%2Did}/attachments/{attachment%2Did}/$value";
+	private static final String INBOX_RESOURCE = "users/%s/mailFolders('inbox')/messages";
+	private static final String REMOVED_ANNOTATION = "@removed";
+	// Graph answers 410 Gone when a delta token has expired and a full resync is required
+	private static final int DELTA_TOKEN_EXPIRED = 410;
+	private static final int NOT_FOUND = 404;
+	// Graph answers 409 Conflict when a folder with the same display name already exists
+	private static final int CONFLICT = 409;
+	private static final Set<Integer> THROTTLED_STATUS_CODES = Set.of(429, 503, 504);
+	private static final String RETRY_AFTER = "Retry-After";
+	private static final int MAX_BATCH_ATTEMPTS = 3;
+	// Seconds to wait before retrying throttled requests, when Graph gives no usable Retry-After
+	private static final long DEFAULT_RETRY_AFTER = 1;
+	private static final long MAX_RETRY_AFTER = 30;
+
+	private final GraphServiceClientPool graphServiceClientPool;
+	private final ThrottlingGovernor throttlingGovernor;
+	@Value("${integration.graph.attachments.expand.enabled:false}")
+	private boolean expandAttachments;
+	@Value("${integration.graph.attachments.stream.enabled:false}")
+	private boolean streamAttachments;
+	@Value("${integration.graph.attachments.stream.threshold:3145728}") // Default to 3 MB
+	private long streamThreshold;
+
+	public GraphClient(final GraphServiceClientPool graphServiceClientPool, final ThrottlingGovernor throttlingGovernor) {
+		this.graphServiceClientPool = graphServiceClientPool;
+		this.throttlingGovernor = throttlingGovernor;
+	}
 
 	/**
-	 * Initialize the graph client with the client secret credential and the graph scopes to use
+	 * Get the number of messages in the inbox folder for a user
 	 *
-	 * @param clientSecretCredential the client secret credential
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id to get the inbox for
+	 * @return                    the number of messages, or null if it could not be read
 	 */
-	void initializeGraph(final TokenCredential clientSecretCredential, final Consumer<String> setUnHealthyConsumer) {
+	Integer getInboxCount(final GraphServiceClient graphServiceClient, final String userId, final Consumer<String> setUnHealthyConsumer) {
 		try {
-			graphServiceClient = new GraphServiceClient(clientSecretCredential, GRAPH_SCOPES);
+			final var inbox = graphServiceClient
+				.users()
+				.byUserId(userId)
+				.mailFolders()
+				.byMailFolderId("inbox")
+				.get(requestConfiguration -> requestConfiguration.queryParameters.select = new String[] {
+					"totalItemCount"
+				});
 
+			return inbox == null ? null : inbox.getTotalItemCount();
 		} catch (final Exception e) {
-			LOG.error("Could not initialize graph client", e);
-			setUnHealthyConsumer.accept("[GRAPH] Could not initialize graph client");
+			LOG.error("Could not get inbox", e);
+			setUnHealthyConsumer.accept("[GRAPH] Could not get inbox");
+			return null;
 		}
 	}
 
 	/**
-	 * Get all messages in the inbox folder for a user with a specific folder id
+	 * Get one page of the messages in the inbox folder for a user, with the messages sorted oldest first
 	 *
-	 * @param  userId the user id to get the inbox for
-	 * @return        a collection of messages
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id to get the inbox for
+	 * @param  skip               the number of messages before the page
+	 * @param  top                the largest number of messages in the page
+	 * @return                    a collection of messages
 	 */
-	MessageCollectionResponse getInbox(final String userId, final Consumer<String> setUnHealthyConsumer) {
+	MessageCollectionResponse getInbox(final GraphServiceClient graphServiceClient, final String userId, final int skip, final int top, final Consumer<String> setUnHealthyConsumer) {
 		try {
 			return graphServiceClient
 				.users()
@@ -58,9 +136,17 @@ public class GraphClient {
 				.messages()
 				.get(requestConfiguration -> {
 					requestConfiguration.headers.add("Prefer", "outlook.body-content-type=\"html\"");
-					requestConfiguration.queryParameters.select = new String[] {
-						"id", "toRecipients", "sender", "subject", "internetMessageHeaders", "body", "receivedDateTime"
+					requestConfiguration.queryParameters.select = MESSAGE_PROPERTIES;
+					requestConfiguration.queryParameters.orderby = new String[] {
+						"receivedDateTime asc"
 					};
+					requestConfiguration.queryParameters.skip = skip;
+					requestConfiguration.queryParameters.top = top;
+					if (expandAttachments) {
+						requestConfiguration.queryParameters.expand = new String[] {
+							"attachments"
+						};
+					}
 				});
 
 		} catch (final Exception e) {
@@ -70,88 +156,548 @@ public class GraphClient {
 		}
 	}
 
-	List<Attachment> getAttachments(final String userId, final String messageId, final Consumer<String> setUnHealthyConsumer) {
+	/**
+	 * Get the messages added to or changed in the inbox folder since the given delta link, following all pages of the
+	 * delta query. Without a delta link, or if Graph reports that the delta token has expired, all messages in the inbox
+	 * are returned. Messages that have been removed from the inbox are left out.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id to get the inbox for
+	 * @param  deltaLink          the delta link from the last successful run, or null to start a full sync
+	 * @return                    the messages and the delta link to use on the next run. The delta link is null if the
+	 *                            delta query could not be completed
+	 */
+	MessageDelta getInboxDelta(final GraphServiceClient graphServiceClient, final String userId, final String deltaLink, final Consumer<String> setUnHealthyConsumer) {
+		final var messages = new ArrayList<Message>();
 		try {
-			final var response = graphServiceClient
+			final var delta = graphServiceClient
 				.users()
 				.byUserId(userId)
+				.mailFolders()
+				.byMailFolderId("inbox")
 				.messages()
-				.byMessageId(messageId)
-				.attachments()
-				.get();
+				.delta();
 
-			if (response == null) {
-				return emptyList();
-			}
+			var response = deltaLink == null ? getDelta(delta) : getDelta(delta.withUrl(deltaLink));
+			while (response != null) {
+				Optional.ofNullable(response.getValue()).orElse(emptyList()).stream()
+					.filter(message -> message.getAdditionalData() == null || !message.getAdditionalData().containsKey(REMOVED_ANNOTATION))
+					.forEach(messages::add);
 
-			return response.getValue();
+				if (response.getOdataNextLink() == null) {
+					return new MessageDelta(messages, response.getOdataDeltaLink());
+				}
+				response = getDelta(delta.withUrl(response.getOdataNextLink()));
+			}
 		} catch (final Exception e) {
-			LOG.error("Could not get attachment", e);
-			setUnHealthyConsumer.accept("[GRAPH] not get attachments for email");
-			return emptyList();
+			if (deltaLink != null && e instanceof final ApiException apiException && apiException.getResponseStatusCode() == DELTA_TOKEN_EXPIRED) {
+				LOG.warn("Delta token for inbox of '{}' has expired, falling back to a full sync of the inbox", userId);
+				return getInboxDelta(graphServiceClient, userId, null, setUnHealthyConsumer);
+			}
+			LOG.error("Could not get inbox delta", e);
+			setUnHealthyConsumer.accept("[GRAPH] Could not get inbox delta");
 		}
+		return new MessageDelta(messages, null);
+	}
+
+	private DeltaGetResponse getDelta(final DeltaRequestBuilder delta) {
+		return delta.get(requestConfiguration -> {
+			requestConfiguration.headers.add("Prefer", "outlook.body-content-type=\"html\"");
+			requestConfiguration.queryParameters.select = MESSAGE_PROPERTIES;
+		});
 	}
 
-	public void moveEmail(final String userId, final String messageId, final String destinationFolder, final Consumer<String> setUnHealthyConsumer) {
+	/**
+	 * Get the attachments of the given messages, with the requests grouped into JSON batches of at most 20 requests.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id of the mailbox
+	 * @param  messageIds         the ids of the messages
+	 * @return                    the attachments keyed by message id. Messages whose attachments could not be fetched are
+	 *                            left out
+	 */
+	Map<String, List<Attachment>> getAttachments(final GraphServiceClient graphServiceClient, final String userId, final List<String> messageIds, final Consumer<String> setUnHealthyConsumer) {
 		try {
-			final var request = new MovePostRequestBody();
-			request.setDestinationId(findFolderId(userId, destinationFolder));
+			final var attachments = executeBatch(graphServiceClient, messageIds,
+				messageId -> toAttachmentsRequestInformation(graphServiceClient, userId, messageId),
+				(responses, stepId) -> Optional.ofNullable(responses.getResponseById(stepId, AttachmentCollectionResponse::createFromDiscriminatorValue))
+					.map(AttachmentCollectionResponse::getValue)
+					.orElse(emptyList()));
+			return streamAttachments ? loadSmallAttachments(graphServiceClient, userId, attachments) : attachments;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while getting attachments");
+		} catch (final Exception e) {
+			LOG.error("Could not get attachments", e);
+		}
+		setUnHealthyConsumer.accept("[GRAPH] not get attachments for email");
+		return emptyMap();
+	}
 
-			graphServiceClient
+	/**
+	 * Opens a stream with the raw content of a file attachment. The content is read as is from the $value endpoint of the
+	 * attachment, without being base64 encoded in a JSON response. The caller must close the stream.
+	 *
+	 * @param  graphServiceClient   the client to use
+	 * @param  userId               the user id of the mailbox
+	 * @param  messageId            the id of the message
+	 * @param  attachmentId         the id of the attachment
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the content of the attachment, or null if it could not be read
+	 */
+	InputStream getAttachmentContent(final GraphServiceClient graphServiceClient, final String userId, final String messageId, final String attachmentId, final Consumer<String> setUnHealthyConsumer) {
+		try {
+			final var pathParameters = graphServiceClient
 				.users()
 				.byUserId(userId)
 				.messages()
 				.byMessageId(messageId)
-				.move()
-				.post(request);
+				.attachments()
+				.byAttachmentId(attachmentId)
+				.toGetRequestInformation()
+				.pathParameters;
+			final var requestInformation = new RequestInformation(HttpMethod.GET, ATTACHMENT_VALUE_URL_TEMPLATE, pathParameters);
+			requestInformation.headers.tryAdd("Accept", "application/octet-stream, application/json");
+
+			final HashMap<String, ParsableFactory<? extends Parsable>> errorMapping = new HashMap<>();
+			errorMapping.put("XXX", ODataError::createFromDiscriminatorValue);
+			final var content = graphServiceClient.getRequestAdapter().sendPrimitive(requestInformation, errorMapping, InputStream.class);
+			if (content != null) {
+				return content;
+			}
 		} catch (final Exception e) {
-			LOG.error("Could not move email", e);
-			setUnHealthyConsumer.accept("[GRAPH] Could not move email from inbox");
+			LOG.error("Could not get attachment content", e);
 		}
+		setUnHealthyConsumer.accept("[GRAPH] Could not get attachment content");
+		return null;
 	}
 
-	private String findFolderId(final String userId, final String folderId) {
-		try {
-			final var result = graphServiceClient
+	/**
+	 * Returns true if the content of the attachment should be streamed from its $value endpoint rather than read from a
+	 * JSON response. Attachments of unknown size are always streamed.
+	 */
+	boolean isStreamed(final Attachment attachment) {
+		return streamAttachments && (attachment.getSize() == null || attachment.getSize() > streamThreshold);
+	}
+
+	private RequestInformation toAttachmentsRequestInformation(final GraphServiceClient graphServiceClient, final String userId, final String messageId) {
+		final var attachments = graphServiceClient
+			.users()
+			.byUserId(userId)
+			.messages()
+			.byMessageId(messageId)
+			.attachments();
+		if (!streamAttachments) {
+			return attachments.toGetRequestInformation();
+		}
+		// List the attachments without their content, which is loaded separately depending on size
+		return attachments.toGetRequestInformation(requestConfiguration -> requestConfiguration.queryParameters.select = ATTACHMENT_METADATA_PROPERTIES);
+	}
+
+	/**
+	 * Loads the content of the listed file attachments that are small enough to be read from a JSON response, with
+	 * batched requests. Larger file attachments are left without content, to be streamed one by one. A message is left
+	 * out of the result if the content of any of its small attachments could not be loaded.
+	 */
+	private Map<String, List<Attachment>> loadSmallAttachments(final GraphServiceClient graphServiceClient, final String userId, final Map<String, List<Attachment>> listed)
+		throws IOException, InterruptedException {
+
+		final var references = listed.entrySet().stream()
+			.flatMap(entry -> entry.getValue().stream()
+				.filter(attachment -> attachment instanceof FileAttachment && !isStreamed(attachment))
+				.map(attachment -> new AttachmentReference(entry.getKey(), attachment.getId())))
+			.toList();
+
+		final var loaded = executeBatch(graphServiceClient, references,
+			reference -> graphServiceClient
 				.users()
 				.byUserId(userId)
-				.mailFolders()
-				.get();
+				.messages()
+				.byMessageId(reference.messageId())
+				.attachments()
+				.byAttachmentId(reference.attachmentId())
+				.toGetRequestInformation(),
+			(responses, stepId) -> responses.getResponseById(stepId, Attachment::createFromDiscriminatorValue));
 
-			if (result == null) {
-				return createFolder(userId, folderId);
+		final var result = new HashMap<String, List<Attachment>>();
+		listed.forEach((messageId, attachments) -> {
+			final var complete = attachments.stream()
+				.map(attachment -> attachment instanceof FileAttachment && !isStreamed(attachment)
+					? loaded.get(new AttachmentReference(messageId, attachment.getId()))
+					: attachment)
+				.toList();
+			if (complete.stream().anyMatch(Objects::isNull)) {
+				LOG.warn("Could not load all attachments for '{}'", messageId);
+			} else {
+				result.put(messageId, complete);
 			}
+		});
+		return result;
+	}
 
-			final Optional<MailFolder> optionalFolder = Objects.requireNonNull(result.getValue())
-				.stream()
-				.filter(mailFolder -> Objects.requireNonNull(mailFolder.getDisplayName()).equalsIgnoreCase(folderId))
-				.findFirst();
+	/**
+	 * Get the given messages, with the requests grouped into JSON batches of at most 20 requests. Only messages that are
+	 * still in the inbox are returned, messages that have been moved or deleted since they were reported are left out.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id of the mailbox
+	 * @param  messageIds         the ids of the messages
+	 * @return                    the messages that are still in the inbox
+	 */
+	List<Message> getInboxMessages(final GraphServiceClient graphServiceClient, final String userId, final List<String> messageIds, final Consumer<String> setUnHealthyConsumer) {
+		try {
+			return getInboxMessages(graphServiceClient, userId, messageIds, false);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while getting messages");
+		} catch (final Exception e) {
+			LOG.error("Could not get messages", e);
+		}
+		setUnHealthyConsumer.accept("[GRAPH] Could not get messages");
+		return emptyList();
+	}
 
-			if (optionalFolder.isPresent()) {
-				return optionalFolder.get().getId();
-			} else {
-				return createFolder(userId, folderId);
+	/**
+	 * Get the given messages like {@link #getInboxMessages(GraphServiceClient, String, List, Consumer)}, but fails instead
+	 * of leaving out a message that could not be fetched. Only messages that no longer exist, or are no longer in the
+	 * inbox, are left out.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id of the mailbox
+	 * @param  messageIds         the ids of the messages
+	 * @return                    the messages that are still in the inbox
+	 * @throws Exception          if the inbox or any of the messages could not be fetched
+	 */
+	List<Message> getInboxMessagesOrThrow(final GraphServiceClient graphServiceClient, final String userId, final List<String> messageIds) throws Exception {
+		return getInboxMessages(graphServiceClient, userId, messageIds, true);
+	}
+
+	private List<Message> getInboxMessages(final GraphServiceClient graphServiceClient, final String userId, final List<String> messageIds, final boolean failOnMissing)
+		throws IOException, InterruptedException {
+
+		final var inboxId = Optional.ofNullable(graphServiceClient
+			.users()
+			.byUserId(userId)
+			.mailFolders()
+			.byMailFolderId("inbox")
+			.get(requestConfiguration -> requestConfiguration.queryParameters.select = new String[] {
+				"id"
+			}))
+			.map(MailFolder::getId)
+			.orElseThrow(() -> new IllegalStateException("Inbox not found"));
+
+		final var failures = new HashMap<String, Integer>();
+		final var messages = executeBatch(graphServiceClient, messageIds,
+			messageId -> graphServiceClient
+				.users()
+				.byUserId(userId)
+				.messages()
+				.byMessageId(messageId)
+				.toGetRequestInformation(requestConfiguration -> requestConfiguration.queryParameters.select = MESSAGE_PROPERTIES),
+			(responses, stepId) -> responses.getResponseById(stepId, Message::createFromDiscriminatorValue),
+			failures);
+
+		if (failOnMissing) {
+			for (final var messageId : messageIds) {
+				if (!messages.containsKey(messageId) && !Objects.equals(failures.get(messageId), NOT_FOUND)) {
+					throw new IOException("Could not get message '%s'".formatted(messageId));
+				}
 			}
+		}
+		return messageIds.stream()
+			.map(messages::get)
+			.filter(Objects::nonNull)
+			.filter(message -> inboxId.equals(message.getParentFolderId()))
+			.toList();
+	}
+
+	/**
+	 * Create a subscription for change notifications about messages created in the inbox of a user. Lifecycle
+	 * notifications are sent to the same url as the change notifications.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id of the mailbox
+	 * @param  notificationUrl    the url that Graph sends notifications to
+	 * @param  clientState        the secret that Graph includes in every notification of the subscription
+	 * @param  expiration         when the subscription should expire
+	 * @return                    the created subscription
+	 */
+	Subscription createSubscription(final GraphServiceClient graphServiceClient, final String userId, final String notificationUrl, final String clientState,
+		final OffsetDateTime expiration) {
+
+		final var subscription = new Subscription();
+		subscription.setChangeType("created");
+		subscription.setResource(INBOX_RESOURCE.formatted(userId));
+		subscription.setNotificationUrl(notificationUrl);
+		subscription.setLifecycleNotificationUrl(notificationUrl);
+		subscription.setClientState(clientState);
+		subscription.setExpirationDateTime(expiration);
+
+		return Objects.requireNonNull(graphServiceClient.subscriptions().post(subscription));
+	}
+
+	/**
+	 * Extend the expiration of a subscription. Renewing also reauthorizes a subscription that Graph has asked to be
+	 * reauthorized.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  subscriptionId     the id of the subscription
+	 * @param  expiration         when the subscription should expire
+	 * @return                    when the subscription expires, as accepted by Graph
+	 */
+	OffsetDateTime renewSubscription(final GraphServiceClient graphServiceClient, final String subscriptionId, final OffsetDateTime expiration) {
+		final var subscription = new Subscription();
+		subscription.setExpirationDateTime(expiration);
+
+		return Optional.ofNullable(graphServiceClient.subscriptions().bySubscriptionId(subscriptionId).patch(subscription))
+			.map(Subscription::getExpirationDateTime)
+			.orElse(expiration);
+	}
+
+	/**
+	 * Delete a subscription.
+	 *
+	 * @param graphServiceClient the client to use
+	 * @param subscriptionId     the id of the subscription
+	 */
+	void deleteSubscription(final GraphServiceClient graphServiceClient, final String subscriptionId) {
+		graphServiceClient.subscriptions().bySubscriptionId(subscriptionId).delete();
+	}
+
+	/**
+	 * Move the given messages to the destination folder, with the requests grouped into JSON batches of at most 20
+	 * requests.
+	 *
+	 * @param  graphServiceClient  the client to use
+	 * @param  userId              the user id of the mailbox
+	 * @param  messageIds          the ids of the messages
+	 * @param  destinationFolderId the id of the destination folder
+	 * @return                     the ids of the messages that were moved, and of the messages whose move answered 404
+	 */
+	MoveResult moveEmails(final GraphServiceClient graphServiceClient, final String userId, final List<String> messageIds, final String destinationFolderId,
+		final Consumer<String> setUnHealthyConsumer) {
+		try {
+			final var request = new MovePostRequestBody();
+			request.setDestinationId(destinationFolderId);
 
+			final var failures = new HashMap<String, Integer>();
+			final var moved = executeBatch(graphServiceClient, messageIds,
+				messageId -> graphServiceClient
+					.users()
+					.byUserId(userId)
+					.messages()
+					.byMessageId(messageId)
+					.move()
+					.toPostRequestInformation(request),
+				(responses, stepId) -> Boolean.TRUE,
+				failures);
+			final var notFound = failures.entrySet().stream()
+				.filter(failure -> failure.getValue() == NOT_FOUND)
+				.map(Map.Entry::getKey)
+				.collect(toSet());
+			return new MoveResult(moved.keySet(), notFound);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("Interrupted while moving emails");
+		} catch (final Exception e) {
+			LOG.error("Could not move emails", e);
+		}
+		setUnHealthyConsumer.accept("[GRAPH] Could not move email from inbox");
+		return new MoveResult(emptySet(), emptySet());
+	}
+
+	/**
+	 * Find the id of the top level folder with the given display name, creating the folder if it does not exist. The
+	 * folder is looked up with a single filtered request, instead of listing the folders of the mailbox.
+	 *
+	 * @param  graphServiceClient the client to use
+	 * @param  userId             the user id of the mailbox
+	 * @param  folderName         the display name of the folder
+	 * @return                    the id of the folder
+	 */
+	String findFolderId(final GraphServiceClient graphServiceClient, final String userId, final String folderName) {
+		try {
+			final var folderId = findFolder(graphServiceClient, userId, folderName);
+			if (folderId != null) {
+				return folderId;
+			}
+			try {
+				return createFolder(graphServiceClient, userId, folderName);
+			} catch (final ApiException e) {
+				// Created by someone else since the lookup
+				if (e.getResponseStatusCode() == CONFLICT) {
+					return Objects.requireNonNull(findFolder(graphServiceClient, userId, folderName));
+				}
+				throw e;
+			}
 		} catch (final Exception e) {
 			LOG.error("Could not find folder");
 			throw e;
 		}
 	}
 
-	private String createFolder(final String userId, final String folderId) {
-		final MailFolder mailFolder = new MailFolder();
-		mailFolder.setDisplayName(folderId);
+	/**
+	 * Sends one request per key as JSON batches. Requests that are throttled (429, 503 or 504) are sent again in a new
+	 * batch after the longest Retry-After of the throttled responses, at most {@value #MAX_BATCH_ATTEMPTS} times in total.
+	 * The throttled requests are reported to the throttling governor, which holds back the next batch, and every other
+	 * request to the tenant, until the Retry-After has passed. Requests that fail for any other reason are logged and left
+	 * out of the result.
+	 */
+	private <K, T> Map<K, T> executeBatch(final GraphServiceClient graphServiceClient, final List<K> keys, final Function<K, RequestInformation> requestFactory,
+		final BatchResponseReader<T> reader) throws IOException, InterruptedException {
+
+		return executeBatch(graphServiceClient, keys, requestFactory, reader, new HashMap<>());
+	}
+
+	/**
+	 * Sends one request per key as JSON batches, like {@link #executeBatch(GraphServiceClient, List, Function,
+	 * BatchResponseReader)}, and collects the status codes of the requests that failed without being throttled.
+	 */
+	private <K, T> Map<K, T> executeBatch(final GraphServiceClient graphServiceClient, final List<K> keys, final Function<K, RequestInformation> requestFactory,
+		final BatchResponseReader<T> reader, final Map<K, Integer> failures) throws IOException, InterruptedException {
+
+		final var results = new HashMap<K, T>();
+		var pending = keys;
+		for (var attempt = 1; !pending.isEmpty(); attempt++) {
+			final var batch = newBatch(graphServiceClient);
+			final var keysByStepId = new HashMap<String, K>();
+			for (final var key : pending) {
+				keysByStepId.put(batch.addBatchRequestStep(requestFactory.apply(key)), key);
+			}
+
+			final var responses = graphServiceClient.getBatchRequestBuilder().post(batch, null);
+			final var throttled = new ArrayList<K>();
+			var retryAfter = 0L;
+			for (final var entry : keysByStepId.entrySet()) {
+				final var response = responses.getResponseById(entry.getKey());
+				if (response == null) {
+					LOG.warn("No response in batch for '{}'", entry.getValue());
+				} else if (response.isSuccessful()) {
+					read(responses, entry, reader).ifPresent(result -> results.put(entry.getValue(), result));
+				} else if (THROTTLED_STATUS_CODES.contains(response.code())) {
+					throttled.add(entry.getValue());
+					retryAfter = max(retryAfter, parseRetryAfter(response.header(RETRY_AFTER)));
+				} else {
+					LOG.warn("Batched request for '{}' failed with status {}", entry.getValue(), response.code());
+					failures.put(entry.getValue(), response.code());
+				}
+			}
+
+			if (!throttled.isEmpty() && attempt >= MAX_BATCH_ATTEMPTS) {
+				LOG.warn("Giving up on {} batched requests that are still throttled", throttled.size());
+				break;
+			}
+			if (!throttled.isEmpty()) {
+				LOG.info("{} batched requests were throttled, retrying in {} seconds", throttled.size(), retryAfter);
+				backOff(graphServiceClient, Duration.ofSeconds(min(retryAfter, MAX_RETRY_AFTER)));
+			}
+			pending = throttled;
+		}
+		return results;
+	}
+
+	/**
+	 * Reports the back-off to the throttling governor, which makes the next request of the client wait for it. Sleeps
+	 * instead if the governor is disabled or the client is not pooled, since the client is then not paced by the governor.
+	 */
+	private void backOff(final GraphServiceClient graphServiceClient, final Duration backOff) throws InterruptedException {
+		final var throttlingKey = graphServiceClientPool.throttlingKey(graphServiceClient);
+		if (throttlingKey.isPresent() && throttlingGovernor.isEnabled()) {
+			throttlingGovernor.onThrottled(throttlingKey.get(), backOff);
+		} else {
+			sleep(backOff);
+		}
+	}
+
+	void sleep(final Duration duration) throws InterruptedException {
+		Thread.sleep(duration);
+	}
+
+	private static <K, T> Optional<T> read(final BatchResponseContentCollection responses, final Map.Entry<String, K> step, final BatchResponseReader<T> reader) {
 		try {
-			final var result = graphServiceClient
-				.users()
-				.byUserId(userId)
-				.mailFolders()
-				.post(mailFolder);
-			return Objects.requireNonNull(result).getId();
+			return Optional.ofNullable(reader.read(responses, step.getKey()));
 		} catch (final Exception e) {
-			LOG.error("Could not create folder");
-			throw e;
+			LOG.warn("Could not read batched response for '{}'", step.getValue(), e);
+			return Optional.empty();
 		}
 	}
+
+	BatchRequestContentCollection newBatch(final GraphServiceClient graphServiceClient) {
+		return new BatchRequestContentCollection(graphServiceClient);
+	}
+
+	private static long parseRetryAfter(final String retryAfter) {
+		try {
+			return retryAfter == null ? DEFAULT_RETRY_AFTER : Long.parseLong(retryAfter.trim());
+		} catch (final NumberFormatException e) {
+			return DEFAULT_RETRY_AFTER;
+		}
+	}
+
+	private String findFolder(final GraphServiceClient graphServiceClient, final String userId, final String folderName) {
+		final var result = graphServiceClient
+			.users()
+			.byUserId(userId)
+			.mailFolders()
+			.get(requestConfiguration -> {
+				requestConfiguration.queryParameters.filter = "displayName eq '" + folderName.replace("'", "''") + "'";
+				requestConfiguration.queryParameters.select = new String[] {
+					"id"
+				};
+			});
+
+		return Optional.ofNullable(result)
+			.map(MailFolderCollectionResponse::getValue)
+			.flatMap(folders -> folders.stream().findFirst())
+			.map(MailFolder::getId)
+			.orElse(null);
+	}
+
+	private String createFolder(final GraphServiceClient graphServiceClient, final String userId, final String folderName) {
+		final MailFolder mailFolder = new MailFolder();
+		mailFolder.setDisplayName(folderName);
+		final var result = graphServiceClient
+			.users()
+			.byUserId(userId)
+			.mailFolders()
+			.post(mailFolder);
+		return Objects.requireNonNull(result).getId();
+	}
+
+	/**
+	 * The messages added to or changed in an inbox, together with the delta link to use on the next run.
+	 *
+	 * @param messages  the added or changed messages
+	 * @param deltaLink the delta link covering the returned messages, or null if the delta query was not completed
+	 */
+	record MessageDelta(List<Message> messages, String deltaLink) {
+	}
+
+	/**
+	 * The outcome of moving messages.
+	 *
+	 * @param moved    the ids of the messages that were moved
+	 * @param notFound the ids of the messages whose move answered 404, because the message or the destination folder no
+	 *                 longer exists
+	 */
+	record MoveResult(Set<String> moved, Set<String> notFound) {
+	}
+
+	/**
+	 * Identifies an attachment of a message.
+	 *
+	 * @param messageId    the id of the message
+	 * @param attachmentId the id of the attachment
+	 */
+	private record AttachmentReference(String messageId, String attachmentId) {
+	}
+
+	/**
+	 * Reads the result of one successful request in a batch.
+	 */
+	@FunctionalInterface
+	private interface BatchResponseReader<T> {
+
+		T read(BatchResponseContentCollection responses, String stepId) throws IOException;
+	}
 }
@@ -0,0 +1,92 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static java.util.Locale.ROOT;
+
+/**
+ * Cache of resolved Graph mail folder ids, keyed by mailbox address and folder display name.
+ * <p>
+ * Entries older than the time to live are resolved again, and entries for folders that turn out to no longer exist are
+ * removed with {@link #invalidate(String, String)}. Unlike the EWS folder ids, the ids are only kept in memory, since
+ * resolving a Graph folder takes a single filtered request.
+ */
+@Component
+public class GraphFolderIdCache {
+
+	private static final String METRIC_PREFIX = "emailreader.graph.folder.cache";
+
+	private final Map<FolderKey, CachedFolderId> folderIds = new ConcurrentHashMap<>();
+	private final Duration ttl;
+	private final Clock clock;
+	private final Counter hitCounter;
+	private final Counter missCounter;
+
+	public GraphFolderIdCache(final MeterRegistry meterRegistry, @Value("${integration.graph.folder-cache.ttl:PT24H}") final Duration ttl) {
+		this(meterRegistry, ttl, Clock.systemUTC());
+	}
+
+	GraphFolderIdCache(final MeterRegistry meterRegistry, final Duration ttl, final Clock clock) {
+		this.ttl = ttl;
+		this.clock = clock;
+		this.hitCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").register(meterRegistry);
+		this.missCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".size", folderIds, Map::size).register(meterRegistry);
+	}
+
+	/**
+	 * Returns the id of the folder, using the resolver if no fresh id is cached.
+	 *
+	 * @param  emailAddress the address of the mailbox
+	 * @param  folderName   the display name of the folder
+	 * @param  resolver     resolves the folder id from Graph
+	 * @return              the folder id
+	 */
+	public String get(final String emailAddress, final String folderName, final Supplier<String> resolver) {
+		final var key = new FolderKey(emailAddress.toLowerCase(ROOT), folderName);
+		final var now = clock.instant();
+
+		final var cached = folderIds.get(key);
+		if (cached != null && cached.resolvedAt().plus(ttl).isAfter(now)) {
+			hitCounter.increment();
+			return cached.id();
+		}
+
+		missCounter.increment();
+		final var folderId = resolver.get();
+		if (folderId != null) {
+			folderIds.put(key, new CachedFolderId(folderId, now));
+		}
+		return folderId;
+	}
+
+	/**
+	 * Removes the cached id of the folder, for example because Graph no longer finds it.
+	 *
+	 * @param emailAddress the address of the mailbox
+	 * @param folderName   the display name of the folder
+	 */
+	public void invalidate(final String emailAddress, final String folderName) {
+		folderIds.remove(new FolderKey(emailAddress.toLowerCase(ROOT), folderName));
+	}
+
+	int size() {
+		return folderIds.size();
+	}
+
+	private record FolderKey(String emailAddress, String folderName) {
+	}
+
+	private record CachedFolderId(String id, Instant resolvedAt) {
+	}
+}
@@ -1,63 +1,315 @@
 package se.sundsvall.emailreader.integration.graph;
 
-import com.azure.identity.ClientSecretCredential;
-import com.azure.identity.ClientSecretCredentialBuilder;
-import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.Attachment;
+import com.microsoft.graph.models.FileAttachment;
+import com.microsoft.graph.models.Subscription;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import java.io.IOException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
-import se.sundsvall.emailreader.utility.EncryptionUtility;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
 
 @Component
 public class GraphIntegration {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GraphIntegration.class);
+
 	private final GraphClient graphClient;
 	private final GraphMapper graphMapper;
-	private final EncryptionUtility encryptionUtility;
+	private final GraphServiceClientPool graphServiceClientPool;
+	private final GraphFolderIdCache graphFolderIdCache;
 
-	public GraphIntegration(final GraphClient graphClient, final GraphMapper graphMapper, final EncryptionUtility encryptionUtility) {
+	@Value("${integration.graph.inbox.page-size:50}")
+	private int pageSize;
+	@Value("${integration.graph.inbox.max-items-per-run:0}")
+	private int maxItemsPerRun;
+
+	public GraphIntegration(final GraphClient graphClient, final GraphMapper graphMapper, final GraphServiceClientPool graphServiceClientPool,
+		final GraphFolderIdCache graphFolderIdCache) {
 		this.graphClient = graphClient;
 		this.graphMapper = graphMapper;
-		this.encryptionUtility = encryptionUtility;
+		this.graphServiceClientPool = graphServiceClientPool;
+		this.graphFolderIdCache = graphFolderIdCache;
+	}
+
+	/**
+	 * Fetches the emails in the inbox one page at a time, handing each page to the given handler as soon as it has been
+	 * fetched.
+	 * <p>
+	 * Handled emails are moved out of the inbox, which shifts the position of every email after them. The inbox is
+	 * therefore sorted oldest first and paged from the end, so that moving the emails of one page never changes which
+	 * emails the pages before it contain. Emails that arrive in the meantime end up after the last page, and are fetched on
+	 * the next run. With a limit on the number of emails per run, only the oldest emails up to the limit are fetched.
+	 *
+	 * @param userId               the user id of the mailbox
+	 * @param credentials          the credentials to use
+	 * @param setUnHealthyConsumer consumer to report failures to
+	 * @param pageHandler          handler of each page of emails
+	 */
+	public void streamEmails(final String userId, final GraphCredentialsEntity credentials, final Consumer<String> setUnHealthyConsumer, final Consumer<List<EmailEntity>> pageHandler) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+
+		final var count = graphClient.getInboxCount(graphServiceClient, userId, setUnHealthyConsumer);
+		if (count == null) {
+			return;
+		}
+
+		final var size = max(1, pageSize);
+		final var total = maxItemsPerRun > 0 ? min(count, maxItemsPerRun) : count;
+		for (var end = total; end > 0; end -= size) {
+			final var skip = max(0, end - size);
+			final var response = graphClient.getInbox(graphServiceClient, userId, skip, end - skip, setUnHealthyConsumer);
+			if (response == null) {
+				return;
+			}
+
+			final var messages = Optional.ofNullable(response.getValue()).orElse(emptyList());
+			if (!messages.isEmpty()) {
+				pageHandler.accept(graphMapper.toEmails(messages, credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata()));
+			}
+		}
 	}
 
-	public List<EmailEntity> getEmails(final String userId, final GraphCredentialsEntity credentials, final Consumer<String> setUnHealthyConsumer) {
-		final var clientSecretCredential = getClientSecretCredential(credentials);
-		graphClient.initializeGraph(clientSecretCredential, setUnHealthyConsumer);
+	/**
+	 * Fetches the emails added to or changed in the inbox since the given delta link.
+	 *
+	 * @param  userId               the user id of the mailbox
+	 * @param  credentials          the credentials to use
+	 * @param  deltaLink            the delta link from the last successful run, or null to sync from the beginning
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the new or changed emails and the delta link to use on the next run
+	 */
+	public InboxDelta getEmailsDelta(final String userId, final GraphCredentialsEntity credentials, final String deltaLink, final Consumer<String> setUnHealthyConsumer) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
 
-		final var messages = Optional.ofNullable(graphClient.getInbox(userId, setUnHealthyConsumer))
-			.map(MessageCollectionResponse::getValue)
-			.orElse(emptyList());
+		final var messageDelta = graphClient.getInboxDelta(graphServiceClient, userId, deltaLink, setUnHealthyConsumer);
+		final var emails = graphMapper.toEmails(messageDelta.messages(), credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata());
+		return new InboxDelta(emails, messageDelta.deltaLink());
+	}
+
+	/**
+	 * Fetches the given emails, as reported by change notifications for the inbox. Emails that are no longer in the inbox
+	 * are left out.
+	 *
+	 * @param  userId               the user id of the mailbox
+	 * @param  credentials          the credentials to use
+	 * @param  messageIds           the original ids of the emails
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the emails that are still in the inbox
+	 */
+	public List<EmailEntity> getEmails(final String userId, final GraphCredentialsEntity credentials, final List<String> messageIds, final Consumer<String> setUnHealthyConsumer) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+
+		final var messages = graphClient.getInboxMessages(graphServiceClient, userId, messageIds, setUnHealthyConsumer);
+		return graphMapper.toEmails(messages, credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata());
+	}
+
+	/**
+	 * Fetches the given emails like {@link #getEmails(String, GraphCredentialsEntity, List, Consumer)}, but fails instead
+	 * of leaving out an email that could not be fetched. Emails that no longer exist, or are no longer in the inbox, are
+	 * left out.
+	 *
+	 * @param  userId      the user id of the mailbox
+	 * @param  credentials the credentials to use
+	 * @param  messageIds  the original ids of the emails
+	 * @return             the emails that are still in the inbox
+	 * @throws Exception   if any of the emails could not be fetched
+	 */
+	public List<EmailEntity> getEmailsOrThrow(final String userId, final GraphCredentialsEntity credentials, final List<String> messageIds) throws Exception {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
 
+		final var messages = graphClient.getInboxMessagesOrThrow(graphServiceClient, userId, messageIds);
 		return graphMapper.toEmails(messages, credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata());
 	}
 
-	public List<AttachmentEntity> getAttachments(final String userId, final GraphCredentialsEntity credentials, final String messageId, final Consumer<String> setUnHealthyConsumer) {
-		final var clientSecretCredential = getClientSecretCredential(credentials);
-		graphClient.initializeGraph(clientSecretCredential, setUnHealthyConsumer);
+	/**
+	 * Subscribes to change notifications about emails created in the inbox.
+	 *
+	 * @param  userId          the user id of the mailbox
+	 * @param  credentials     the credentials to use
+	 * @param  notificationUrl the url that Graph sends notifications to
+	 * @param  clientState     the secret that Graph includes in every notification of the subscription
+	 * @param  expiration      when the subscription should expire
+	 * @return                 the created subscription
+	 */
+	public Subscription subscribeToInbox(final String userId, final GraphCredentialsEntity credentials, final String notificationUrl, final String clientState,
+		final OffsetDateTime expiration) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
 
-		final var attachments = graphClient.getAttachments(userId, messageId, setUnHealthyConsumer);
-		return graphMapper.toAttachments(attachments);
+		return graphClient.createSubscription(graphServiceClient, userId, notificationUrl, clientState, expiration);
 	}
 
-	public void moveEmail(final String userId, final String messageId, final GraphCredentialsEntity credentials, final Consumer<String> setUnHealthyConsumer) {
+	/**
+	 * Extends the expiration of a subscription.
+	 *
+	 * @param  credentials    the credentials to use
+	 * @param  subscriptionId the id of the subscription
+	 * @param  expiration     when the subscription should expire
+	 * @return                when the subscription expires, as accepted by Graph
+	 */
+	public OffsetDateTime renewSubscription(final GraphCredentialsEntity credentials, final String subscriptionId, final OffsetDateTime expiration) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+
+		return graphClient.renewSubscription(graphServiceClient, subscriptionId, expiration);
+	}
 
-		final var clientSecretCredential = getClientSecretCredential(credentials);
-		graphClient.initializeGraph(clientSecretCredential, setUnHealthyConsumer);
+	/**
+	 * Deletes a subscription.
+	 *
+	 * @param credentials    the credentials to use
+	 * @param subscriptionId the id of the subscription
+	 */
+	public void unsubscribe(final GraphCredentialsEntity credentials, final String subscriptionId) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+
+		graphClient.deleteSubscription(graphServiceClient, subscriptionId);
+	}
+
+	/**
+	 * Fetches the attachments of the given emails with batched requests. Large file attachments are streamed from Graph one
+	 * by one instead of being read from the batched responses.
+	 *
+	 * @param  userId               the user id of the mailbox
+	 * @param  credentials          the credentials to use
+	 * @param  messageIds           the original ids of the emails
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the attachments keyed by original id. Emails whose attachments could not be fetched are
+	 *                              left out
+	 */
+	public Map<String, List<AttachmentEntity>> getAttachments(final String userId, final GraphCredentialsEntity credentials, final List<String> messageIds, final Consumer<String> setUnHealthyConsumer) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+
+		final var result = new HashMap<String, List<AttachmentEntity>>();
+		graphClient.getAttachments(graphServiceClient, userId, messageIds, setUnHealthyConsumer).forEach((messageId, attachments) -> {
+			try {
+				result.put(messageId, toAttachments(graphServiceClient, userId, messageId, attachments, setUnHealthyConsumer));
+			} catch (final Exception e) {
+				LOG.warn("Could not load attachments for '{}'", messageId, e);
+			}
+		});
+		return result;
+	}
+
+	private List<AttachmentEntity> toAttachments(final GraphServiceClient graphServiceClient, final String userId, final String messageId, final List<Attachment> attachments,
+		final Consumer<String> setUnHealthyConsumer) throws IOException {
+
+		final var streamed = attachments.stream()
+			.filter(FileAttachment.class::isInstance)
+			.map(FileAttachment.class::cast)
+			.filter(graphClient::isStreamed)
+			.toList();
+
+		final var result = new ArrayList<>(graphMapper.toAttachments(attachments.stream()
+			.filter(attachment -> !streamed.contains(attachment))
+			.toList()));
+		try {
+			for (final var attachment : streamed) {
+				final var content = Optional.ofNullable(graphClient.getAttachmentContent(graphServiceClient, userId, messageId, attachment.getId(), setUnHealthyConsumer))
+					.orElseThrow(() -> new IOException("No content for attachment '%s'".formatted(attachment.getId())));
+				result.add(graphMapper.toAttachment(attachment, content));
+			}
+		} catch (final IOException | RuntimeException e) {
+			// The email is not persisted, so release the attachments that were already streamed
+			graphMapper.free(result);
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the given emails to the destination folder of the credentials with batched requests. The id of the destination
+	 * folder is cached, so that a move is a single Graph call. When moves answer 404 the cached id is resolved again, and
+	 * if the folder has changed, the emails are moved once more to the new folder.
+	 *
+	 * @param  userId               the user id of the mailbox
+	 * @param  messageIds           the original ids of the emails
+	 * @param  credentials          the credentials to use
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the original ids of the emails that were moved
+	 */
+	public Set<String> moveEmails(final String userId, final List<String> messageIds, final GraphCredentialsEntity credentials, final Consumer<String> setUnHealthyConsumer) {
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+		final var folderName = credentials.getDestinationFolder();
+
+		final String folderId;
+		try {
+			folderId = graphFolderIdCache.get(userId, folderName, () -> graphClient.findFolderId(graphServiceClient, userId, folderName));
+		} catch (final Exception e) {
+			LOG.error("Could not find destination folder '{}' for address '{}'", folderName, userId, e);
+			setUnHealthyConsumer.accept("[GRAPH] Could not move email from inbox");
+			return emptySet();
+		}
+
+		final var result = graphClient.moveEmails(graphServiceClient, userId, messageIds, folderId, setUnHealthyConsumer);
+		if (result.notFound().isEmpty()) {
+			return result.moved();
+		}
+
+		graphFolderIdCache.invalidate(userId, folderName);
+		final String refreshedFolderId;
+		try {
+			refreshedFolderId = graphFolderIdCache.get(userId, folderName, () -> graphClient.findFolderId(graphServiceClient, userId, folderName));
+		} catch (final Exception e) {
+			LOG.error("Could not find destination folder '{}' for address '{}'", folderName, userId, e);
+			setUnHealthyConsumer.accept("[GRAPH] Could not move email from inbox");
+			return result.moved();
+		}
+		if (folderId.equals(refreshedFolderId)) {
+			// The folder is unchanged, so it is the emails that no longer exist
+			return result.moved();
+		}
+
+		LOG.info("Destination folder '{}' for address '{}' has changed, moving {} emails again", folderName, userId, result.notFound().size());
+		final var moved = new HashSet<>(result.moved());
+		moved.addAll(graphClient.moveEmails(graphServiceClient, userId, List.copyOf(result.notFound()), refreshedFolderId, setUnHealthyConsumer).moved());
+		return moved;
+	}
 
-		graphClient.moveEmail(userId, messageId, credentials.getDestinationFolder(), setUnHealthyConsumer);
+	/**
+	 * Resolves and caches the id of the destination folder of the credentials for every address, so that the first moves
+	 * after a start do not have to look the folder up.
+	 *
+	 * @param credentials the credentials to warm the folder ids for
+	 */
+	public void warmFolderIds(final GraphCredentialsEntity credentials) {
+		final var folderName = credentials.getDestinationFolder();
+		if (folderName == null || credentials.getEmailAddress() == null) {
+			return;
+		}
+		final var graphServiceClient = graphServiceClientPool.get(credentials);
+		for (final var userId : credentials.getEmailAddress()) {
+			try {
+				graphFolderIdCache.get(userId, folderName, () -> graphClient.findFolderId(graphServiceClient, userId, folderName));
+			} catch (final Exception e) {
+				LOG.warn("Could not resolve destination folder '{}' for address '{}'", folderName, userId, e);
+			}
+		}
 	}
 
-	private ClientSecretCredential getClientSecretCredential(final GraphCredentialsEntity credentials) {
-		return new ClientSecretCredentialBuilder()
-			.clientId(encryptionUtility.decrypt(credentials.getClientId()))
-			.clientSecret(encryptionUtility.decrypt(credentials.getClientSecret()))
-			.tenantId(encryptionUtility.decrypt(credentials.getTenantId()))
-			.build();
+	/**
+	 * The emails added to or changed in an inbox, together with the delta link to use on the next run.
+	 *
+	 * @param emails    the new or changed emails
+	 * @param deltaLink the delta link covering the returned emails, or null if the delta query was not completed
+	 */
+	public record InboxDelta(List<EmailEntity> emails, String deltaLink) {
 	}
 }
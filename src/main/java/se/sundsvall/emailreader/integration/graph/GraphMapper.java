@@ -6,6 +6,9 @@ import com.microsoft.graph.models.FileAttachment;
 import com.microsoft.graph.models.InternetMessageHeader;
 import com.microsoft.graph.models.ItemBody;
 import com.microsoft.graph.models.Message;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -14,13 +17,17 @@ import java.util.Optional;
 import java.util.UUID;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import se.sundsvall.emailreader.api.model.Header;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailHeaderEntity;
 import se.sundsvall.emailreader.utility.BlobBuilder;
+import se.sundsvall.emailreader.utility.HtmlToPlainText;
+import se.sundsvall.emailreader.utility.TempFileInputStream;
 
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Collections.emptyList;
 import static se.sundsvall.emailreader.api.model.Header.AUTO_SUBMITTED;
 import static se.sundsvall.emailreader.api.model.Header.CONTENT_TYPE;
@@ -30,8 +37,15 @@ import static se.sundsvall.emailreader.api.model.Header.RETURN_PATH;
 
 @Component
 public class GraphMapper {
+	// Inline attachments are referenced from the html body, but are not counted by hasAttachments
+	private static final String INLINE_REFERENCE = "cid:";
+	private static final String TEMP_FILE_PREFIX = "graph-attachment-";
+
 	private final BlobBuilder blobBuilder;
 
+	@Value("${integration.graph.attachments.expand.max-size:1048576}")
+	private long expandMaxSize;
+
 	public GraphMapper(final BlobBuilder blobBuilder) {
 		this.blobBuilder = blobBuilder;
 	}
@@ -42,6 +56,10 @@ public class GraphMapper {
 			.toList();
 	}
 
+	/**
+	 * Maps a message to an email. The attachments of the email are set when they are already known from the message, and
+	 * left as null when they still have to be fetched.
+	 */
 	EmailEntity toEmail(final Message message, final String municipalityId, final String namespace, final Map<String, String> metadata) {
 
 		return EmailEntity.builder()
@@ -57,9 +75,38 @@ public class GraphMapper {
 			.withHtmlMessage(Optional.ofNullable(message.getBody()).map(ItemBody::getContent).orElse(null))
 			.withReceivedAt(message.getReceivedDateTime())
 			.withMetadata(metadata != null ? metadata.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)) : null)
+			.withAttachments(toKnownAttachments(message))
 			.build();
 	}
 
+	/**
+	 * Returns the attachments of the message if they do not have to be fetched. That is the case when the attachments were
+	 * expanded in the listing and their total size is within the expand ceiling, or when the message has no attachments
+	 * at all.
+	 *
+	 * @param  message the message
+	 * @return         the attachments of the message, or null if they have to be fetched
+	 */
+	List<AttachmentEntity> toKnownAttachments(final Message message) {
+		if (message.getAttachments() != null) {
+			final var totalSize = message.getAttachments().stream()
+				.map(Attachment::getSize)
+				.filter(Objects::nonNull)
+				.mapToLong(Integer::longValue)
+				.sum();
+			return totalSize <= expandMaxSize ? toAttachments(message.getAttachments()) : null;
+		}
+
+		final var hasInlineReferences = Optional.ofNullable(message.getBody())
+			.map(ItemBody::getContent)
+			.filter(content -> content.contains(INLINE_REFERENCE))
+			.isPresent();
+		if (Boolean.FALSE.equals(message.getHasAttachments()) && !hasInlineReferences) {
+			return emptyList();
+		}
+		return null;
+	}
+
 	List<EmailHeaderEntity> toHeaders(final Message message) {
 
 		final var headers = new ArrayList<EmailHeaderEntity>();
@@ -111,35 +158,10 @@ public class GraphMapper {
 	}
 
 	String stripHTML(final Message message) {
-		final var rawBody = Optional.ofNullable(message.getBody())
+		return Optional.ofNullable(message.getBody())
 			.map(ItemBody::getContent)
+			.map(HtmlToPlainText::convert)
 			.orElse(null);
-
-		if (rawBody == null) {
-			return null;
-		}
-
-		// Convert HTML to plain text by removing tags
-		final var plainText = rawBody
-			.replace("\u2028", "")
-			.replace("\\r\\n", "") // Remove line breaks
-			.replace("\\n", "") // Remove line breaks
-			.replaceAll("<style[^>]*>.*?</style>", "") // Remove style blocks
-			.replaceAll("<script[^>]*>.*?</script>", "") // Remove script blocks
-			.replaceAll("<br\\s*/?>", "\n") // Replace <br> and <br/> tags with line breaks
-			.replaceAll("</span[^>]*>", "\n") // Remove span tags (opening and closing)
-			.replaceAll("<[^>]+>", "") // Remove all HTML tags
-			.replace("&nbsp;", " ") // Replace non-breaking spaces
-			.replace("&lt;", "<") // Replace HTML entities
-			.replace("&gt;", ">")
-			.replace("&amp;", "&")
-			.replace("&quot;", "\"")
-			.replace("&apos;", "'")
-			.replace("&#(\\d+);", "") // Remove numeric entities
-			.replaceAll(" ?\n ?", "\n") // Remove spaces around line breaks
-			.trim();
-
-		return plainText.isEmpty() ? null : plainText;
 	}
 
 	String getSender(final Message message) {
@@ -191,4 +213,43 @@ public class GraphMapper {
 			.build();
 	}
 
+	/**
+	 * Maps a file attachment whose raw content is streamed from Graph. The stream is spooled to a temporary file, since the
+	 * exact length must be known when the blob is created. The blob opens and reads the file when the email is persisted,
+	 * and the file is deleted once it has been read, or when the blob is freed.
+	 *
+	 * @param  attachment  the attachment to map
+	 * @param  content     the raw content of the attachment, closed when it has been read
+	 * @return             the attachment entity
+	 * @throws IOException if the content could not be read
+	 */
+	AttachmentEntity toAttachment(final FileAttachment attachment, final InputStream content) throws IOException {
+		final var file = Files.createTempFile(TEMP_FILE_PREFIX, null);
+		try {
+			try (content) {
+				Files.copy(content, file, REPLACE_EXISTING);
+			}
+			final var size = Files.size(file);
+			return AttachmentEntity.builder()
+				.withName(attachment.getName())
+				.withContent(blobBuilder.createBlob(new TempFileInputStream(file, size), size))
+				.withContentType(attachment.getContentType())
+				.withSize(size)
+				.build();
+		} catch (final IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Frees the content of attachments that will not be persisted, which deletes the temporary files of streamed
+	 * attachments.
+	 *
+	 * @param attachments the attachments to free
+	 */
+	void free(final List<AttachmentEntity> attachments) {
+		attachments.forEach(attachment -> blobBuilder.free(attachment.getContent()));
+	}
+
 }
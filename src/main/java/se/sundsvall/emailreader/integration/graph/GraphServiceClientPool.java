@@ -0,0 +1,171 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import com.azure.identity.AzureAuthorityHosts;
+import com.azure.identity.ClientSecretCredentialBuilder;
+import com.microsoft.graph.core.authentication.AzureIdentityAuthenticationProvider;
+import com.microsoft.graph.core.requests.GraphClientFactory;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+/**
+ * Pool of initialized GraphServiceClient instances, keyed by Graph credential id.
+ * <p>
+ * A client keeps its client secret credential, which caches the access token and only requests a new one when it is
+ * about to expire. Reusing the client therefore saves both decrypting the secrets and requesting a token on every
+ * call. A client is never reconfigured once it has been created, which makes it safe to share between threads. Clients
+ * that have not been used within the idle timeout are removed.
+ * <p>
+ * Every request a client sends is paced by the throttling governor, keyed by the tenant of the credential, so that the
+ * mailboxes of one tenant share one request rate.
+ */
+@Component
+public class GraphServiceClientPool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GraphServiceClientPool.class);
+	private static final String METRIC_PREFIX = "emailreader.graph.client.pool";
+	private static final String[] GRAPH_SCOPES = new String[] {
+		"https://graph.microsoft.com/.default"
+	};
+	private static final String THROTTLING_KEY_PREFIX = "graph:";
+
+	private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+	private final EncryptionUtility encryptionUtility;
+	private final ThrottlingGovernor throttlingGovernor;
+	private final Duration idleTimeout;
+	private final String baseUrl;
+	private final String authorityHost;
+	private final Clock clock;
+	private final Counter hitCounter;
+	private final Counter missCounter;
+
+	public GraphServiceClientPool(final EncryptionUtility encryptionUtility, final ThrottlingGovernor throttlingGovernor, final MeterRegistry meterRegistry,
+		@Value("${integration.graph.pool.idle-timeout:PT15M}") final Duration idleTimeout,
+		@Value("${integration.graph.base-url:https://graph.microsoft.com/v1.0}") final String baseUrl,
+		@Value("${integration.graph.authority-host:https://login.microsoftonline.com/}") final String authorityHost) {
+		this(encryptionUtility, throttlingGovernor, meterRegistry, idleTimeout, baseUrl, authorityHost, Clock.systemUTC());
+	}
+
+	GraphServiceClientPool(final EncryptionUtility encryptionUtility, final ThrottlingGovernor throttlingGovernor, final MeterRegistry meterRegistry,
+		final Duration idleTimeout, final String baseUrl, final String authorityHost, final Clock clock) {
+		this.encryptionUtility = encryptionUtility;
+		this.throttlingGovernor = throttlingGovernor;
+		this.idleTimeout = idleTimeout;
+		this.baseUrl = baseUrl;
+		this.authorityHost = authorityHost;
+		this.clock = clock;
+		this.hitCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").register(meterRegistry);
+		this.missCounter = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").register(meterRegistry);
+		Gauge.builder(METRIC_PREFIX + ".size", clients, Map::size).register(meterRegistry);
+	}
+
+	/**
+	 * Returns the GraphServiceClient for the credential, creating it if no usable instance exists. An existing instance is
+	 * replaced if the client id, client secret or tenant id of the credential has changed since it was created.
+	 *
+	 * @param  credential the credential to get a client for
+	 * @return            an initialized GraphServiceClient
+	 */
+	public GraphServiceClient get(final GraphCredentialsEntity credential) {
+		evictIdle();
+
+		final var fingerprint = credential.getClientId() + ":" + credential.getClientSecret() + ":" + credential.getTenantId();
+
+		return clients.compute(credential.getId(), (credentialId, existing) -> {
+			if (existing != null && existing.fingerprint().equals(fingerprint)) {
+				hitCounter.increment();
+				return existing.touch(clock.instant());
+			}
+			if (existing != null) {
+				LOG.info("Graph credentials with id '{}' have changed, replacing pooled GraphServiceClient", credentialId);
+			}
+			missCounter.increment();
+			final var tenantId = encryptionUtility.decrypt(credential.getTenantId());
+			return new PooledClient(createClient(credential, tenantId), fingerprint, THROTTLING_KEY_PREFIX + tenantId, clock.instant());
+		}).client();
+	}
+
+	/**
+	 * Returns the key the throttling governor paces the requests of the client by.
+	 *
+	 * @param  client a client returned by this pool
+	 * @return        the throttling key of the client, or an empty optional if the client is no longer pooled
+	 */
+	public Optional<String> throttlingKey(final GraphServiceClient client) {
+		return clients.values().stream()
+			.filter(pooled -> pooled.client() == client)
+			.map(PooledClient::throttlingKey)
+			.findFirst();
+	}
+
+	/**
+	 * Removes the pooled client for the given credential id.
+	 *
+	 * @param credentialId the id of the credential
+	 */
+	public void invalidate(final String credentialId) {
+		if (credentialId != null) {
+			clients.remove(credentialId);
+		}
+	}
+
+	int size() {
+		return clients.size();
+	}
+
+	void evictIdle() {
+		final var threshold = clock.instant().minus(idleTimeout);
+		clients.entrySet().removeIf(entry -> {
+			if (entry.getValue().lastUsed().isBefore(threshold)) {
+				LOG.debug("Evicting idle GraphServiceClient for Graph credentials with id '{}'", entry.getKey());
+				return true;
+			}
+			return false;
+		});
+	}
+
+	GraphServiceClient createClient(final GraphCredentialsEntity credential, final String tenantId) {
+		final var credentialBuilder = new ClientSecretCredentialBuilder()
+			.clientId(encryptionUtility.decrypt(credential.getClientId()))
+			.clientSecret(encryptionUtility.decrypt(credential.getClientSecret()))
+			.tenantId(tenantId)
+			.authorityHost(authorityHost);
+		if (!isPublicCloud(authorityHost)) {
+			// Instance discovery asks the public cloud about the authority host, which only knows Microsoft's own hosts
+			credentialBuilder.disableInstanceDiscovery();
+		}
+		final var clientSecretCredential = credentialBuilder.build();
+		final var httpClient = GraphClientFactory.create()
+			.addInterceptor(new GraphThrottlingInterceptor(throttlingGovernor, THROTTLING_KEY_PREFIX + tenantId))
+			.build();
+		final var client = new GraphServiceClient(new AzureIdentityAuthenticationProvider(clientSecretCredential, new String[0], GRAPH_SCOPES), httpClient);
+		// Graph and the token endpoint can be pointed at a local fake server in tests
+		client.getRequestAdapter().setBaseUrl(baseUrl);
+		return client;
+	}
+
+	private static boolean isPublicCloud(final String authorityHost) {
+		return AzureAuthorityHosts.AZURE_PUBLIC_CLOUD.equals(authorityHost.endsWith("/") ? authorityHost : authorityHost + "/");
+	}
+
+	private record PooledClient(GraphServiceClient client, String fingerprint, String throttlingKey, Instant lastUsed) {
+
+		PooledClient touch(final Instant now) {
+			return new PooledClient(client, fingerprint, throttlingKey, now);
+		}
+	}
+}
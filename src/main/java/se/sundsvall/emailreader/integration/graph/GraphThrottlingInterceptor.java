@@ -0,0 +1,58 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Set;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+
+/**
+ * Lets the throttling governor pace every request a GraphServiceClient sends for a tenant. The interceptor is added
+ * after the retry handler of the SDK, so each retry is paced as well, and a throttled response slows down the tenant
+ * before the retry handler sends the request again.
+ */
+class GraphThrottlingInterceptor implements Interceptor {
+
+	private static final Set<Integer> THROTTLED_STATUS_CODES = Set.of(429, 503, 504);
+	private static final String RETRY_AFTER = "Retry-After";
+
+	private final ThrottlingGovernor throttlingGovernor;
+	private final String throttlingKey;
+
+	GraphThrottlingInterceptor(final ThrottlingGovernor throttlingGovernor, final String throttlingKey) {
+		this.throttlingGovernor = throttlingGovernor;
+		this.throttlingKey = throttlingKey;
+	}
+
+	@Override
+	public Response intercept(final Chain chain) throws IOException {
+		try {
+			throttlingGovernor.acquire(throttlingKey);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to call Graph");
+		}
+
+		final var response = chain.proceed(chain.request());
+		if (THROTTLED_STATUS_CODES.contains(response.code())) {
+			throttlingGovernor.onThrottled(throttlingKey, parseRetryAfter(response.header(RETRY_AFTER)));
+		} else if (response.isSuccessful()) {
+			throttlingGovernor.onSuccess(throttlingKey);
+		}
+		return response;
+	}
+
+	/**
+	 * Parses a Retry-After given in seconds. Anything else, such as a missing header or an HTTP date, gives zero, which
+	 * makes the governor use its default back-off.
+	 */
+	static Duration parseRetryAfter(final String retryAfter) {
+		try {
+			return retryAfter == null ? Duration.ZERO : Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+		} catch (final NumberFormatException e) {
+			return Duration.ZERO;
+		}
+	}
+}
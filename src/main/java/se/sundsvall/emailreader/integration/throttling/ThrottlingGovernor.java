@@ -0,0 +1,274 @@
+package se.sundsvall.emailreader.integration.throttling;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Paces the calls to Microsoft Graph and Exchange, with one token bucket per key, where a key is a Graph tenant or an
+ * Exchange endpoint.
+ * <p>
+ * The rate of a bucket adapts to how the server responds. It is raised a step after every healthy response, and lowered
+ * by the decrease factor when the server throttles, at most once per back-off since one burst usually gets several
+ * throttled responses. While the server has asked for a back-off, no calls are let through for the key. Spreading the
+ * calls out this way keeps each key just below the limit of the server, instead of bursting into it and losing whole
+ * runs to retries. The current rate of each key is published as a gauge.
+ * <p>
+ * The governor is off unless enabled, in which case calls are made right away, without pacing or retries.
+ */
+@Component
+public class ThrottlingGovernor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ThrottlingGovernor.class);
+	private static final String METRIC_PREFIX = "emailreader.throttling";
+	// Number of times a throttled call is made in total, before giving up
+	static final int MAX_ATTEMPTS = 3;
+
+	private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+	private final MeterRegistry meterRegistry;
+	private final boolean enabled;
+	private final double initialRate;
+	private final double minRate;
+	private final double maxRate;
+	private final double increaseStep;
+	private final double decreaseFactor;
+	private final Duration defaultBackOff;
+	private final Duration maxBackOff;
+	private final Clock clock;
+	private final Sleeper sleeper;
+
+	public ThrottlingGovernor(final MeterRegistry meterRegistry,
+		@Value("${integration.throttling.enabled:false}") final boolean enabled,
+		@Value("${integration.throttling.initial-rate:10}") final double initialRate,
+		@Value("${integration.throttling.min-rate:0.5}") final double minRate,
+		@Value("${integration.throttling.max-rate:50}") final double maxRate,
+		@Value("${integration.throttling.increase-step:0.05}") final double increaseStep,
+		@Value("${integration.throttling.decrease-factor:0.5}") final double decreaseFactor,
+		@Value("${integration.throttling.default-back-off:PT1S}") final Duration defaultBackOff,
+		@Value("${integration.throttling.max-back-off:PT1M}") final Duration maxBackOff) {
+		this(meterRegistry, enabled, initialRate, minRate, maxRate, increaseStep, decreaseFactor, defaultBackOff, maxBackOff, Clock.systemUTC(), Thread::sleep);
+	}
+
+	ThrottlingGovernor(final MeterRegistry meterRegistry, final boolean enabled, final double initialRate, final double minRate, final double maxRate,
+		final double increaseStep, final double decreaseFactor, final Duration defaultBackOff, final Duration maxBackOff, final Clock clock, final Sleeper sleeper) {
+		this.meterRegistry = meterRegistry;
+		this.enabled = enabled;
+		this.initialRate = initialRate;
+		this.minRate = minRate;
+		this.maxRate = maxRate;
+		this.increaseStep = increaseStep;
+		this.decreaseFactor = decreaseFactor;
+		this.defaultBackOff = defaultBackOff;
+		this.maxBackOff = maxBackOff;
+		this.clock = clock;
+		this.sleeper = sleeper;
+	}
+
+	/**
+	 * @return true if the governor paces the calls, false if calls are made right away and callers have to honour any
+	 *         back-off themselves
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Waits until a call may be made for the key, that is until any back-off asked for by the server has passed and the
+	 * bucket of the key has a token.
+	 *
+	 * @param  key                  the tenant or endpoint the call is made to
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire(final String key) throws InterruptedException {
+		if (!enabled) {
+			return;
+		}
+		final var wait = bucket(key).reserve(clock.instant());
+		if (wait.isPositive()) {
+			LOG.debug("Waiting {} before calling '{}'", wait, key);
+			sleeper.sleep(wait);
+		}
+	}
+
+	/**
+	 * Reports a healthy response, which raises the rate of the key a step.
+	 *
+	 * @param key the tenant or endpoint the call was made to
+	 */
+	public void onSuccess(final String key) {
+		if (!enabled) {
+			return;
+		}
+		bucket(key).increase(increaseStep, maxRate);
+	}
+
+	/**
+	 * Reports a throttled response, which pauses the calls for the key during the back-off and lowers its rate.
+	 *
+	 * @param key     the tenant or endpoint the call was made to
+	 * @param backOff the back-off asked for by the server, or zero or null to use the default back-off
+	 */
+	public void onThrottled(final String key, final Duration backOff) {
+		if (!enabled) {
+			return;
+		}
+		final var pause = backOff == null || !backOff.isPositive() ? defaultBackOff : Collections.min(List.of(backOff, maxBackOff));
+		final var bucket = bucket(key);
+		bucket.throttledCounter().increment();
+		if (bucket.decrease(clock.instant(), pause, decreaseFactor, minRate)) {
+			LOG.info("Throttled by '{}', backing off {} and lowering the rate to {} requests per second", key, pause, bucket.rate());
+		}
+	}
+
+	/**
+	 * Makes the call when the governor allows it. A call that the back-off hint finds to be throttled is made again after
+	 * the back-off, at most {@value #MAX_ATTEMPTS} times in total.
+	 *
+	 * @param  key         the tenant or endpoint the call is made to
+	 * @param  call        the call to make
+	 * @param  backOffHint returns the back-off asked for by the server if the exception means that the call was throttled,
+	 *                     or an empty optional for any other failure
+	 * @return             the result of the call
+	 * @throws Exception   if the call fails for any other reason than throttling, or is still throttled after the last
+	 *                     attempt
+	 */
+	public <T> T execute(final String key, final ThrottledCall<T> call, final Function<Exception, Optional<Duration>> backOffHint) throws Exception {
+		if (!enabled) {
+			return call.call();
+		}
+		for (var attempt = 1;; attempt++) {
+			acquire(key);
+			try {
+				final var result = call.call();
+				onSuccess(key);
+				return result;
+			} catch (final Exception e) {
+				final var backOff = backOffHint.apply(e);
+				if (backOff.isEmpty()) {
+					throw e;
+				}
+				onThrottled(key, backOff.get());
+				if (attempt >= MAX_ATTEMPTS) {
+					LOG.warn("Giving up on call to '{}' that is still throttled", key);
+					throw e;
+				}
+			}
+		}
+	}
+
+	double rate(final String key) {
+		return bucket(key).rate();
+	}
+
+	private Bucket bucket(final String key) {
+		return buckets.computeIfAbsent(key, this::createBucket);
+	}
+
+	private Bucket createBucket(final String key) {
+		final var bucket = new Bucket(initialRate, clock.instant(), Counter.builder(METRIC_PREFIX + ".throttled").tag("key", key).register(meterRegistry));
+		Gauge.builder(METRIC_PREFIX + ".rate", bucket, Bucket::rate).tag("key", key).register(meterRegistry);
+		return bucket;
+	}
+
+	@FunctionalInterface
+	public interface ThrottledCall<T> {
+
+		T call() throws Exception;
+	}
+
+	@FunctionalInterface
+	interface Sleeper {
+
+		void sleep(Duration duration) throws InterruptedException;
+	}
+
+	/**
+	 * Token bucket holding at most one second worth of tokens. A call always takes a token, and the bucket may go into
+	 * debt, in which case the caller waits for the debt to be refilled. While paused, refilling starts at the end of the
+	 * pause.
+	 */
+	private static final class Bucket {
+
+		private final Counter throttledCounter;
+		private double rate;
+		private double tokens;
+		private Instant refilledAt;
+		private Instant pausedUntil = Instant.MIN;
+
+		private Bucket(final double rate, final Instant now, final Counter throttledCounter) {
+			this.rate = rate;
+			this.tokens = capacity();
+			this.refilledAt = now;
+			this.throttledCounter = throttledCounter;
+		}
+
+		synchronized Duration reserve(final Instant now) {
+			refill(now);
+			tokens -= 1;
+			final var wait = refilledAt.isAfter(now) ? Duration.between(now, refilledAt) : Duration.ZERO;
+			return tokens >= 0 ? wait : wait.plusNanos((long) (-tokens / rate * 1_000_000_000));
+		}
+
+		synchronized void increase(final double step, final double maxRate) {
+			rate = min(maxRate, rate + step);
+		}
+
+		/**
+		 * Pauses the bucket until the back-off has passed, and lowers the rate unless the bucket is already paused.
+		 *
+		 * @return true if the rate was lowered
+		 */
+		synchronized boolean decrease(final Instant now, final Duration backOff, final double factor, final double minRate) {
+			refill(now);
+			final var lowered = !now.isBefore(pausedUntil);
+			if (lowered) {
+				rate = max(minRate, rate * factor);
+			}
+			final var resumeAt = now.plus(backOff);
+			if (resumeAt.isAfter(pausedUntil)) {
+				pausedUntil = resumeAt;
+			}
+			// Let a single call through when the pause ends, to find out if the server has recovered
+			tokens = min(tokens, 1);
+			if (pausedUntil.isAfter(refilledAt)) {
+				refilledAt = pausedUntil;
+			}
+			return lowered;
+		}
+
+		synchronized double rate() {
+			return rate;
+		}
+
+		Counter throttledCounter() {
+			return throttledCounter;
+		}
+
+		private void refill(final Instant now) {
+			if (now.isAfter(refilledAt)) {
+				tokens = min(capacity(), tokens + Duration.between(refilledAt, now).toNanos() / 1_000_000_000d * rate);
+				refilledAt = now;
+			}
+		}
+
+		private double capacity() {
+			return max(1, rate);
+		}
+	}
+}
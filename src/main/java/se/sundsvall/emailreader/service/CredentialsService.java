@@ -5,6 +5,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import se.sundsvall.emailreader.api.model.Credentials;
 import se.sundsvall.emailreader.integration.db.CredentialsRepository;
+import se.sundsvall.emailreader.integration.db.EwsSyncStateRepository;
+import se.sundsvall.emailreader.integration.ews.EwsFolderIdCache;
+import se.sundsvall.emailreader.integration.ews.ExchangeServicePool;
 import se.sundsvall.emailreader.utility.EncryptionUtility;
 
 import static se.sundsvall.emailreader.service.mapper.CredentialsMapper.toDtos;
@@ -18,9 +21,19 @@ public class CredentialsService {
 
 	private final CredentialsRepository credentialsRepository;
 
-	public CredentialsService(final EncryptionUtility encryptionUtility, final CredentialsRepository credentialsRepository) {
+	private final EwsSyncStateRepository ewsSyncStateRepository;
+
+	private final ExchangeServicePool exchangeServicePool;
+
+	private final EwsFolderIdCache ewsFolderIdCache;
+
+	public CredentialsService(final EncryptionUtility encryptionUtility, final CredentialsRepository credentialsRepository, final EwsSyncStateRepository ewsSyncStateRepository,
+		final ExchangeServicePool exchangeServicePool, final EwsFolderIdCache ewsFolderIdCache) {
 		this.encryptionUtility = encryptionUtility;
 		this.credentialsRepository = credentialsRepository;
+		this.ewsSyncStateRepository = ewsSyncStateRepository;
+		this.exchangeServicePool = exchangeServicePool;
+		this.ewsFolderIdCache = ewsFolderIdCache;
 	}
 
 	public List<Credentials> getCredentialsByMunicipalityId(final String municipalityId) {
@@ -35,7 +48,12 @@ public class CredentialsService {
 
 	@Transactional
 	public void delete(final String municipalityId, final String id) {
+		// Removes the cached and stored destination folder ids of the mailboxes of the credential
+		credentialsRepository.findByMunicipalityIdAndId(municipalityId, id).ifPresent(credential -> credential.getEmailAddress()
+			.forEach(emailAddress -> ewsFolderIdCache.invalidate(emailAddress, credential.getDestinationFolder())));
 		credentialsRepository.deleteByMunicipalityIdAndId(municipalityId, id);
+		ewsSyncStateRepository.deleteByCredentialsId(id);
+		exchangeServicePool.invalidate(id);
 	}
 
 	public void update(final String municipalityId, final String id, final Credentials credentials) {
@@ -47,5 +65,6 @@ public class CredentialsService {
 		updateEntity(entity, credentials, encryptedPassword);
 
 		credentialsRepository.save(entity);
+		exchangeServicePool.invalidate(id);
 	}
 }
@@ -1,13 +1,22 @@
 package se.sundsvall.emailreader.service;
 
 import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
 import org.slf4j.Logger;
@@ -20,21 +29,31 @@ import se.sundsvall.emailreader.api.model.Email;
 import se.sundsvall.emailreader.integration.db.AttachmentRepository;
 import se.sundsvall.emailreader.integration.db.CredentialsRepository;
 import se.sundsvall.emailreader.integration.db.EmailRepository;
+import se.sundsvall.emailreader.integration.db.EwsSyncStateRepository;
+import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
+import se.sundsvall.emailreader.integration.db.entity.EwsSyncStateEntity;
 import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.InboxSync;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LeasedEmails;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LoadedEmailMessage;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.MoveResult;
 import se.sundsvall.emailreader.integration.ews.EWSMapper;
+import se.sundsvall.emailreader.integration.ews.EwsInboxPages;
 import se.sundsvall.emailreader.integration.messaging.MessagingIntegration;
+import se.sundsvall.emailreader.utility.BlobBuilder;
 import se.sundsvall.emailreader.utility.EncryptionException;
-import se.sundsvall.emailreader.utility.EncryptionUtility;
 
 import static java.text.MessageFormat.format;
 import static java.util.Collections.emptyList;
 import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
 import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpStatus.BAD_GATEWAY;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static se.sundsvall.dept44.util.LogUtils.sanitizeForLogging;
+import static se.sundsvall.emailreader.api.model.Header.MESSAGE_ID;
 import static se.sundsvall.emailreader.service.mapper.EmailMapper.toEmails;
 
 @Service
@@ -44,6 +63,7 @@ public class EmailService {
 
 	private static final String EMAIL_SUBJECT = "[Warning] EmailReader has detected unhandled emails";
 	private static final String EMAIL_MESSAGE = "EmailReader has detected unhandled emails with the following IDs: {0}";
+	private static final String TEMP_FILE_PREFIX = "ews-attachment-";
 
 	private final EmailRepository emailRepository;
 	private final CredentialsRepository credentialsRepository;
@@ -51,24 +71,28 @@ public class EmailService {
 	private final MessagingIntegration messagingIntegration;
 	private final EWSIntegration ewsIntegration;
 
-	private final EncryptionUtility encryptionUtility;
-
 	private final AttachmentRepository attachmentRepository;
 
 	private final EWSMapper ewsMapper;
 
+	private final EwsSyncStateRepository ewsSyncStateRepository;
+
+	private final BlobBuilder blobBuilder;
+
 	public EmailService(final EmailRepository emailRepository,
 		final CredentialsRepository credentialsRepository,
 		final MessagingIntegration messagingIntegration,
 		final EWSIntegration ewsIntegration,
-		final EncryptionUtility encryptionUtility, final AttachmentRepository attachmentRepository, final EWSMapper ewsMapper) {
+		final AttachmentRepository attachmentRepository, final EWSMapper ewsMapper,
+		final EwsSyncStateRepository ewsSyncStateRepository, final BlobBuilder blobBuilder) {
 		this.emailRepository = emailRepository;
 		this.credentialsRepository = credentialsRepository;
 		this.messagingIntegration = messagingIntegration;
 		this.ewsIntegration = ewsIntegration;
-		this.encryptionUtility = encryptionUtility;
 		this.attachmentRepository = attachmentRepository;
 		this.ewsMapper = ewsMapper;
+		this.ewsSyncStateRepository = ewsSyncStateRepository;
+		this.blobBuilder = blobBuilder;
 	}
 
 	public List<Email> getAllEmails(final String municipalityId, final String namespace) {
@@ -91,18 +115,111 @@ public class EmailService {
 		return credentialsRepository.findAllByActionAndEnabled(action, true);
 	}
 
-	public List<EmailMessage> getAllEmailsInInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+	public LeasedEmails getAllEmailsInInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		try {
+			return ewsIntegration.pageThroughEntireInbox(credential, emailAddress, setUnHealthyConsumer);
+		} catch (final EncryptionException e) {
+			LOG.error("Failed to decrypt password for credential with id: {}", credential.getId(), e);
+			setUnHealthyConsumer.accept("[EWS] Failed to decrypt password for credential");
+		}
+		return LeasedEmails.empty();
+	}
+
+	public EwsInboxPages streamEmailsInInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		try {
+			return ewsIntegration.streamInbox(credential, emailAddress, setUnHealthyConsumer);
+		} catch (final EncryptionException e) {
+			LOG.error("Failed to decrypt password for credential with id: {}", credential.getId(), e);
+			setUnHealthyConsumer.accept("[EWS] Failed to decrypt password for credential");
+		}
+		return EwsInboxPages.empty();
+	}
+
+	public LeasedEmails getEwsEmails(final CredentialsEntity credential, final String emailAddress, final List<ItemId> itemIds, final Consumer<String> setUnHealthyConsumer) {
 		try {
-			final var decryptedPassword = encryptionUtility.decrypt(credential.getPassword());
-			return ewsIntegration.pageThroughEntireInbox(
-				credential.getUsername(), decryptedPassword,
-				credential.getDomain(), emailAddress,
-				setUnHealthyConsumer);
+			return ewsIntegration.bindEmails(credential, emailAddress, itemIds, setUnHealthyConsumer);
 		} catch (final EncryptionException e) {
 			LOG.error("Failed to decrypt password for credential with id: {}", credential.getId(), e);
 			setUnHealthyConsumer.accept("[EWS] Failed to decrypt password for credential");
 		}
-		return emptyList();
+		return LeasedEmails.empty();
+	}
+
+	/**
+	 * Fetches the emails created or changed in the inbox since the stored sync state, together with the emails that could
+	 * not be handled on earlier runs. Pending emails that no longer exist, for example because they have been moved by
+	 * hand, are left out. If the pending emails can not be bound, no emails and no sync state are returned, so that
+	 * nothing stored is replaced. The pending emails are bound with the same leased ExchangeService as the synced emails.
+	 *
+	 * @param  credential           the credential to use
+	 * @param  emailAddress         the address of the mailbox
+	 * @param  setUnHealthyConsumer consumer to report failures to
+	 * @return                      the emails to handle and the sync state to store once they have been handled, to be
+	 *                              closed once the emails have been handled
+	 */
+	public InboxSync syncEmailsInInbox(final CredentialsEntity credential, final String emailAddress, final Consumer<String> setUnHealthyConsumer) {
+		final var stored = ewsSyncStateRepository.findByCredentialsIdAndEmailAddress(credential.getId(), emailAddress);
+		final var syncState = stored.map(EwsSyncStateEntity::getSyncState).orElse(null);
+		final Set<String> pendingItemIds = stored.map(EwsSyncStateEntity::getPendingItemIds).orElse(null);
+		final InboxSync inboxSync;
+		try {
+			inboxSync = ewsIntegration.syncInbox(credential, emailAddress, syncState, setUnHealthyConsumer);
+		} catch (final EncryptionException e) {
+			LOG.error("Failed to decrypt password for credential with id: {}", credential.getId(), e);
+			setUnHealthyConsumer.accept("[EWS] Failed to decrypt password for credential");
+			return new InboxSync(emptyList(), null);
+		}
+		if (pendingItemIds == null || pendingItemIds.isEmpty()) {
+			return inboxSync;
+		}
+
+		final List<EmailMessage> pending;
+		try {
+			pending = ewsIntegration.bindEmailsOrThrow(inboxSync.lease(), emailAddress, pendingItemIds.stream().map(ItemId::new).toList(), setUnHealthyConsumer);
+		} catch (final Exception e) {
+			inboxSync.close();
+			LOG.error("[{}]: Failed to bind emails pending since an earlier run", emailAddress, e);
+			setUnHealthyConsumer.accept("[EWS] Failed to bind pending emails, address: " + emailAddress);
+			return new InboxSync(emptyList(), null);
+		}
+		LOG.info("[{}]: Retrying {} of {} emails that could not be handled on an earlier run", emailAddress, pending.size(), pendingItemIds.size());
+		final var emails = new ArrayList<>(pending);
+		inboxSync.emails().stream()
+			.filter(email -> !pendingItemIds.contains(uniqueIdOf(email)))
+			.forEach(emails::add);
+		return new InboxSync(emails, inboxSync.syncState(), inboxSync.lease());
+	}
+
+	/**
+	 * Stores the sync state of the inbox, together with the emails it covers that could not be handled and are to be
+	 * retried on the next run. Nothing is stored without a sync state.
+	 *
+	 * @param credential     the credential of the mailbox
+	 * @param emailAddress   the address of the mailbox
+	 * @param syncState      the sync state to store, or null
+	 * @param pendingItemIds the unique ids of the emails to retry
+	 */
+	@Transactional
+	public void saveSyncState(final CredentialsEntity credential, final String emailAddress, final String syncState, final Set<String> pendingItemIds) {
+		if (syncState == null) {
+			return;
+		}
+		final var entity = ewsSyncStateRepository.findByCredentialsIdAndEmailAddress(credential.getId(), emailAddress)
+			.orElseGet(() -> EwsSyncStateEntity.builder()
+				.withCredentialsId(credential.getId())
+				.withEmailAddress(emailAddress)
+				.build());
+		entity.setSyncState(syncState);
+		entity.setPendingItemIds(new HashSet<>(pendingItemIds));
+		ewsSyncStateRepository.save(entity);
+	}
+
+	private static String uniqueIdOf(final EmailMessage email) {
+		try {
+			return email.getId().getUniqueId();
+		} catch (final ServiceLocalException e) {
+			return null;
+		}
 	}
 
 	public List<EmailEntity> getOldEmails() {
@@ -132,26 +249,83 @@ public class EmailService {
 		}
 	}
 
-	public Optional<EmailEntity> loadEwsEmail(final EmailMessage ewsEmail, final CredentialsEntity credential, final Consumer<String> setUnHealthyConsumer) throws Exception {
-		final var email = ewsMapper.toEmail(ewsIntegration.loadMessage(ewsEmail, setUnHealthyConsumer), credential.getMunicipalityId(), credential.getNamespace(), credential.getMetadata());
+	public List<EmailEntity> loadEwsEmails(final List<EmailMessage> ewsEmails, final CredentialsEntity credential, final Consumer<String> setUnHealthyConsumer) {
+		final var loaded = ewsIntegration.loadMessages(ewsEmails, setUnHealthyConsumer);
+		// Attachments fetched on first download are not loaded when the email is read
+		final var withAttachments = credential.isLazyAttachments() ? loaded : ewsIntegration.loadAttachments(loaded);
+		return withAttachments.stream()
+			.map(loaded -> toEmailEntity(loaded, credential, setUnHealthyConsumer))
+			.flatMap(Optional::stream)
+			.toList();
+	}
 
-		if (email == null) {
-			LOG.warn("[{}]: Email could not be mapped from EWS message, skipping email with id: {}", credential.getEmailAddress(), ewsEmail.getId().getUniqueId());
+	private Optional<EmailEntity> toEmailEntity(final LoadedEmailMessage loaded, final CredentialsEntity credential, final Consumer<String> setUnHealthyConsumer) {
+		final var ewsEmail = loaded.message();
+		try {
+			final var lazyAttachmentsSourceId = credential.isLazyAttachments() ? credential.getId() : null;
+			final var email = ewsMapper.toEmail(loaded, credential.getMunicipalityId(), credential.getNamespace(), credential.getMetadata(), lazyAttachmentsSourceId);
+			if (email == null) {
+				LOG.warn("[{}]: Email could not be mapped from EWS message, skipping email with id: {}", credential.getEmailAddress(), ewsEmail.getId().getUniqueId());
+				return Optional.empty();
+			}
+			return Optional.of(email);
+		} catch (final Exception e) {
+			LOG.error("[{}]: Failed to map email from EWS, skipping email", credential.getEmailAddress(), e);
+			setUnHealthyConsumer.accept("[EWS] Failed to map email");
 			return Optional.empty();
 		}
+	}
 
-		final var htmlEmail = ewsIntegration.loadHTMLMessage(ewsEmail, setUnHealthyConsumer);
-		if (htmlEmail == null) {
-			LOG.warn("[{}]: HTML body could not be loaded from EWS, skipping email with id: {}", credential.getEmailAddress(), ewsEmail.getId().getUniqueId());
-			return Optional.empty();
+	/**
+	 * Marks the emails as read and moves them to the destination folder of the credential.
+	 *
+	 * @param  credential   the credential to use
+	 * @param  originalIds  the original ids of the emails
+	 * @param  emailAddress the address of the mailbox
+	 * @return              the new id of each moved email and the reason for each email that could not be moved, keyed by
+	 *                      original id
+	 * @throws Exception    if the destination folder could not be resolved
+	 */
+	public MoveResult moveEwsEmails(final CredentialsEntity credential, final List<String> originalIds, final String emailAddress) throws Exception {
+		LOG.info("[{}]: Moving {} ews emails to folder '{}'", emailAddress, originalIds.size(), credential.getDestinationFolder());
+		final var itemIds = new ArrayList<ItemId>();
+		for (final var originalId : originalIds) {
+			itemIds.add(ItemId.getItemIdFromString(originalId));
 		}
-		email.setHtmlMessage(Optional.ofNullable(htmlEmail.getBody()).map(Objects::toString).orElse(null));
-		return Optional.of(email);
+		return ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, emailAddress, credential.getDestinationFolder());
 	}
 
-	public void moveEwsEmail(final String originalId, final String emailAddress, final String destinationFolder) throws Exception {
-		LOG.info("[{}]: Moving ews email with original id '{}' to folder '{}'", emailAddress, originalId, destinationFolder);
-		ewsIntegration.moveEmail(ItemId.getItemIdFromString(originalId), emailAddress, destinationFolder);
+	/**
+	 * Finds moved emails in the destination folder of the credential by their Message-ID header, for emails whose new id
+	 * was not returned by Exchange when they were moved.
+	 *
+	 * @param  credential   the credential to use
+	 * @param  emails       the moved emails
+	 * @param  emailAddress the address of the mailbox
+	 * @return              the new id of each email found, keyed by original id
+	 * @throws Exception    if the destination folder could not be resolved or searched
+	 */
+	public Map<String, String> findMovedEwsEmails(final CredentialsEntity credential, final List<EmailEntity> emails, final String emailAddress) throws Exception {
+		final var internetMessageIds = new HashMap<String, String>();
+		for (final var email : emails) {
+			Optional.ofNullable(email.getHeaders()).stream()
+				.flatMap(List::stream)
+				.filter(header -> header.getHeader() == MESSAGE_ID)
+				.flatMap(header -> header.getValues().stream())
+				.findFirst()
+				.ifPresent(messageId -> internetMessageIds.put(email.getOriginalId(), messageId));
+		}
+		return ewsIntegration.findItemIds(credential, emailAddress, credential.getDestinationFolder(), internetMessageIds);
+	}
+
+	/**
+	 * Points the attachments fetched on first download at the new ids of their moved emails.
+	 *
+	 * @param movedIds the new id of each moved email, keyed by the id the email had when it was read
+	 */
+	@Transactional
+	public void updateAttachmentSourceItemIds(final Map<String, String> movedIds) {
+		movedIds.forEach(attachmentRepository::updateSourceItemId);
 	}
 
 	public void getMessageAttachmentStreamed(final long attachmentId, final HttpServletResponse response) {
@@ -162,6 +336,10 @@ public class EmailService {
 				.orElseThrow(() -> Problem.valueOf(NOT_FOUND, "MessageAttachment not found"));
 
 			final var file = attachmentEntity.getContent();
+			if (file == null) {
+				streamFromSource(attachmentEntity, response);
+				return;
+			}
 
 			response.addHeader(CONTENT_TYPE, attachmentEntity.getContentType());
 			response.addHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + attachmentEntity.getName() + "\"");
@@ -172,14 +350,69 @@ public class EmailService {
 		}
 	}
 
+	/**
+	 * Fetches the content of an attachment from the mailbox it was read from, writes it to the response and stores it, so
+	 * that later downloads are served from the database.
+	 */
+	private void streamFromSource(final AttachmentEntity attachmentEntity, final HttpServletResponse response) throws IOException {
+		if (attachmentEntity.getSourceItemId() == null) {
+			throw Problem.valueOf(NOT_FOUND, "MessageAttachment has no content");
+		}
+		final var credential = credentialsRepository.findById(attachmentEntity.getSourceCredentialsId())
+			.orElseThrow(() -> Problem.valueOf(NOT_FOUND, "Credentials for MessageAttachment not found"));
+
+		final var file = Files.createTempFile(TEMP_FILE_PREFIX, null);
+		try {
+			try (final var content = new BufferedOutputStream(Files.newOutputStream(file))) {
+				ewsIntegration.loadAttachment(credential, attachmentEntity.getSourceItemId(), attachmentEntity.getSourceAttachmentId(), attachmentEntity.getName(), attachmentEntity.getSize(), content);
+			} catch (final Exception e) {
+				LOG.error("Could not fetch content of attachment with id '{}' from mailbox", attachmentEntity.getId(), e);
+				throw Problem.valueOf(BAD_GATEWAY, "Could not fetch MessageAttachment from mailbox");
+			}
+			final var size = Files.size(file);
+			storeContent(attachmentEntity, file, size);
+
+			response.addHeader(CONTENT_TYPE, attachmentEntity.getContentType());
+			response.addHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + attachmentEntity.getName() + "\"");
+			response.setContentLengthLong(size);
+			Files.copy(file, response.getOutputStream());
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private void storeContent(final AttachmentEntity attachmentEntity, final Path file, final long size) {
+		try (final var content = Files.newInputStream(file)) {
+			attachmentEntity.setContent(blobBuilder.createBlob(content, size));
+			attachmentEntity.setSize(size);
+			attachmentRepository.saveAndFlush(attachmentEntity);
+		} catch (final Exception e) {
+			LOG.warn("Could not store fetched content of attachment with id '{}'", attachmentEntity.getId(), e);
+		}
+	}
+
+	/**
+	 * Saves the email, updating an already persisted email with the same original id. The attachment content is streamed
+	 * to the database when the email is flushed, and is freed afterwards, also when saving fails, so that no stream or
+	 * temporary file is held after the call.
+	 *
+	 * @param  email the email to save
+	 * @return       the saved email
+	 */
 	@Transactional
 	public EmailEntity saveEmail(final EmailEntity email) {
-		Optional.ofNullable(email.getOriginalId())
-			.flatMap(originalId -> emailRepository.findByOriginalIdAndMunicipalityIdAndNamespace(originalId, email.getMunicipalityId(), email.getNamespace()))
-			.ifPresent(existing -> {
-				LOG.info("Email with original id '{}' already persisted as '{}', updating in place", email.getOriginalId(), existing.getId());
-				email.setId(existing.getId());
-			});
-		return emailRepository.saveAndFlush(email);
+		try {
+			Optional.ofNullable(email.getOriginalId())
+				.flatMap(originalId -> emailRepository.findByOriginalIdAndMunicipalityIdAndNamespace(originalId, email.getMunicipalityId(), email.getNamespace()))
+				.ifPresent(existing -> {
+					LOG.info("Email with original id '{}' already persisted as '{}', updating in place", email.getOriginalId(), existing.getId());
+					email.setId(existing.getId());
+				});
+			return emailRepository.saveAndFlush(email);
+		} finally {
+			Optional.ofNullable(email.getAttachments()).ifPresent(attachments -> attachments.stream()
+				.filter(Objects::nonNull)
+				.forEach(attachment -> blobBuilder.free(attachment.getContent())));
+		}
 	}
 }
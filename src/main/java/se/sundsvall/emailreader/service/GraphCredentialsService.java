@@ -6,6 +6,9 @@ import org.springframework.transaction.annotation.Transactional;
 import se.sundsvall.dept44.problem.Problem;
 import se.sundsvall.emailreader.api.model.GraphCredentials;
 import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphDeltaLinkRepository;
+import se.sundsvall.emailreader.integration.db.GraphSubscriptionRepository;
+import se.sundsvall.emailreader.integration.graph.GraphServiceClientPool;
 import se.sundsvall.emailreader.service.mapper.GraphCredentialsMapper;
 import se.sundsvall.emailreader.utility.EncryptionUtility;
 
@@ -21,9 +24,19 @@ public class GraphCredentialsService {
 
 	private final EncryptionUtility encryptionUtility;
 
-	public GraphCredentialsService(final GraphCredentialsRepository graphCredentialsRepository, final EncryptionUtility encryptionUtility) {
+	private final GraphServiceClientPool graphServiceClientPool;
+
+	private final GraphDeltaLinkRepository graphDeltaLinkRepository;
+
+	private final GraphSubscriptionRepository graphSubscriptionRepository;
+
+	public GraphCredentialsService(final GraphCredentialsRepository graphCredentialsRepository, final EncryptionUtility encryptionUtility,
+		final GraphServiceClientPool graphServiceClientPool, final GraphDeltaLinkRepository graphDeltaLinkRepository, final GraphSubscriptionRepository graphSubscriptionRepository) {
 		this.graphCredentialsRepository = graphCredentialsRepository;
 		this.encryptionUtility = encryptionUtility;
+		this.graphServiceClientPool = graphServiceClientPool;
+		this.graphDeltaLinkRepository = graphDeltaLinkRepository;
+		this.graphSubscriptionRepository = graphSubscriptionRepository;
 	}
 
 	public List<GraphCredentials> getCredentialsByMunicipalityId(final String municipalityId) {
@@ -54,7 +67,7 @@ public class GraphCredentialsService {
 
 		final var updatedEntity = GraphCredentialsMapper.toUpdatedGraphCredentialsEntity(oldEntity, encrypt(credentials));
 		graphCredentialsRepository.save(updatedEntity);
-
+		graphServiceClientPool.invalidate(id);
 	}
 
 	@Transactional
@@ -62,6 +75,10 @@ public class GraphCredentialsService {
 		final var oldEntity = graphCredentialsRepository.findByMunicipalityIdAndId(municipalityId, id)
 			.orElseThrow(() -> Problem.valueOf(NOT_FOUND, ENTITY_NOT_FOUND));
 		graphCredentialsRepository.delete(oldEntity);
+		graphDeltaLinkRepository.deleteByGraphCredentialsId(id);
+		// Subscriptions at Graph are left to expire, notifications for them are ignored once the row is gone
+		graphSubscriptionRepository.deleteByGraphCredentialsId(id);
+		graphServiceClientPool.invalidate(id);
 	}
 
 	private GraphCredentials encrypt(final GraphCredentials credentials) {
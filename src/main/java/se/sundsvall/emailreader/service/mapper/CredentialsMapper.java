@@ -22,6 +22,7 @@ public final class CredentialsMapper {
 			.withMetadata(credentials.metadata())
 			.withAction(credentials.action())
 			.withEnabled(credentials.enabled())
+			.withLazyAttachments(credentials.lazyAttachments())
 			.build();
 	}
 
@@ -35,6 +36,7 @@ public final class CredentialsMapper {
 			.withMetadata(entity.getMetadata())
 			.withDestinationFolder(entity.getDestinationFolder())
 			.withEnabled(entity.isEnabled())
+			.withLazyAttachments(entity.isLazyAttachments())
 			.withAction(entity.getAction())
 			.build();
 	}
@@ -55,5 +57,6 @@ public final class CredentialsMapper {
 		entity.setMetadata(credentials.metadata());
 		entity.setAction(credentials.action());
 		entity.setEnabled(credentials.enabled());
+		entity.setLazyAttachments(credentials.lazyAttachments());
 	}
 }
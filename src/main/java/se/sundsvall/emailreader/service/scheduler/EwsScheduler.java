@@ -1,11 +1,19 @@
 package se.sundsvall.emailreader.service.scheduler;
 
 import generated.se.sundsvall.messaging.SmsRequest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,25 +23,42 @@ import se.sundsvall.dept44.scheduling.health.Dept44HealthUtility;
 import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.MoveResult;
 import se.sundsvall.emailreader.integration.messaging.MessagingIntegration;
 import se.sundsvall.emailreader.service.EmailService;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.util.Collections.emptySet;
+import static java.util.stream.Collectors.toMap;
 
 @Component
 public class EwsScheduler {
 
 	private static final Logger LOG = LoggerFactory.getLogger(EwsScheduler.class);
+	// Number of emails loaded per GetItem request, same as the page size used when finding items
+	private static final int LOAD_PAGE_SIZE = 50;
+
 	private final EmailService emailService;
 	private final MessagingIntegration messagingIntegration;
 	private final EWSIntegration ewsIntegration;
 	private final Consumer<String> emailSetUnHealthyConsumer;
 	private final Consumer<String> smsSetUnHealthyConsumer;
+	// Serializes the handling of each mailbox between the scheduled poll and streaming notifications
+	private final MailboxLocks mailboxLocks = new MailboxLocks();
 
 	@Value("${scheduled.check-for-new-emails.ews.name}")
 	private String emailJobName;
 	@Value("${scheduled.check-for-new-sms-emails.name}")
 	private String smsJobName;
+	@Value("${scheduled.check-for-new-emails.ews.incremental-sync.enabled:false}")
+	private boolean incrementalSyncEnabled;
+	@Value("${scheduled.check-for-new-emails.ews.parallel.enabled:false}")
+	private boolean parallelEnabled;
+	@Value("${scheduled.check-for-new-emails.ews.parallel.max-concurrency:8}")
+	private int maxConcurrency;
+	@Value("${scheduled.check-for-new-emails.ews.parallel.max-concurrency-per-credential:2}")
+	private int maxConcurrencyPerCredential;
 
 	public EwsScheduler(final EmailService emailService, final MessagingIntegration messagingIntegration, final EWSIntegration ewsIntegration, final Dept44HealthUtility dept44HealthUtility) {
 		this.emailService = emailService;
@@ -49,47 +74,269 @@ public class EwsScheduler {
 		lockAtMostFor = "${scheduled.shedlock-lock-at-most-for}",
 		maximumExecutionTime = "${scheduled.maximum-execution-time}")
 	public void checkForNewEmails() {
-		for (final var credential : emailService.findAllByActionAndActive("PERSIST")) {
+		final var credentials = emailService.findAllByActionAndActive("PERSIST");
+		if (parallelEnabled) {
+			checkForNewEmailsInParallel(credentials);
+			return;
+		}
+
+		for (final var credential : credentials) {
 			for (final var address : credential.getEmailAddress()) {
-				LOG.info("[{}]: Fetching mails for address", address);
-				final var emails = emailService.getAllEmailsInInbox(credential, address, emailSetUnHealthyConsumer);
-				LOG.info("[{}]: Fetched {} emails", address, emails.size());
-				for (final var email : emails) {
-					handleEmail(email, address, credential);
+				handleMailbox(credential, address);
+			}
+		}
+	}
+
+	/**
+	 * Processes each mailbox on its own virtual thread. The number of mailboxes processed at the same time is limited both
+	 * globally and per credential, so that a single Exchange account is not flooded with concurrent requests.
+	 *
+	 * @param credentials the credentials to process mailboxes for
+	 */
+	private void checkForNewEmailsInParallel(final List<CredentialsEntity> credentials) {
+		final var globalPermits = new Semaphore(max(1, maxConcurrency));
+		final var failedMailboxes = new AtomicInteger();
+		var mailboxes = 0;
+
+		try (final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (final var credential : credentials) {
+				final var credentialPermits = new Semaphore(max(1, maxConcurrencyPerCredential));
+				for (final var address : credential.getEmailAddress()) {
+					mailboxes++;
+					executor.submit(() -> {
+						if (!handleMailboxWithPermits(credential, address, credentialPermits, globalPermits)) {
+							failedMailboxes.incrementAndGet();
+						}
+					});
+				}
+			}
+		}
+		LOG.info("Done processing {} mailboxes in parallel, {} failed", mailboxes, failedMailboxes.get());
+	}
+
+	private boolean handleMailboxWithPermits(final CredentialsEntity credential, final String address, final Semaphore credentialPermits, final Semaphore globalPermits) {
+		try {
+			credentialPermits.acquire();
+			try {
+				globalPermits.acquire();
+				try {
+					return handleMailbox(credential, address);
+				} finally {
+					globalPermits.release();
+				}
+			} finally {
+				credentialPermits.release();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			LOG.warn("[{}]: Interrupted while waiting to process mailbox", address);
+			return false;
+		}
+	}
+
+	/**
+	 * Fetches and handles all emails in the inbox of one mailbox. Any unexpected error is contained to the mailbox, so that
+	 * it does not prevent other mailboxes from being processed.
+	 * <p>
+	 * Without incremental sync the inbox is handled page by page, while the next page is fetched.
+	 * <p>
+	 * With incremental sync enabled only emails created or changed since the last run are fetched. The new sync state is
+	 * stored together with the emails that could not be handled, which are retried on the next run, so that a single
+	 * failing email does not hold back the sync state of the mailbox.
+	 *
+	 * @param  credential the credential to use
+	 * @param  address    the address of the mailbox
+	 * @return            true if the mailbox was processed without unexpected errors
+	 */
+	boolean handleMailbox(final CredentialsEntity credential, final String address) {
+		return mailboxLocks.withLock(credential.getId(), address, () -> handleMailboxLocked(credential, address));
+	}
+
+	private boolean handleMailboxLocked(final CredentialsEntity credential, final String address) {
+		try {
+			LOG.info("[{}]: Fetching mails for address", address);
+			if (incrementalSyncEnabled) {
+				try (final var inboxSync = emailService.syncEmailsInInbox(credential, address, emailSetUnHealthyConsumer)) {
+					LOG.info("[{}]: Fetched {} new or changed emails", address, inboxSync.emails().size());
+					final var failedItemIds = handleEmails(inboxSync.emails(), address, credential);
+					if (!failedItemIds.isEmpty()) {
+						LOG.warn("[{}]: {} emails could not be handled, retrying them on the next run", address, failedItemIds.size());
+					}
+					emailService.saveSyncState(credential, address, inboxSync.syncState(), failedItemIds);
+				}
+			} else {
+				var fetched = 0;
+				try (final var pages = emailService.streamEmailsInInbox(credential, address, emailSetUnHealthyConsumer)) {
+					while (pages.hasNext()) {
+						final var page = pages.next();
+						fetched += page.size();
+						handleEmails(page, address, credential);
+					}
 				}
-				LOG.info("Done fetching mails for address '{}'.", address);
+				LOG.info("[{}]: Fetched {} emails", address, fetched);
+			}
+			LOG.info("Done fetching mails for address '{}'.", address);
+			return true;
+		} catch (final Exception e) {
+			LOG.error("[{}]: Failed to process mailbox", address, e);
+			emailSetUnHealthyConsumer.accept("Failed to process mailbox " + address);
+			return false;
+		}
+	}
+
+	/**
+	 * Handles the emails with the given ids, as reported by a streaming notification for the mailbox.
+	 *
+	 * @param  credential the credential to use
+	 * @param  address    the address of the mailbox
+	 * @param  itemIds    the ids of the new emails
+	 * @return            true if all emails were handled
+	 */
+	boolean handleNewEmails(final CredentialsEntity credential, final String address, final List<ItemId> itemIds) {
+		return mailboxLocks.withLock(credential.getId(), address, () -> {
+			try (final var emails = emailService.getEwsEmails(credential, address, itemIds, emailSetUnHealthyConsumer)) {
+				LOG.info("[{}]: Notified about {} new emails, {} still in inbox", address, itemIds.size(), emails.emails().size());
+				return handleEmails(emails.emails(), address, credential).isEmpty();
+			} catch (final Exception e) {
+				LOG.error("[{}]: Failed to process notified emails", address, e);
+				emailSetUnHealthyConsumer.accept("Failed to process mailbox " + address);
+				return false;
 			}
+		});
+	}
+
+	/**
+	 * Handles the emails one page at a time.
+	 *
+	 * @return the unique ids of the emails that could not be handled
+	 */
+	private Set<String> handleEmails(final List<EmailMessage> emails, final String address, final CredentialsEntity credential) {
+		final var failedItemIds = new LinkedHashSet<String>();
+		for (var from = 0; from < emails.size(); from += LOAD_PAGE_SIZE) {
+			failedItemIds.addAll(handlePage(emails.subList(from, min(from + LOAD_PAGE_SIZE, emails.size())), address, credential));
 		}
+		return failedItemIds;
 	}
 
-	private void handleEmail(final EmailMessage email, final String address, final CredentialsEntity credential) {
-		final Optional<EmailEntity> loaded;
+	private Set<String> handlePage(final List<EmailMessage> page, final String address, final CredentialsEntity credential) {
+		final var failedItemIds = uniqueIdsOf(page, address);
+		final List<EmailEntity> loaded;
 		try {
-			LOG.info("[{}]: Processing email with id '{}'", address, email.getId());
-			loaded = emailService.loadEwsEmail(email, credential, emailSetUnHealthyConsumer);
+			LOG.info("[{}]: Loading {} emails", address, page.size());
+			loaded = emailService.loadEwsEmails(page, credential, emailSetUnHealthyConsumer);
 		} catch (final Exception e) {
-			LOG.error("[{}]: Failed to load email from EWS", address, e);
+			LOG.error("[{}]: Failed to load emails from EWS", address, e);
 			emailSetUnHealthyConsumer.accept("Failed to load email for " + address);
-			return;
+			return failedItemIds;
 		}
-		if (loaded.isEmpty()) {
-			return;
+
+		final var persisted = new ArrayList<EmailEntity>();
+		for (final var email : loaded) {
+			final var saved = persistEmail(email, address);
+			if (saved != null) {
+				persisted.add(saved);
+			}
 		}
+		final var failedMoves = moveEmails(persisted, address, credential);
+		persisted.stream()
+			.map(EmailEntity::getOriginalId)
+			.filter(originalId -> !failedMoves.contains(originalId))
+			.forEach(failedItemIds::remove);
+		return failedItemIds;
+	}
 
-		final EmailEntity saved;
+	private static Set<String> uniqueIdsOf(final List<EmailMessage> page, final String address) {
+		final var uniqueIds = new LinkedHashSet<String>();
+		for (final var message : page) {
+			try {
+				uniqueIds.add(message.getId().getUniqueId());
+			} catch (final Exception e) {
+				LOG.warn("[{}]: Could not read the id of an email, it is not retried if it can not be handled", address, e);
+			}
+		}
+		return uniqueIds;
+	}
+
+	private EmailEntity persistEmail(final EmailEntity email, final String address) {
+		LOG.info("[{}]: Processing email with original id '{}'", address, email.getOriginalId());
 		try {
-			saved = emailService.saveEmail(loaded.get());
+			return emailService.saveEmail(email);
 		} catch (final Exception e) {
-			LOG.error("[{}]: Failed to persist email with original id '{}', leaving in source inbox", address, loaded.get().getOriginalId(), e);
+			LOG.error("[{}]: Failed to persist email with original id '{}', leaving in source inbox", address, email.getOriginalId(), e);
 			emailSetUnHealthyConsumer.accept("Failed to persist email for " + address);
-			return;
+			return null;
+		}
+	}
+
+	/**
+	 * Moves the persisted emails out of the inbox with batched requests. Emails that could not be moved stay in the inbox,
+	 * and are fetched and persisted again on the next run.
+	 *
+	 * @param  persisted  the persisted emails
+	 * @param  address    the address of the mailbox
+	 * @param  credential the credential to use
+	 * @return            the original ids of the emails that could not be moved
+	 */
+	private Set<String> moveEmails(final List<EmailEntity> persisted, final String address, final CredentialsEntity credential) {
+		if (persisted.isEmpty()) {
+			return emptySet();
 		}
 
+		Map<String, String> failedMoves;
 		try {
-			emailService.moveEwsEmail(saved.getOriginalId(), address, credential.getDestinationFolder());
+			final var result = emailService.moveEwsEmails(credential, persisted.stream().map(EmailEntity::getOriginalId).toList(), address);
+			failedMoves = result.failures();
+			updateAttachmentSources(persisted, result, address, credential);
 		} catch (final Exception e) {
-			LOG.error("[{}]: Email persisted (id '{}') but move to '{}' failed, will retry on next run", address, saved.getId(), credential.getDestinationFolder(), e);
-			emailSetUnHealthyConsumer.accept("Failed to move email for " + address);
+			LOG.error("[{}]: Failed to move {} persisted emails", address, persisted.size(), e);
+			failedMoves = persisted.stream().collect(toMap(EmailEntity::getOriginalId, email -> String.valueOf(e.getMessage()), (first, second) -> first));
+		}
+
+		for (final var saved : persisted) {
+			final var reason = failedMoves.get(saved.getOriginalId());
+			if (reason != null) {
+				LOG.error("[{}]: Email persisted (id '{}') but move to '{}' failed, will retry on next run: {}", address, saved.getId(), credential.getDestinationFolder(), reason);
+				emailSetUnHealthyConsumer.accept("Failed to move email for " + address);
+			}
+		}
+		return failedMoves.keySet();
+	}
+
+	/**
+	 * Points attachments that are fetched on first download at the moved emails, since Exchange gives an email a new id
+	 * when it is moved. Moved emails with attachments whose new id was not returned by the move are looked up in the
+	 * destination folder.
+	 */
+	private void updateAttachmentSources(final List<EmailEntity> persisted, final MoveResult result, final String address, final CredentialsEntity credential) {
+		if (!credential.isLazyAttachments()) {
+			return;
+		}
+		final var movedIds = new HashMap<>(result.movedIds());
+		final var withoutNewId = persisted.stream()
+			.filter(email -> email.getAttachments() != null && !email.getAttachments().isEmpty())
+			.filter(email -> !movedIds.containsKey(email.getOriginalId()) && !result.failures().containsKey(email.getOriginalId()))
+			.toList();
+		if (!withoutNewId.isEmpty()) {
+			try {
+				movedIds.putAll(emailService.findMovedEwsEmails(credential, withoutNewId, address));
+			} catch (final Exception e) {
+				LOG.error("[{}]: Failed to find {} moved emails in the destination folder", address, withoutNewId.size(), e);
+			}
+			withoutNewId.stream()
+				.filter(email -> !movedIds.containsKey(email.getOriginalId()))
+				.forEach(email -> {
+					LOG.error("[{}]: Could not find the moved email with original id '{}', its attachments can not be fetched", address, email.getOriginalId());
+					emailSetUnHealthyConsumer.accept("Failed to update attachment sources for " + address);
+				});
+		}
+		if (movedIds.isEmpty()) {
+			return;
+		}
+		try {
+			emailService.updateAttachmentSourceItemIds(movedIds);
+		} catch (final Exception e) {
+			LOG.error("[{}]: Failed to update attachment sources of {} moved emails", address, movedIds.size(), e);
+			emailSetUnHealthyConsumer.accept("Failed to update attachment sources for " + address);
 		}
 	}
 
@@ -107,19 +354,16 @@ public class EwsScheduler {
 		maximumExecutionTime = "${scheduled.maximum-execution-time}")
 	void checkForNewSmsEmails() throws Exception {
 		for (final var credential : emailService.findAllByActionAndActive("SEND_SMS")) {
-			final var messages = getMessagesByCredentials(credential);
-			LOG.info("Fetched {} sms-emails for address '{}'", messages.size(), credential.getEmailAddress());
-			handleMessages(credential, messages);
+			for (final var address : credential.getEmailAddress()) {
+				// The emails are loaded when they are handled, with the ExchangeService leased while they are open
+				try (final var messages = emailService.getAllEmailsInInbox(credential, address, smsSetUnHealthyConsumer)) {
+					LOG.info("Fetched {} sms-emails for address '{}'", messages.emails().size(), address);
+					handleMessages(credential, messages.emails());
+				}
+			}
 		}
 	}
 
-	private List<EmailMessage> getMessagesByCredentials(final CredentialsEntity credentials) {
-		return credentials.getEmailAddress().stream()
-			.map(address -> emailService.getAllEmailsInInbox(credentials, address, smsSetUnHealthyConsumer))
-			.flatMap(List::stream)
-			.toList();
-	}
-
 	private void sendSms(final CredentialsEntity credentials, final List<String> validNumbers, final Map<String, String> emailMap) {
 		for (final var validNumber : validNumbers) {
 			final var smsRequest = new SmsRequest()
@@ -140,7 +384,7 @@ public class EwsScheduler {
 					final var recipient = emailMap.get("Recipient");
 					smsSetUnHealthyConsumer.accept("Recipient or Message is missing in email");
 					LOG.info("Either 'Recipient' or 'Message' is missing in email. Recipient: {}, Message: {}. Skipping email.", recipient, message);
-					ewsIntegration.moveEmail(emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
+					ewsIntegration.moveEmail(credentials, emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
 					continue;
 				}
 
@@ -156,12 +400,12 @@ public class EwsScheduler {
 					LOG.info("Can not send sms to invalid numbers: {}", invalidNumbers);
 				}
 				LOG.debug("Moving sms-email to folder '{}'", credentials.getDestinationFolder());
-				ewsIntegration.moveEmail(emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
+				ewsIntegration.moveEmail(credentials, emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
 			} catch (final Exception e) {
 				smsSetUnHealthyConsumer.accept("Failed to handle sms-email");
 				LOG.error("Failed to handle sms-email", e);
 				LOG.debug("Moving failed sms-email to folder '{}'", credentials.getDestinationFolder());
-				ewsIntegration.moveEmail(emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
+				ewsIntegration.moveEmail(credentials, emailMessage.getId(), emailMessage.getReceivedBy().getAddress(), credentials.getDestinationFolder());
 			}
 		}
 	}
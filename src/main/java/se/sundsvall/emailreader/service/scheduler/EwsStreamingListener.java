@@ -0,0 +1,316 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import net.javacrumbs.shedlock.core.LockConfiguration;
+import net.javacrumbs.shedlock.core.LockProvider;
+import net.javacrumbs.shedlock.core.SimpleLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EwsInboxSubscription;
+import se.sundsvall.emailreader.service.EmailService;
+
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Push based intake of EWS emails. Keeps a streaming subscription open on the inbox of every address of the active
+ * credentials with action PERSIST, and handles new emails as soon as Exchange reports them.
+ * <p>
+ * Every time a subscription is opened the mailbox is polled once, to catch up on emails that arrived while it was not
+ * subscribed. Connections are renewed when Exchange closes them at the end of their lifetime. If a connection can not be
+ * reopened, or the subscription fails, the subscription is recreated with exponential backoff. The scheduled poll keeps
+ * running as a fallback.
+ * <p>
+ * Each mailbox is subscribed by one instance only. An instance takes ownership of a mailbox through a ShedLock lock
+ * before subscribing to it, and extends the lock on every refresh for as long as it keeps the subscription. Mailboxes
+ * owned by another instance are skipped, and taken over once that instance stops extending its lock. An instance that
+ * fails to extend its lock closes the subscription, as the mailbox may already have been taken over.
+ */
+@Component
+@ConditionalOnProperty(name = "scheduled.check-for-new-emails.ews.streaming.enabled", havingValue = "true")
+public class EwsStreamingListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(EwsStreamingListener.class);
+	private static final String LOCK_NAME_PREFIX = "ewsStreaming-";
+	// The number of refreshes an owner may miss before its mailboxes can be taken over
+	private static final int OWNERSHIP_REFRESHES = 3;
+
+	private final Map<MailboxKey, Mailbox> mailboxes = new ConcurrentHashMap<>();
+	private final EmailService emailService;
+	private final EWSIntegration ewsIntegration;
+	private final EwsScheduler ewsScheduler;
+	private final LockProvider lockProvider;
+	private final int connectionLifetimeMinutes;
+	private final Duration reconnectDelay;
+	private final Duration maxReconnectDelay;
+	private final Duration refreshInterval;
+	private final Duration ownershipLifetime;
+	private final ScheduledExecutorService scheduler;
+	private final ExecutorService processingExecutor;
+
+	public EwsStreamingListener(final EmailService emailService, final EWSIntegration ewsIntegration, final EwsScheduler ewsScheduler, final LockProvider lockProvider,
+		@Value("${scheduled.check-for-new-emails.ews.streaming.connection-lifetime-minutes:30}") final int connectionLifetimeMinutes,
+		@Value("${scheduled.check-for-new-emails.ews.streaming.reconnect-delay:PT10S}") final Duration reconnectDelay,
+		@Value("${scheduled.check-for-new-emails.ews.streaming.max-reconnect-delay:PT5M}") final Duration maxReconnectDelay,
+		@Value("${scheduled.check-for-new-emails.ews.streaming.refresh-interval:PT5M}") final Duration refreshInterval) {
+		this(emailService, ewsIntegration, ewsScheduler, lockProvider, connectionLifetimeMinutes, reconnectDelay, maxReconnectDelay, refreshInterval,
+			Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("ews-streaming").daemon().factory()),
+			Executors.newVirtualThreadPerTaskExecutor());
+	}
+
+	EwsStreamingListener(final EmailService emailService, final EWSIntegration ewsIntegration, final EwsScheduler ewsScheduler, final LockProvider lockProvider,
+		final int connectionLifetimeMinutes, final Duration reconnectDelay, final Duration maxReconnectDelay, final Duration refreshInterval,
+		final ScheduledExecutorService scheduler, final ExecutorService processingExecutor) {
+		this.emailService = emailService;
+		this.ewsIntegration = ewsIntegration;
+		this.ewsScheduler = ewsScheduler;
+		this.lockProvider = lockProvider;
+		// Exchange accepts a connection lifetime of 1 to 30 minutes
+		this.connectionLifetimeMinutes = Math.clamp(connectionLifetimeMinutes, 1, 30);
+		this.reconnectDelay = reconnectDelay;
+		this.maxReconnectDelay = maxReconnectDelay;
+		this.refreshInterval = refreshInterval;
+		this.ownershipLifetime = refreshInterval.multipliedBy(OWNERSHIP_REFRESHES);
+		this.scheduler = scheduler;
+		this.processingExecutor = processingExecutor;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		LOG.info("Starting EWS streaming subscriptions, refreshing every {}", refreshInterval);
+		scheduler.scheduleWithFixedDelay(this::refreshSubscriptions, 0, refreshInterval.toMillis(), MILLISECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		scheduler.shutdownNow();
+		mailboxes.values().forEach(Mailbox::close);
+		mailboxes.clear();
+		processingExecutor.shutdown();
+	}
+
+	/**
+	 * Subscribes to mailboxes that have been added since the last refresh and are not owned by another instance, extends
+	 * the ownership of the mailboxes already subscribed, and drops subscriptions for mailboxes that have been removed,
+	 * whose credential is no longer active or whose ownership could not be extended.
+	 */
+	void refreshSubscriptions() {
+		try {
+			final var active = new HashSet<MailboxKey>();
+			final var taken = new HashSet<MailboxKey>();
+			for (final var credential : emailService.findAllByActionAndActive("PERSIST")) {
+				for (final var address : credential.getEmailAddress()) {
+					final var key = new MailboxKey(credential.getId(), address);
+					active.add(key);
+					final var existing = mailboxes.get(key);
+					if (existing != null) {
+						existing.credential = credential;
+					} else {
+						takeOwnership(key).ifPresent(ownership -> {
+							final var mailbox = new Mailbox(key, credential, ownership);
+							mailboxes.put(key, mailbox);
+							taken.add(key);
+							subscribe(mailbox);
+						});
+					}
+				}
+			}
+			mailboxes.values().removeIf(mailbox -> {
+				if (!active.contains(mailbox.key)) {
+					LOG.info("[{}]: Mailbox no longer active, closing streaming subscription", mailbox.key.address());
+					mailbox.close();
+					return true;
+				}
+				if (!taken.contains(mailbox.key) && !extendOwnership(mailbox)) {
+					LOG.warn("[{}]: Could not extend ownership of mailbox, closing streaming subscription", mailbox.key.address());
+					mailbox.closeSubscription();
+					return true;
+				}
+				return false;
+			});
+		} catch (final Exception e) {
+			LOG.error("Failed to refresh EWS streaming subscriptions", e);
+		}
+	}
+
+	private Optional<SimpleLock> takeOwnership(final MailboxKey key) {
+		try {
+			final var ownership = lockProvider.lock(new LockConfiguration(Instant.now(), lockName(key), ownershipLifetime, Duration.ZERO));
+			if (ownership.isEmpty()) {
+				LOG.debug("[{}]: Mailbox is subscribed by another instance", key.address());
+			}
+			return ownership;
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not take ownership of mailbox", key.address(), e);
+			return Optional.empty();
+		}
+	}
+
+	private boolean extendOwnership(final Mailbox mailbox) {
+		try {
+			final var extended = mailbox.ownership.extend(ownershipLifetime, Duration.ZERO);
+			extended.ifPresent(ownership -> mailbox.ownership = ownership);
+			return extended.isPresent();
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not extend ownership of mailbox", mailbox.key.address(), e);
+			return false;
+		}
+	}
+
+	/**
+	 * The name of the lock that owns the mailbox. ShedLock names are limited to 64 characters, so the name is derived from
+	 * the credential id and address rather than made up of them.
+	 */
+	static String lockName(final MailboxKey key) {
+		return LOCK_NAME_PREFIX + UUID.nameUUIDFromBytes((key.credentialId() + ":" + key.address()).getBytes(UTF_8));
+	}
+
+	void subscribe(final Mailbox mailbox) {
+		if (mailboxes.get(mailbox.key) != mailbox) {
+			return;
+		}
+		final var address = mailbox.key.address();
+		try {
+			mailbox.subscription = ewsIntegration.subscribeToInbox(mailbox.credential, address, connectionLifetimeMinutes, new MailboxListener(mailbox));
+			if (mailboxes.get(mailbox.key) != mailbox) {
+				mailbox.closeSubscription();
+				return;
+			}
+			LOG.info("[{}]: Streaming subscription opened", address);
+			mailbox.failures = 0;
+			// Emails that arrived before the subscription was opened are only found by polling
+			processingExecutor.execute(() -> ewsScheduler.handleMailbox(mailbox.credential, address));
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not open streaming subscription", address, e);
+			scheduleResubscribe(mailbox);
+		}
+	}
+
+	void onNewEmails(final Mailbox mailbox, final List<ItemId> itemIds) {
+		processingExecutor.execute(() -> ewsScheduler.handleNewEmails(mailbox.credential, mailbox.key.address(), itemIds));
+	}
+
+	void onDisconnect(final Mailbox mailbox, final Exception exception) {
+		final var address = mailbox.key.address();
+		final var subscription = mailbox.subscription;
+		if (mailboxes.get(mailbox.key) != mailbox || subscription == null) {
+			return;
+		}
+		if (exception != null) {
+			LOG.warn("[{}]: Streaming connection lost, reconnecting", address, exception);
+		}
+		try {
+			subscription.open();
+			LOG.debug("[{}]: Streaming connection renewed", address);
+		} catch (final Exception e) {
+			LOG.warn("[{}]: Could not reopen streaming connection, recreating subscription", address, e);
+			mailbox.closeSubscription();
+			scheduleResubscribe(mailbox);
+		}
+	}
+
+	void onSubscriptionError(final Mailbox mailbox, final Exception exception) {
+		LOG.warn("[{}]: Streaming subscription failed, recreating subscription", mailbox.key.address(), exception);
+		mailbox.closeSubscription();
+		scheduleResubscribe(mailbox);
+	}
+
+	private void scheduleResubscribe(final Mailbox mailbox) {
+		final var delay = reconnectDelayFor(mailbox.failures++);
+		LOG.info("[{}]: Recreating streaming subscription in {}", mailbox.key.address(), delay);
+		scheduler.schedule(() -> subscribe(mailbox), delay.toMillis(), MILLISECONDS);
+	}
+
+	Duration reconnectDelayFor(final int failures) {
+		final var factor = 1L << min(failures, 16);
+		final var delay = reconnectDelay.multipliedBy(factor);
+		return delay.compareTo(maxReconnectDelay) > 0 ? maxReconnectDelay : delay;
+	}
+
+	int size() {
+		return mailboxes.size();
+	}
+
+	record MailboxKey(String credentialId, String address) {
+	}
+
+	static final class Mailbox {
+
+		private final MailboxKey key;
+		private volatile CredentialsEntity credential;
+		private volatile SimpleLock ownership;
+		private volatile EwsInboxSubscription subscription;
+		private volatile int failures;
+
+		Mailbox(final MailboxKey key, final CredentialsEntity credential, final SimpleLock ownership) {
+			this.key = key;
+			this.credential = credential;
+			this.ownership = ownership;
+		}
+
+		/**
+		 * Closes the subscription and gives up the ownership of the mailbox, so that another instance can take it over
+		 * right away.
+		 */
+		void close() {
+			closeSubscription();
+			try {
+				ownership.unlock();
+			} catch (final Exception e) {
+				LOG.debug("[{}]: Could not release ownership of mailbox", key.address(), e);
+			}
+		}
+
+		void closeSubscription() {
+			final var current = subscription;
+			subscription = null;
+			if (current != null) {
+				current.close();
+			}
+		}
+	}
+
+	private final class MailboxListener implements EwsInboxSubscription.Listener {
+
+		private final Mailbox mailbox;
+
+		private MailboxListener(final Mailbox mailbox) {
+			this.mailbox = mailbox;
+		}
+
+		@Override
+		public void onNewEmails(final List<ItemId> itemIds) {
+			EwsStreamingListener.this.onNewEmails(mailbox, itemIds);
+		}
+
+		@Override
+		public void onDisconnect(final Exception exception) {
+			EwsStreamingListener.this.onDisconnect(mailbox, exception);
+		}
+
+		@Override
+		public void onSubscriptionError(final Exception exception) {
+			EwsStreamingListener.this.onSubscriptionError(mailbox, exception);
+		}
+	}
+}
@@ -1,37 +1,85 @@
 package se.sundsvall.emailreader.service.scheduler;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import se.sundsvall.dept44.scheduling.Dept44Scheduled;
 import se.sundsvall.dept44.scheduling.health.Dept44HealthUtility;
 import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphDeltaLinkRepository;
+import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphDeltaLinkEntity;
 import se.sundsvall.emailreader.integration.graph.GraphIntegration;
 import se.sundsvall.emailreader.service.EmailService;
 
+import static java.lang.Math.min;
+import static java.util.Collections.emptyList;
+
 @Component
 public class GraphScheduler {
 	private static final Logger LOG = LoggerFactory.getLogger(GraphScheduler.class);
+	// Number of emails that are moved together, in batches of 20 requests
+	private static final int HANDLE_PAGE_SIZE = 50;
+	// Number of emails whose attachments are fetched together, in one batch, and saved before the next are fetched
+	private static final int ATTACHMENT_BATCH_SIZE = 20;
 	private final Consumer<String> emailSetUnHealthyConsumer;
 	private final GraphIntegration graphIntegration;
 	private final GraphCredentialsRepository graphCredentialsRepository;
+	private final GraphDeltaLinkRepository graphDeltaLinkRepository;
 	private final EmailService emailService;
+	private final MailboxLocks mailboxLocks = new MailboxLocks();
 
 	@Value("${scheduled.check-for-new-emails.graph.name}")
 	private String emailJobName;
+	@Value("${scheduled.check-for-new-emails.graph.incremental-sync.enabled:false}")
+	private boolean incrementalSyncEnabled;
+	@Value("${integration.graph.folder-cache.warm-up.enabled:true}")
+	private boolean folderCacheWarmUpEnabled;
 
-	public GraphScheduler(final GraphIntegration graphIntegration, final GraphCredentialsRepository graphCredentialsRepository, final EmailService emailService, final Dept44HealthUtility dept44HealthUtility) {
+	public GraphScheduler(final GraphIntegration graphIntegration, final GraphCredentialsRepository graphCredentialsRepository, final GraphDeltaLinkRepository graphDeltaLinkRepository,
+		final EmailService emailService, final Dept44HealthUtility dept44HealthUtility) {
 		this.graphIntegration = graphIntegration;
 		this.graphCredentialsRepository = graphCredentialsRepository;
+		this.graphDeltaLinkRepository = graphDeltaLinkRepository;
 		this.emailService = emailService;
 		this.emailSetUnHealthyConsumer = msg -> dept44HealthUtility.setHealthIndicatorUnhealthy(emailJobName, String.format("Email error: %s", msg));
 
 	}
 
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		if (folderCacheWarmUpEnabled) {
+			Thread.ofVirtual().name("graph-folder-cache-warm-up").start(this::warmFolderIds);
+		}
+	}
+
+	/**
+	 * Resolves the destination folder ids of all mailboxes, so that the first run does not have to look them up.
+	 */
+	void warmFolderIds() {
+		LOG.info("Warming Graph folder id cache");
+		graphCredentialsRepository.findAll().forEach(credential -> {
+			try {
+				graphIntegration.warmFolderIds(credential);
+			} catch (final Exception e) {
+				LOG.warn("Could not warm folder ids for Graph credentials with id '{}'", credential.getId(), e);
+			}
+		});
+	}
+
 	@Dept44Scheduled(
 		cron = "${scheduled.check-for-new-emails.graph.cron}",
 		name = "${scheduled.check-for-new-emails.graph.name}",
@@ -42,40 +90,216 @@ public class GraphScheduler {
 		LOG.info("Checking for new emails");
 		graphCredentialsRepository.findAll()
 			.forEach(credential -> credential.getEmailAddress()
-				.forEach(emailAddress -> {
-					final var emails = graphIntegration.getEmails(emailAddress, credential, emailSetUnHealthyConsumer);
-					LOG.info("Fetched {} emails for address '{}'", emails.size(), emailAddress);
-					emails.forEach(email -> handleEmail(email, emailAddress, credential));
-				}));
+				.forEach(emailAddress -> handleMailbox(credential, emailAddress)));
+	}
+
+	/**
+	 * Fetches and handles the emails in the inbox of one mailbox. A mailbox is only handled by one thread at a time, so
+	 * that emails reported by change notifications are not handled at the same time by the scheduled run.
+	 *
+	 * @param credential   the credential to use
+	 * @param emailAddress the address of the mailbox
+	 */
+	void handleMailbox(final GraphCredentialsEntity credential, final String emailAddress) {
+		mailboxLocks.withLock(credential.getId(), emailAddress, () -> {
+			if (incrementalSyncEnabled) {
+				syncMailbox(emailAddress, credential);
+				return null;
+			}
+			final var fetched = new AtomicInteger();
+			graphIntegration.streamEmails(emailAddress, credential, emailSetUnHealthyConsumer, page -> {
+				fetched.addAndGet(page.size());
+				handleEmails(page, emailAddress, credential);
+			});
+			LOG.info("Fetched {} emails for address '{}'", fetched.get(), emailAddress);
+			return null;
+		});
+	}
+
+	/**
+	 * Handles the emails with the given ids, as reported by change notifications for the mailbox.
+	 *
+	 * @param  credential   the credential to use
+	 * @param  emailAddress the address of the mailbox
+	 * @param  messageIds   the ids of the new emails
+	 * @return              true if all emails were handled
+	 */
+	boolean handleNewEmails(final GraphCredentialsEntity credential, final String emailAddress, final List<String> messageIds) {
+		return mailboxLocks.withLock(credential.getId(), emailAddress, () -> {
+			try {
+				final var emails = graphIntegration.getEmails(emailAddress, credential, messageIds, emailSetUnHealthyConsumer);
+				LOG.info("Notified about {} new emails for address '{}', {} still in inbox", messageIds.size(), emailAddress, emails.size());
+				return handleEmails(emails, emailAddress, credential).isEmpty();
+			} catch (final Exception e) {
+				LOG.error("Failed to handle notified emails for address '{}'", emailAddress, e);
+				emailSetUnHealthyConsumer.accept("[Graph] Failed to handle notified emails");
+				return false;
+			}
+		});
+	}
+
+	/**
+	 * Fetches and handles the emails added to the inbox since the last run, using the delta link stored for the mailbox.
+	 * The new delta link is stored even if some emails could not be handled. Their ids are stored together with the delta
+	 * link, and they are fetched again by id and retried on the next run, so that one failing email does not keep the
+	 * delta link from moving on. If the pending emails can not be fetched, the stored delta link and pending ids are kept.
+	 *
+	 * @param emailAddress the address of the mailbox
+	 * @param credential   the credential to use
+	 */
+	private void syncMailbox(final String emailAddress, final GraphCredentialsEntity credential) {
+		final var storedDeltaLink = graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress(credential.getId(), emailAddress);
+		final var pendingIds = storedDeltaLink.map(GraphDeltaLinkEntity::getPendingMessageIds)
+			.map(List::copyOf)
+			.orElse(emptyList());
+		final var inboxDelta = graphIntegration.getEmailsDelta(emailAddress, credential, storedDeltaLink.map(GraphDeltaLinkEntity::getDeltaLink).orElse(null), emailSetUnHealthyConsumer);
+		LOG.info("Fetched {} new or changed emails for address '{}'", inboxDelta.emails().size(), emailAddress);
+
+		final var emails = new ArrayList<EmailEntity>();
+		if (!pendingIds.isEmpty()) {
+			try {
+				emails.addAll(graphIntegration.getEmailsOrThrow(emailAddress, credential, pendingIds));
+				LOG.info("Retrying {} emails for address '{}' that could not be handled before, {} still in inbox", pendingIds.size(), emailAddress, emails.size());
+			} catch (final Exception e) {
+				LOG.error("Failed to fetch pending emails for address '{}', keeping previous delta link", emailAddress, e);
+				emailSetUnHealthyConsumer.accept("[Graph] Failed to fetch pending emails");
+				return;
+			}
+		}
+		inboxDelta.emails().stream()
+			.filter(email -> !pendingIds.contains(email.getOriginalId()))
+			.forEach(emails::add);
+
+		final var failedIds = handleEmails(emails, emailAddress, credential);
+		if (!failedIds.isEmpty()) {
+			LOG.warn("{} emails could not be handled for address '{}', they are retried on the next run", failedIds.size(), emailAddress);
+		}
+		if (inboxDelta.deltaLink() == null && storedDeltaLink.isEmpty()) {
+			return;
+		}
+		final var entity = storedDeltaLink.orElseGet(() -> GraphDeltaLinkEntity.builder()
+			.withGraphCredentialsId(credential.getId())
+			.withEmailAddress(emailAddress)
+			.build());
+		if (inboxDelta.deltaLink() != null) {
+			entity.setDeltaLink(inboxDelta.deltaLink());
+		}
+		entity.setPendingMessageIds(new HashSet<>(failedIds));
+		graphDeltaLinkRepository.save(entity);
 	}
 
-	private void handleEmail(final EmailEntity email, final String emailAddress, final GraphCredentialsEntity credential) {
+	/**
+	 * Handles the emails in pages of {@value #HANDLE_PAGE_SIZE}.
+	 *
+	 * @return the original ids of the emails that could not be handled
+	 */
+	private Set<String> handleEmails(final List<EmailEntity> emails, final String emailAddress, final GraphCredentialsEntity credential) {
+		final var failedIds = new LinkedHashSet<String>();
+		for (var from = 0; from < emails.size(); from += HANDLE_PAGE_SIZE) {
+			failedIds.addAll(handlePage(emails.subList(from, min(from + HANDLE_PAGE_SIZE, emails.size())), emailAddress, credential));
+		}
+		return failedIds;
+	}
+
+	/**
+	 * Fetches the attachments of the emails of a page, persists each email together with its attachments and moves them
+	 * out of the inbox. Attachments are fetched with one batched Graph request per {@value #ATTACHMENT_BATCH_SIZE} emails,
+	 * and only for the emails whose attachments are not already known from the listing. The emails of a batch are
+	 * persisted, and their attachments released, before the attachments of the next batch are fetched, so that at most one
+	 * batch of attachments is held in memory. Since the attachments are fetched before the email is persisted, each email
+	 * is written once, in one transaction. The persisted emails of the page are moved with batched requests. An email is
+	 * only persisted when its attachments could be fetched, and only moved when it has been persisted, otherwise it is left
+	 * in the inbox and handled again on the next run.
+	 *
+	 * @param  page         the emails to handle
+	 * @param  emailAddress the address of the mailbox
+	 * @param  credential   the credential to use
+	 * @return              the original ids of the emails that could not be handled
+	 */
+	private Set<String> handlePage(final List<EmailEntity> page, final String emailAddress, final GraphCredentialsEntity credential) {
+		final var failedIds = new LinkedHashSet<>(originalIds(page));
+
+		final var persisted = new ArrayList<String>();
+		for (var from = 0; from < page.size(); from += ATTACHMENT_BATCH_SIZE) {
+			final var batch = page.subList(from, min(from + ATTACHMENT_BATCH_SIZE, page.size()));
+			fetchAttachments(batch, emailAddress, credential);
+			for (final var email : batch) {
+				if (email.getAttachments() == null) {
+					// The attachments could not be fetched, which has already been reported
+					continue;
+				}
+				try {
+					LOG.info("Saving email with original id '{}' and {} attachments", email.getOriginalId(), email.getAttachments().size());
+					emailService.saveEmail(email);
+					persisted.add(email.getOriginalId());
+				} catch (final Exception e) {
+					LOG.error("Failed to persist email with original id '{}', leaving in source folder", email.getOriginalId(), e);
+					emailSetUnHealthyConsumer.accept("[Graph] Failed to handle individual email");
+				} finally {
+					// Release the attachments, they have been written or are fetched again on the next run
+					email.setAttachments(emptyList());
+				}
+			}
+		}
+		if (persisted.isEmpty()) {
+			return failedIds;
+		}
+
 		try {
-			LOG.info("Saving email with original id '{}'", email.getOriginalId());
-			emailService.saveEmail(email);
+			LOG.info("Moving {} emails to folder '{}'", persisted.size(), credential.getDestinationFolder());
+			final var moved = graphIntegration.moveEmails(emailAddress, persisted, credential, emailSetUnHealthyConsumer);
+			for (final var originalId : persisted) {
+				if (moved.contains(originalId)) {
+					failedIds.remove(originalId);
+				} else {
+					LOG.error("Email persisted but failed to move email with original id '{}', will retry on next run", originalId);
+					emailSetUnHealthyConsumer.accept("[Graph] Failed to move email after successful persistence");
+				}
+			}
 		} catch (final Exception e) {
-			LOG.error("Failed to persist email with original id '{}', leaving in source folder", email.getOriginalId(), e);
-			emailSetUnHealthyConsumer.accept("[Graph] Failed to handle individual email");
+			LOG.error("Emails persisted but failed to move {} emails, will retry on next run", persisted.size(), e);
+			emailSetUnHealthyConsumer.accept("[Graph] Failed to move email after successful persistence");
+		}
+		return failedIds;
+	}
+
+	/**
+	 * Fetches the attachments of the emails whose attachments are not known from the listing, and sets them on the emails.
+	 * Emails whose attachments could not be fetched are left without attachments.
+	 */
+	private void fetchAttachments(final List<EmailEntity> page, final String emailAddress, final GraphCredentialsEntity credential) {
+		final var emails = page.stream()
+			.filter(email -> email.getAttachments() == null)
+			.toList();
+		if (emails.isEmpty()) {
 			return;
 		}
 
+		final Map<String, List<AttachmentEntity>> attachments;
 		try {
-			LOG.info("Fetching attachments for email with original id '{}'", email.getOriginalId());
-			email.setAttachments(graphIntegration.getAttachments(emailAddress, credential, email.getOriginalId(), emailSetUnHealthyConsumer));
-			LOG.info("Fetched {} attachments for email with original id '{}'", email.getAttachments().size(), email.getOriginalId());
-			emailService.saveEmail(email);
+			LOG.info("Fetching attachments for {} emails", emails.size());
+			attachments = graphIntegration.getAttachments(emailAddress, credential, originalIds(emails), emailSetUnHealthyConsumer);
 		} catch (final Exception e) {
-			LOG.error("Email persisted but attachment fetch/save failed for original id '{}', leaving in source folder for retry", email.getOriginalId(), e);
+			LOG.error("Attachment fetch failed for {} emails, leaving in source folder for retry", emails.size(), e);
 			emailSetUnHealthyConsumer.accept("[Graph] Failed to handle individual email");
 			return;
 		}
 
-		try {
-			LOG.info("Moving email with original id '{}' to folder '{}'", email.getOriginalId(), credential.getDestinationFolder());
-			graphIntegration.moveEmail(emailAddress, email.getOriginalId(), credential, emailSetUnHealthyConsumer);
-		} catch (final Exception e) {
-			LOG.error("Email persisted but failed to move email with original id '{}', will retry on next run", email.getOriginalId(), e);
-			emailSetUnHealthyConsumer.accept("[Graph] Failed to move email after successful persistence");
+		for (final var email : emails) {
+			final var fetched = attachments.get(email.getOriginalId());
+			if (fetched == null) {
+				LOG.error("Attachment fetch failed for original id '{}', leaving in source folder for retry", email.getOriginalId());
+				emailSetUnHealthyConsumer.accept("[Graph] Failed to handle individual email");
+			} else {
+				email.setAttachments(fetched);
+				LOG.info("Fetched {} attachments for email with original id '{}'", fetched.size(), email.getOriginalId());
+			}
 		}
 	}
+
+	private static List<String> originalIds(final List<EmailEntity> emails) {
+		return emails.stream()
+			.map(EmailEntity::getOriginalId)
+			.toList();
+	}
 }
@@ -0,0 +1,331 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import com.microsoft.kiota.ApiException;
+import jakarta.annotation.PreDestroy;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.sundsvall.dept44.scheduling.Dept44Scheduled;
+import se.sundsvall.emailreader.api.model.GraphNotification;
+import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphSubscriptionRepository;
+import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphSubscriptionEntity;
+import se.sundsvall.emailreader.integration.graph.GraphIntegration;
+
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+import static org.springframework.web.util.UriComponentsBuilder.fromUriString;
+
+/**
+ * Push based intake of Graph emails. Keeps a subscription for change notifications on the inbox of every address of the
+ * Graph credentials, and handles the emails reported by the notifications as soon as they arrive.
+ * <p>
+ * Subscriptions are stored in the database, so that the notifications can be validated by any instance. A scheduled
+ * reconciliation creates missing subscriptions, renews subscriptions that are about to expire and deletes subscriptions
+ * for addresses that have been removed. Every time a subscription is created, and when Graph reports that notifications
+ * were missed, the mailbox is polled once to catch up. The scheduled poll for new emails keeps running as a fallback.
+ * <p>
+ * The work for the notifications is queued per mailbox, and notifications for a mailbox that already has work waiting
+ * are merged into it, so that a burst of notifications leads to one fetch per mailbox. The queued work is processed by a
+ * fixed number of threads, which bounds the load on Graph and the database however many notifications arrive.
+ */
+@Component
+public class GraphSubscriptionManager {
+
+	private static final Logger LOG = LoggerFactory.getLogger(GraphSubscriptionManager.class);
+	private static final String NOTIFICATION_PATH = "/{municipalityId}/graph/notifications";
+	private static final String CREATED = "created";
+	private static final String REAUTHORIZATION_REQUIRED = "reauthorizationRequired";
+	private static final String SUBSCRIPTION_REMOVED = "subscriptionRemoved";
+	private static final String MISSED = "missed";
+	private static final int NOT_FOUND = 404;
+
+	private final GraphIntegration graphIntegration;
+	private final GraphCredentialsRepository graphCredentialsRepository;
+	private final GraphSubscriptionRepository graphSubscriptionRepository;
+	private final GraphScheduler graphScheduler;
+	private final String notificationBaseUrl;
+	private final Duration expiration;
+	private final Duration renewBefore;
+	private final Clock clock;
+	private final ExecutorService processingExecutor;
+	// Work waiting to be processed, per mailbox. There is at most one queued task per mailbox with waiting work
+	private final Map<MailboxKey, MailboxWork> pendingWork = new ConcurrentHashMap<>();
+
+	public GraphSubscriptionManager(final GraphIntegration graphIntegration, final GraphCredentialsRepository graphCredentialsRepository,
+		final GraphSubscriptionRepository graphSubscriptionRepository, final GraphScheduler graphScheduler,
+		@Value("${integration.graph.notifications.base-url:}") final String notificationBaseUrl,
+		@Value("${integration.graph.notifications.expiration:PT72H}") final Duration expiration,
+		@Value("${integration.graph.notifications.renew-before:PT24H}") final Duration renewBefore,
+		@Value("${integration.graph.notifications.max-concurrency:4}") final int maxConcurrency) {
+		this(graphIntegration, graphCredentialsRepository, graphSubscriptionRepository, graphScheduler, notificationBaseUrl, expiration, renewBefore,
+			Clock.systemUTC(), Executors.newFixedThreadPool(max(1, maxConcurrency), Thread.ofVirtual().name("graph-notifications-", 0).factory()));
+	}
+
+	GraphSubscriptionManager(final GraphIntegration graphIntegration, final GraphCredentialsRepository graphCredentialsRepository,
+		final GraphSubscriptionRepository graphSubscriptionRepository, final GraphScheduler graphScheduler, final String notificationBaseUrl,
+		final Duration expiration, final Duration renewBefore, final Clock clock, final ExecutorService processingExecutor) {
+		this.graphIntegration = graphIntegration;
+		this.graphCredentialsRepository = graphCredentialsRepository;
+		this.graphSubscriptionRepository = graphSubscriptionRepository;
+		this.graphScheduler = graphScheduler;
+		this.notificationBaseUrl = notificationBaseUrl;
+		this.expiration = expiration;
+		this.renewBefore = renewBefore;
+		this.clock = clock;
+		this.processingExecutor = processingExecutor;
+	}
+
+	@PreDestroy
+	void stop() {
+		processingExecutor.shutdown();
+	}
+
+	@Dept44Scheduled(
+		cron = "${scheduled.graph-subscriptions.cron}",
+		name = "${scheduled.graph-subscriptions.name}",
+		lockAtMostFor = "${scheduled.shedlock-lock-at-most-for}",
+		maximumExecutionTime = "${scheduled.maximum-execution-time}")
+	public void reconcileSubscriptions() {
+		if (notificationBaseUrl == null || notificationBaseUrl.isBlank()) {
+			LOG.warn("No notification url configured, not subscribing to Graph change notifications");
+			return;
+		}
+
+		LOG.info("Reconciling Graph subscriptions");
+		final var subscriptions = graphSubscriptionRepository.findAll().stream()
+			.collect(toMap(subscription -> new MailboxKey(subscription.getGraphCredentialsId(), subscription.getEmailAddress()), identity()));
+		final var active = new HashSet<MailboxKey>();
+		for (final var credential : graphCredentialsRepository.findAll()) {
+			for (final var address : credential.getEmailAddress()) {
+				final var key = new MailboxKey(credential.getId(), address);
+				active.add(key);
+				final var subscription = subscriptions.get(key);
+				if (subscription == null) {
+					subscribe(credential, address);
+				} else if (subscription.getExpiresAt() == null || subscription.getExpiresAt().isBefore(now().plus(renewBefore))) {
+					renew(credential, subscription);
+				}
+			}
+		}
+		subscriptions.forEach((key, subscription) -> {
+			if (!active.contains(key)) {
+				unsubscribe(subscription);
+			}
+		});
+	}
+
+	/**
+	 * Validates the notifications against the stored subscriptions, and queues the valid ones for processing.
+	 * Notifications for unknown subscriptions, with the wrong client state or for another municipality are ignored. The
+	 * notifications are processed in the background, since Graph expects the notification request to be answered within
+	 * a few seconds.
+	 *
+	 * @param municipalityId the municipality id in the notification url
+	 * @param notifications  the notifications
+	 */
+	public void handleNotifications(final String municipalityId, final List<GraphNotification> notifications) {
+		for (final var notification : notifications) {
+			final var mailbox = findMailbox(municipalityId, notification);
+			if (mailbox == null) {
+				continue;
+			}
+
+			final var lifecycleEvent = notification.lifecycleEvent();
+			if (MISSED.equals(lifecycleEvent)) {
+				LOG.info("Received lifecycle event '{}' for address '{}'", lifecycleEvent, mailbox.subscription().getEmailAddress());
+				enqueue(mailbox.credential(), mailbox.subscription().getEmailAddress(), work -> work.poll = true);
+			} else if (lifecycleEvent != null) {
+				enqueue(mailbox.credential(), mailbox.subscription().getEmailAddress(), work -> {
+					work.subscription = mailbox.subscription();
+					work.lifecycleEvents.add(lifecycleEvent);
+				});
+			} else if (CREATED.equals(notification.changeType()) && notification.resourceData() != null && notification.resourceData().id() != null) {
+				enqueue(mailbox.credential(), mailbox.subscription().getEmailAddress(), work -> work.messageIds.add(notification.resourceData().id()));
+			}
+		}
+	}
+
+	/**
+	 * Merges the work into the work waiting for the mailbox, and queues a task for the mailbox if no work was waiting.
+	 */
+	private void enqueue(final GraphCredentialsEntity credential, final String address, final Consumer<MailboxWork> merge) {
+		final var key = new MailboxKey(credential.getId(), address);
+		final var created = new AtomicBoolean();
+		pendingWork.compute(key, (mailboxKey, existing) -> {
+			final var work = existing == null ? new MailboxWork() : existing;
+			created.set(existing == null);
+			work.credential = credential;
+			merge.accept(work);
+			return work;
+		});
+		if (!created.get()) {
+			return;
+		}
+		try {
+			processingExecutor.execute(() -> process(key));
+		} catch (final RejectedExecutionException e) {
+			pendingWork.remove(key);
+			LOG.warn("Could not queue notifications for address '{}', shutting down", address, e);
+		}
+	}
+
+	/**
+	 * Processes the work waiting for the mailbox. The work is taken when the task starts, so notifications that arrive
+	 * while the task is queued are handled by it.
+	 */
+	private void process(final MailboxKey key) {
+		final var work = pendingWork.remove(key);
+		if (work == null) {
+			return;
+		}
+
+		final var address = key.address();
+		try {
+			for (final var lifecycleEvent : work.lifecycleEvents) {
+				handleLifecycleEvent(new Mailbox(work.credential, work.subscription), lifecycleEvent);
+			}
+			if (work.poll) {
+				// Polling the mailbox also handles the notified emails
+				graphScheduler.handleMailbox(work.credential, address);
+			} else if (!work.messageIds.isEmpty()) {
+				graphScheduler.handleNewEmails(work.credential, address, List.copyOf(work.messageIds));
+			}
+		} catch (final Exception e) {
+			LOG.error("Failed to process notifications for address '{}'", address, e);
+		}
+	}
+
+	private Mailbox findMailbox(final String municipalityId, final GraphNotification notification) {
+		final var subscription = graphSubscriptionRepository.findBySubscriptionId(notification.subscriptionId()).orElse(null);
+		if (subscription == null) {
+			LOG.warn("Ignoring notification for unknown subscription '{}'", notification.subscriptionId());
+			return null;
+		}
+		if (!isValidClientState(subscription, notification.clientState())) {
+			LOG.warn("Ignoring notification with invalid client state for subscription '{}'", notification.subscriptionId());
+			return null;
+		}
+		final var credential = graphCredentialsRepository.findById(subscription.getGraphCredentialsId())
+			.filter(graphCredential -> municipalityId.equals(graphCredential.getMunicipalityId()))
+			.orElse(null);
+		if (credential == null) {
+			LOG.warn("Ignoring notification for subscription '{}' without matching credentials", notification.subscriptionId());
+			return null;
+		}
+		return new Mailbox(credential, subscription);
+	}
+
+	void handleLifecycleEvent(final Mailbox mailbox, final String lifecycleEvent) {
+		final var address = mailbox.subscription().getEmailAddress();
+		LOG.info("Received lifecycle event '{}' for address '{}'", lifecycleEvent, address);
+		switch (lifecycleEvent) {
+			case REAUTHORIZATION_REQUIRED -> renew(mailbox.credential(), mailbox.subscription());
+			case SUBSCRIPTION_REMOVED -> {
+				graphSubscriptionRepository.delete(mailbox.subscription());
+				subscribe(mailbox.credential(), address);
+			}
+			default -> LOG.info("Ignoring unknown lifecycle event '{}'", lifecycleEvent);
+		}
+	}
+
+	void subscribe(final GraphCredentialsEntity credential, final String address) {
+		try {
+			final var clientState = UUID.randomUUID().toString();
+			final var notificationUrl = fromUriString(notificationBaseUrl).path(NOTIFICATION_PATH).buildAndExpand(credential.getMunicipalityId()).toUriString();
+			final var subscription = graphIntegration.subscribeToInbox(address, credential, notificationUrl, clientState, now().plus(expiration));
+			graphSubscriptionRepository.save(GraphSubscriptionEntity.builder()
+				.withGraphCredentialsId(credential.getId())
+				.withEmailAddress(address)
+				.withSubscriptionId(subscription.getId())
+				.withClientState(clientState)
+				.withExpiresAt(subscription.getExpirationDateTime())
+				.build());
+			LOG.info("Subscribed to change notifications for address '{}'", address);
+		} catch (final Exception e) {
+			LOG.warn("Could not subscribe to change notifications for address '{}'", address, e);
+			return;
+		}
+		// Emails that arrived before the subscription was created are only found by polling
+		enqueue(credential, address, work -> work.poll = true);
+	}
+
+	void renew(final GraphCredentialsEntity credential, final GraphSubscriptionEntity subscription) {
+		final var address = subscription.getEmailAddress();
+		try {
+			subscription.setExpiresAt(graphIntegration.renewSubscription(credential, subscription.getSubscriptionId(), now().plus(expiration)));
+			graphSubscriptionRepository.save(subscription);
+			LOG.info("Renewed subscription for address '{}' until {}", address, subscription.getExpiresAt());
+		} catch (final Exception e) {
+			final var removed = e instanceof final ApiException apiException && apiException.getResponseStatusCode() == NOT_FOUND;
+			final var expired = subscription.getExpiresAt() == null || !subscription.getExpiresAt().isAfter(now());
+			if (!removed && !expired) {
+				LOG.warn("Could not renew subscription for address '{}', retrying on next reconciliation", address, e);
+				return;
+			}
+			LOG.warn("Subscription for address '{}' no longer exists, recreating it", address, e);
+			graphSubscriptionRepository.delete(subscription);
+			subscribe(credential, address);
+		}
+	}
+
+	void unsubscribe(final GraphSubscriptionEntity subscription) {
+		final var address = subscription.getEmailAddress();
+		try {
+			graphCredentialsRepository.findById(subscription.getGraphCredentialsId())
+				.ifPresent(credential -> graphIntegration.unsubscribe(credential, subscription.getSubscriptionId()));
+			LOG.info("Unsubscribed from change notifications for removed address '{}'", address);
+		} catch (final Exception e) {
+			LOG.warn("Could not delete subscription for removed address '{}', leaving it to expire", address, e);
+		}
+		graphSubscriptionRepository.delete(subscription);
+	}
+
+	private OffsetDateTime now() {
+		return OffsetDateTime.now(clock);
+	}
+
+	private static boolean isValidClientState(final GraphSubscriptionEntity subscription, final String clientState) {
+		return clientState != null && subscription.getClientState() != null
+			&& MessageDigest.isEqual(subscription.getClientState().getBytes(UTF_8), clientState.getBytes(UTF_8));
+	}
+
+	record MailboxKey(String graphCredentialsId, String address) {
+	}
+
+	record Mailbox(GraphCredentialsEntity credential, GraphSubscriptionEntity subscription) {
+	}
+
+	/**
+	 * The work waiting for a mailbox. Only changed within the compute function of the map, and only read once it has been
+	 * removed from the map.
+	 */
+	private static final class MailboxWork {
+
+		private final Set<String> messageIds = new LinkedHashSet<>();
+		private final Set<String> lifecycleEvents = new LinkedHashSet<>();
+		private GraphCredentialsEntity credential;
+		private GraphSubscriptionEntity subscription;
+		private boolean poll;
+	}
+}
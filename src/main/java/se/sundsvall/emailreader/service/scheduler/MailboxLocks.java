@@ -0,0 +1,67 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Locks that make sure that a mailbox is only handled by one thread at a time, keyed by credential id and address.
+ * <p>
+ * A lock only exists while some thread holds it or waits for it, and is removed when the last of them is done. Locks for
+ * mailboxes that are no longer handled, for example because their credential has been deleted, are therefore never kept.
+ */
+final class MailboxLocks {
+
+	private final Map<String, CountedLock> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs the action while holding the lock of the mailbox.
+	 *
+	 * @param  credentialId the id of the credential of the mailbox
+	 * @param  address      the address of the mailbox
+	 * @param  action       the action to run
+	 * @return              the result of the action
+	 */
+	<T> T withLock(final String credentialId, final String address, final Supplier<T> action) {
+		final var key = credentialId + ":" + address;
+		final var countedLock = locks.compute(key, (lockKey, existing) -> (existing == null ? new CountedLock() : existing).acquire());
+		countedLock.lock().lock();
+		try {
+			return action.get();
+		} finally {
+			countedLock.lock().unlock();
+			locks.computeIfPresent(key, (lockKey, existing) -> existing.release() ? null : existing);
+		}
+	}
+
+	int size() {
+		return locks.size();
+	}
+
+	/**
+	 * A lock together with the number of threads that hold it or wait for it. The count is only changed from within the
+	 * compute functions of the map, which run one at a time per key.
+	 */
+	private static final class CountedLock {
+
+		private final ReentrantLock lock = new ReentrantLock();
+		private int users;
+
+		ReentrantLock lock() {
+			return lock;
+		}
+
+		CountedLock acquire() {
+			users++;
+			return this;
+		}
+
+		/**
+		 * @return true if no thread uses the lock anymore
+		 */
+		boolean release() {
+			return --users == 0;
+		}
+	}
+}
@@ -1,13 +1,19 @@
 package se.sundsvall.emailreader.utility;
 
 import jakarta.persistence.EntityManager;
+import java.io.InputStream;
 import java.sql.Blob;
+import java.sql.SQLException;
 import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 @Component
 public class BlobBuilder {
 
+	private static final Logger LOG = LoggerFactory.getLogger(BlobBuilder.class);
+
 	private final EntityManager entityManager;
 
 	public BlobBuilder(final EntityManager entityManager) {
@@ -19,4 +25,32 @@ public class BlobBuilder {
 		return session.getLobHelper().createBlob(content);
 	}
 
+	/**
+	 * Creates a blob that reads its content from the stream when it is persisted, without holding the content in memory.
+	 *
+	 * @param  content the stream to read the content from, read at most once
+	 * @param  length  the number of bytes in the stream
+	 * @return         the blob
+	 */
+	public Blob createBlob(final InputStream content, final long length) {
+		final var session = entityManager.unwrap(Session.class);
+		return session.getLobHelper().createBlob(content, length);
+	}
+
+	/**
+	 * Frees the blob, which closes the stream of a blob created from a stream. Failures are logged and ignored.
+	 *
+	 * @param blob the blob to free, may be null
+	 */
+	public void free(final Blob blob) {
+		if (blob == null) {
+			return;
+		}
+		try {
+			blob.free();
+		} catch (final SQLException | RuntimeException e) {
+			LOG.warn("Could not free blob", e);
+		}
+	}
+
 }
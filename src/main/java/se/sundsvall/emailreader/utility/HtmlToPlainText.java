@@ -0,0 +1,261 @@
+package se.sundsvall.emailreader.utility;
+
+/**
+ * Converts HTML to plain text in a single pass over the HTML, writing the text to one buffer that is sized after the
+ * HTML.
+ * <p>
+ * Tags and comments are removed, and the content of style and script elements is skipped. Line breaks ({@code <br>} and
+ * closing {@code span} tags) become new lines. Runs of spaces and tabs become a single space, like when the HTML is
+ * rendered, and spaces next to a new line are removed. Named entities for the most common characters and all numeric
+ * entities are decoded, a non-breaking space becomes a space. Anything that does not look like a tag or a known entity,
+ * such as a {@code <} followed by a space, is kept as text.
+ */
+public final class HtmlToPlainText {
+
+	private static final String COMMENT_START = "<!--";
+	private static final String COMMENT_END = "-->";
+	private static final char NON_BREAKING_SPACE = '\u00A0';
+	// Longest entity name, or number of digits in a numeric entity, that is decoded
+	private static final int MAX_ENTITY_LENGTH = 8;
+	private static final String[] ENTITY_NAMES = {
+		"nbsp", "lt", "gt", "amp", "quot", "apos", "aring", "auml", "ouml", "Aring", "Auml", "Ouml", "eacute", "ndash", "mdash", "hellip"
+	};
+	private static final char[] ENTITY_CHARS = {
+		' ', '<', '>', '&', '"', '\'', '\u00E5', '\u00E4', '\u00F6', '\u00C5', '\u00C4', '\u00D6', '\u00E9', '\u2013', '\u2014', '\u2026'
+	};
+
+	private HtmlToPlainText() {
+		// Prevent instantiation
+	}
+
+	/**
+	 * Converts the HTML to plain text.
+	 *
+	 * @param  html the HTML to convert
+	 * @return      the plain text, or null if the HTML is null or has no text content
+	 */
+	public static String convert(final String html) {
+		if (html == null) {
+			return null;
+		}
+
+		final var text = new StringBuilder(html.length());
+		var index = 0;
+		while (index < html.length()) {
+			final var c = html.charAt(index);
+			if (c == '<') {
+				index = tag(html, index, text);
+			} else if (c == '&') {
+				index = entity(html, index, text);
+			} else {
+				append(text, c);
+				index++;
+			}
+		}
+		return trimmed(text);
+	}
+
+	/**
+	 * Handles the tag starting at the index.
+	 *
+	 * @return the index after the tag, and after the content for style and script elements
+	 */
+	private static int tag(final String html, final int start, final StringBuilder text) {
+		if (html.startsWith(COMMENT_START, start)) {
+			final var end = html.indexOf(COMMENT_END, start + COMMENT_START.length());
+			return end < 0 ? html.length() : end + COMMENT_END.length();
+		}
+
+		final var closing = start + 1 < html.length() && html.charAt(start + 1) == '/';
+		final var nameStart = closing ? start + 2 : start + 1;
+		if (nameStart >= html.length() || !isTagStart(html.charAt(nameStart))) {
+			text.append('<');
+			return start + 1;
+		}
+		final var end = tagEnd(html, nameStart);
+		if (end < 0) {
+			text.append('<');
+			return start + 1;
+		}
+
+		var nameEnd = nameStart;
+		while (nameEnd < end && Character.isLetterOrDigit(html.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		if (isName(html, nameStart, nameEnd, "br") || (closing && isName(html, nameStart, nameEnd, "span"))) {
+			newLine(text);
+		} else if (!closing && html.charAt(end - 1) != '/') {
+			if (isName(html, nameStart, nameEnd, "style")) {
+				return skipElementContent(html, end + 1, "style");
+			}
+			if (isName(html, nameStart, nameEnd, "script")) {
+				return skipElementContent(html, end + 1, "script");
+			}
+		}
+		return end + 1;
+	}
+
+	private static boolean isTagStart(final char c) {
+		return Character.isLetter(c) || c == '!' || c == '?';
+	}
+
+	/**
+	 * Finds the {@code >} that ends the tag, ignoring any {@code >} within quoted attribute values.
+	 *
+	 * @return the index of the end of the tag, or -1 if the tag does not end
+	 */
+	private static int tagEnd(final String html, final int from) {
+		var quote = (char) 0;
+		var previous = (char) 0;
+		for (var index = from; index < html.length(); index++) {
+			final var c = html.charAt(index);
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '>') {
+				return index;
+			} else if ((c == '"' || c == '\'') && previous == '=') {
+				quote = c;
+			}
+			if (!Character.isWhitespace(c)) {
+				previous = c;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isName(final String html, final int nameStart, final int nameEnd, final String name) {
+		return nameEnd - nameStart == name.length() && html.regionMatches(true, nameStart, name, 0, name.length());
+	}
+
+	/**
+	 * Skips the content of a style or script element up to and including its end tag.
+	 *
+	 * @return the index after the end tag, or the length of the HTML if the element does not end
+	 */
+	private static int skipElementContent(final String html, final int from, final String name) {
+		var index = html.indexOf('<', from);
+		while (index >= 0) {
+			if (index + 1 < html.length() && html.charAt(index + 1) == '/' && html.regionMatches(true, index + 2, name, 0, name.length())) {
+				final var end = html.indexOf('>', index);
+				return end < 0 ? html.length() : end + 1;
+			}
+			index = html.indexOf('<', index + 1);
+		}
+		return html.length();
+	}
+
+	/**
+	 * Decodes the entity starting at the index, or keeps the {@code &} as text if it does not start a known entity.
+	 *
+	 * @return the index after the entity
+	 */
+	private static int entity(final String html, final int start, final StringBuilder text) {
+		final var end = entityEnd(html, start + 1);
+		if (end < 0) {
+			text.append('&');
+			return start + 1;
+		}
+
+		if (html.charAt(start + 1) == '#') {
+			final var codePoint = codePoint(html, start + 2, end);
+			if (codePoint < 0) {
+				text.append('&');
+				return start + 1;
+			}
+			if (codePoint == NON_BREAKING_SPACE) {
+				append(text, ' ');
+			} else if (Character.isBmpCodePoint(codePoint)) {
+				append(text, (char) codePoint);
+			} else {
+				text.appendCodePoint(codePoint);
+			}
+			return end + 1;
+		}
+
+		for (var i = 0; i < ENTITY_NAMES.length; i++) {
+			if (end - start - 1 == ENTITY_NAMES[i].length() && html.startsWith(ENTITY_NAMES[i], start + 1)) {
+				append(text, ENTITY_CHARS[i]);
+				return end + 1;
+			}
+		}
+		text.append('&');
+		return start + 1;
+	}
+
+	/**
+	 * Finds the {@code ;} that ends an entity, looking no further than the longest entity that is decoded so that text
+	 * with many {@code &} is not searched over and over.
+	 *
+	 * @return the index of the end of the entity, or -1 if there is no entity
+	 */
+	private static int entityEnd(final String html, final int from) {
+		// Room for a leading #x before the digits of a hexadecimal entity
+		final var to = Math.min(html.length(), from + MAX_ENTITY_LENGTH + 3);
+		for (var index = from; index < to; index++) {
+			if (html.charAt(index) == ';') {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses the decimal, or with a leading x hexadecimal, number of a numeric entity.
+	 *
+	 * @return the code point, or -1 if the number is not a valid code point
+	 */
+	private static int codePoint(final String html, final int from, final int to) {
+		final var hex = from < to && (html.charAt(from) == 'x' || html.charAt(from) == 'X');
+		final var digitsFrom = hex ? from + 1 : from;
+		if (digitsFrom == to || to - digitsFrom > MAX_ENTITY_LENGTH) {
+			return -1;
+		}
+
+		var codePoint = 0;
+		for (var index = digitsFrom; index < to; index++) {
+			final var digit = Character.digit(html.charAt(index), hex ? 16 : 10);
+			if (digit < 0) {
+				return -1;
+			}
+			codePoint = codePoint * (hex ? 16 : 10) + digit;
+		}
+		return codePoint > 0 && Character.isValidCodePoint(codePoint) ? codePoint : -1;
+	}
+
+	private static void append(final StringBuilder text, final char c) {
+		switch (c) {
+			case '\r', '\u2028' -> {
+				// Dropped, new lines are written as \n only
+			}
+			case '\n' -> newLine(text);
+			case ' ', '\t' -> {
+				if (!text.isEmpty() && text.charAt(text.length() - 1) != '\n' && text.charAt(text.length() - 1) != ' ') {
+					text.append(' ');
+				}
+			}
+			default -> text.append(c);
+		}
+	}
+
+	private static void newLine(final StringBuilder text) {
+		// At most one space is written before a new line, since runs of spaces are collapsed
+		if (!text.isEmpty() && text.charAt(text.length() - 1) == ' ') {
+			text.setLength(text.length() - 1);
+		}
+		text.append('\n');
+	}
+
+	private static String trimmed(final StringBuilder text) {
+		var start = 0;
+		var end = text.length();
+		while (start < end && text.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && text.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		return start == end ? null : text.substring(start, end);
+	}
+}
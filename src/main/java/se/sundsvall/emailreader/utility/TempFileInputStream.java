@@ -0,0 +1,92 @@
+package se.sundsvall.emailreader.utility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads the content of a temporary file and deletes the file when the stream is closed.
+ * <p>
+ * The file is only opened on the first read, so a stream that is created for an attachment when an email is mapped
+ * holds no file handle until the content is read when the email is persisted. The stream closes itself once all bytes
+ * have been read, and closing it deletes the file even if it was never opened.
+ */
+public final class TempFileInputStream extends InputStream {
+
+	private final Path file;
+	private final long length;
+	private InputStream content;
+	private long read;
+	private boolean closed;
+
+	/**
+	 * @param file   the file to read, deleted when the stream is closed
+	 * @param length the number of bytes in the file
+	 */
+	public TempFileInputStream(final Path file, final long length) {
+		this.file = file;
+		this.length = length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final var content = open();
+		if (content == null) {
+			return -1;
+		}
+		final var value = content.read();
+		afterRead(value == -1 ? -1 : 1);
+		return value;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int offset, final int count) throws IOException {
+		final var content = open();
+		if (content == null) {
+			return -1;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		final var readCount = content.read(buffer, offset, count);
+		afterRead(readCount);
+		return readCount;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (content != null) {
+				content.close();
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private synchronized InputStream open() throws IOException {
+		if (closed) {
+			return null;
+		}
+		if (content == null) {
+			content = Files.newInputStream(file);
+		}
+		return content;
+	}
+
+	private void afterRead(final int readCount) throws IOException {
+		if (readCount == -1) {
+			close();
+			return;
+		}
+		read += readCount;
+		if (read >= length) {
+			close();
+		}
+	}
+}
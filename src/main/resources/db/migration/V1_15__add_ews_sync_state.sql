@@ -0,0 +1,13 @@
+create table if not exists ews_sync_state
+(
+    updated_at     datetime(6),
+    credentials_id varchar(255),
+    email_address  varchar(255),
+    id             varchar(255) not null,
+    sync_state     longtext,
+    primary key (id)
+) engine = InnoDB;
+
+alter table if exists ews_sync_state
+    add constraint uk_ews_sync_state_credentials_id_email_address
+        unique (credentials_id, email_address);
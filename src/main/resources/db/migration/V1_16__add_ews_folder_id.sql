@@ -0,0 +1,13 @@
+create table if not exists ews_folder_id
+(
+    resolved_at   datetime(6),
+    email_address varchar(255),
+    folder_id     varchar(512),
+    folder_name   varchar(255),
+    id            varchar(255) not null,
+    primary key (id)
+) engine = InnoDB;
+
+alter table if exists ews_folder_id
+    add constraint uk_ews_folder_id_email_address_folder_name
+        unique (email_address, folder_name);
@@ -0,0 +1,10 @@
+alter table if exists credentials
+    add column if not exists lazy_attachments bit default 0;
+
+alter table if exists attachment
+    add column if not exists size bigint,
+    add column if not exists source_credentials_id varchar(255),
+    add column if not exists source_item_id varchar(512),
+    add column if not exists source_attachment_index integer;
+
+create index if not exists idx_attachment_source_item_id on attachment (source_item_id);
@@ -0,0 +1,13 @@
+create table if not exists graph_delta_link
+(
+    updated_at           datetime(6),
+    email_address        varchar(255),
+    graph_credentials_id varchar(255),
+    id                   varchar(255) not null,
+    delta_link           longtext,
+    primary key (id)
+) engine = InnoDB;
+
+alter table if exists graph_delta_link
+    add constraint uk_graph_delta_link_graph_credentials_id_email_address
+        unique (graph_credentials_id, email_address);
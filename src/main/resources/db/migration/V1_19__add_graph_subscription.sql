@@ -0,0 +1,19 @@
+create table if not exists graph_subscription
+(
+    expires_at           datetime(6),
+    updated_at           datetime(6),
+    client_state         varchar(255),
+    email_address        varchar(255),
+    graph_credentials_id varchar(255),
+    id                   varchar(255) not null,
+    subscription_id      varchar(255),
+    primary key (id)
+) engine = InnoDB;
+
+alter table if exists graph_subscription
+    add constraint uk_graph_subscription_graph_credentials_id_email_address
+        unique (graph_credentials_id, email_address);
+
+alter table if exists graph_subscription
+    add constraint uk_graph_subscription_subscription_id
+        unique (subscription_id);
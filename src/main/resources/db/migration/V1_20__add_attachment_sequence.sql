@@ -0,0 +1,11 @@
+create sequence if not exists attachment_seq start with 1 increment by 50 nocache;
+
+-- Hibernate reads the sequence as the last id of a block of 50, so continue 50 above the highest existing id
+set @restart_attachment_seq = concat('alter sequence attachment_seq restart with ',
+                                     (select coalesce(max(id), 0) + 50 from attachment));
+prepare restart_attachment_seq from @restart_attachment_seq;
+execute restart_attachment_seq;
+deallocate prepare restart_attachment_seq;
+
+alter table if exists attachment
+    modify column id bigint not null;
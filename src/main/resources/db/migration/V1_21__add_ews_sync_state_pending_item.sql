@@ -0,0 +1,11 @@
+create table if not exists ews_sync_state_pending_item
+(
+    ews_sync_state_id varchar(255) not null,
+    item_id           varchar(512) not null,
+    primary key (ews_sync_state_id, item_id)
+) engine = InnoDB;
+
+alter table if exists ews_sync_state_pending_item
+    add constraint fk_ews_sync_state_pending_item_ews_sync_state_id
+        foreign key (ews_sync_state_id)
+            references ews_sync_state (id);
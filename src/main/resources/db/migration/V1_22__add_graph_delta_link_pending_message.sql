@@ -0,0 +1,11 @@
+create table if not exists graph_delta_link_pending_message
+(
+    graph_delta_link_id varchar(255) not null,
+    message_id          varchar(512) not null,
+    primary key (graph_delta_link_id, message_id)
+) engine = InnoDB;
+
+alter table if exists graph_delta_link_pending_message
+    add constraint fk_graph_delta_link_pending_message_graph_delta_link_id
+        foreign key (graph_delta_link_id)
+            references graph_delta_link (id);
@@ -0,0 +1,6 @@
+alter table if exists attachment
+    add column if not exists source_attachment_id varchar(512);
+
+-- Attachments referenced by index are resolved by name and size instead
+alter table if exists attachment
+    drop column if exists source_attachment_index;
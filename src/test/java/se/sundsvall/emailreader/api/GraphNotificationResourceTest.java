@@ -0,0 +1,112 @@
+package se.sundsvall.emailreader.api;
+
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webtestclient.autoconfigure.AutoConfigureWebTestClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import se.sundsvall.emailreader.Application;
+import se.sundsvall.emailreader.api.model.GraphNotification;
+import se.sundsvall.emailreader.api.model.GraphNotifications;
+import se.sundsvall.emailreader.service.scheduler.GraphSubscriptionManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.TEXT_PLAIN;
+
+@AutoConfigureWebTestClient
+@SpringBootTest(classes = Application.class, webEnvironment = RANDOM_PORT)
+@ActiveProfiles("junit")
+class GraphNotificationResourceTest {
+
+	private static final String PATH = "/{municipalityId}/graph/notifications";
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	@MockitoBean
+	private GraphSubscriptionManager graphSubscriptionManager;
+
+	@Test
+	void validate() {
+		// Act
+		final var response = webTestClient.post()
+			.uri(builder -> builder.path(PATH).queryParam("validationToken", "someValidationToken").build(Map.of("municipalityId", "2281")))
+			.contentType(TEXT_PLAIN)
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().contentTypeCompatibleWith(TEXT_PLAIN)
+			.expectBody(String.class)
+			.returnResult()
+			.getResponseBody();
+
+		// Assert
+		assertThat(response).isEqualTo("someValidationToken");
+		verifyNoInteractions(graphSubscriptionManager);
+	}
+
+	@Test
+	void notifications() {
+		// Arrange
+		final var notification = GraphNotification.builder()
+			.withSubscriptionId("someSubscriptionId")
+			.withClientState("someClientState")
+			.withChangeType("created")
+			.withResourceData(new GraphNotification.ResourceData("someMessageId"))
+			.build();
+
+		// Act
+		webTestClient.post()
+			.uri(builder -> builder.path(PATH).build(Map.of("municipalityId", "2281")))
+			.contentType(APPLICATION_JSON)
+			.bodyValue(GraphNotifications.builder().withValue(List.of(notification)).build())
+			.exchange()
+			.expectStatus().isAccepted();
+
+		// Assert
+		verify(graphSubscriptionManager).handleNotifications("2281", List.of(notification));
+	}
+
+	@Test
+	void notificationsWithoutSubscriptionId() {
+		// Arrange
+		final var notification = GraphNotification.builder()
+			.withClientState("someClientState")
+			.build();
+
+		// Act
+		webTestClient.post()
+			.uri(builder -> builder.path(PATH).build(Map.of("municipalityId", "2281")))
+			.contentType(APPLICATION_JSON)
+			.bodyValue(GraphNotifications.builder().withValue(List.of(notification)).build())
+			.exchange()
+			.expectStatus().isBadRequest();
+
+		// Assert
+		verifyNoInteractions(graphSubscriptionManager);
+	}
+
+	@Test
+	void notificationsWithInvalidMunicipalityId() {
+		// Act
+		webTestClient.post()
+			.uri(builder -> builder.path(PATH).build(Map.of("municipalityId", "invalid")))
+			.contentType(APPLICATION_JSON)
+			.bodyValue(GraphNotifications.builder().withValue(List.of()).build())
+			.exchange()
+			.expectStatus().isBadRequest();
+
+		// Assert
+		verify(graphSubscriptionManager, never()).handleNotifications(anyString(), any());
+	}
+}
@@ -19,6 +19,7 @@ class CredentialsTest {
 			.withMetadata(Collections.singletonMap("someKey", "someValue"))
 			.withPassword("somePassword")
 			.withEnabled(true)
+			.withLazyAttachments(true)
 			.withId("someId").build();
 
 		assertThat(result).isNotNull();
@@ -31,6 +32,7 @@ class CredentialsTest {
 		assertThat(result.metadata()).hasSize(1).containsEntry("someKey", "someValue");
 		assertThat(result.emailAddress()).hasSize(1).element(0).satisfies(emailAddress -> assertThat(emailAddress).isEqualTo("someEmailAddress"));
 		assertThat(result.enabled()).isTrue();
+		assertThat(result.lazyAttachments()).isTrue();
 
 	}
 
@@ -0,0 +1,48 @@
+package se.sundsvall.emailreader.api.model;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GraphNotificationTest {
+
+	@Test
+	void builder() {
+		// Arrange
+		final var subscriptionId = "someSubscriptionId";
+		final var clientState = "someClientState";
+		final var changeType = "created";
+		final var lifecycleEvent = "missed";
+		final var resource = "someResource";
+		final var resourceData = GraphNotification.ResourceData.builder().withId("someMessageId").build();
+
+		// Act
+		final var bean = GraphNotification.builder()
+			.withSubscriptionId(subscriptionId)
+			.withClientState(clientState)
+			.withChangeType(changeType)
+			.withLifecycleEvent(lifecycleEvent)
+			.withResource(resource)
+			.withResourceData(resourceData)
+			.build();
+		final var notifications = GraphNotifications.builder().withValue(List.of(bean)).build();
+
+		// Assert
+		assertThat(bean).isNotNull().hasNoNullFieldsOrProperties();
+		assertThat(bean.subscriptionId()).isEqualTo(subscriptionId);
+		assertThat(bean.clientState()).isEqualTo(clientState);
+		assertThat(bean.changeType()).isEqualTo(changeType);
+		assertThat(bean.lifecycleEvent()).isEqualTo(lifecycleEvent);
+		assertThat(bean.resource()).isEqualTo(resource);
+		assertThat(bean.resourceData().id()).isEqualTo("someMessageId");
+		assertThat(notifications.value()).containsExactly(bean);
+	}
+
+	@Test
+	void testNoDirtOnCreatedBean() {
+		assertThat(GraphNotification.builder().build()).hasAllNullFieldsOrProperties();
+		assertThat(GraphNotification.ResourceData.builder().build()).hasAllNullFieldsOrProperties();
+		assertThat(GraphNotifications.builder().build()).hasAllNullFieldsOrProperties();
+	}
+}
@@ -0,0 +1,101 @@
+package se.sundsvall.emailreader.integration.db;
+
+import jakarta.persistence.EntityManager;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase;
+import org.springframework.test.context.ActiveProfiles;
+import se.sundsvall.emailreader.api.model.Header;
+import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
+import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
+import se.sundsvall.emailreader.integration.db.entity.EmailHeaderEntity;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase.Replace.NONE;
+
+/**
+ * Measures the JDBC statements needed to store one ingested email with its child rows, with and without JDBC batching.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = NONE)
+@ActiveProfiles("junit")
+class EmailInsertStatementsTest {
+
+	// Rows in the email table and in each of the seven tables for its children
+	private static final int ROWS = 1 + 3 + 2 + 3 + 3 + 6 + 3;
+	// One statement per table, and at most two calls to the attachment sequence
+	private static final int MAX_BATCHED_STATEMENTS = 7 + 2;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private Statistics statistics;
+
+	@BeforeEach
+	void setUp() {
+		statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+	}
+
+	@Test
+	void persistEmail() {
+		final var unbatched = statementsToPersist(1);
+		final var batched = statementsToPersist(null);
+
+		assertThat(unbatched).isGreaterThanOrEqualTo(ROWS);
+		assertThat(batched).isLessThanOrEqualTo(MAX_BATCHED_STATEMENTS);
+	}
+
+	private long statementsToPersist(final Integer jdbcBatchSize) {
+		final var session = entityManager.unwrap(Session.class);
+		session.setJdbcBatchSize(jdbcBatchSize);
+		statistics.clear();
+
+		entityManager.persist(createEmail());
+		entityManager.flush();
+		entityManager.clear();
+		return statistics.getPrepareStatementCount();
+	}
+
+	private static EmailEntity createEmail() {
+		return EmailEntity.builder()
+			.withSender("sender@sundsvall.se")
+			.withRecipients(List.of("recipient1@sundsvall.se", "recipient2@sundsvall.se", "recipient3@sundsvall.se"))
+			.withCcRecipients(List.of("cc1@sundsvall.se", "cc2@sundsvall.se"))
+			.withSubject("subject")
+			.withMessage("message")
+			.withMunicipalityId("2281")
+			.withNamespace("namespace")
+			.withReceivedAt(OffsetDateTime.now())
+			.withMetadata(Map.of("key1", "value1", "key2", "value2", "key3", "value3"))
+			.withHeaders(List.of(
+				createHeader(Header.MESSAGE_ID, "<message-id@sundsvall.se>"),
+				createHeader(Header.IN_REPLY_TO, "<in-reply-to@sundsvall.se>"),
+				createHeader(Header.REFERENCES, "<reference1@sundsvall.se>", "<reference2@sundsvall.se>", "<reference3@sundsvall.se>", "<reference4@sundsvall.se>")))
+			.withAttachments(List.of(createAttachment("file1.pdf"), createAttachment("file2.pdf"), createAttachment("file3.pdf")))
+			.build();
+	}
+
+	private static EmailHeaderEntity createHeader(final Header header, final String... values) {
+		return EmailHeaderEntity.builder()
+			.withHeader(header)
+			.withValues(List.of(values))
+			.build();
+	}
+
+	private static AttachmentEntity createAttachment(final String name) {
+		return AttachmentEntity.builder()
+			.withName(name)
+			.withContentType("application/pdf")
+			.withSize(1024L)
+			.build();
+	}
+}
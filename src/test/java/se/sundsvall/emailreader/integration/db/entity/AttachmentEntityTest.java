@@ -46,6 +46,10 @@ class AttachmentEntityTest {
 		final var id = 1L;
 		final var name = "someName";
 		final var contentType = "someContentType";
+		final var size = 7L;
+		final var sourceCredentialsId = "someCredentialsId";
+		final var sourceItemId = "someItemId";
+		final var sourceAttachmentId = "someAttachmentId";
 		final var now = now();
 
 		final var object = AttachmentEntity.builder()
@@ -53,6 +57,10 @@ class AttachmentEntityTest {
 			.withName(name)
 			.withContent(file)
 			.withContentType(contentType)
+			.withSize(size)
+			.withSourceCredentialsId(sourceCredentialsId)
+			.withSourceItemId(sourceItemId)
+			.withSourceAttachmentId(sourceAttachmentId)
 			.build();
 
 		// Act
@@ -64,6 +72,10 @@ class AttachmentEntityTest {
 		assertThat(object.getName()).isEqualTo(name);
 		assertThat(object.getContent()).isEqualTo(file);
 		assertThat(object.getContentType()).isEqualTo(contentType);
+		assertThat(object.getSize()).isEqualTo(size);
+		assertThat(object.getSourceCredentialsId()).isEqualTo(sourceCredentialsId);
+		assertThat(object.getSourceItemId()).isEqualTo(sourceItemId);
+		assertThat(object.getSourceAttachmentId()).isEqualTo(sourceAttachmentId);
 		assertThat(object.getCreatedAt()).isCloseTo(now, within(1, SECONDS));
 
 	}
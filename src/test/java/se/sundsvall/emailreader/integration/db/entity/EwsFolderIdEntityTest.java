@@ -0,0 +1,68 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import java.time.OffsetDateTime;
+import java.util.Random;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanConstructor;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanEquals;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanHashCode;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanToString;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidGettersAndSetters;
+import static com.google.code.beanmatchers.BeanMatchers.registerValueGenerator;
+import static java.time.OffsetDateTime.now;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.CoreMatchers.allOf;
+
+class EwsFolderIdEntityTest {
+
+	@BeforeAll
+	static void setup() {
+		registerValueGenerator(() -> now().plusDays(new Random().nextInt()), OffsetDateTime.class);
+	}
+
+	@Test
+	void testBean() {
+		MatcherAssert.assertThat(EwsFolderIdEntity.class, allOf(
+			hasValidBeanConstructor(),
+			hasValidGettersAndSetters(),
+			hasValidBeanHashCode(),
+			hasValidBeanEquals(),
+			hasValidBeanToString()));
+	}
+
+	@Test
+	void builder() {
+		// Arrange
+		final var id = "someId";
+		final var emailAddress = "someEmailAddress";
+		final var folderName = "someFolderName";
+		final var folderId = "someFolderId";
+		final var resolvedAt = now();
+
+		// Act
+		final var bean = EwsFolderIdEntity.builder()
+			.withId(id)
+			.withEmailAddress(emailAddress)
+			.withFolderName(folderName)
+			.withFolderId(folderId)
+			.withResolvedAt(resolvedAt)
+			.build();
+
+		// Assert
+		assertThat(bean).isNotNull().hasNoNullFieldsOrProperties();
+		assertThat(bean.getId()).isEqualTo(id);
+		assertThat(bean.getEmailAddress()).isEqualTo(emailAddress);
+		assertThat(bean.getFolderName()).isEqualTo(folderName);
+		assertThat(bean.getFolderId()).isEqualTo(folderId);
+		assertThat(bean.getResolvedAt()).isEqualTo(resolvedAt);
+	}
+
+	@Test
+	void testNoDirtOnCreatedBean() {
+		assertThat(EwsFolderIdEntity.builder().build()).hasAllNullFieldsOrProperties();
+		assertThat(new EwsFolderIdEntity()).hasAllNullFieldsOrProperties();
+	}
+}
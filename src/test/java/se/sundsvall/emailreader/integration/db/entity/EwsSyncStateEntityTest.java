@@ -0,0 +1,70 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import java.time.OffsetDateTime;
+import java.util.Random;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanConstructor;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanEquals;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanHashCode;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanToString;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidGettersAndSetters;
+import static com.google.code.beanmatchers.BeanMatchers.registerValueGenerator;
+import static java.time.OffsetDateTime.now;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.hamcrest.CoreMatchers.allOf;
+
+class EwsSyncStateEntityTest {
+
+	@BeforeAll
+	static void setup() {
+		registerValueGenerator(() -> now().plusDays(new Random().nextInt()), OffsetDateTime.class);
+	}
+
+	@Test
+	void testBean() {
+		MatcherAssert.assertThat(EwsSyncStateEntity.class, allOf(
+			hasValidBeanConstructor(),
+			hasValidGettersAndSetters(),
+			hasValidBeanHashCode(),
+			hasValidBeanEquals(),
+			hasValidBeanToString()));
+	}
+
+	@Test
+	void builder() {
+		// Arrange
+		final var id = "someId";
+		final var credentialsId = "someCredentialsId";
+		final var emailAddress = "someEmailAddress";
+		final var syncState = "someSyncState";
+
+		// Act
+		final var bean = EwsSyncStateEntity.builder()
+			.withId(id)
+			.withCredentialsId(credentialsId)
+			.withEmailAddress(emailAddress)
+			.withSyncState(syncState)
+			.build();
+
+		bean.preSave();
+
+		// Assert
+		assertThat(bean).isNotNull().hasNoNullFieldsOrProperties();
+		assertThat(bean.getId()).isEqualTo(id);
+		assertThat(bean.getCredentialsId()).isEqualTo(credentialsId);
+		assertThat(bean.getEmailAddress()).isEqualTo(emailAddress);
+		assertThat(bean.getSyncState()).isEqualTo(syncState);
+		assertThat(bean.getUpdatedAt()).isCloseTo(now(), within(1, SECONDS));
+	}
+
+	@Test
+	void testNoDirtOnCreatedBean() {
+		assertThat(EwsSyncStateEntity.builder().build()).hasAllNullFieldsOrProperties();
+		assertThat(new EwsSyncStateEntity()).hasAllNullFieldsOrProperties();
+	}
+}
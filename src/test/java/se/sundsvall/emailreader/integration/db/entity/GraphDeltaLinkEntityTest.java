@@ -0,0 +1,74 @@
+package se.sundsvall.emailreader.integration.db.entity;
+
+import java.time.OffsetDateTime;
+import java.util.Random;
+import java.util.Set;
+import org.hamcrest.MatcherAssert;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanConstructor;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanEquals;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanHashCode;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidBeanToString;
+import static com.google.code.beanmatchers.BeanMatchers.hasValidGettersAndSetters;
+import static com.google.code.beanmatchers.BeanMatchers.registerValueGenerator;
+import static java.time.OffsetDateTime.now;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.hamcrest.CoreMatchers.allOf;
+
+class GraphDeltaLinkEntityTest {
+
+	@BeforeAll
+	static void setup() {
+		registerValueGenerator(() -> now().plusDays(new Random().nextInt()), OffsetDateTime.class);
+	}
+
+	@Test
+	void testBean() {
+		MatcherAssert.assertThat(GraphDeltaLinkEntity.class, allOf(
+			hasValidBeanConstructor(),
+			hasValidGettersAndSetters(),
+			hasValidBeanHashCode(),
+			hasValidBeanEquals(),
+			hasValidBeanToString()));
+	}
+
+	@Test
+	void builder() {
+		// Arrange
+		final var id = "someId";
+		final var graphCredentialsId = "someGraphCredentialsId";
+		final var emailAddress = "someEmailAddress";
+		final var deltaLink = "someDeltaLink";
+		final var pendingMessageIds = Set.of("someMessageId");
+
+		// Act
+		final var bean = GraphDeltaLinkEntity.builder()
+			.withId(id)
+			.withGraphCredentialsId(graphCredentialsId)
+			.withEmailAddress(emailAddress)
+			.withDeltaLink(deltaLink)
+			.withPendingMessageIds(pendingMessageIds)
+			.build();
+
+		bean.preSave();
+
+		// Assert
+		assertThat(bean).isNotNull().hasNoNullFieldsOrProperties();
+		assertThat(bean.getId()).isEqualTo(id);
+		assertThat(bean.getGraphCredentialsId()).isEqualTo(graphCredentialsId);
+		assertThat(bean.getEmailAddress()).isEqualTo(emailAddress);
+		assertThat(bean.getDeltaLink()).isEqualTo(deltaLink);
+		assertThat(bean.getPendingMessageIds()).isEqualTo(pendingMessageIds);
+		assertThat(bean.getUpdatedAt()).isCloseTo(now(), within(1, SECONDS));
+	}
+
+	@Test
+	void testNoDirtOnCreatedBean() {
+		assertThat(GraphDeltaLinkEntity.builder().build()).hasAllNullFieldsOrProperties();
+		assertThat(new GraphDeltaLinkEntity()).hasAllNullFieldsOrProperties();
+	}
+}
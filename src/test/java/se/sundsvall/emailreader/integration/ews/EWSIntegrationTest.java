@@ -1,47 +1,102 @@
 package se.sundsvall.emailreader.integration.ews;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 import microsoft.exchange.webservices.data.core.ExchangeService;
 import microsoft.exchange.webservices.data.core.PropertySet;
 import microsoft.exchange.webservices.data.core.enumeration.misc.ExchangeVersion;
+import microsoft.exchange.webservices.data.core.enumeration.misc.error.ServiceError;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.core.enumeration.property.BasePropertySet;
+import microsoft.exchange.webservices.data.core.enumeration.service.ConflictResolutionMode;
 import microsoft.exchange.webservices.data.core.enumeration.service.DeleteMode;
+import microsoft.exchange.webservices.data.core.enumeration.service.MessageDisposition;
+import microsoft.exchange.webservices.data.core.enumeration.service.ServiceResult;
+import microsoft.exchange.webservices.data.core.enumeration.service.SyncFolderItemsScope;
+import microsoft.exchange.webservices.data.core.enumeration.sync.ChangeType;
 import microsoft.exchange.webservices.data.core.exception.http.HttpErrorException;
 import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
+import microsoft.exchange.webservices.data.core.exception.service.remote.ServiceResponseException;
+import microsoft.exchange.webservices.data.core.response.GetAttachmentResponse;
+import microsoft.exchange.webservices.data.core.response.GetItemResponse;
+import microsoft.exchange.webservices.data.core.response.MoveCopyItemResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponse;
+import microsoft.exchange.webservices.data.core.response.ServiceResponseCollection;
+import microsoft.exchange.webservices.data.core.response.UpdateItemResponse;
 import microsoft.exchange.webservices.data.core.service.folder.Folder;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
 import microsoft.exchange.webservices.data.core.service.item.Item;
+import microsoft.exchange.webservices.data.core.service.schema.EmailMessageSchema;
+import microsoft.exchange.webservices.data.core.service.schema.ItemSchema;
+import microsoft.exchange.webservices.data.misc.OutParam;
+import microsoft.exchange.webservices.data.notification.StreamingSubscription;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection;
+import microsoft.exchange.webservices.data.property.complex.Attachment;
+import microsoft.exchange.webservices.data.property.complex.AttachmentCollection;
 import microsoft.exchange.webservices.data.property.complex.EmailAddress;
+import microsoft.exchange.webservices.data.property.complex.ExtendedPropertyCollection;
+import microsoft.exchange.webservices.data.property.complex.FileAttachment;
 import microsoft.exchange.webservices.data.property.complex.FolderId;
+import microsoft.exchange.webservices.data.property.complex.ItemAttachment;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
 import microsoft.exchange.webservices.data.property.complex.MessageBody;
 import microsoft.exchange.webservices.data.search.FindFoldersResults;
 import microsoft.exchange.webservices.data.search.FindItemsResults;
 import microsoft.exchange.webservices.data.search.FolderView;
+import microsoft.exchange.webservices.data.search.ItemView;
 import microsoft.exchange.webservices.data.search.filter.SearchFilter;
+import microsoft.exchange.webservices.data.sync.ChangeCollection;
+import microsoft.exchange.webservices.data.sync.ItemChange;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.boot.test.system.CapturedOutput;
 import org.springframework.boot.test.system.OutputCaptureExtension;
 import org.springframework.test.util.ReflectionTestUtils;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
 
+import static java.util.Collections.emptyMap;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
 
 @ExtendWith({
 	MockitoExtension.class, OutputCaptureExtension.class
@@ -57,8 +112,18 @@ class EWSIntegrationTest {
 		Recipient = 070174060589
 		""";
 
+	private final CredentialsEntity credential = createCredentialsEntity();
+
 	private ExchangeService exchangeServiceMock;
 
+	private final AtomicInteger openLeases = new AtomicInteger();
+
+	@Mock
+	private ExchangeServicePool exchangeServicePoolMock;
+
+	@Mock
+	private EwsFolderIdCache folderIdCacheMock;
+
 	private EWSIntegration ewsIntegration;
 
 	@Mock
@@ -70,6 +135,12 @@ class EWSIntegrationTest {
 	@Mock
 	private Consumer<String> consumerMock;
 
+	@Captor
+	private ArgumentCaptor<Iterable<ItemId>> itemIdsCaptor;
+
+	@Captor
+	private ArgumentCaptor<Attachment[]> attachmentsCaptor;
+
 	private static Stream<Arguments> recipientNumbersProvider() {
 		return Stream.of(
 			Arguments.of(Map.of("Recipient", "0713266789"), Map.of("VALID", List.of("+46713266789"))),
@@ -79,12 +150,24 @@ class EWSIntegrationTest {
 
 	@BeforeEach
 	void setUp() throws Exception {
-		ewsIntegration = new EWSIntegration();
 		exchangeServiceMock = mock(ExchangeService.class);
-		final var serviceField = ewsIntegration.getClass().getDeclaredField("exchangeService");
-		serviceField.setAccessible(true);
-		serviceField.set(ewsIntegration, exchangeServiceMock);
+		lenient().when(exchangeServicePoolMock.lease(credential)).thenAnswer(invocation -> {
+			openLeases.incrementAndGet();
+			return new ExchangeServicePool.Lease(exchangeServiceMock, openLeases::decrementAndGet);
+		});
+		lenient().when(folderIdCacheMock.get(any(), any(), any()))
+			.thenAnswer(invocation -> invocation.<EwsFolderIdCache.FolderIdResolver>getArgument(2).resolve());
+		lenient().when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsGreaterThan.class), any(ItemView.class)))
+			.thenReturn(new FindItemsResults<>());
+		final var throttlingGovernor = new ThrottlingGovernor(new SimpleMeterRegistry(), true, 1000, 0.5, 1000, 0.05, 0.5, Duration.ofMillis(1), Duration.ofMillis(10));
+		ewsIntegration = new EWSIntegration(exchangeServicePoolMock, folderIdCacheMock, throttlingGovernor);
 		ReflectionTestUtils.setField(ewsIntegration, "maxFileSize", "10485760"); // Set max file size to 10 MB
+		ReflectionTestUtils.setField(ewsIntegration, "maxAttachmentSize", 10485760L);
+	}
+
+	@AfterEach
+	void allLeasesClosed() {
+		assertThat(openLeases).hasValue(0);
 	}
 
 	@Test
@@ -92,27 +175,356 @@ class EWSIntegrationTest {
 		final var findItemsResults = setUpFindItemsResults();
 		final var emailMessages = findItemsResults.getItems();
 
-		when(exchangeServiceMock.findItems(any(FolderId.class), any())).thenReturn(findItemsResults);
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenReturn(findItemsResults);
+
+		try (final var result = ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.emails()).isNotNull().hasSize(1).isEqualTo(emailMessages);
+			assertThat(result.lease().service()).isSameAs(exchangeServiceMock);
+			assertThat(openLeases).hasValue(1);
+		}
+	}
+
+	@Test
+	void pageThroughEntireInbox_serverBusy_retriesAfterBackOff() throws Exception {
+		final var findItemsResults = setUpFindItemsResults();
+		final var serverBusy = serverBusy("5");
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class)))
+			.thenThrow(serverBusy)
+			.thenReturn(findItemsResults);
+
+		try (final var result = ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.emails()).isEqualTo(findItemsResults.getItems());
+		}
+		verify(exchangeServiceMock, times(2)).findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class));
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void pageThroughEntireInbox_serverStaysBusy_givesUp() throws Exception {
+		final var serverBusy = serverBusy("5");
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class)))
+			.thenThrow(serverBusy);
+
+		try (final var result = ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.emails()).isEmpty();
+		}
+		verify(exchangeServiceMock, times(3)).findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class));
+		verify(consumerMock).accept("[EWS] Could not find items, address: someEmailAdress");
+	}
+
+	@Test
+	void backOffHint_serverBusy() {
+		assertThat(EWSIntegration.backOffHint(serverBusy("250"))).contains(Duration.ofMillis(250));
+		assertThat(EWSIntegration.backOffHint(serverBusy("notANumber"))).contains(Duration.ZERO);
+		assertThat(EWSIntegration.backOffHint(serverBusy(null))).contains(Duration.ZERO);
+	}
+
+	@Test
+	void backOffHint_throttledHttpStatus() {
+		assertThat(EWSIntegration.backOffHint(new HttpErrorException("someMessage", 503))).contains(Duration.ZERO);
+		assertThat(EWSIntegration.backOffHint(new Exception("someMessage", new HttpErrorException("someMessage", 429)))).contains(Duration.ZERO);
+	}
+
+	@Test
+	void backOffHint_otherFailure() {
+		final var accessDenied = mock(ServiceResponseException.class);
+		when(accessDenied.getErrorCode()).thenReturn(ServiceError.ErrorAccessDenied);
+
+		assertThat(EWSIntegration.backOffHint(accessDenied)).isEqualTo(Optional.empty());
+		assertThat(EWSIntegration.backOffHint(new HttpErrorException("someMessage", 500))).isEqualTo(Optional.empty());
+	}
+
+	@Test
+	void throttlingKey() {
+		when(exchangeServiceMock.getUrl()).thenReturn(URI.create("https://mail.example.com/EWS/Exchange.asmx"));
+
+		assertThat(EWSIntegration.throttlingKey(exchangeServiceMock)).isEqualTo("ews:mail.example.com");
+		assertThat(EWSIntegration.throttlingKey(null)).isEqualTo("ews:default");
+	}
+
+	@Test
+	void pageThroughEntireInbox_listsOnlyIdSizeAndReceivedOfEmailsWithinMaxSize() throws Exception {
+		final var viewCaptor = ArgumentCaptor.forClass(ItemView.class);
+		final var filterCaptor = ArgumentCaptor.forClass(SearchFilter.IsLessThanOrEqualTo.class);
+		final var findItemsResults = setUpFindItemsResults();
+		when(exchangeServiceMock.findItems(any(FolderId.class), filterCaptor.capture(), viewCaptor.capture())).thenReturn(findItemsResults);
 
-		final var result = ewsIntegration.pageThroughEntireInbox(
-			"someUsername", "somePassword", "someDomain", "someEmailAdress", consumerMock);
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
 
-		assertThat(result).isNotNull().hasSize(1).isEqualTo(emailMessages);
+		assertThat(filterCaptor.getValue().getPropertyDefinition()).isEqualTo(ItemSchema.Size);
+		assertThat(filterCaptor.getValue().getValue()).isEqualTo(10485760L);
+		final var propertySet = viewCaptor.getValue().getPropertySet();
+		assertThat(propertySet.getBasePropertySet()).isEqualTo(BasePropertySet.IdOnly);
+		assertThat(propertySet.contains(ItemSchema.Size)).isTrue();
+		assertThat(propertySet.contains(ItemSchema.DateTimeReceived)).isTrue();
+		assertThat(propertySet.contains(ItemSchema.Body)).isFalse();
+	}
+
+	@Test
+	void pageThroughEntireInbox_reportsEachOversizedEmailOnce() throws Exception {
+		final var oversized = oversizedMessage("someOversizedId");
+		final var oversizedResults = new FindItemsResults<Item>();
+		oversizedResults.getItems().add(oversized);
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsGreaterThan.class), any(ItemView.class))).thenReturn(oversizedResults);
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenReturn(new FindItemsResults<>());
+
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
+
+		verify(consumerMock).accept("[EWS] Email size exceeds maximum allowed size for address: someEmailAdress");
+	}
+
+	@Test
+	void pageThroughEntireInbox_reportsOversizedEmailAgainAfterItLeftTheInbox() throws Exception {
+		final var oversized = oversizedMessage("someOversizedId");
+		final var oversizedResults = new FindItemsResults<Item>();
+		oversizedResults.getItems().add(oversized);
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsGreaterThan.class), any(ItemView.class)))
+			.thenReturn(oversizedResults, new FindItemsResults<>(), oversizedResults);
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenReturn(new FindItemsResults<>());
+
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
+		ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock).close();
+
+		verify(consumerMock, times(2)).accept("[EWS] Email size exceeds maximum allowed size for address: someEmailAdress");
+	}
+
+	@Test
+	void pageThroughEntireInbox_cantFindOversizedEmails() throws Exception {
+		final var findItemsResults = setUpFindItemsResults();
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsGreaterThan.class), any(ItemView.class)))
+			.thenThrow(new HttpErrorException("someMessage", 500));
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenReturn(findItemsResults);
+
+		try (final var result = ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.emails()).hasSize(1);
+		}
+		verifyNoInteractions(consumerMock);
 	}
 
 	@Test
 	void pageThroughEntireInbox_cantFindItems(final CapturedOutput output) throws Exception {
-		when(exchangeServiceMock.findItems(any(FolderId.class), any()))
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class)))
 			.thenThrow(new HttpErrorException("Some cool error message from the server", 401));
 
-		final var result = ewsIntegration.pageThroughEntireInbox(
-			"someUsername", "somePassword", "someDomain", "someEmailAdress", consumerMock);
-
-		assertThat(result).isNotNull().isEmpty();
+		try (final var result = ewsIntegration.pageThroughEntireInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.emails()).isNotNull().isEmpty();
+		}
 		assertThat(output).contains("Could not find items")
 			.contains("microsoft.exchange.webservices.data.core.exception.http.HttpErrorException: Some cool error message from the server");
 	}
 
+	@Test
+	void streamInbox_pagesFromTheEndOfTheInbox() throws Exception {
+		final var offsets = new ArrayList<Integer>();
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenAnswer(invocation -> {
+			final var view = invocation.<ItemView>getArgument(2);
+			final var results = new FindItemsResults<Item>();
+			if (view.getPageSize() == 1) {
+				results.setTotalCount(120);
+			} else {
+				offsets.add(view.getOffset());
+				results.getItems().add(mock(EmailMessage.class));
+			}
+			return results;
+		});
+
+		final var pages = new ArrayList<List<EmailMessage>>();
+		try (final var result = ewsIntegration.streamInbox(credential, "someEmailAdress", consumerMock)) {
+			result.forEachRemaining(pages::add);
+			// Only the lease of the page last returned is still open
+			assertThat(openLeases).hasValue(1);
+		}
+
+		assertThat(pages).hasSize(3).allSatisfy(page -> assertThat(page).hasSize(1));
+		assertThat(offsets).containsExactly(100, 50, 0);
+		// One lease per page, and one to find that there are no more pages
+		verify(exchangeServicePoolMock, times(4)).lease(credential);
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void streamInbox_emptyInbox() throws Exception {
+		final var results = new FindItemsResults<Item>();
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class))).thenReturn(results);
+
+		try (final var result = ewsIntegration.streamInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.hasNext()).isFalse();
+		}
+
+		verify(exchangeServiceMock).findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class));
+	}
+
+	@Test
+	void streamInbox_cantFindItems() throws Exception {
+		when(exchangeServiceMock.findItems(any(FolderId.class), any(SearchFilter.IsLessThanOrEqualTo.class), any(ItemView.class)))
+			.thenThrow(new HttpErrorException("Some cool error message from the server", 401));
+
+		try (final var result = ewsIntegration.streamInbox(credential, "someEmailAdress", consumerMock)) {
+			assertThat(result.hasNext()).isFalse();
+		}
+
+		verify(consumerMock).accept("[EWS] Could not find items, address: someEmailAdress");
+	}
+
+	@Test
+	void syncInbox() throws Exception {
+		final var createdMessage = mock(EmailMessage.class);
+		final var updatedMessage = mock(EmailMessage.class);
+		final var deletedMessage = mock(EmailMessage.class);
+		final var firstBatch = changes("intermediateSyncState", true, change(ChangeType.Create, createdMessage), change(ChangeType.Delete, deletedMessage));
+		final var secondBatch = changes("newSyncState", false, change(ChangeType.Update, updatedMessage));
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq("oldSyncState")))
+			.thenReturn(firstBatch);
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq("intermediateSyncState")))
+			.thenReturn(secondBatch);
+
+		try (final var result = ewsIntegration.syncInbox(credential, "someEmailAdress", "oldSyncState", consumerMock)) {
+			assertThat(result.emails()).containsExactly(createdMessage, updatedMessage);
+			assertThat(result.syncState()).isEqualTo("newSyncState");
+			assertThat(result.lease().service()).isSameAs(exchangeServiceMock);
+			assertThat(openLeases).hasValue(1);
+		}
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void syncInbox_invalidSyncState_fallsBackToFullSync() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var invalidSyncState = mock(ServiceResponseException.class);
+		when(invalidSyncState.getErrorCode()).thenReturn(ServiceError.ErrorInvalidSyncStateData);
+		final var fullSync = changes("newSyncState", false, change(ChangeType.Create, emailMessage));
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq("invalidSyncState")))
+			.thenThrow(invalidSyncState);
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq(null)))
+			.thenReturn(fullSync);
+
+		try (final var result = ewsIntegration.syncInbox(credential, "someEmailAdress", "invalidSyncState", consumerMock)) {
+			assertThat(result.emails()).containsExactly(emailMessage);
+			assertThat(result.syncState()).isEqualTo("newSyncState");
+			assertThat(openLeases).hasValue(1);
+		}
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void syncInbox_failsPartWay_returnsEmailsReceivedSoFar() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var firstBatch = changes("intermediateSyncState", true, change(ChangeType.Create, emailMessage));
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq(null)))
+			.thenReturn(firstBatch);
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq("intermediateSyncState")))
+			.thenThrow(new HttpErrorException("someMessage", 500));
+
+		try (final var result = ewsIntegration.syncInbox(credential, "someEmailAdress", null, consumerMock)) {
+			assertThat(result.emails()).containsExactly(emailMessage);
+			assertThat(result.syncState()).isEqualTo("intermediateSyncState");
+		}
+		verify(consumerMock).accept("[EWS] Could not sync items, address: someEmailAdress");
+	}
+
+	@Test
+	void syncInbox_skipsEmailsLargerThanMaxSize() throws Exception {
+		final var emailMessage = oversizedMessage("someOversizedId");
+		final var batch = changes("newSyncState", false, change(ChangeType.Create, emailMessage));
+		when(exchangeServiceMock.syncFolderItems(any(FolderId.class), any(PropertySet.class), any(), eq(512), eq(SyncFolderItemsScope.NormalItems), eq(null)))
+			.thenReturn(batch);
+
+		try (final var result = ewsIntegration.syncInbox(credential, "someEmailAdress", null, consumerMock)) {
+			assertThat(result.emails()).isEmpty();
+			assertThat(result.syncState()).isEqualTo("newSyncState");
+		}
+		verify(consumerMock).accept("[EWS] Email size exceeds maximum allowed size for address: someEmailAdress");
+	}
+
+	@Test
+	void bindEmails() throws Exception {
+		final var boundMessage = mock(EmailMessage.class);
+		final var bound = mock(GetItemResponse.class);
+		when(bound.getResult()).thenReturn(ServiceResult.Success);
+		when(bound.getItem()).thenReturn(boundMessage);
+		final var notFound = mock(GetItemResponse.class);
+		when(notFound.getResult()).thenReturn(ServiceResult.Error);
+		final var responses = new ServiceResponseCollection<GetItemResponse>();
+		responses.add(bound);
+		responses.add(notFound);
+		final var itemIds = List.of(new ItemId("someId"), new ItemId("someOtherId"));
+		when(exchangeServiceMock.bindToItems(eq(itemIds), any(PropertySet.class))).thenReturn(responses);
+
+		try (final var result = ewsIntegration.bindEmails(credential, "someEmailAdress", itemIds, consumerMock)) {
+			assertThat(result.emails()).containsExactly(boundMessage);
+			assertThat(result.lease().service()).isSameAs(exchangeServiceMock);
+			assertThat(openLeases).hasValue(1);
+		}
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void bindEmails_fails() throws Exception {
+		when(exchangeServiceMock.bindToItems(any(), any(PropertySet.class))).thenThrow(new HttpErrorException("someMessage", 500));
+
+		final var result = ewsIntegration.bindEmails(credential, "someEmailAdress", List.of(new ItemId("someId")), consumerMock);
+
+		assertThat(result.emails()).isEmpty();
+		assertThat(result.lease()).isNull();
+		verify(consumerMock).accept("[EWS] Could not bind items, address: someEmailAdress");
+	}
+
+	@Test
+	void bindEmailsOrThrow_fails() throws Exception {
+		when(exchangeServiceMock.bindToItems(any(), any(PropertySet.class))).thenThrow(new HttpErrorException("someMessage", 500));
+		final var itemIds = List.of(new ItemId("someId"));
+
+		try (final var lease = exchangeServicePoolMock.lease(credential)) {
+			assertThatExceptionOfType(HttpErrorException.class)
+				.isThrownBy(() -> ewsIntegration.bindEmailsOrThrow(lease, "someEmailAdress", itemIds, consumerMock));
+		}
+
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void bindEmails_noIds() {
+		assertThat(ewsIntegration.bindEmails(credential, "someEmailAdress", List.of(), consumerMock).emails()).isEmpty();
+		verifyNoInteractions(exchangeServicePoolMock);
+	}
+
+	@Test
+	void subscribeToInbox() throws Exception {
+		final var streamingService = mock(ExchangeService.class);
+		final var subscription = mock(StreamingSubscription.class);
+		final var connection = mock(StreamingSubscriptionConnection.class);
+		final var integration = spy(ewsIntegration);
+		when(exchangeServicePoolMock.createService(credential)).thenReturn(streamingService);
+		when(streamingService.subscribeToStreamingNotifications(any(), eq(EventType.NewMail))).thenReturn(subscription);
+		doReturn(connection).when(integration).createStreamingConnection(streamingService, 30);
+
+		final var result = integration.subscribeToInbox(credential, "someEmailAdress", 30, mock(EwsInboxSubscription.Listener.class));
+
+		assertThat(result).isNotNull();
+		verify(connection).addSubscription(subscription);
+		verify(connection).open();
+		verify(streamingService, never()).close();
+		verifyNoInteractions(exchangeServiceMock);
+	}
+
+	@Test
+	void subscribeToInbox_openFails_closesService() throws Exception {
+		final var streamingService = mock(ExchangeService.class);
+		final var connection = mock(StreamingSubscriptionConnection.class);
+		final var integration = spy(ewsIntegration);
+		when(exchangeServicePoolMock.createService(credential)).thenReturn(streamingService);
+		doReturn(connection).when(integration).createStreamingConnection(streamingService, 30);
+		doThrow(new HttpErrorException("someMessage", 500)).when(connection).open();
+		final var listener = mock(EwsInboxSubscription.Listener.class);
+
+		assertThatExceptionOfType(HttpErrorException.class)
+			.isThrownBy(() -> integration.subscribeToInbox(credential, "someEmailAdress", 30, listener));
+
+		verify(streamingService).close();
+	}
+
 	@Test
 	void pageThroughEntireInbox_cantFindFolder() throws Exception {
 		// Arrange
@@ -123,13 +535,14 @@ class EWSIntegrationTest {
 		when(exchangeServiceMock.getRequestedServerVersion()).thenReturn(ExchangeVersion.Exchange2010_SP2);
 
 		// Act
-		ewsIntegration.moveEmail(itemId, "someEmailAdress", "someFolder");
+		ewsIntegration.moveEmail(credential, itemId, "someEmailAdress", "someFolder");
 
 		// Assert
 		verify(exchangeServiceMock, times(1)).bindToItem(any(ItemId.class), any());
 		verify(exchangeServiceMock, times(1))
 			.findFolders(any(FolderId.class), any(SearchFilter.class), any(FolderView.class));
 		verify(exchangeServiceMock).createFolder(any(Folder.class), any());
+		verify(exchangeServiceMock, atLeastOnce()).getUrl();
 		verifyNoMoreInteractions(exchangeServiceMock);
 	}
 
@@ -143,12 +556,188 @@ class EWSIntegrationTest {
 
 		when(exchangeServiceMock.bindToItem(any(ItemId.class), any())).thenReturn(email);
 
-		ewsIntegration.moveEmail(new ItemId("12123"), "someEmailAdress", "someFolder");
+		ewsIntegration.moveEmail(credential, new ItemId("12123"), "someEmailAdress", "someFolder");
 
 		verify(exchangeServiceMock, times(1)).bindToItem(any(ItemId.class), any());
+		verify(exchangeServiceMock, atLeastOnce()).getUrl();
 		verifyNoMoreInteractions(exchangeServiceMock);
 	}
 
+	@Test
+	void testMoveEmail_usesCachedFolderId() throws Exception {
+		final var folderId = new FolderId("someFolderId");
+		final var email = mock(EmailMessage.class);
+		doReturn(folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItem(any(ItemId.class), any())).thenReturn(email);
+
+		ewsIntegration.moveEmail(credential, new ItemId("12123"), "someEmailAdress", "someFolder");
+
+		verify(email).move(folderId);
+		verify(exchangeServiceMock, never()).findFolders(any(FolderId.class), any(SearchFilter.class), any(FolderView.class));
+		verify(folderIdCacheMock, never()).invalidate(any(), any());
+	}
+
+	@Test
+	void testMoveEmail_cachedFolderNotFound_resolvesAgain() throws Exception {
+		final var staleFolderId = new FolderId("staleFolderId");
+		final var folderId = new FolderId("someFolderId");
+		final var email = mock(EmailMessage.class);
+		final var notFound = mock(ServiceResponseException.class);
+		when(notFound.getErrorCode()).thenReturn(ServiceError.ErrorItemNotFound);
+		doReturn(staleFolderId, folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItem(any(ItemId.class), any())).thenReturn(email);
+		when(email.move(staleFolderId)).thenThrow(notFound);
+
+		ewsIntegration.moveEmail(credential, new ItemId("12123"), "someEmailAdress", "someFolder");
+
+		verify(folderIdCacheMock).invalidate("someEmailAdress", "someFolder");
+		verify(email).move(folderId);
+	}
+
+	@Test
+	void testMoveEmail_otherError_isRethrown() throws Exception {
+		final var folderId = new FolderId("someFolderId");
+		final var email = mock(EmailMessage.class);
+		final var accessDenied = mock(ServiceResponseException.class);
+		when(accessDenied.getErrorCode()).thenReturn(ServiceError.ErrorAccessDenied);
+		doReturn(folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItem(any(ItemId.class), any())).thenReturn(email);
+		when(email.move(folderId)).thenThrow(accessDenied);
+
+		assertThatExceptionOfType(ServiceResponseException.class)
+			.isThrownBy(() -> ewsIntegration.moveEmail(credential, new ItemId("12123"), "someEmailAdress", "someFolder"));
+
+		verify(folderIdCacheMock, never()).invalidate(any(), any());
+	}
+
+	@Test
+	void markAsReadAndMoveEmails() throws Exception {
+		final var folderId = new FolderId("someFolderId");
+		final var message1 = message("id1");
+		final var message2 = message("id2");
+		final var bindResponses = responses(bound(message1), bound(message2));
+		final var updateResponses = responses(response(UpdateItemResponse.class, null), response(UpdateItemResponse.class, null));
+		final var moveResponses = responses(moved(message("newId1")), moved(message("newId2")));
+		final var itemIds = List.of(new ItemId("id1"), new ItemId("id2"));
+		doReturn(folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(eq(itemIds), any(PropertySet.class))).thenReturn(bindResponses);
+		when(exchangeServiceMock.updateItems(List.of(message1, message2), null, ConflictResolutionMode.AutoResolve, MessageDisposition.SaveOnly, null)).thenReturn(updateResponses);
+		when(exchangeServiceMock.moveItems(any(), eq(folderId))).thenReturn(moveResponses);
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.failures()).isEmpty();
+		assertThat(result.movedIds()).containsOnly(entry("id1", "newId1"), entry("id2", "newId2"));
+		verify(message1).setIsRead(true);
+		verify(message2).setIsRead(true);
+		verify(exchangeServiceMock).moveItems(itemIdsCaptor.capture(), eq(folderId));
+		assertThat(itemIdsCaptor.getValue()).containsExactly(new ItemId("id1"), new ItemId("id2"));
+		verify(folderIdCacheMock, never()).invalidate(any(), any());
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_mapsFailuresPerEmail() throws Exception {
+		final var folderId = new FolderId("someFolderId");
+		final var updateFails = message("updateFails");
+		final var moveFails = message("moveFails");
+		final var moved = message("moved");
+		final var bindResponses = responses(response(GetItemResponse.class, ServiceError.ErrorItemNotFound), bound(updateFails), bound(moveFails), bound(moved));
+		final var updateResponses = responses(response(UpdateItemResponse.class, ServiceError.ErrorIrresolvableConflict),
+			response(UpdateItemResponse.class, null), response(UpdateItemResponse.class, null));
+		final var moveResponses = responses(response(MoveCopyItemResponse.class, ServiceError.ErrorMoveCopyFailed), response(MoveCopyItemResponse.class, null));
+		final var itemIds = List.of(new ItemId("bindFails"), new ItemId("updateFails"), new ItemId("moveFails"), new ItemId("moved"));
+		doReturn(folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(eq(itemIds), any(PropertySet.class))).thenReturn(bindResponses);
+		when(exchangeServiceMock.updateItems(any(), any(), any(), any(), any())).thenReturn(updateResponses);
+		when(exchangeServiceMock.moveItems(any(), eq(folderId))).thenReturn(moveResponses);
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.failures()).containsOnlyKeys("bindFails", "updateFails", "moveFails");
+		assertThat(result.failures().get("moveFails")).startsWith("ErrorMoveCopyFailed");
+		assertThat(result.movedIds()).isEmpty();
+		verify(exchangeServiceMock).moveItems(itemIdsCaptor.capture(), eq(folderId));
+		assertThat(itemIdsCaptor.getValue()).containsExactly(new ItemId("moveFails"), new ItemId("moved"));
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_destinationNotFound_resolvesFolderAgain() throws Exception {
+		final var staleFolderId = new FolderId("staleFolderId");
+		final var folderId = new FolderId("someFolderId");
+		final var message = message("id1");
+		final var bindResponses = responses(bound(message));
+		final var updateResponses = responses(response(UpdateItemResponse.class, null));
+		final var staleMoveResponses = responses(response(MoveCopyItemResponse.class, ServiceError.ErrorToFolderNotFound));
+		final var moveResponses = responses(response(MoveCopyItemResponse.class, null));
+		final var itemIds = List.of(new ItemId("id1"));
+		doReturn(staleFolderId, folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(eq(itemIds), any(PropertySet.class))).thenReturn(bindResponses);
+		when(exchangeServiceMock.updateItems(any(), any(), any(), any(), any())).thenReturn(updateResponses);
+		when(exchangeServiceMock.moveItems(any(), eq(staleFolderId))).thenReturn(staleMoveResponses);
+		when(exchangeServiceMock.moveItems(any(), eq(folderId))).thenReturn(moveResponses);
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.failures()).isEmpty();
+		verify(folderIdCacheMock).invalidate("someEmailAdress", "someFolder");
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_requestFails_failsWholeChunk() throws Exception {
+		final var itemIds = List.of(new ItemId("id1"), new ItemId("id2"));
+		doReturn(new FolderId("someFolderId")).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(any(), any(PropertySet.class))).thenThrow(new HttpErrorException("someMessage", 500));
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.failures()).containsOnlyKeys("id1", "id2").containsValue("someMessage");
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_failsAfterPartOfChunkIsMoved_keepsMovedEmails() throws Exception {
+		final var staleFolderId = new FolderId("staleFolderId");
+		final var message1 = message("id1");
+		final var message2 = message("id2");
+		final var bindResponses = responses(bound(message1), bound(message2));
+		final var updateResponses = responses(response(UpdateItemResponse.class, null), response(UpdateItemResponse.class, null));
+		final var moveResponses = responses(moved(message("newId1")), response(MoveCopyItemResponse.class, ServiceError.ErrorToFolderNotFound));
+		final var itemIds = List.of(new ItemId("id1"), new ItemId("id2"));
+		doReturn(staleFolderId).doThrow(new IllegalArgumentException("someMessage")).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(eq(itemIds), any(PropertySet.class))).thenReturn(bindResponses);
+		when(exchangeServiceMock.updateItems(any(), any(), any(), any(), any())).thenReturn(updateResponses);
+		when(exchangeServiceMock.moveItems(any(), eq(staleFolderId))).thenReturn(moveResponses);
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.movedIds()).containsOnly(entry("id1", "newId1"));
+		assertThat(result.failures()).containsOnlyKeys("id2");
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_sendsChunks() throws Exception {
+		final var itemIds = new ArrayList<ItemId>();
+		for (var i = 0; i < 120; i++) {
+			itemIds.add(new ItemId("id" + i));
+		}
+		doReturn(new FolderId("someFolderId")).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.bindToItems(any(), any(PropertySet.class))).thenThrow(new HttpErrorException("someMessage", 500));
+
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, itemIds, "someEmailAdress", "someFolder");
+
+		assertThat(result.failures()).hasSize(120);
+		verify(exchangeServiceMock, times(3)).bindToItems(itemIdsCaptor.capture(), any(PropertySet.class));
+		assertThat(itemIdsCaptor.getAllValues()).extracting(ids -> ids.spliterator().getExactSizeIfKnown()).containsExactly(50L, 50L, 20L);
+	}
+
+	@Test
+	void markAsReadAndMoveEmails_noIds() throws Exception {
+		final var result = ewsIntegration.markAsReadAndMoveEmails(credential, List.of(), "someEmailAdress", "someFolder");
+
+		assertThat(result.movedIds()).isEmpty();
+		assertThat(result.failures()).isEmpty();
+		verifyNoInteractions(exchangeServicePoolMock, folderIdCacheMock);
+	}
+
 	@Test
 	void testDeleteEmail() throws Exception {
 		final var emailId = new ItemId("123");
@@ -156,11 +745,137 @@ class EWSIntegrationTest {
 
 		when(exchangeServiceMock.bindToItem(any(ItemId.class), any(PropertySet.class))).thenReturn(emailMessage);
 
-		ewsIntegration.deleteEmail(emailId);
+		ewsIntegration.deleteEmail(credential, emailId);
 
 		verify(emailMessage).delete(DeleteMode.HardDelete);
 	}
 
+	@Test
+	void loadAttachment() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var attachments = mock(AttachmentCollection.class);
+		final var itemAttachment = mock(ItemAttachment.class);
+		final var first = fileAttachment("attachmentId1");
+		final var second = fileAttachment("attachmentId2");
+		final var content = new ByteArrayOutputStream();
+		when(exchangeServiceMock.bindToItem(eq(new ItemId("someItemId")), any(PropertySet.class))).thenReturn(emailMessage);
+		when(emailMessage.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(first, itemAttachment, second));
+		when(second.getName()).thenReturn("file.pdf");
+		when(second.getSize()).thenReturn(3);
+
+		ewsIntegration.loadAttachment(credential, "someItemId", "attachmentId2", "file.pdf", 3L, content);
+
+		verify(second).load(content);
+		verify(first, never()).load(any(OutputStream.class));
+	}
+
+	@Test
+	void loadAttachment_idChanged_resolvesByNameAndSize() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var attachments = mock(AttachmentCollection.class);
+		final var first = fileAttachment("newAttachmentId1");
+		final var second = fileAttachment("newAttachmentId2");
+		final var content = new ByteArrayOutputStream();
+		when(exchangeServiceMock.bindToItem(eq(new ItemId("someItemId")), any(PropertySet.class))).thenReturn(emailMessage);
+		when(emailMessage.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(first, second));
+		when(first.getName()).thenReturn("other.pdf");
+		when(second.getName()).thenReturn("file.pdf");
+		when(second.getSize()).thenReturn(3);
+
+		ewsIntegration.loadAttachment(credential, "someItemId", "attachmentId2", "file.pdf", 3L, content);
+
+		verify(second).load(content);
+		verify(first, never()).load(any(OutputStream.class));
+	}
+
+	@Test
+	void loadAttachment_idMatchesOtherAttachment() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var attachments = mock(AttachmentCollection.class);
+		final var attachment = fileAttachment("attachmentId1");
+		when(exchangeServiceMock.bindToItem(any(ItemId.class), any(PropertySet.class))).thenReturn(emailMessage);
+		when(emailMessage.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(attachment));
+		when(attachment.getName()).thenReturn("other.pdf");
+		final var content = new ByteArrayOutputStream();
+
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> ewsIntegration.loadAttachment(credential, "someItemId", "attachmentId1", "file.pdf", 3L, content))
+			.withMessage("File attachment with id 'attachmentId1' is not named 'file.pdf' with size 3");
+		verify(attachment, never()).load(any(OutputStream.class));
+	}
+
+	@Test
+	void loadAttachment_noSuchAttachment() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var attachments = mock(AttachmentCollection.class);
+		final var attachment = fileAttachment("attachmentId1");
+		when(exchangeServiceMock.bindToItem(any(ItemId.class), any(PropertySet.class))).thenReturn(emailMessage);
+		when(emailMessage.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(attachment));
+		when(attachment.getName()).thenReturn("other.pdf");
+		final var content = new ByteArrayOutputStream();
+
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> ewsIntegration.loadAttachment(credential, "someItemId", "attachmentId2", "file.pdf", 3L, content))
+			.withMessage("Email has 0 file attachments named 'file.pdf' with size 3, expected one");
+	}
+
+	@Test
+	void findItemIds() throws Exception {
+		final var folderId = new FolderId("someFolderId");
+		final var found = new FindItemsResults<Item>();
+		found.getItems().add(message("newId1"));
+		final var filterCaptor = ArgumentCaptor.forClass(SearchFilter.IsEqualTo.class);
+		doReturn(folderId).when(folderIdCacheMock).get(eq("someEmailAdress"), eq("someFolder"), any());
+		when(exchangeServiceMock.findItems(eq(folderId), filterCaptor.capture(), any(ItemView.class)))
+			.thenReturn(found)
+			.thenReturn(new FindItemsResults<>());
+		final var internetMessageIds = new LinkedHashMap<String, String>();
+		internetMessageIds.put("id1", "<message1@sundsvall.se>");
+		internetMessageIds.put("id2", "<message2@sundsvall.se>");
+
+		final var result = ewsIntegration.findItemIds(credential, "someEmailAdress", "someFolder", internetMessageIds);
+
+		assertThat(result).containsOnly(entry("id1", "newId1"));
+		assertThat(filterCaptor.getAllValues())
+			.extracting(SearchFilter.IsEqualTo::getPropertyDefinition, SearchFilter.IsEqualTo::getValue)
+			.containsExactly(
+				tuple(EmailMessageSchema.InternetMessageId, "<message1@sundsvall.se>"),
+				tuple(EmailMessageSchema.InternetMessageId, "<message2@sundsvall.se>"));
+	}
+
+	@Test
+	void findItemIds_nothingToFind() throws Exception {
+		final var result = ewsIntegration.findItemIds(credential, "someEmailAdress", "someFolder", emptyMap());
+
+		assertThat(result).isEmpty();
+		verifyNoInteractions(exchangeServicePoolMock);
+	}
+
+	private static FileAttachment fileAttachment(final String id) {
+		final var fileAttachment = mock(FileAttachment.class);
+		when(fileAttachment.getId()).thenReturn(id);
+		return fileAttachment;
+	}
+
+	private static ItemChange change(final ChangeType changeType, final Item item) {
+		final var change = new ItemChange();
+		change.setChangeType(changeType);
+		change.setServiceObject(item);
+		return change;
+	}
+
+	private static ChangeCollection<ItemChange> changes(final String syncState, final boolean moreChangesAvailable, final ItemChange... itemChanges) {
+		final var changes = new ChangeCollection<ItemChange>();
+		Stream.of(itemChanges).forEach(changes::add);
+		changes.setSyncState(syncState);
+		changes.setMoreChangesAvailable(moreChangesAvailable);
+		return changes;
+	}
+
 	private FindFoldersResults setUpFindFolderResults() throws Exception {
 		final var findFolderResults = new FindFoldersResults();
 		findFolderResults.setTotalCount(1);
@@ -169,6 +884,17 @@ class EWSIntegrationTest {
 		return findFolderResults;
 	}
 
+	private static ServiceResponseException serverBusy(final String backOffMilliseconds) {
+		final var serverBusy = mock(ServiceResponseException.class);
+		final var response = mock(ServiceResponse.class);
+		final var errorDetails = new HashMap<String, String>();
+		errorDetails.put("BackOffMilliseconds", backOffMilliseconds);
+		lenient().when(serverBusy.getErrorCode()).thenReturn(ServiceError.ErrorServerBusy);
+		lenient().when(serverBusy.getResponse()).thenReturn(response);
+		lenient().when(response.getErrorDetails()).thenReturn(errorDetails);
+		return serverBusy;
+	}
+
 	private FindItemsResults<Item> setUpFindItemsResults() throws Exception {
 		final var emailMessage = mock(EmailMessage.class);
 		emailMessage.setFrom(new EmailAddress("Test testorsson", "test@test.se"));
@@ -183,6 +909,7 @@ class EWSIntegrationTest {
 
 	@Test
 	void extractValuesEmailMessage() throws ServiceLocalException {
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
 		when(emailMessageMock.getBody()).thenReturn(messageBodyMock);
 		when(messageBodyMock.toString()).thenReturn(EMAIL_MESSAGE_BODY_TEXT);
 
@@ -209,45 +936,239 @@ class EWSIntegrationTest {
 	}
 
 	@Test
-	void loadMessage() throws Exception {
+	void loadMessages() throws Exception {
+		final var otherEmailMessageMock = mock(EmailMessage.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getBody()).thenReturn(new MessageBody("<p>html</p>"), new MessageBody("text"));
+		when(otherEmailMessageMock.getBody()).thenReturn(new MessageBody("<p>other html</p>"), new MessageBody("other text"));
+		final var htmlResponses = responses(response(ServiceResult.Success), response(ServiceResult.Success));
+		final var textResponses = responses(response(ServiceResult.Success), response(ServiceResult.Success));
+		when(exchangeServiceMock.loadPropertiesForItems(any(), any(PropertySet.class))).thenReturn(htmlResponses, textResponses);
 
-		final var result = ewsIntegration.loadMessage(emailMessageMock, consumerMock);
+		final var result = ewsIntegration.loadMessages(List.of(emailMessageMock, otherEmailMessageMock), consumerMock);
 
-		assertThat(result).isNotNull().isEqualTo(emailMessageMock);
-		verify(emailMessageMock).load();
-		verify(exchangeServiceMock).loadPropertiesForItems(eq(List.of(emailMessageMock)), any(PropertySet.class));
+		assertThat(result).containsExactly(
+			new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"),
+			new EWSIntegration.LoadedEmailMessage(otherEmailMessageMock, "other text", "<p>other html</p>"));
+		verify(exchangeServiceMock, times(2)).loadPropertiesForItems(eq(List.of(emailMessageMock, otherEmailMessageMock)), any(PropertySet.class));
+		verifyNoInteractions(consumerMock);
 	}
 
 	@Test
-	void loadMessageThrowsException() throws Exception {
-		doThrow(ServiceLocalException.class).when(emailMessageMock).load();
+	void loadMessages_skipsMessagesThatCouldNotBeLoaded() throws Exception {
+		final var otherEmailMessageMock = mock(EmailMessage.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getBody()).thenReturn(new MessageBody("<p>html</p>"), new MessageBody("text"));
+		final var htmlResponses = responses(response(ServiceResult.Success), response(ServiceResult.Error));
+		final var textResponses = responses(response(ServiceResult.Success));
+		when(exchangeServiceMock.loadPropertiesForItems(any(), any(PropertySet.class))).thenReturn(htmlResponses, textResponses);
 
-		final var result = ewsIntegration.loadMessage(emailMessageMock, consumerMock);
+		final var result = ewsIntegration.loadMessages(List.of(emailMessageMock, otherEmailMessageMock), consumerMock);
 
-		assertThat(result).isNull();
+		assertThat(result).containsExactly(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"));
+		verify(exchangeServiceMock).loadPropertiesForItems(eq(List.of(emailMessageMock)), any(PropertySet.class));
 		verify(consumerMock).accept("[EWS] Could not load message");
-		verify(emailMessageMock).load();
 	}
 
 	@Test
-	void loadHTMLMessage() throws Exception {
+	void loadMessages_singleBodyRequest() throws Exception {
+		ReflectionTestUtils.setField(ewsIntegration, "singleBodyRequest", true);
+		final var otherEmailMessageMock = mock(EmailMessage.class);
+		final var extendedPropertiesMock = mock(ExtendedPropertyCollection.class);
+		final var otherExtendedPropertiesMock = mock(ExtendedPropertyCollection.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getBody()).thenReturn(new MessageBody("<p>html</p>"));
+		when(emailMessageMock.getExtendedProperties()).thenReturn(extendedPropertiesMock);
+		when(extendedPropertiesMock.tryGetValue(eq(String.class), any(), any())).thenAnswer(invocation -> {
+			invocation.getArgument(2, OutParam.class).setParam("text");
+			return true;
+		});
+		when(otherEmailMessageMock.getBody()).thenReturn(new MessageBody("<p>other <b>html</b></p>"));
+		when(otherEmailMessageMock.getExtendedProperties()).thenReturn(otherExtendedPropertiesMock);
+		when(otherExtendedPropertiesMock.tryGetValue(eq(String.class), any(), any())).thenReturn(false);
+		final var responses = responses(response(ServiceResult.Success), response(ServiceResult.Success));
+		when(exchangeServiceMock.loadPropertiesForItems(any(), any(PropertySet.class))).thenReturn(responses);
 
-		final var result = ewsIntegration.loadHTMLMessage(emailMessageMock, consumerMock);
+		final var result = ewsIntegration.loadMessages(List.of(emailMessageMock, otherEmailMessageMock), consumerMock);
 
-		assertThat(result).isNotNull().isEqualTo(emailMessageMock);
-		verify(emailMessageMock).load();
-		verify(exchangeServiceMock).loadPropertiesForItems(eq(List.of(emailMessageMock)), any(PropertySet.class));
+		assertThat(result).containsExactly(
+			new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"),
+			new EWSIntegration.LoadedEmailMessage(otherEmailMessageMock, "other html", "<p>other <b>html</b></p>"));
+		verify(exchangeServiceMock).loadPropertiesForItems(eq(List.of(emailMessageMock, otherEmailMessageMock)), any(PropertySet.class));
+		verifyNoInteractions(consumerMock);
 	}
 
 	@Test
-	void loadHTMLMessageThrowsException() throws Exception {
-		doThrow(ServiceLocalException.class).when(emailMessageMock).load();
+	void loadMessagesThrowsException() throws Exception {
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(exchangeServiceMock.loadPropertiesForItems(any(), any(PropertySet.class))).thenThrow(new HttpErrorException("someMessage", 500));
 
-		final var result = ewsIntegration.loadHTMLMessage(emailMessageMock, consumerMock);
+		final var result = ewsIntegration.loadMessages(List.of(emailMessageMock), consumerMock);
 
-		assertThat(result).isNull();
+		assertThat(result).isEmpty();
 		verify(consumerMock).accept("[EWS] Could not load message");
-		verify(emailMessageMock).load();
 	}
 
+	@Test
+	void loadMessages_emptyPage() {
+		final var result = ewsIntegration.loadMessages(List.of(), consumerMock);
+
+		assertThat(result).isEmpty();
+		verifyNoInteractions(exchangeServiceMock, consumerMock);
+	}
+
+	@Test
+	void loadAttachments_disabled() {
+		final var loaded = List.of(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"));
+
+		final var result = ewsIntegration.loadAttachments(loaded);
+
+		assertThat(result).isSameAs(loaded);
+		verifyNoInteractions(emailMessageMock, exchangeServiceMock);
+	}
+
+	@Test
+	void loadAttachments() throws Exception {
+		ReflectionTestUtils.setField(ewsIntegration, "batchLoadAttachments", true);
+		final var otherEmailMessageMock = mock(EmailMessage.class);
+		final var first = fileAttachment(1024);
+		final var oversized = fileAttachment(10485761);
+		final var other = fileAttachment(2048);
+		final var attachments = mock(AttachmentCollection.class);
+		final var otherAttachments = mock(AttachmentCollection.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(first, mock(ItemAttachment.class), oversized));
+		when(otherEmailMessageMock.getAttachments()).thenReturn(otherAttachments);
+		when(otherAttachments.getItems()).thenReturn(List.of(other));
+		final var attachmentResponses = responses(response(GetAttachmentResponse.class, null), response(GetAttachmentResponse.class, ServiceError.ErrorItemNotFound));
+		when(exchangeServiceMock.getAttachments(any(Attachment[].class), any(), any())).thenReturn(attachmentResponses);
+		final var loaded = List.of(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"),
+			new EWSIntegration.LoadedEmailMessage(otherEmailMessageMock, "other text", "<p>other html</p>"));
+
+		final var result = ewsIntegration.loadAttachments(loaded);
+
+		assertThat(result).containsExactly(
+			new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>", List.of(first)),
+			new EWSIntegration.LoadedEmailMessage(otherEmailMessageMock, "other text", "<p>other html</p>", List.of(other)));
+		verify(exchangeServiceMock).getAttachments(attachmentsCaptor.capture(), any(), any());
+		assertThat(attachmentsCaptor.getValue()).containsExactly(first, other);
+	}
+
+	@Test
+	void loadAttachments_sendsBatches() throws Exception {
+		ReflectionTestUtils.setField(ewsIntegration, "batchLoadAttachments", true);
+		final var small = new ArrayList<Attachment>();
+		for (var i = 0; i < 55; i++) {
+			small.add(fileAttachment(1024));
+		}
+		final var large = List.<Attachment>of(fileAttachment(10485760), fileAttachment(10485760), fileAttachment(10485760));
+		final var attachments = mock(AttachmentCollection.class);
+		final var items = new ArrayList<>(small);
+		items.addAll(large);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(items);
+		when(exchangeServiceMock.getAttachments(any(Attachment[].class), any(), any()))
+			.thenAnswer(invocation -> responses(Stream.of(invocation.<Attachment[]>getArgument(0))
+				.map(attachment -> response(GetAttachmentResponse.class, null))
+				.toArray(GetAttachmentResponse[]::new)));
+
+		ewsIntegration.loadAttachments(List.of(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>")));
+
+		verify(exchangeServiceMock, times(3)).getAttachments(attachmentsCaptor.capture(), any(), any());
+		assertThat(attachmentsCaptor.getAllValues()).extracting(batch -> batch.length).containsExactly(50, 7, 1);
+	}
+
+	@Test
+	void loadAttachments_loadsAtMostPageBudget() throws Exception {
+		ReflectionTestUtils.setField(ewsIntegration, "batchLoadAttachments", true);
+		final var items = new ArrayList<Attachment>();
+		for (var i = 0; i < 6; i++) {
+			items.add(fileAttachment(10485760));
+		}
+		final var attachments = mock(AttachmentCollection.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(items);
+		when(exchangeServiceMock.getAttachments(any(Attachment[].class), any(), any()))
+			.thenAnswer(invocation -> responses(Stream.of(invocation.<Attachment[]>getArgument(0))
+				.map(attachment -> response(GetAttachmentResponse.class, null))
+				.toArray(GetAttachmentResponse[]::new)));
+
+		final var result = ewsIntegration.loadAttachments(List.of(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>")));
+
+		// All attachments are kept, but only 50 MB is loaded in batches and the last one is streamed when mapped
+		assertThat(result.getFirst().attachments()).hasSize(6);
+		verify(exchangeServiceMock, times(3)).getAttachments(attachmentsCaptor.capture(), any(), any());
+		assertThat(attachmentsCaptor.getAllValues().stream().flatMap(Arrays::stream).toList()).containsExactlyElementsOf(items.subList(0, 5));
+	}
+
+	@Test
+	void loadAttachments_batchFails_keepsAttachmentsWithoutContent() throws Exception {
+		ReflectionTestUtils.setField(ewsIntegration, "batchLoadAttachments", true);
+		final var attachment = fileAttachment(1024);
+		final var attachments = mock(AttachmentCollection.class);
+		when(emailMessageMock.getService()).thenReturn(exchangeServiceMock);
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
+		when(attachments.getItems()).thenReturn(List.of(attachment));
+		when(exchangeServiceMock.getAttachments(any(Attachment[].class), any(), any())).thenThrow(new HttpErrorException("someMessage", 500));
+
+		final var result = ewsIntegration.loadAttachments(List.of(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>")));
+
+		assertThat(result).containsExactly(new EWSIntegration.LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>", List.of(attachment)));
+	}
+
+	private static FileAttachment fileAttachment(final int size) throws Exception {
+		final var attachment = mock(FileAttachment.class);
+		lenient().when(attachment.getSize()).thenReturn(size);
+		return attachment;
+	}
+
+	private static ServiceResponse response(final ServiceResult result) {
+		final var response = mock(ServiceResponse.class);
+		when(response.getResult()).thenReturn(result);
+		return response;
+	}
+
+	private static <T extends ServiceResponse> T response(final Class<T> type, final ServiceError errorCode) {
+		final var response = mock(type);
+		when(response.getResult()).thenReturn(errorCode == null ? ServiceResult.Success : ServiceResult.Error);
+		lenient().when(response.getErrorCode()).thenReturn(errorCode == null ? ServiceError.NoError : errorCode);
+		return response;
+	}
+
+	private static GetItemResponse bound(final EmailMessage emailMessage) {
+		final var response = response(GetItemResponse.class, null);
+		when(response.getItem()).thenReturn(emailMessage);
+		return response;
+	}
+
+	private static EmailMessage message(final String id) throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		lenient().when(emailMessage.getId()).thenReturn(new ItemId(id));
+		return emailMessage;
+	}
+
+	private static MoveCopyItemResponse moved(final EmailMessage emailMessage) {
+		final var response = response(MoveCopyItemResponse.class, null);
+		when(response.getItem()).thenReturn(emailMessage);
+		return response;
+	}
+
+	@SafeVarargs
+	private static <T extends ServiceResponse> ServiceResponseCollection<T> responses(final T... serviceResponses) {
+		final var responses = new ServiceResponseCollection<T>();
+		Stream.of(serviceResponses).forEach(responses::add);
+		return responses;
+	}
+
+
+	private static EmailMessage oversizedMessage(final String id) throws Exception {
+		final var message = mock(EmailMessage.class);
+		final var itemId = new ItemId(id);
+		when(message.getId()).thenReturn(itemId);
+		lenient().when(message.getSize()).thenReturn(10485761);
+		return message;
+	}
 }
@@ -1,6 +1,10 @@
 package se.sundsvall.emailreader.integration.ews;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Blob;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.Date;
@@ -17,20 +21,26 @@ import microsoft.exchange.webservices.data.property.complex.FileAttachment;
 import microsoft.exchange.webservices.data.property.complex.InternetMessageHeader;
 import microsoft.exchange.webservices.data.property.complex.InternetMessageHeaderCollection;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
-import microsoft.exchange.webservices.data.property.complex.MessageBody;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import se.sundsvall.emailreader.api.model.Header;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailHeaderEntity;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LoadedEmailMessage;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
 import se.sundsvall.emailreader.utility.BlobBuilder;
+import se.sundsvall.emailreader.utility.TempFileInputStream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.temporal.ChronoUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -39,8 +49,14 @@ import static org.assertj.core.groups.Tuple.tuple;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static se.sundsvall.emailreader.api.model.Header.AUTO_SUBMITTED;
 import static se.sundsvall.emailreader.api.model.Header.CONTENT_TYPE;
@@ -62,10 +78,18 @@ class EWSMapperTest {
 	private Blob blobMock;
 	@Mock
 	private BlobBuilder blobBuilderMock;
+	@Captor
+	private ArgumentCaptor<InputStream> contentCaptor;
 
-	@InjectMocks
 	private EWSMapper ewsMapper;
 
+	@BeforeEach
+	void setUp() {
+		final var throttlingGovernor = new ThrottlingGovernor(new SimpleMeterRegistry(), false, 10, 0.5, 50, 0.05, 0.5, Duration.ofSeconds(1), Duration.ofMinutes(1));
+		ewsMapper = new EWSMapper(blobBuilderMock, throttlingGovernor);
+		ReflectionTestUtils.setField(ewsMapper, "maxAttachmentSize", 10485760L);
+	}
+
 	@Test
 	void findHeader() {
 		final var iterator = mock(Iterator.class);
@@ -237,14 +261,17 @@ class EWSMapperTest {
 	}
 
 	@Test
-	void toAttachment() {
+	void toAttachment() throws Exception {
 		final var fileAttachment = mock(FileAttachment.class);
 		final var contentArray = new byte[] {
 			1, 2, 3
 		};
 		when(fileAttachment.getName()).thenReturn("test.txt");
-		when(fileAttachment.getContent()).thenReturn(contentArray);
-		when(blobBuilderMock.createBlob(contentArray)).thenReturn(blobMock);
+		doAnswer(invocation -> {
+			invocation.<OutputStream>getArgument(0).write(contentArray);
+			return null;
+		}).when(fileAttachment).load(any(OutputStream.class));
+		when(blobBuilderMock.createBlob(any(InputStream.class), eq(3L))).thenReturn(blobMock);
 
 		final var result = ewsMapper.toAttachment(fileAttachment);
 
@@ -254,23 +281,130 @@ class EWSMapperTest {
 			assertThat(attachmentEntity.getContent()).isEqualTo(blobMock);
 		});
 
-		verify(blobBuilderMock).createBlob(contentArray);
+		verify(blobBuilderMock).createBlob(contentCaptor.capture(), eq(3L));
+		assertThat(contentCaptor.getValue()).isInstanceOf(TempFileInputStream.class);
+		try (final var content = contentCaptor.getValue()) {
+			assertThat(content.readAllBytes()).isEqualTo(contentArray);
+		}
+		verify(fileAttachment, never()).getContent();
 	}
 
 	@Test
-	void toAttachment_throws() {
+	void toAttachment_isThrottled() throws Exception {
+		final var throttlingGovernorMock = mock(ThrottlingGovernor.class);
+		final var mapper = new EWSMapper(blobBuilderMock, throttlingGovernorMock);
 		final var fileAttachment = mock(FileAttachment.class);
-		final var contentArray = new byte[] {
-			1, 2, 3
-		};
 		when(fileAttachment.getName()).thenReturn("test.txt");
-		when(fileAttachment.getContent()).thenReturn(contentArray);
-		when(blobBuilderMock.createBlob(contentArray)).thenThrow(new RuntimeException());
+		when(throttlingGovernorMock.execute(eq("ews:default"), any(), any()))
+			.thenAnswer(invocation -> invocation.<ThrottlingGovernor.ThrottledCall<?>>getArgument(1).call());
+		when(blobBuilderMock.createBlob(any(InputStream.class), eq(0L))).thenReturn(blobMock);
+
+		final var result = mapper.toAttachment(fileAttachment);
+
+		assertThat(result.getContent()).isEqualTo(blobMock);
+		verify(throttlingGovernorMock).execute(eq("ews:default"), any(), any());
+		verify(fileAttachment).load(any(OutputStream.class));
+	}
+
+	@Test
+	void toAttachment_detectsMimeTypeFromStartOfLargeContent() throws Exception {
+		final var fileAttachment = mock(FileAttachment.class);
+		final var contentArray = new byte[5 * 1024 * 1024];
+		final var pdfHeader = "%PDF-1.7\n".getBytes(UTF_8);
+		System.arraycopy(pdfHeader, 0, contentArray, 0, pdfHeader.length);
+		when(fileAttachment.getName()).thenReturn("document");
+		doAnswer(invocation -> {
+			invocation.<OutputStream>getArgument(0).write(contentArray);
+			return null;
+		}).when(fileAttachment).load(any(OutputStream.class));
+		when(blobBuilderMock.createBlob(contentCaptor.capture(), eq((long) contentArray.length))).thenReturn(blobMock);
+
+		final var result = ewsMapper.toAttachment(fileAttachment);
+
+		assertThat(result.getContentType()).isEqualTo("application/pdf");
+		try (final var content = contentCaptor.getValue()) {
+			assertThat(content.readAllBytes()).isEqualTo(contentArray);
+		}
+	}
+
+	@Test
+	void toAttachment_loadThrows() throws Exception {
+		final var fileAttachment = mock(FileAttachment.class);
+		doThrow(new RuntimeException("someMessage")).when(fileAttachment).load(any(OutputStream.class));
 
 		final var result = ewsMapper.toAttachment(fileAttachment);
 
 		assertThat(result).isNull();
-		verify(blobBuilderMock).createBlob(contentArray);
+		verifyNoInteractions(blobBuilderMock);
+	}
+
+	@Test
+	void toAttachment_throws() throws Exception {
+		final var fileAttachment = mock(FileAttachment.class);
+		when(fileAttachment.getName()).thenReturn("test.txt");
+		when(blobBuilderMock.createBlob(any(InputStream.class), eq(0L))).thenThrow(new RuntimeException());
+
+		final var result = ewsMapper.toAttachment(fileAttachment);
+
+		assertThat(result).isNull();
+		verify(blobBuilderMock).createBlob(any(InputStream.class), eq(0L));
+	}
+
+	@Test
+	void toBatchLoadedAttachment() {
+		final var fileAttachment = mock(FileAttachment.class);
+		final var contentArray = "%PDF-1.7\n".getBytes(UTF_8);
+		when(fileAttachment.getName()).thenReturn("document");
+		when(fileAttachment.getContent()).thenReturn(contentArray);
+		when(blobBuilderMock.createBlob(contentCaptor.capture(), eq((long) contentArray.length))).thenReturn(blobMock);
+
+		final var result = ewsMapper.toBatchLoadedAttachment(fileAttachment);
+
+		assertThat(result).satisfies(attachmentEntity -> {
+			assertThat(attachmentEntity.getName()).isEqualTo("document");
+			assertThat(attachmentEntity.getContentType()).isEqualTo("application/pdf");
+			assertThat(attachmentEntity.getContent()).isEqualTo(blobMock);
+			assertThat(attachmentEntity.getSize()).isEqualTo((long) contentArray.length);
+		});
+		assertThat(contentCaptor.getValue()).isInstanceOf(TempFileInputStream.class);
+		try (final var content = contentCaptor.getValue()) {
+			assertThat(content.readAllBytes()).isEqualTo(contentArray);
+		}
+		verify(blobBuilderMock, never()).createBlob(any(byte[].class));
+	}
+
+	@Test
+	void toBatchLoadedAttachment_notLoaded_loadsAttachment() throws Exception {
+		final var fileAttachment = mock(FileAttachment.class);
+		when(fileAttachment.getName()).thenReturn("test.txt");
+		when(blobBuilderMock.createBlob(any(InputStream.class), eq(0L))).thenReturn(blobMock);
+
+		final var result = ewsMapper.toBatchLoadedAttachment(fileAttachment);
+
+		assertThat(result.getContent()).isEqualTo(blobMock);
+		verify(fileAttachment).load(any(OutputStream.class));
+	}
+
+	@Test
+	void toAttachmentReference() throws Exception {
+		final var fileAttachment = mock(FileAttachment.class);
+		when(fileAttachment.getId()).thenReturn("someAttachmentId");
+		when(fileAttachment.getName()).thenReturn("test.txt");
+		when(fileAttachment.getSize()).thenReturn(3);
+
+		final var result = ewsMapper.toAttachmentReference(fileAttachment, "someCredentialsId", "someItemId");
+
+		assertThat(result).satisfies(attachmentEntity -> {
+			assertThat(attachmentEntity.getName()).isEqualTo("test.txt");
+			assertThat(attachmentEntity.getContentType()).isEqualTo("text/plain");
+			assertThat(attachmentEntity.getSize()).isEqualTo(3L);
+			assertThat(attachmentEntity.getContent()).isNull();
+			assertThat(attachmentEntity.getSourceCredentialsId()).isEqualTo("someCredentialsId");
+			assertThat(attachmentEntity.getSourceItemId()).isEqualTo("someItemId");
+			assertThat(attachmentEntity.getSourceAttachmentId()).isEqualTo("someAttachmentId");
+		});
+		verify(fileAttachment, never()).load(any(OutputStream.class));
+		verifyNoInteractions(blobBuilderMock);
 	}
 
 	@Test
@@ -281,7 +415,6 @@ class EWSMapperTest {
 		final var emailHeaderEntity = new EmailHeaderEntity();
 
 		when(emailMessageMock.getId()).thenReturn(new ItemId("123456789"));
-		when(emailMessageMock.getBody()).thenReturn(new MessageBody("Mocked email body"));
 		when(emailMessageMock.getSubject()).thenReturn("Test Email Subject");
 		when(emailMessageMock.getFrom()).thenReturn(new EmailAddress("test", "sender@example.com"));
 		when(emailMessageMock.getDateTimeReceived()).thenReturn(Date.from(Instant.now()));
@@ -291,18 +424,21 @@ class EWSMapperTest {
 		ccCollection.add("cc@example.com");
 		when(emailMessageMock.getCcRecipients()).thenReturn(ccCollection);
 
-		when(emailMessageMock.getAttachments()).thenReturn(new AttachmentCollection());
-		emailMessageMock.getAttachments().addFileAttachment("fileAttachment.txt");
+		final var fileAttachment = mock(FileAttachment.class);
+		final var attachments = mock(AttachmentCollection.class);
+		when(fileAttachment.getSize()).thenReturn(3);
+		when(attachments.getItems()).thenReturn(List.of(fileAttachment));
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
 
-		when(spy.toAttachment(any())).thenReturn(attachmentEntity);
+		doReturn(attachmentEntity).when(spy).toAttachment(fileAttachment);
 		when(emailMessageMock.getDateTimeReceived()).thenReturn(Date.from(Instant.now()));
 
 		when(spy.toHeaders(emailMessageMock)).thenReturn(List.of(emailHeaderEntity));
 
-		final var result = spy.toEmail(emailMessageMock, MUNICIPALITY_ID, NAMESPACE, METADATA);
+		final var result = spy.toEmail(new LoadedEmailMessage(emailMessageMock, "Mocked email body", "<p>Mocked email body</p>"), MUNICIPALITY_ID, NAMESPACE, METADATA);
 
 		assertThat(result).isNotNull().satisfies(emailEntity -> {
-			assertThat(emailEntity).hasNoNullFieldsOrPropertiesExcept("createdAt", "id", "htmlMessage");
+			assertThat(emailEntity).hasNoNullFieldsOrPropertiesExcept("createdAt", "id");
 			assertThat(emailEntity.getOriginalId()).isEqualTo("123456789");
 			assertThat(emailEntity.getSubject()).isEqualTo("Test Email Subject");
 			assertThat(emailEntity.getSender()).isEqualTo("sender@example.com");
@@ -312,6 +448,7 @@ class EWSMapperTest {
 				cc -> assertThat(cc.getFirst()).isEqualTo("cc@example.com"));
 			assertThat(emailEntity.getSubject()).isEqualTo("Test Email Subject");
 			assertThat(emailEntity.getMessage()).isEqualTo("Mocked email body");
+			assertThat(emailEntity.getHtmlMessage()).isEqualTo("<p>Mocked email body</p>");
 			assertThat(emailEntity.getReceivedAt()).isCloseTo(OffsetDateTime.now(), within(1, SECONDS));
 			assertThat(emailEntity.getId()).isNull();
 			assertThat(emailEntity.getHeaders()).containsExactly(emailHeaderEntity);
@@ -323,6 +460,53 @@ class EWSMapperTest {
 		});
 	}
 
+	@Test
+	void toEmail_withBatchLoadedAttachments() throws Exception {
+		final var spy = Mockito.spy(ewsMapper);
+		final var emailMessageMock = mock(EmailMessage.class);
+		final var loadedAttachment = mock(FileAttachment.class);
+		final var attachmentEntity = new AttachmentEntity();
+
+		when(emailMessageMock.getId()).thenReturn(new ItemId("123456789"));
+		when(emailMessageMock.getFrom()).thenReturn(new EmailAddress("test", "sender@example.com"));
+		when(emailMessageMock.getToRecipients()).thenReturn(new EmailAddressCollection());
+		when(emailMessageMock.getAttachments()).thenReturn(new AttachmentCollection());
+		emailMessageMock.getAttachments().addFileAttachment("oversized.txt");
+		when(spy.toHeaders(emailMessageMock)).thenReturn(List.of());
+		doReturn(attachmentEntity).when(spy).toBatchLoadedAttachment(loadedAttachment);
+
+		final var result = spy.toEmail(new LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>", List.of(loadedAttachment)), MUNICIPALITY_ID, NAMESPACE, METADATA);
+
+		assertThat(result.getAttachments()).containsExactly(attachmentEntity);
+		verify(spy, never()).toAttachment(any());
+	}
+
+	@Test
+	void toEmail_skipsAttachmentsLargerThanMaxSize() throws Exception {
+		final var spy = Mockito.spy(ewsMapper);
+		final var emailMessageMock = mock(EmailMessage.class);
+		final var fileAttachment = mock(FileAttachment.class);
+		final var oversized = mock(FileAttachment.class);
+		final var attachments = mock(AttachmentCollection.class);
+		final var attachmentEntity = new AttachmentEntity();
+
+		when(emailMessageMock.getId()).thenReturn(new ItemId("123456789"));
+		when(emailMessageMock.getFrom()).thenReturn(new EmailAddress("test", "sender@example.com"));
+		when(emailMessageMock.getToRecipients()).thenReturn(new EmailAddressCollection());
+		when(fileAttachment.getSize()).thenReturn(10485760);
+		when(oversized.getSize()).thenReturn(10485761);
+		when(attachments.getItems()).thenReturn(List.of(fileAttachment, oversized));
+		when(emailMessageMock.getAttachments()).thenReturn(attachments);
+		when(spy.toHeaders(emailMessageMock)).thenReturn(List.of());
+		doReturn(attachmentEntity).when(spy).toAttachment(fileAttachment);
+
+		final var result = spy.toEmail(new LoadedEmailMessage(emailMessageMock, "text", "<p>html</p>"), MUNICIPALITY_ID, NAMESPACE, METADATA);
+
+		assertThat(result.getAttachments()).containsExactly(attachmentEntity);
+		verify(spy, never()).toAttachment(oversized);
+		verify(oversized, never()).load(any(OutputStream.class));
+	}
+
 	@Test
 	void testToEmail_noHeaders_noAttachments() throws Exception {
 		// Mock
@@ -330,20 +514,19 @@ class EWSMapperTest {
 		when(emailMessage.getToRecipients()).thenReturn(new EmailAddressCollection());
 		emailMessage.getToRecipients().add("recipient@example.com");
 		when(emailMessage.getId()).thenReturn(new ItemId("123456789"));
-		when(emailMessage.getBody()).thenReturn(new MessageBody("Mocked email body"));
 		when(emailMessage.getSubject()).thenReturn("Test Email Subject");
 		when(emailMessage.getFrom()).thenReturn(new EmailAddress("test", "sender@example.com"));
 		when(emailMessage.getDateTimeReceived()).thenReturn(Date.from(Instant.now()));
 		when(emailMessage.getInternetMessageHeaders()).thenReturn(new InternetMessageHeaderCollection());
 		// Act
-		final var result = ewsMapper.toEmail(emailMessage, MUNICIPALITY_ID, NAMESPACE, null);
+		final var result = ewsMapper.toEmail(new LoadedEmailMessage(emailMessage, "Mocked email body\r\n\r\nSecond line", null), MUNICIPALITY_ID, NAMESPACE, null);
 		// Assert
 		assertThat(result).hasNoNullFieldsOrPropertiesExcept("metadata", "headers", "attachments", "createdAt", "id", "htmlMessage");
 		assertThat(result.getSender()).isEqualTo("sender@example.com");
 		assertThat(result.getRecipients()).hasSize(1).satisfies(
 			recipient -> assertThat(recipient.getFirst()).isEqualTo("recipient@example.com"));
 		assertThat(result.getSubject()).isEqualTo("Test Email Subject");
-		assertThat(result.getMessage()).isEqualTo("Mocked email body");
+		assertThat(result.getMessage()).isEqualTo("Mocked email body\nSecond line");
 		assertThat(result.getReceivedAt()).isCloseTo(OffsetDateTime.now(), within(1, SECONDS));
 		assertThat(result.getId()).isNull();
 		assertThat(result.getAttachments()).isEmpty();
@@ -357,7 +540,7 @@ class EWSMapperTest {
 		when(emailMessage.getToRecipients()).thenThrow(new ServiceLocalException("Something went wrong"));
 		// Act & Assert
 
-		assertThatThrownBy(() -> ewsMapper.toEmail(emailMessage, MUNICIPALITY_ID, NAMESPACE, METADATA))
+		assertThatThrownBy(() -> ewsMapper.toEmail(new LoadedEmailMessage(emailMessage, null, null), MUNICIPALITY_ID, NAMESPACE, METADATA))
 			.isInstanceOf(ServiceLocalException.class)
 			.hasMessage("Something went wrong");
 	}
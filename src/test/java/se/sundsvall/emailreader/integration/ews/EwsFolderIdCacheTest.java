@@ -0,0 +1,154 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import microsoft.exchange.webservices.data.property.complex.FolderId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.integration.db.EwsFolderIdRepository;
+import se.sundsvall.emailreader.integration.db.entity.EwsFolderIdEntity;
+
+import static java.time.ZoneOffset.UTC;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EwsFolderIdCacheTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+	private static final String ADDRESS = "someEmailAddress";
+	private static final String FOLDER = "someFolder";
+
+	@Mock
+	private EwsFolderIdRepository ewsFolderIdRepositoryMock;
+
+	@Mock
+	private Clock clockMock;
+
+	@Mock
+	private EwsFolderIdCache.FolderIdResolver resolverMock;
+
+	@Captor
+	private ArgumentCaptor<EwsFolderIdEntity> entityCaptor;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private EwsFolderIdCache cache;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		cache = new EwsFolderIdCache(ewsFolderIdRepositoryMock, meterRegistry, Duration.ofHours(24), clockMock);
+	}
+
+	@Test
+	void get_resolvesOnceAndStores() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenReturn(Optional.empty());
+		when(resolverMock.resolve()).thenReturn(new FolderId("someFolderId"));
+
+		final var first = cache.get(ADDRESS, FOLDER, resolverMock);
+		final var second = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(first.getUniqueId()).isEqualTo("someFolderId");
+		assertThat(second.getUniqueId()).isEqualTo("someFolderId");
+		assertThat(cache.size()).isOne();
+		verify(resolverMock).resolve();
+		verify(ewsFolderIdRepositoryMock).save(entityCaptor.capture());
+		assertThat(entityCaptor.getValue().getEmailAddress()).isEqualTo(ADDRESS.toLowerCase());
+		assertThat(entityCaptor.getValue().getFolderName()).isEqualTo(FOLDER);
+		assertThat(entityCaptor.getValue().getFolderId()).isEqualTo("someFolderId");
+		assertThat(entityCaptor.getValue().getResolvedAt()).isEqualTo(NOW.atOffset(UTC));
+		assertThat(meterRegistry.get("emailreader.ews.folder.cache.requests").tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.folder.cache.requests").tag("result", "miss").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.folder.cache.size").gauge().value()).isOne();
+	}
+
+	@Test
+	void get_usesStoredFolderId() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenReturn(Optional.of(EwsFolderIdEntity.builder()
+			.withFolderId("storedFolderId")
+			.withResolvedAt(NOW.minus(Duration.ofHours(1)).atOffset(UTC))
+			.build()));
+
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result.getUniqueId()).isEqualTo("storedFolderId");
+		verify(resolverMock, never()).resolve();
+		verify(ewsFolderIdRepositoryMock, never()).save(any());
+	}
+
+	@Test
+	void get_expiredFolderIdIsResolvedAgain() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW, NOW.plus(Duration.ofHours(25)));
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenReturn(Optional.empty());
+		when(resolverMock.resolve()).thenReturn(new FolderId("someFolderId"), new FolderId("someOtherFolderId"));
+
+		cache.get(ADDRESS, FOLDER, resolverMock);
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result.getUniqueId()).isEqualTo("someOtherFolderId");
+		verify(resolverMock, times(2)).resolve();
+		assertThat(meterRegistry.get("emailreader.ews.folder.cache.requests").tag("result", "miss").counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	void get_repositoryFails_stillResolves() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenThrow(new RuntimeException("someMessage"));
+		when(resolverMock.resolve()).thenReturn(new FolderId("someFolderId"));
+
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result.getUniqueId()).isEqualTo("someFolderId");
+		assertThat(cache.size()).isOne();
+	}
+
+	@Test
+	void get_folderWithoutIdIsNotCached() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenReturn(Optional.empty());
+
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result).isNull();
+		assertThat(cache.size()).isZero();
+		verify(ewsFolderIdRepositoryMock, never()).save(any());
+	}
+
+	@Test
+	void invalidate() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(ewsFolderIdRepositoryMock.findByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER)).thenReturn(Optional.empty());
+		when(resolverMock.resolve()).thenReturn(new FolderId("someFolderId"));
+		cache.get(ADDRESS, FOLDER, resolverMock);
+
+		cache.invalidate(ADDRESS, FOLDER);
+
+		assertThat(cache.size()).isZero();
+		verify(ewsFolderIdRepositoryMock).deleteByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER);
+	}
+
+	@Test
+	void invalidate_repositoryFails() {
+		doThrow(new RuntimeException("someMessage")).when(ewsFolderIdRepositoryMock).deleteByEmailAddressAndFolderName(ADDRESS.toLowerCase(), FOLDER);
+
+		cache.invalidate(ADDRESS, FOLDER);
+
+		assertThat(cache.size()).isZero();
+	}
+}
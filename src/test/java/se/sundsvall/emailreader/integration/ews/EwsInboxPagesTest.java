@@ -0,0 +1,130 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import org.junit.jupiter.api.Test;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LeasedEmails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.mock;
+
+class EwsInboxPagesTest {
+
+	@Test
+	void iteratesPagesInOrderAndSkipsEmptyPages() {
+		final var first = List.of(mock(EmailMessage.class));
+		final var second = List.of(mock(EmailMessage.class), mock(EmailMessage.class));
+		final var source = new ArrayDeque<>(List.of(first, List.<EmailMessage>of(), second));
+
+		final var pages = new ArrayList<List<EmailMessage>>();
+		try (final var result = new EwsInboxPages(() -> pageOf(source.poll()), 1)) {
+			result.forEachRemaining(pages::add);
+			assertThatExceptionOfType(NoSuchElementException.class).isThrownBy(result::next);
+		}
+
+		assertThat(pages).containsExactly(first, second);
+	}
+
+	@Test
+	void readsAheadAtMostTheGivenNumberOfPages() throws Exception {
+		final var fetched = new AtomicInteger();
+		final var page = List.of(mock(EmailMessage.class));
+
+		try (final var result = new EwsInboxPages(() -> fetched.incrementAndGet() <= 10 ? pageOf(page) : null, 2)) {
+			// Two pages are queued and a third is held by the fetcher, waiting for room in the queue
+			waitUntil(() -> fetched.get() == 3);
+			assertThat(fetched).hasValue(3);
+
+			result.next();
+
+			waitUntil(() -> fetched.get() == 4);
+		}
+	}
+
+	@Test
+	void endsWhenSourceFails() {
+		final var page = List.of(mock(EmailMessage.class));
+		final var source = new ArrayDeque<>(List.of(page));
+
+		try (final var result = new EwsInboxPages(() -> {
+			if (source.isEmpty()) {
+				throw new IllegalStateException("someMessage");
+			}
+			return pageOf(source.poll());
+		}, 1)) {
+			assertThat(result.next()).isSameAs(page);
+			assertThat(result.hasNext()).isFalse();
+		}
+	}
+
+	@Test
+	void close_stopsFetching() throws Exception {
+		final var fetched = new AtomicInteger();
+		final var page = List.of(mock(EmailMessage.class));
+
+		final var result = new EwsInboxPages(() -> {
+			fetched.incrementAndGet();
+			return pageOf(page);
+		}, 1);
+		waitUntil(() -> fetched.get() == 2);
+
+		result.close();
+
+		assertThat(result.hasNext()).isFalse();
+		assertThat(fetched).hasValue(2);
+	}
+
+	@Test
+	void closesLeaseOfPageWhenNextPageIsReturnedOrPagesAreClosed() throws Exception {
+		final var openLeases = new AtomicInteger();
+		final var fetched = new AtomicInteger();
+		final var page = List.of(mock(EmailMessage.class));
+
+		final var result = new EwsInboxPages(() -> {
+			if (fetched.incrementAndGet() > 3) {
+				return null;
+			}
+			openLeases.incrementAndGet();
+			return new LeasedEmails(page, new ExchangeServicePool.Lease(mock(ExchangeService.class), openLeases::decrementAndGet));
+		}, 1);
+
+		result.next();
+		// The returned page, the queued page and the page waiting for room in the queue
+		waitUntil(() -> openLeases.get() == 3);
+		assertThat(fetched).hasValue(3);
+
+		result.next();
+
+		assertThat(openLeases).hasValue(2);
+
+		result.close();
+
+		waitUntil(() -> openLeases.get() == 0);
+	}
+
+	@Test
+	void empty() {
+		try (final var result = EwsInboxPages.empty()) {
+			assertThat(result.hasNext()).isFalse();
+		}
+	}
+
+	private static LeasedEmails pageOf(final List<EmailMessage> emails) {
+		return emails == null ? null : new LeasedEmails(emails, null);
+	}
+
+	private static void waitUntil(final BooleanSupplier condition) throws InterruptedException {
+		final var deadline = System.nanoTime() + 5_000_000_000L;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met within 5 seconds").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.List;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import microsoft.exchange.webservices.data.core.enumeration.notification.EventType;
+import microsoft.exchange.webservices.data.notification.FolderEvent;
+import microsoft.exchange.webservices.data.notification.ItemEvent;
+import microsoft.exchange.webservices.data.notification.NotificationEvent;
+import microsoft.exchange.webservices.data.notification.NotificationEventArgs;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection.INotificationEventDelegate;
+import microsoft.exchange.webservices.data.notification.StreamingSubscriptionConnection.ISubscriptionErrorDelegate;
+import microsoft.exchange.webservices.data.notification.SubscriptionErrorEventArgs;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class EwsInboxSubscriptionTest {
+
+	@Mock
+	private ExchangeService exchangeServiceMock;
+
+	@Mock
+	private StreamingSubscriptionConnection connectionMock;
+
+	@Mock
+	private EwsInboxSubscription.Listener listenerMock;
+
+	@Captor
+	private ArgumentCaptor<INotificationEventDelegate> notificationCaptor;
+
+	@Captor
+	private ArgumentCaptor<ISubscriptionErrorDelegate> disconnectCaptor;
+
+	@Captor
+	private ArgumentCaptor<ISubscriptionErrorDelegate> subscriptionErrorCaptor;
+
+	private EwsInboxSubscription subscription;
+
+	@BeforeEach
+	void setUp() {
+		subscription = new EwsInboxSubscription(exchangeServiceMock, connectionMock, listenerMock);
+		verify(connectionMock).addOnNotificationEvent(notificationCaptor.capture());
+		verify(connectionMock).addOnDisconnect(disconnectCaptor.capture());
+		verify(connectionMock).addOnSubscriptionError(subscriptionErrorCaptor.capture());
+	}
+
+	@Test
+	void notification_passesNewMailItemIdsToListener() throws Exception {
+		final var itemId = new ItemId("someId");
+		final var newMail = itemEvent(EventType.NewMail, itemId);
+		final var modified = itemEvent(EventType.Modified, new ItemId("someOtherId"));
+		final var folderEvent = mock(FolderEvent.class);
+		when(folderEvent.getEventType()).thenReturn(EventType.NewMail);
+		final var args = mock(NotificationEventArgs.class);
+		when(args.getEvents()).thenReturn(List.<NotificationEvent>of(newMail, modified, folderEvent));
+
+		notificationCaptor.getValue().notificationEventDelegate(connectionMock, args);
+
+		verify(listenerMock).onNewEmails(List.of(itemId));
+	}
+
+	@Test
+	void notification_withoutNewMail_isIgnored() throws Exception {
+		final var modified = itemEvent(EventType.Modified, new ItemId("someId"));
+		final var args = mock(NotificationEventArgs.class);
+		when(args.getEvents()).thenReturn(List.<NotificationEvent>of(modified));
+
+		notificationCaptor.getValue().notificationEventDelegate(connectionMock, args);
+
+		verifyNoInteractions(listenerMock);
+	}
+
+	@Test
+	void disconnect_passesExceptionToListener() {
+		final var exception = new RuntimeException("someMessage");
+		final var args = mock(SubscriptionErrorEventArgs.class);
+		when(args.getException()).thenReturn(exception);
+
+		disconnectCaptor.getValue().subscriptionErrorDelegate(connectionMock, args);
+
+		verify(listenerMock).onDisconnect(exception);
+	}
+
+	@Test
+	void subscriptionError_passesExceptionToListener() {
+		final var exception = new RuntimeException("someMessage");
+		final var args = mock(SubscriptionErrorEventArgs.class);
+		when(args.getException()).thenReturn(exception);
+
+		subscriptionErrorCaptor.getValue().subscriptionErrorDelegate(connectionMock, args);
+
+		verify(listenerMock).onSubscriptionError(exception);
+	}
+
+	@Test
+	void open() throws Exception {
+		subscription.open();
+
+		verify(connectionMock).open();
+	}
+
+	@Test
+	void close() throws Exception {
+		when(connectionMock.getIsOpen()).thenReturn(true);
+
+		subscription.close();
+
+		verify(connectionMock).close();
+		verify(exchangeServiceMock).close();
+	}
+
+	@Test
+	void close_connectionFails_stillClosesService() throws Exception {
+		when(connectionMock.getIsOpen()).thenReturn(true);
+		doThrow(new RuntimeException("someMessage")).when(connectionMock).close();
+
+		subscription.close();
+
+		verify(exchangeServiceMock).close();
+	}
+
+	@Test
+	void close_notOpen() throws Exception {
+		subscription.close();
+
+		verify(connectionMock, never()).close();
+		verify(exchangeServiceMock).close();
+	}
+
+	private static ItemEvent itemEvent(final EventType eventType, final ItemId itemId) throws Exception {
+		final var event = mock(ItemEvent.class);
+		when(event.getEventType()).thenReturn(eventType);
+		lenient().when(event.getItemId()).thenReturn(itemId);
+		return event;
+	}
+}
@@ -0,0 +1,36 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EwsOversizedEmailsTest {
+
+	private final EwsOversizedEmails oversizedEmails = new EwsOversizedEmails();
+
+	@Test
+	void markReported() {
+		assertThat(oversizedEmails.markReported("some@address.se", "someId")).isTrue();
+		assertThat(oversizedEmails.markReported("Some@Address.se", "someId")).isFalse();
+		assertThat(oversizedEmails.markReported("some@address.se", "someOtherId")).isTrue();
+		assertThat(oversizedEmails.markReported("other@address.se", "someId")).isTrue();
+
+		assertThat(oversizedEmails.size("some@address.se")).isEqualTo(2);
+	}
+
+	@Test
+	void retainOnly() {
+		oversizedEmails.markReported("some@address.se", "someId");
+		oversizedEmails.markReported("some@address.se", "someOtherId");
+
+		oversizedEmails.retainOnly("some@address.se", Set.of("someOtherId"));
+
+		assertThat(oversizedEmails.size("some@address.se")).isOne();
+		assertThat(oversizedEmails.markReported("some@address.se", "someId")).isTrue();
+
+		oversizedEmails.retainOnly("some@address.se", Set.of());
+
+		assertThat(oversizedEmails.size("some@address.se")).isZero();
+	}
+}
@@ -0,0 +1,281 @@
+package se.sundsvall.emailreader.integration.ews;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import microsoft.exchange.webservices.data.core.ExchangeService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.utility.EncryptionException;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
+
+@ExtendWith(MockitoExtension.class)
+class ExchangeServicePoolTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+
+	@Mock
+	private EncryptionUtility encryptionUtilityMock;
+
+	@Mock
+	private Clock clockMock;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private ExchangeServicePool pool;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		pool = new ExchangeServicePool(encryptionUtilityMock, meterRegistry, Duration.ofMinutes(15), clockMock);
+	}
+
+	@Test
+	void lease_reusesServiceForSameCredential() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("somePassword")).thenReturn("decryptedPassword");
+
+		final ExchangeService first;
+		try (final var lease = pool.lease(credential)) {
+			first = lease.service();
+		}
+		final var second = pool.lease(credential).service();
+
+		assertThat(first).isNotNull().isSameAs(second);
+		assertThat(first.getUrl()).hasToString("https://mail.example.com/EWS/Exchange.asmx");
+		assertThat(pool.size()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.requests").tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.requests").tag("result", "miss").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.size").gauge().value()).isOne();
+		verify(encryptionUtilityMock).decrypt("somePassword");
+	}
+
+	@Test
+	void lease_replacesServiceWhenPasswordChanged() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("somePassword")).thenReturn("decryptedPassword");
+		when(encryptionUtilityMock.decrypt("someOtherPassword")).thenReturn("otherDecryptedPassword");
+
+		final var first = pool.lease(credential).service();
+		credential.setPassword("someOtherPassword");
+		final var second = pool.lease(credential).service();
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(pool.size()).isOne();
+	}
+
+	@Test
+	void lease_separateServicesPerEndpoint() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail1.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("somePassword")).thenReturn("decryptedPassword");
+
+		final var first = pool.lease(credential).service();
+		credential.setDomain("https://mail2.example.com/EWS/Exchange.asmx");
+		final var second = pool.lease(credential).service();
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(pool.size()).isEqualTo(2);
+		verify(encryptionUtilityMock, times(2)).decrypt("somePassword");
+	}
+
+	@Test
+	void lease_evictsIdleServices() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW, NOW, NOW.plus(Duration.ofMinutes(16)));
+		when(encryptionUtilityMock.decrypt("somePassword")).thenReturn("decryptedPassword");
+
+		final ExchangeService first;
+		try (final var lease = pool.lease(credential)) {
+			first = lease.service();
+		}
+		final var second = pool.lease(credential).service();
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.requests").tag("result", "miss").counter().count()).isEqualTo(2);
+	}
+
+	@Test
+	void lease_decryptionFails() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("somePassword")).thenThrow(new EncryptionException("someMessage"));
+
+		assertThatExceptionOfType(EncryptionException.class).isThrownBy(() -> pool.lease(credential).service());
+		assertThat(pool.size()).isZero();
+	}
+
+	@Test
+	void invalidate() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("somePassword")).thenReturn("decryptedPassword");
+		pool.lease(credential).service();
+
+		pool.invalidate(credential.getId());
+
+		assertThat(pool.size()).isZero();
+	}
+
+	@Test
+	void lease_doesNotEvictLeasedService() {
+		final var credential = createPoolCredential();
+		final var service = mock(ExchangeService.class);
+		final var spiedPool = spy(pool);
+		doReturn(service).when(spiedPool).createService(credential);
+		when(clockMock.instant()).thenReturn(NOW);
+
+		final var lease = spiedPool.lease(credential);
+		when(clockMock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(16)));
+		spiedPool.evictIdle();
+
+		assertThat(spiedPool.size()).isOne();
+		verify(service, never()).close();
+
+		lease.close();
+		when(clockMock.instant()).thenReturn(NOW.plus(Duration.ofMinutes(32)));
+		spiedPool.evictIdle();
+
+		assertThat(spiedPool.size()).isZero();
+		verify(service).close();
+	}
+
+	@Test
+	void lease_closesReplacedServiceWhenLastLeaseIsClosed() {
+		final var credential = createPoolCredential();
+		final var first = mock(ExchangeService.class);
+		final var second = mock(ExchangeService.class);
+		final var spiedPool = spy(pool);
+		doReturn(first, second).when(spiedPool).createService(credential);
+		when(clockMock.instant()).thenReturn(NOW);
+
+		final var firstLease = spiedPool.lease(credential);
+		credential.setPassword("someOtherPassword");
+		try (final var secondLease = spiedPool.lease(credential)) {
+			assertThat(secondLease.service()).isSameAs(second);
+			verify(first, never()).close();
+
+			firstLease.close();
+			firstLease.close();
+		}
+
+		verify(first).close();
+		verify(second, never()).close();
+		assertThat(spiedPool.size()).isOne();
+	}
+
+	@Test
+	void invalidate_closesLeasedServiceWhenLeaseIsClosed() {
+		final var credential = createPoolCredential();
+		final var service = mock(ExchangeService.class);
+		final var spiedPool = spy(pool);
+		doReturn(service).when(spiedPool).createService(credential);
+		when(clockMock.instant()).thenReturn(NOW);
+
+		final var lease = spiedPool.lease(credential);
+		spiedPool.invalidate(credential.getId());
+
+		assertThat(spiedPool.size()).isZero();
+		verify(service, never()).close();
+
+		lease.close();
+
+		verify(service).close();
+	}
+
+	@Test
+	void lease_handsOutExclusiveLeases() {
+		final var credential = createPoolCredential();
+		final var first = mock(ExchangeService.class);
+		final var second = mock(ExchangeService.class);
+		final var spiedPool = spy(pool);
+		doReturn(first, second).when(spiedPool).createService(credential);
+		when(clockMock.instant()).thenReturn(NOW);
+
+		try (final var firstLease = spiedPool.lease(credential); final var secondLease = spiedPool.lease(credential)) {
+			assertThat(firstLease.service()).isSameAs(first);
+			assertThat(secondLease.service()).isSameAs(second);
+			assertThat(spiedPool.size()).isEqualTo(2);
+		}
+
+		try (final var lease = spiedPool.lease(credential)) {
+			// The most recently released instance is leased first
+			assertThat(lease.service()).isSameAs(first);
+		}
+		assertThat(spiedPool.size()).isEqualTo(2);
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.requests").tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.ews.service.pool.requests").tag("result", "miss").counter().count()).isEqualTo(2);
+		verify(first, never()).close();
+		verify(second, never()).close();
+	}
+
+	@Test
+	void lease_neverHandsOutServiceToTwoLeasesAtOnce() throws Exception {
+		final var credential = createPoolCredential();
+		final var spiedPool = spy(pool);
+		doAnswer(invocation -> mock(ExchangeService.class)).when(spiedPool).createService(credential);
+		when(clockMock.instant()).thenReturn(NOW);
+		final var inUse = ConcurrentHashMap.<ExchangeService>newKeySet();
+		final var sharedLeases = new AtomicInteger();
+
+		try (final var executor = Executors.newFixedThreadPool(8)) {
+			final var tasks = new ArrayList<Future<?>>();
+			for (var thread = 0; thread < 8; thread++) {
+				tasks.add(executor.submit(() -> {
+					for (var i = 0; i < 200; i++) {
+						try (final var lease = spiedPool.lease(credential)) {
+							if (!inUse.add(lease.service())) {
+								sharedLeases.incrementAndGet();
+							}
+							Thread.yield();
+							inUse.remove(lease.service());
+						}
+					}
+				}));
+			}
+			for (final var task : tasks) {
+				task.get(30, SECONDS);
+			}
+		}
+
+		assertThat(sharedLeases).hasValue(0);
+		assertThat(spiedPool.size()).isBetween(1, 8);
+	}
+
+	private static CredentialsEntity createPoolCredential() {
+		final var credential = createCredentialsEntity();
+		credential.setDomain("https://mail.example.com/EWS/Exchange.asmx");
+		return credential;
+	}
+}
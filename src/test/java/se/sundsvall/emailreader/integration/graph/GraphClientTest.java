@@ -1,33 +1,71 @@
 package se.sundsvall.emailreader.integration.graph;
 
-import com.azure.core.credential.TokenCredential;
+import com.microsoft.graph.core.content.BatchRequestContentCollection;
+import com.microsoft.graph.core.content.BatchResponseContentCollection;
+import com.microsoft.graph.core.requests.BatchRequestBuilder;
 import com.microsoft.graph.models.Attachment;
 import com.microsoft.graph.models.AttachmentCollectionResponse;
+import com.microsoft.graph.models.FileAttachment;
 import com.microsoft.graph.models.MailFolder;
 import com.microsoft.graph.models.MailFolderCollectionResponse;
+import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.Subscription;
 import com.microsoft.graph.serviceclient.GraphServiceClient;
+import com.microsoft.graph.subscriptions.SubscriptionsRequestBuilder;
+import com.microsoft.graph.subscriptions.item.SubscriptionItemRequestBuilder;
 import com.microsoft.graph.users.UsersRequestBuilder;
 import com.microsoft.graph.users.item.UserItemRequestBuilder;
 import com.microsoft.graph.users.item.mailfolders.MailFoldersRequestBuilder;
 import com.microsoft.graph.users.item.mailfolders.item.MailFolderItemRequestBuilder;
+import com.microsoft.graph.users.item.mailfolders.item.messages.delta.DeltaGetResponse;
+import com.microsoft.graph.users.item.mailfolders.item.messages.delta.DeltaRequestBuilder;
 import com.microsoft.graph.users.item.messages.MessagesRequestBuilder;
 import com.microsoft.graph.users.item.messages.item.MessageItemRequestBuilder;
 import com.microsoft.graph.users.item.messages.item.attachments.AttachmentsRequestBuilder;
+import com.microsoft.graph.users.item.messages.item.attachments.item.AttachmentItemRequestBuilder;
 import com.microsoft.graph.users.item.messages.item.move.MovePostRequestBody;
 import com.microsoft.graph.users.item.messages.item.move.MoveRequestBuilder;
+import com.microsoft.kiota.ApiException;
+import com.microsoft.kiota.HttpMethod;
+import com.microsoft.kiota.RequestAdapter;
+import com.microsoft.kiota.RequestInformation;
+import com.microsoft.kiota.serialization.ParsableFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.function.Consumer;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
 
 import static java.util.List.of;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -52,45 +90,87 @@ class GraphClientTest {
 	@Mock
 	private AttachmentsRequestBuilder attachmentsRequestBuilder;
 	@Mock
-	private AttachmentCollectionResponse attachmentCollectionResponse;
+	private AttachmentItemRequestBuilder attachmentItemRequestBuilder;
 	@Mock
 	private MoveRequestBuilder moveRequestBuilder;
-	@InjectMocks
+	@Mock
+	private SubscriptionsRequestBuilder subscriptionsRequestBuilder;
+	@Mock
+	private SubscriptionItemRequestBuilder subscriptionItemRequestBuilder;
+	@Mock
+	private RequestAdapter requestAdapter;
+	@Mock
+	private BatchRequestContentCollection batchRequestContentCollection;
+	@Mock
+	private BatchRequestBuilder batchRequestBuilder;
+	@Mock
+	private BatchResponseContentCollection batchResponseContentCollection;
+	@Mock
+	private DeltaRequestBuilder deltaRequestBuilder;
+	@Mock
+	private DeltaRequestBuilder nextPageRequestBuilder;
+	@Mock
+	private GraphServiceClientPool graphServiceClientPool;
+	@Mock
+	private ThrottlingGovernor throttlingGovernor;
+
 	private GraphClient graphClient;
 
 	@Mock
 	private Consumer<String> consumerMock;
 
+	@BeforeEach
+	void setUp() {
+		graphClient = spy(new GraphClient(graphServiceClientPool, throttlingGovernor));
+	}
+
 	@Test
-	void testInitializeGraph() {
+	void testGetInbox() {
 		// Arrange
-		final var tokenCredential = mock(TokenCredential.class);
+		final var userId = "userId";
+		final var folderId = "inbox";
+		final var messageCollectionResponse = mock(MessageCollectionResponse.class);
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId(folderId)).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFolderItemRequestBuilder.messages()).thenReturn(mailfolderMessagesRequestBuilder);
+		when(mailfolderMessagesRequestBuilder.get(any())).thenReturn(messageCollectionResponse);
 
 		// Act
-		graphClient.initializeGraph(tokenCredential, consumerMock);
+		final var result = graphClient.getInbox(graphServiceClient, userId, 0, 50, consumerMock);
 
 		// Assert
-		assertThat(graphServiceClient).isNotNull();
+		assertThat(result).isNotNull().isEqualTo(messageCollectionResponse);
 	}
 
 	@Test
-	void testGetInbox() {
+	@SuppressWarnings("unchecked")
+	void testGetInboxExpandsAttachments() {
 		// Arrange
 		final var userId = "userId";
-		final var folderId = "inbox";
 		final var messageCollectionResponse = mock(MessageCollectionResponse.class);
+		final ArgumentCaptor<Consumer<com.microsoft.graph.users.item.mailfolders.item.messages.MessagesRequestBuilder.GetRequestConfiguration>> configurationCaptor = ArgumentCaptor.forClass(Consumer.class);
+		ReflectionTestUtils.setField(graphClient, "expandAttachments", true);
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
 		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
-		when(mailFoldersRequestBuilder.byMailFolderId(folderId)).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId("inbox")).thenReturn(mailFolderItemRequestBuilder);
 		when(mailFolderItemRequestBuilder.messages()).thenReturn(mailfolderMessagesRequestBuilder);
-		when(mailfolderMessagesRequestBuilder.get(any())).thenReturn(messageCollectionResponse);
+		when(mailfolderMessagesRequestBuilder.get(configurationCaptor.capture())).thenReturn(messageCollectionResponse);
 
 		// Act
-		final var result = graphClient.getInbox(userId, consumerMock);
+		final var result = graphClient.getInbox(graphServiceClient, userId, 10, 50, consumerMock);
 
 		// Assert
-		assertThat(result).isNotNull().isEqualTo(messageCollectionResponse);
+		assertThat(result).isEqualTo(messageCollectionResponse);
+		final var configuration = mailfolderMessagesRequestBuilder.new GetRequestConfiguration();
+		configurationCaptor.getValue().accept(configuration);
+		assertThat(configuration.queryParameters.select).contains("hasAttachments");
+		assertThat(configuration.queryParameters.expand).containsExactly("attachments");
+		assertThat(configuration.queryParameters.skip).isEqualTo(10);
+		assertThat(configuration.queryParameters.top).isEqualTo(50);
+		verifyNoInteractions(consumerMock);
 	}
 
 	@Test
@@ -102,7 +182,7 @@ class GraphClientTest {
 		when(usersRequestBuilder.byUserId(userId)).thenThrow(new RuntimeException("Test exception"));
 
 		// Act
-		final var result = graphClient.getInbox(userId, consumerMock);
+		final var result = graphClient.getInbox(graphServiceClient, userId, 0, 50, consumerMock);
 
 		// Assert
 		assertThat(result).isNull();
@@ -110,24 +190,235 @@ class GraphClientTest {
 	}
 
 	@Test
-	void testGetAttachments() {
+	void getInboxCount() {
 		// Arrange
 		final var userId = "userId";
-		final var messageId = "messageId";
-		final var attachments = of(new Attachment());
+		final var inbox = new MailFolder();
+		inbox.setTotalItemCount(42);
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
-		when(userItemRequestBuilder.messages()).thenReturn(messagesRequestBuilder);
-		when(messagesRequestBuilder.byMessageId(messageId)).thenReturn(messageItemRequestBuilder);
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId("inbox")).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFolderItemRequestBuilder.get(any())).thenReturn(inbox);
+
+		// Act
+		final var result = graphClient.getInboxCount(graphServiceClient, userId, consumerMock);
+
+		// Assert
+		assertThat(result).isEqualTo(42);
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void getInboxCountThrowsException() {
+		// Arrange
+		final var userId = "userId";
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenThrow(new RuntimeException("Test exception"));
+
+		// Act
+		final var result = graphClient.getInboxCount(graphServiceClient, userId, consumerMock);
+
+		// Assert
+		assertThat(result).isNull();
+		verify(consumerMock).accept("[GRAPH] Could not get inbox");
+	}
+
+	@Test
+	void getInboxDelta_fullSync() {
+		// Arrange
+		final var userId = "userId";
+		final var message1 = new Message();
+		final var message2 = new Message();
+		final var removed = new Message();
+		removed.setAdditionalData(Map.of("@removed", Map.of("reason", "deleted")));
+		mockDeltaRequestBuilder(userId);
+		when(deltaRequestBuilder.get(any())).thenReturn(deltaResponse(List.of(message1, removed), "nextLink", null));
+		when(deltaRequestBuilder.withUrl("nextLink")).thenReturn(nextPageRequestBuilder);
+		when(nextPageRequestBuilder.get(any())).thenReturn(deltaResponse(List.of(message2), null, "deltaLink"));
+
+		// Act
+		final var result = graphClient.getInboxDelta(graphServiceClient, userId, null, consumerMock);
+
+		// Assert
+		assertThat(result.messages()).containsExactly(message1, message2);
+		assertThat(result.deltaLink()).isEqualTo("deltaLink");
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void getInboxDelta_fromDeltaLink() {
+		// Arrange
+		final var userId = "userId";
+		final var message = new Message();
+		mockDeltaRequestBuilder(userId);
+		when(deltaRequestBuilder.withUrl("oldDeltaLink")).thenReturn(nextPageRequestBuilder);
+		when(nextPageRequestBuilder.get(any())).thenReturn(deltaResponse(List.of(message), null, "newDeltaLink"));
+
+		// Act
+		final var result = graphClient.getInboxDelta(graphServiceClient, userId, "oldDeltaLink", consumerMock);
+
+		// Assert
+		assertThat(result.messages()).containsExactly(message);
+		assertThat(result.deltaLink()).isEqualTo("newDeltaLink");
+		verify(deltaRequestBuilder, never()).get(any());
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void getInboxDelta_expiredDeltaLink_fallsBackToFullSync() {
+		// Arrange
+		final var userId = "userId";
+		final var message = new Message();
+		final var gone = new ApiException("Gone");
+		gone.setResponseStatusCode(410);
+		mockDeltaRequestBuilder(userId);
+		when(deltaRequestBuilder.withUrl("expiredDeltaLink")).thenReturn(nextPageRequestBuilder);
+		when(nextPageRequestBuilder.get(any())).thenThrow(gone);
+		when(deltaRequestBuilder.get(any())).thenReturn(deltaResponse(List.of(message), null, "newDeltaLink"));
+
+		// Act
+		final var result = graphClient.getInboxDelta(graphServiceClient, userId, "expiredDeltaLink", consumerMock);
+
+		// Assert
+		assertThat(result.messages()).containsExactly(message);
+		assertThat(result.deltaLink()).isEqualTo("newDeltaLink");
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void getInboxDelta_throwsException() {
+		// Arrange
+		final var userId = "userId";
+		final var message = new Message();
+		mockDeltaRequestBuilder(userId);
+		when(deltaRequestBuilder.get(any())).thenReturn(deltaResponse(List.of(message), "nextLink", null));
+		when(deltaRequestBuilder.withUrl("nextLink")).thenReturn(nextPageRequestBuilder);
+		when(nextPageRequestBuilder.get(any())).thenThrow(new RuntimeException("Test exception"));
+
+		// Act
+		final var result = graphClient.getInboxDelta(graphServiceClient, userId, null, consumerMock);
+
+		// Assert
+		assertThat(result.messages()).containsExactly(message);
+		assertThat(result.deltaLink()).isNull();
+		verify(consumerMock).accept("[GRAPH] Could not get inbox delta");
+	}
+
+	@Test
+	void testGetAttachments() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var attachments = of(new Attachment());
+		final var attachmentCollectionResponse = new AttachmentCollectionResponse();
+		attachmentCollectionResponse.setValue(attachments);
+		final var requestInformation1 = new RequestInformation();
+		final var requestInformation2 = new RequestInformation();
+		mockMessageRequestBuilders(userId, "messageId1");
+		mockMessageRequestBuilders(userId, "messageId2");
 		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
-		when(attachmentsRequestBuilder.get()).thenReturn(attachmentCollectionResponse);
-		when(attachmentCollectionResponse.getValue()).thenReturn(attachments);
+		when(attachmentsRequestBuilder.toGetRequestInformation()).thenReturn(requestInformation1, requestInformation2);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation1)).thenReturn("1");
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation2)).thenReturn("2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("1"), any(ParsableFactory.class))).thenReturn(attachmentCollectionResponse);
+		when(batchResponseContentCollection.getResponseById("2")).thenReturn(response(404, null));
 
 		// Act
-		final var result = graphClient.getAttachments(userId, messageId, consumerMock);
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of("messageId1", "messageId2"), consumerMock);
 
 		// Assert
-		assertThat(result).isNotNull().isEqualTo(attachments);
+		assertThat(result).hasSize(1).containsEntry("messageId1", attachments);
+		verify(batchRequestBuilder).post(eq(batchRequestContentCollection), isNull());
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testGetAttachmentsThrottled() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var requestInformation = new RequestInformation();
+		final var retryResponses = mock(BatchResponseContentCollection.class);
+		mockMessageRequestBuilders(userId, "messageId");
+		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
+		when(attachmentsRequestBuilder.toGetRequestInformation()).thenReturn(requestInformation);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation)).thenReturn("1", "2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection, retryResponses);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(429, "0"));
+		when(retryResponses.getResponseById("2")).thenReturn(response(200, null));
+		when(retryResponses.getResponseById(eq("2"), any(ParsableFactory.class))).thenReturn(null);
+
+		// Act
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of("messageId"), consumerMock);
+
+		// Assert
+		assertThat(result).hasSize(1).containsEntry("messageId", List.of());
+		verify(batchRequestBuilder, times(2)).post(eq(batchRequestContentCollection), isNull());
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testGetAttachmentsThrottled_reportsBackOffToGovernor() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var requestInformation = new RequestInformation();
+		final var retryResponses = mock(BatchResponseContentCollection.class);
+		mockMessageRequestBuilders(userId, "messageId");
+		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
+		when(attachmentsRequestBuilder.toGetRequestInformation()).thenReturn(requestInformation);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation)).thenReturn("1", "2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection, retryResponses);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(429, "120"));
+		when(retryResponses.getResponseById("2")).thenReturn(response(200, null));
+		when(retryResponses.getResponseById(eq("2"), any(ParsableFactory.class))).thenReturn(null);
+		when(graphServiceClientPool.throttlingKey(graphServiceClient)).thenReturn(Optional.of("graph:tenantId"));
+		when(throttlingGovernor.isEnabled()).thenReturn(true);
+
+		// Act
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of("messageId"), consumerMock);
+
+		// Assert
+		assertThat(result).hasSize(1).containsEntry("messageId", List.of());
+		verify(throttlingGovernor).onThrottled("graph:tenantId", Duration.ofSeconds(30));
+		verify(graphClient, never()).sleep(any());
+		verify(batchRequestBuilder, times(2)).post(eq(batchRequestContentCollection), isNull());
+	}
+
+	@Test
+	void testGetAttachmentsThrottled_governorDisabled_sleepsForRetryAfter() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var requestInformation = new RequestInformation();
+		final var retryResponses = mock(BatchResponseContentCollection.class);
+		mockMessageRequestBuilders(userId, "messageId");
+		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
+		when(attachmentsRequestBuilder.toGetRequestInformation()).thenReturn(requestInformation);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		doNothing().when(graphClient).sleep(any());
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation)).thenReturn("1", "2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection, retryResponses);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(429, "5"));
+		when(retryResponses.getResponseById("2")).thenReturn(response(200, null));
+		when(retryResponses.getResponseById(eq("2"), any(ParsableFactory.class))).thenReturn(null);
+		when(graphServiceClientPool.throttlingKey(graphServiceClient)).thenReturn(Optional.of("graph:tenantId"));
+		when(throttlingGovernor.isEnabled()).thenReturn(false);
+
+		// Act
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of("messageId"), consumerMock);
+
+		// Assert
+		assertThat(result).hasSize(1).containsEntry("messageId", List.of());
+		verify(graphClient).sleep(Duration.ofSeconds(5));
+		verify(throttlingGovernor, never()).onThrottled(any(), any());
+		verify(batchRequestBuilder, times(2)).post(eq(batchRequestContentCollection), isNull());
 	}
 
 	@Test
@@ -136,11 +427,12 @@ class GraphClientTest {
 		final var userId = "userId";
 		final var messageId = "messageId";
 
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenThrow(new RuntimeException("Test exception"));
 
 		// Act
-		final var result = graphClient.getAttachments(userId, messageId, consumerMock);
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock);
 
 		// Assert
 		assertThat(result).isEmpty();
@@ -148,103 +440,466 @@ class GraphClientTest {
 	}
 
 	@Test
-	void testMoveEmail() {
+	@SuppressWarnings("unchecked")
+	void testGetAttachmentsStreamed() throws Exception {
 		// Arrange
 		final var userId = "userId";
 		final var messageId = "messageId";
-		final var destinationFolder = "destinationFolder";
-		final var request = new MovePostRequestBody();
-		request.setDestinationId(destinationFolder);
+		final var small = new FileAttachment();
+		small.setId("smallId");
+		small.setSize(10);
+		final var large = new FileAttachment();
+		large.setId("largeId");
+		large.setSize(11);
+		final var loadedSmall = new FileAttachment();
+		loadedSmall.setContentBytes("content".getBytes());
+		final var attachmentCollectionResponse = new AttachmentCollectionResponse();
+		attachmentCollectionResponse.setValue(List.of(small, large));
+		final var listRequestInformation = new RequestInformation();
+		final var itemRequestInformation = new RequestInformation();
+		final var itemResponses = mock(BatchResponseContentCollection.class);
+		final ArgumentCaptor<Consumer<AttachmentsRequestBuilder.GetRequestConfiguration>> configurationCaptor = ArgumentCaptor.forClass(Consumer.class);
+		ReflectionTestUtils.setField(graphClient, "streamAttachments", true);
+		ReflectionTestUtils.setField(graphClient, "streamThreshold", 10L);
+		mockMessageRequestBuilders(userId, messageId);
+		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
+		when(attachmentsRequestBuilder.toGetRequestInformation(configurationCaptor.capture())).thenReturn(listRequestInformation);
+		when(attachmentsRequestBuilder.byAttachmentId("smallId")).thenReturn(attachmentItemRequestBuilder);
+		when(attachmentItemRequestBuilder.toGetRequestInformation()).thenReturn(itemRequestInformation);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(listRequestInformation)).thenReturn("1");
+		when(batchRequestContentCollection.addBatchRequestStep(itemRequestInformation)).thenReturn("2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection, itemResponses);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("1"), any(ParsableFactory.class))).thenReturn(attachmentCollectionResponse);
+		when(itemResponses.getResponseById("2")).thenReturn(response(200, null));
+		when(itemResponses.getResponseById(eq("2"), any(ParsableFactory.class))).thenReturn(loadedSmall);
 
-		final var mailFolderCollectionResponse = mock(MailFolderCollectionResponse.class);
-		final var mailfolder = new MailFolder();
-		mailfolder.setDisplayName(destinationFolder);
-		mailfolder.setId("destinationFolderId");
-		final var mailFolders = of(mailfolder);
+		// Act
+		final var result = graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock);
+
+		// Assert
+		assertThat(result).hasSize(1).containsEntry(messageId, List.of(loadedSmall, large));
+		final var configuration = attachmentsRequestBuilder.new GetRequestConfiguration();
+		configurationCaptor.getValue().accept(configuration);
+		assertThat(configuration.queryParameters.select).containsExactly("id", "name", "contentType", "size", "isInline");
+		verify(attachmentsRequestBuilder, never()).byAttachmentId("largeId");
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testIsStreamed() {
+		final var small = new FileAttachment();
+		small.setSize(10);
+		final var large = new FileAttachment();
+		large.setSize(11);
+		final var unknown = new FileAttachment();
+		ReflectionTestUtils.setField(graphClient, "streamThreshold", 10L);
+
+		assertThat(graphClient.isStreamed(large)).isFalse();
+
+		ReflectionTestUtils.setField(graphClient, "streamAttachments", true);
+
+		assertThat(graphClient.isStreamed(small)).isFalse();
+		assertThat(graphClient.isStreamed(large)).isTrue();
+		assertThat(graphClient.isStreamed(unknown)).isTrue();
+	}
+
+	@Test
+	void testGetAttachmentContent() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var messageId = "messageId";
+		final var attachmentId = "attachmentId";
+		final var requestInformation = new RequestInformation();
+		requestInformation.pathParameters.put("user%2Did", userId);
+		final var content = new ByteArrayInputStream(new byte[0]);
+		final var requestCaptor = ArgumentCaptor.forClass(RequestInformation.class);
+		mockMessageRequestBuilders(userId, messageId);
+		when(messageItemRequestBuilder.attachments()).thenReturn(attachmentsRequestBuilder);
+		when(attachmentsRequestBuilder.byAttachmentId(attachmentId)).thenReturn(attachmentItemRequestBuilder);
+		when(attachmentItemRequestBuilder.toGetRequestInformation()).thenReturn(requestInformation);
+		when(graphServiceClient.getRequestAdapter()).thenReturn(requestAdapter);
+		when(requestAdapter.sendPrimitive(requestCaptor.capture(), any(), eq(InputStream.class))).thenReturn(content);
+
+		// Act
+		final var result = graphClient.getAttachmentContent(graphServiceClient, userId, messageId, attachmentId, consumerMock);
 
+		// Assert
+		assertThat(result).isSameAs(content);
+		assertThat(requestCaptor.getValue().httpMethod).isEqualTo(HttpMethod.GET);
+		assertThat(requestCaptor.getValue().urlTemplate).endsWith("/attachments/{attachment%2Did}/$value");
+		assertThat(requestCaptor.getValue().pathParameters).containsEntry("user%2Did", userId);
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testGetAttachmentContentThrowsException() {
+		// Arrange
+		final var userId = "userId";
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
-		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenThrow(new RuntimeException("Test exception"));
+
+		// Act
+		final var result = graphClient.getAttachmentContent(graphServiceClient, userId, "messageId", "attachmentId", consumerMock);
+
+		// Assert
+		assertThat(result).isNull();
+		verify(consumerMock).accept("[GRAPH] Could not get attachment content");
+	}
+
+	@Test
+	void testGetInboxMessages() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var inbox = new MailFolder();
+		inbox.setId("inboxId");
+		final var message1 = new Message();
+		message1.setId("messageId1");
+		message1.setParentFolderId("inboxId");
+		final var message2 = new Message();
+		message2.setId("messageId2");
+		message2.setParentFolderId("otherFolderId");
+		final var requestInformation1 = new RequestInformation();
+		final var requestInformation2 = new RequestInformation();
+		mockMessageRequestBuilders(userId, "messageId1");
+		mockMessageRequestBuilders(userId, "messageId2");
 		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
-		when(userItemRequestBuilder.messages()).thenReturn(messagesRequestBuilder);
-		when(messagesRequestBuilder.byMessageId(messageId)).thenReturn(messageItemRequestBuilder);
-		when(messageItemRequestBuilder.move()).thenReturn(moveRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId("inbox")).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFolderItemRequestBuilder.get(any())).thenReturn(inbox);
+		when(messageItemRequestBuilder.toGetRequestInformation(any())).thenReturn(requestInformation1, requestInformation2);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation1)).thenReturn("1");
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation2)).thenReturn("2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("1"), any(ParsableFactory.class))).thenReturn(message1);
+		when(batchResponseContentCollection.getResponseById("2")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("2"), any(ParsableFactory.class))).thenReturn(message2);
 
-		when(mailFoldersRequestBuilder.get()).thenReturn(mailFolderCollectionResponse);
-		when(mailFolderCollectionResponse.getValue()).thenReturn(mailFolders);
+		// Act
+		final var result = graphClient.getInboxMessages(graphServiceClient, userId, List.of("messageId1", "messageId2"), consumerMock);
+
+		// Assert
+		assertThat(result).containsExactly(message1);
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testGetInboxMessagesOrThrow_leavesOutMessagesNotFound() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var inbox = new MailFolder();
+		inbox.setId("inboxId");
+		final var message1 = new Message();
+		message1.setId("messageId1");
+		message1.setParentFolderId("inboxId");
+		final var requestInformation1 = new RequestInformation();
+		final var requestInformation2 = new RequestInformation();
+		mockInboxMessageBatch(userId, inbox, requestInformation1, requestInformation2);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("1"), any(ParsableFactory.class))).thenReturn(message1);
+		when(batchResponseContentCollection.getResponseById("2")).thenReturn(response(404, null));
 
 		// Act
-		graphClient.moveEmail(userId, messageId, destinationFolder, consumerMock);
+		final var result = graphClient.getInboxMessagesOrThrow(graphServiceClient, userId, List.of("messageId1", "messageId2"));
 
 		// Assert
-		verify(moveRequestBuilder).post(any());
+		assertThat(result).containsExactly(message1);
+	}
+
+	@Test
+	void testGetInboxMessagesOrThrow_failsWhenMessageCouldNotBeFetched() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var inbox = new MailFolder();
+		inbox.setId("inboxId");
+		final var message1 = new Message();
+		message1.setId("messageId1");
+		message1.setParentFolderId("inboxId");
+		final var requestInformation1 = new RequestInformation();
+		final var requestInformation2 = new RequestInformation();
+		mockInboxMessageBatch(userId, inbox, requestInformation1, requestInformation2);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(200, null));
+		when(batchResponseContentCollection.getResponseById(eq("1"), any(ParsableFactory.class))).thenReturn(message1);
+		when(batchResponseContentCollection.getResponseById("2")).thenReturn(response(500, null));
+
+		// Act & Assert
+		assertThatExceptionOfType(IOException.class)
+			.isThrownBy(() -> graphClient.getInboxMessagesOrThrow(graphServiceClient, userId, List.of("messageId1", "messageId2")))
+			.withMessage("Could not get message 'messageId2'");
+	}
+
+	private void mockInboxMessageBatch(final String userId, final MailFolder inbox, final RequestInformation requestInformation1, final RequestInformation requestInformation2) throws Exception {
+		mockMessageRequestBuilders(userId, "messageId1");
+		mockMessageRequestBuilders(userId, "messageId2");
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId("inbox")).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFolderItemRequestBuilder.get(any())).thenReturn(inbox);
+		when(messageItemRequestBuilder.toGetRequestInformation(any())).thenReturn(requestInformation1, requestInformation2);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation1)).thenReturn("1");
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation2)).thenReturn("2");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection);
 	}
 
 	@Test
-	void testMoveEmailThrowsException() {
+	void testGetInboxMessagesThrowsException() {
+		// Arrange
+		final var userId = "userId";
+		when(graphServiceClient.users()).thenThrow(new RuntimeException("Test exception"));
+
+		// Act
+		final var result = graphClient.getInboxMessages(graphServiceClient, userId, List.of("messageId"), consumerMock);
+
+		// Assert
+		assertThat(result).isEmpty();
+		verify(consumerMock).accept("[GRAPH] Could not get messages");
+	}
+
+	@Test
+	void testCreateSubscription() {
+		// Arrange
+		final var expiration = OffsetDateTime.parse("2026-01-04T12:00:00Z");
+		final var created = new Subscription();
+		final var captor = ArgumentCaptor.forClass(Subscription.class);
+		when(graphServiceClient.subscriptions()).thenReturn(subscriptionsRequestBuilder);
+		when(subscriptionsRequestBuilder.post(captor.capture())).thenReturn(created);
+
+		// Act
+		final var result = graphClient.createSubscription(graphServiceClient, "userId", "https://localhost/2281/graph/notifications", "clientState", expiration);
+
+		// Assert
+		assertThat(result).isSameAs(created);
+		assertThat(captor.getValue()).satisfies(subscription -> {
+			assertThat(subscription.getChangeType()).isEqualTo("created");
+			assertThat(subscription.getResource()).isEqualTo("users/userId/mailFolders('inbox')/messages");
+			assertThat(subscription.getNotificationUrl()).isEqualTo("https://localhost/2281/graph/notifications");
+			assertThat(subscription.getLifecycleNotificationUrl()).isEqualTo("https://localhost/2281/graph/notifications");
+			assertThat(subscription.getClientState()).isEqualTo("clientState");
+			assertThat(subscription.getExpirationDateTime()).isEqualTo(expiration);
+		});
+	}
+
+	@Test
+	void testCreateSubscriptionThrowsException() {
+		// Arrange
+		when(graphServiceClient.subscriptions()).thenReturn(subscriptionsRequestBuilder);
+		when(subscriptionsRequestBuilder.post(any(Subscription.class))).thenThrow(new ApiException("Validation failed"));
+
+		// Act & Assert
+		assertThatExceptionOfType(ApiException.class)
+			.isThrownBy(() -> graphClient.createSubscription(graphServiceClient, "userId", "notificationUrl", "clientState", OffsetDateTime.now()));
+	}
+
+	@Test
+	void testRenewSubscription() {
+		// Arrange
+		final var expiration = OffsetDateTime.parse("2026-01-04T12:00:00Z");
+		final var accepted = OffsetDateTime.parse("2026-01-03T12:00:00Z");
+		final var renewed = new Subscription();
+		renewed.setExpirationDateTime(accepted);
+		final var captor = ArgumentCaptor.forClass(Subscription.class);
+		when(graphServiceClient.subscriptions()).thenReturn(subscriptionsRequestBuilder);
+		when(subscriptionsRequestBuilder.bySubscriptionId("subscriptionId")).thenReturn(subscriptionItemRequestBuilder);
+		when(subscriptionItemRequestBuilder.patch(captor.capture())).thenReturn(renewed);
+
+		// Act
+		final var result = graphClient.renewSubscription(graphServiceClient, "subscriptionId", expiration);
+
+		// Assert
+		assertThat(result).isEqualTo(accepted);
+		assertThat(captor.getValue().getExpirationDateTime()).isEqualTo(expiration);
+	}
+
+	@Test
+	void testDeleteSubscription() {
+		// Arrange
+		when(graphServiceClient.subscriptions()).thenReturn(subscriptionsRequestBuilder);
+		when(subscriptionsRequestBuilder.bySubscriptionId("subscriptionId")).thenReturn(subscriptionItemRequestBuilder);
+
+		// Act
+		graphClient.deleteSubscription(graphServiceClient, "subscriptionId");
+
+		// Assert
+		verify(subscriptionItemRequestBuilder).delete();
+	}
+
+	@Test
+	void testMoveEmails() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var requestInformation1 = new RequestInformation();
+		final var requestInformation2 = new RequestInformation();
+		final var requestInformation3 = new RequestInformation();
+		mockMessageRequestBuilders(userId, "messageId1");
+		mockMessageRequestBuilders(userId, "messageId2");
+		mockMessageRequestBuilders(userId, "messageId3");
+		when(messageItemRequestBuilder.move()).thenReturn(moveRequestBuilder);
+		when(moveRequestBuilder.toPostRequestInformation(any(MovePostRequestBody.class))).thenReturn(requestInformation1, requestInformation2, requestInformation3);
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation1)).thenReturn("1");
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation2)).thenReturn("2");
+		when(batchRequestContentCollection.addBatchRequestStep(requestInformation3)).thenReturn("3");
+		when(graphServiceClient.getBatchRequestBuilder()).thenReturn(batchRequestBuilder);
+		when(batchRequestBuilder.post(eq(batchRequestContentCollection), isNull())).thenReturn(batchResponseContentCollection);
+		when(batchResponseContentCollection.getResponseById("1")).thenReturn(response(201, null));
+		when(batchResponseContentCollection.getResponseById("2")).thenReturn(response(404, null));
+		when(batchResponseContentCollection.getResponseById("3")).thenReturn(response(500, null));
+
+		// Act
+		final var result = graphClient.moveEmails(graphServiceClient, userId, List.of("messageId1", "messageId2", "messageId3"), "destinationFolderId", consumerMock);
+
+		// Assert
+		assertThat(result.moved()).containsExactly("messageId1");
+		assertThat(result.notFound()).containsExactly("messageId2");
+		final var captor = ArgumentCaptor.forClass(MovePostRequestBody.class);
+		verify(moveRequestBuilder, times(3)).toPostRequestInformation(captor.capture());
+		assertThat(captor.getValue().getDestinationId()).isEqualTo("destinationFolderId");
+		verify(userItemRequestBuilder, never()).mailFolders();
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void testMoveEmailsThrowsException() {
 		// Arrange
 		final var userId = "userId";
 		final var messageId = "messageId";
-		final var destinationFolder = "destinationFolder";
 
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenThrow(new RuntimeException("Test exception"));
+		doReturn(batchRequestContentCollection).when(graphClient).newBatch(graphServiceClient);
 
 		// Act
-		graphClient.moveEmail(userId, messageId, destinationFolder, consumerMock);
+		final var result = graphClient.moveEmails(graphServiceClient, userId, List.of(messageId), "destinationFolderId", consumerMock);
 
 		// Assert
+		assertThat(result.moved()).isEmpty();
+		assertThat(result.notFound()).isEmpty();
 		verify(consumerMock).accept("[GRAPH] Could not move email from inbox");
 	}
 
 	@Test
-	void testMoveEmailCreateFolder() {
+	void testFindFolderId() {
 		// Arrange
 		final var userId = "userId";
-		final var messageId = "messageId";
-		final var destinationFolder = "destinationFolder";
-		final var request = new MovePostRequestBody();
-		request.setDestinationId(destinationFolder);
-
-		final var mailFolderCollectionResponse = mock(MailFolderCollectionResponse.class);
 		final var mailfolder = new MailFolder();
-		mailfolder.setDisplayName(destinationFolder);
 		mailfolder.setId("destinationFolderId");
-
+		final var mailFolderCollectionResponse = new MailFolderCollectionResponse();
+		mailFolderCollectionResponse.setValue(of(mailfolder));
+		final ArgumentCaptor<Consumer<MailFoldersRequestBuilder.GetRequestConfiguration>> configurationCaptor = ArgumentCaptor.forClass(Consumer.class);
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
 		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
-		when(userItemRequestBuilder.messages()).thenReturn(messagesRequestBuilder);
-		when(messagesRequestBuilder.byMessageId(messageId)).thenReturn(messageItemRequestBuilder);
-		when(messageItemRequestBuilder.move()).thenReturn(moveRequestBuilder);
-		when(mailFoldersRequestBuilder.get()).thenReturn(mailFolderCollectionResponse);
-		when(mailFoldersRequestBuilder.post(any())).thenReturn(mailfolder);
+		when(mailFoldersRequestBuilder.get(configurationCaptor.capture())).thenReturn(mailFolderCollectionResponse);
+
 		// Act
-		graphClient.moveEmail(userId, messageId, destinationFolder, consumerMock);
+		final var result = graphClient.findFolderId(graphServiceClient, userId, "Sender's folder");
 
 		// Assert
-		verify(moveRequestBuilder).post(any());
+		assertThat(result).isEqualTo("destinationFolderId");
+		final var configuration = mailFoldersRequestBuilder.new GetRequestConfiguration();
+		configurationCaptor.getValue().accept(configuration);
+		assertThat(configuration.queryParameters.filter).isEqualTo("displayName eq 'Sender''s folder'");
+		assertThat(configuration.queryParameters.select).containsExactly("id");
+		verify(mailFoldersRequestBuilder, never()).post(any());
 	}
 
 	@Test
-	void testMoveEmailCreateFolderThrowsException() {
+	void testFindFolderIdCreatesFolder() {
 		// Arrange
 		final var userId = "userId";
-		final var messageId = "messageId";
-		final var destinationFolder = "destinationFolder";
-		final var request = new MovePostRequestBody();
-		request.setDestinationId(destinationFolder);
+		final var mailfolder = new MailFolder();
+		mailfolder.setId("destinationFolderId");
+		final var captor = ArgumentCaptor.forClass(MailFolder.class);
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.get(any())).thenReturn(new MailFolderCollectionResponse());
+		when(mailFoldersRequestBuilder.post(captor.capture())).thenReturn(mailfolder);
 
-		final var mailFolderCollectionResponse = mock(MailFolderCollectionResponse.class);
+		// Act
+		final var result = graphClient.findFolderId(graphServiceClient, userId, "destinationFolder");
 
+		// Assert
+		assertThat(result).isEqualTo("destinationFolderId");
+		assertThat(captor.getValue().getDisplayName()).isEqualTo("destinationFolder");
+	}
+
+	@Test
+	void testFindFolderIdCreatedConcurrently() {
+		// Arrange
+		final var userId = "userId";
+		final var mailfolder = new MailFolder();
+		mailfolder.setId("destinationFolderId");
+		final var mailFolderCollectionResponse = new MailFolderCollectionResponse();
+		mailFolderCollectionResponse.setValue(of(mailfolder));
+		final var conflict = new ApiException("Conflict");
+		conflict.setResponseStatusCode(409);
 		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
 		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
 		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
-		when(mailFoldersRequestBuilder.get()).thenReturn(mailFolderCollectionResponse);
+		when(mailFoldersRequestBuilder.get(any())).thenReturn(null, mailFolderCollectionResponse);
+		when(mailFoldersRequestBuilder.post(any())).thenThrow(conflict);
+
 		// Act
-		graphClient.moveEmail(userId, messageId, destinationFolder, consumerMock);
+		final var result = graphClient.findFolderId(graphServiceClient, userId, "destinationFolder");
 
 		// Assert
-		verify(consumerMock).accept("[GRAPH] Could not move email from inbox");
+		assertThat(result).isEqualTo("destinationFolderId");
+		verify(mailFoldersRequestBuilder, times(2)).get(any());
+	}
+
+	@Test
+	void testFindFolderIdCreateFolderThrowsException() {
+		// Arrange
+		final var userId = "userId";
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.get(any())).thenReturn(null);
+		when(mailFoldersRequestBuilder.post(any())).thenThrow(new ApiException("Forbidden"));
+
+		// Act & Assert
+		assertThatExceptionOfType(ApiException.class).isThrownBy(() -> graphClient.findFolderId(graphServiceClient, userId, "destinationFolder"));
 	}
 
+	private void mockMessageRequestBuilders(final String userId, final String messageId) {
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(userItemRequestBuilder.messages()).thenReturn(messagesRequestBuilder);
+		when(messagesRequestBuilder.byMessageId(messageId)).thenReturn(messageItemRequestBuilder);
+	}
+
+	private static Response response(final int code, final String retryAfter) {
+		final var builder = new Response.Builder()
+			.request(new Request.Builder().url("https://graph.microsoft.com/v1.0/$batch").build())
+			.protocol(Protocol.HTTP_1_1)
+			.code(code)
+			.message("message");
+		if (retryAfter != null) {
+			builder.header("Retry-After", retryAfter);
+		}
+		return builder.build();
+	}
+
+	private void mockDeltaRequestBuilder(final String userId) {
+		when(graphServiceClient.users()).thenReturn(usersRequestBuilder);
+		when(usersRequestBuilder.byUserId(userId)).thenReturn(userItemRequestBuilder);
+		when(userItemRequestBuilder.mailFolders()).thenReturn(mailFoldersRequestBuilder);
+		when(mailFoldersRequestBuilder.byMailFolderId("inbox")).thenReturn(mailFolderItemRequestBuilder);
+		when(mailFolderItemRequestBuilder.messages()).thenReturn(mailfolderMessagesRequestBuilder);
+		when(mailfolderMessagesRequestBuilder.delta()).thenReturn(deltaRequestBuilder);
+	}
+
+	private static DeltaGetResponse deltaResponse(final List<Message> messages, final String nextLink, final String deltaLink) {
+		final var response = new DeltaGetResponse();
+		response.setValue(messages);
+		response.setOdataNextLink(nextLink);
+		response.setOdataDeltaLink(deltaLink);
+		return response;
+	}
 }
@@ -0,0 +1,93 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GraphFolderIdCacheTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+	private static final String ADDRESS = "someEmailAddress";
+	private static final String FOLDER = "someFolder";
+
+	@Mock
+	private Clock clockMock;
+
+	@Mock
+	private Supplier<String> resolverMock;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private GraphFolderIdCache cache;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		cache = new GraphFolderIdCache(meterRegistry, Duration.ofHours(24), clockMock);
+	}
+
+	@Test
+	void get_resolvesOnce() {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(resolverMock.get()).thenReturn("someFolderId");
+
+		final var first = cache.get(ADDRESS, FOLDER, resolverMock);
+		final var second = cache.get(ADDRESS.toUpperCase(), FOLDER, resolverMock);
+
+		assertThat(first).isEqualTo("someFolderId");
+		assertThat(second).isEqualTo("someFolderId");
+		assertThat(cache.size()).isOne();
+		verify(resolverMock).get();
+		assertThat(meterRegistry.get("emailreader.graph.folder.cache.requests").tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.graph.folder.cache.requests").tag("result", "miss").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.graph.folder.cache.size").gauge().value()).isOne();
+	}
+
+	@Test
+	void get_resolvesAgainWhenExpired() {
+		when(clockMock.instant()).thenReturn(NOW, NOW.plus(Duration.ofHours(25)));
+		when(resolverMock.get()).thenReturn("someFolderId", "otherFolderId");
+
+		cache.get(ADDRESS, FOLDER, resolverMock);
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result).isEqualTo("otherFolderId");
+		verify(resolverMock, times(2)).get();
+	}
+
+	@Test
+	void get_resolverFails() {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(resolverMock.get()).thenThrow(new IllegalStateException("Test exception"));
+
+		assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> cache.get(ADDRESS, FOLDER, resolverMock));
+		assertThat(cache.size()).isZero();
+	}
+
+	@Test
+	void invalidate() {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(resolverMock.get()).thenReturn("someFolderId", "otherFolderId");
+		cache.get(ADDRESS, FOLDER, resolverMock);
+
+		cache.invalidate(ADDRESS, FOLDER);
+		final var result = cache.get(ADDRESS, FOLDER, resolverMock);
+
+		assertThat(result).isEqualTo("otherFolderId");
+		verify(resolverMock, times(2)).get();
+	}
+}
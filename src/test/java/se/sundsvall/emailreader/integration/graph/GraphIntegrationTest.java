@@ -1,29 +1,36 @@
 package se.sundsvall.emailreader.integration.graph;
 
-import com.azure.identity.ClientSecretCredential;
 import com.microsoft.graph.models.Attachment;
+import com.microsoft.graph.models.FileAttachment;
 import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.MessageCollectionResponse;
+import com.microsoft.graph.models.Subscription;
+import com.microsoft.graph.serviceclient.GraphServiceClient;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
-import se.sundsvall.emailreader.utility.EncryptionUtility;
 
-import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -38,7 +45,13 @@ class GraphIntegrationTest {
 	private GraphMapper graphMapper;
 
 	@Mock
-	private EncryptionUtility encryptionUtility;
+	private GraphServiceClientPool graphServiceClientPool;
+
+	@Mock
+	private GraphFolderIdCache graphFolderIdCache;
+
+	@Mock
+	private GraphServiceClient graphServiceClient;
 
 	@InjectMocks
 	private GraphIntegration graphIntegration;
@@ -46,103 +59,273 @@ class GraphIntegrationTest {
 	@Mock
 	private Consumer<String> consumerMock;
 
+	@Mock
+	private Consumer<List<EmailEntity>> pageHandlerMock;
+
 	@Test
-	void faultyCredentials() {
+	void streamEmails_clientCouldNotBeCreated() {
 		// Arrange
 		final var userId = "userId";
 		final var credentials = GraphCredentialsEntity.builder().build();
+		when(graphServiceClientPool.get(credentials)).thenThrow(new IllegalArgumentException("someMessage"));
 
 		// Act
-		assertThatThrownBy(() -> graphIntegration.getEmails(userId, credentials, consumerMock))
+		assertThatThrownBy(() -> graphIntegration.streamEmails(userId, credentials, consumerMock, pageHandlerMock))
 			.isInstanceOf(IllegalArgumentException.class)
-			.hasMessage("Must provide non-null values for clientId, tenantId, clientSecret properties in ClientSecretCredentialBuilder");
+			.hasMessage("someMessage");
+		verifyNoMoreInteractions(graphClient, graphMapper, pageHandlerMock);
 	}
 
 	@Test
-	void testGetEmails() {
+	void streamEmails_pagesFromTheEnd() {
+		// Arrange
+		final var userId = "userId";
+		final var municipalityId = "municipalityId";
+		final var namespace = "namespace";
+		final Map<String, String> metadata = emptyMap();
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.withMunicipalityId(municipalityId)
+			.withNamespace(namespace)
+			.withMetadata(metadata)
+			.build();
+		ReflectionTestUtils.setField(graphIntegration, "pageSize", 2);
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxCount(graphServiceClient, userId, consumerMock)).thenReturn(3);
+
+		final var lastMessages = List.of(new Message(), new Message());
+		final var firstMessages = List.of(new Message());
+		when(graphClient.getInbox(graphServiceClient, userId, 1, 2, consumerMock)).thenReturn(messageCollectionResponse(lastMessages));
+		when(graphClient.getInbox(graphServiceClient, userId, 0, 1, consumerMock)).thenReturn(messageCollectionResponse(firstMessages));
+
+		final var lastEmails = List.of(new EmailEntity(), new EmailEntity());
+		final var firstEmails = List.of(new EmailEntity());
+		when(graphMapper.toEmails(lastMessages, municipalityId, namespace, metadata)).thenReturn(lastEmails);
+		when(graphMapper.toEmails(firstMessages, municipalityId, namespace, metadata)).thenReturn(firstEmails);
+
+		// Act
+		graphIntegration.streamEmails(userId, credentials, consumerMock, pageHandlerMock);
+
+		// Assert
+		final var inOrder = inOrder(graphClient, pageHandlerMock);
+		inOrder.verify(graphClient).getInboxCount(graphServiceClient, userId, consumerMock);
+		inOrder.verify(graphClient).getInbox(graphServiceClient, userId, 1, 2, consumerMock);
+		inOrder.verify(pageHandlerMock).accept(lastEmails);
+		inOrder.verify(graphClient).getInbox(graphServiceClient, userId, 0, 1, consumerMock);
+		inOrder.verify(pageHandlerMock).accept(firstEmails);
+		verify(graphServiceClientPool).get(credentials);
+		verifyNoMoreInteractions(graphClient, graphServiceClientPool, pageHandlerMock, consumerMock);
+	}
+
+	@Test
+	void streamEmails_limitedPerRun() {
+		// Arrange
+		final var userId = "userId";
+		final var credentials = GraphCredentialsEntity.builder().withEmailAddress(List.of(userId)).build();
+		ReflectionTestUtils.setField(graphIntegration, "pageSize", 50);
+		ReflectionTestUtils.setField(graphIntegration, "maxItemsPerRun", 10);
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxCount(graphServiceClient, userId, consumerMock)).thenReturn(500);
+		final var messages = List.of(new Message());
+		when(graphClient.getInbox(graphServiceClient, userId, 0, 10, consumerMock)).thenReturn(messageCollectionResponse(messages));
+		final var emails = List.of(new EmailEntity());
+		when(graphMapper.toEmails(messages, null, null, null)).thenReturn(emails);
+
+		// Act
+		graphIntegration.streamEmails(userId, credentials, consumerMock, pageHandlerMock);
+
+		// Assert
+		verify(graphClient).getInboxCount(graphServiceClient, userId, consumerMock);
+		verify(graphClient).getInbox(graphServiceClient, userId, 0, 10, consumerMock);
+		verify(pageHandlerMock).accept(emails);
+		verifyNoMoreInteractions(graphClient, pageHandlerMock);
+	}
+
+	@Test
+	void streamEmails_noMessagesFound() {
+		// Arrange
+		final var userId = "userId";
+		final var credentials = GraphCredentialsEntity.builder().withEmailAddress(List.of(userId)).build();
+		ReflectionTestUtils.setField(graphIntegration, "pageSize", 50);
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxCount(graphServiceClient, userId, consumerMock)).thenReturn(0);
+
+		// Act
+		graphIntegration.streamEmails(userId, credentials, consumerMock, pageHandlerMock);
+
+		// Assert
+		verify(graphClient).getInboxCount(graphServiceClient, userId, consumerMock);
+		verifyNoMoreInteractions(graphClient, graphMapper, pageHandlerMock);
+	}
+
+	@Test
+	void streamEmails_pageCouldNotBeFetched() {
+		// Arrange
+		final var userId = "userId";
+		final var credentials = GraphCredentialsEntity.builder().withEmailAddress(List.of(userId)).build();
+		ReflectionTestUtils.setField(graphIntegration, "pageSize", 50);
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxCount(graphServiceClient, userId, consumerMock)).thenReturn(120);
+		when(graphClient.getInbox(graphServiceClient, userId, 70, 50, consumerMock)).thenReturn(null);
+
+		// Act
+		graphIntegration.streamEmails(userId, credentials, consumerMock, pageHandlerMock);
+
+		// Assert
+		verify(graphClient).getInboxCount(graphServiceClient, userId, consumerMock);
+		verify(graphClient).getInbox(graphServiceClient, userId, 70, 50, consumerMock);
+		verifyNoMoreInteractions(graphClient, graphMapper, pageHandlerMock);
+	}
+
+	@Test
+	void getEmailsDelta() {
 		// Arrange
 		final var userId = "userId";
 		final var municipalityId = "municipalityId";
 		final var namespace = "namespace";
-		final var clientId = "clientId";
-		final var clientSecret = "clientSecret";
-		final var tenantId = "tenantId";
 		final Map<String, String> metadata = emptyMap();
 		final var credentials = GraphCredentialsEntity.builder()
-			.withClientId(clientId)
-			.withClientSecret(clientSecret)
-			.withTenantId(tenantId)
 			.withEmailAddress(List.of(userId))
 			.withMunicipalityId(municipalityId)
 			.withNamespace(namespace)
 			.withMetadata(metadata)
 			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
 
-		final var messageCollectionResponse = mock(MessageCollectionResponse.class);
 		final var messages = List.of(new Message());
-		when(messageCollectionResponse.getValue()).thenReturn(messages);
-		when(graphClient.getInbox(userId, consumerMock)).thenReturn(messageCollectionResponse);
-		when(encryptionUtility.decrypt(clientId)).thenReturn("decryptedClientId");
-		when(encryptionUtility.decrypt(clientSecret)).thenReturn("decryptedClientSecret");
-		when(encryptionUtility.decrypt(tenantId)).thenReturn("decryptedTenantId");
+		when(graphClient.getInboxDelta(graphServiceClient, userId, "oldDeltaLink", consumerMock)).thenReturn(new GraphClient.MessageDelta(messages, "newDeltaLink"));
 
 		final var emailEntities = List.of(new EmailEntity());
 		when(graphMapper.toEmails(messages, municipalityId, namespace, metadata)).thenReturn(emailEntities);
 
 		// Act
-		final var result = graphIntegration.getEmails(userId, credentials, consumerMock);
+		final var result = graphIntegration.getEmailsDelta(userId, credentials, "oldDeltaLink", consumerMock);
 
 		// Assert
-		assertThat(result).isNotNull().hasSize(1).containsExactlyElementsOf(emailEntities);
-		verify(graphClient).initializeGraph(any(ClientSecretCredential.class), eq(consumerMock));
-		verify(graphClient).getInbox(userId, consumerMock);
+		assertThat(result.emails()).containsExactlyElementsOf(emailEntities);
+		assertThat(result.deltaLink()).isEqualTo("newDeltaLink");
+		verify(graphServiceClientPool).get(credentials);
+		verify(graphClient).getInboxDelta(graphServiceClient, userId, "oldDeltaLink", consumerMock);
 		verify(graphMapper).toEmails(messages, municipalityId, namespace, metadata);
-		verify(encryptionUtility).decrypt(clientId);
-		verify(encryptionUtility).decrypt(clientSecret);
-		verify(encryptionUtility).decrypt(tenantId);
-		verifyNoMoreInteractions(graphClient, graphMapper, encryptionUtility, consumerMock);
+		verifyNoMoreInteractions(graphClient, graphMapper, graphServiceClientPool, consumerMock);
 	}
 
 	@Test
-	void testGetEmailsNoMessagesFound() {
+	void getEmails() {
 		// Arrange
 		final var userId = "userId";
 		final var municipalityId = "municipalityId";
 		final var namespace = "namespace";
-		final var clientId = "clientId";
-		final var clientSecret = "clientSecret";
-		final var tenantId = "tenantId";
 		final Map<String, String> metadata = emptyMap();
 		final var credentials = GraphCredentialsEntity.builder()
-			.withClientId(clientId)
-			.withClientSecret(clientSecret)
-			.withTenantId(tenantId)
 			.withEmailAddress(List.of(userId))
 			.withMunicipalityId(municipalityId)
 			.withNamespace(namespace)
 			.withMetadata(metadata)
 			.build();
+		final var messageIds = List.of("messageId");
+		final var messages = List.of(new Message());
+		final var emailEntities = List.of(new EmailEntity());
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxMessages(graphServiceClient, userId, messageIds, consumerMock)).thenReturn(messages);
+		when(graphMapper.toEmails(messages, municipalityId, namespace, metadata)).thenReturn(emailEntities);
+
+		// Act
+		final var result = graphIntegration.getEmails(userId, credentials, messageIds, consumerMock);
 
-		final var messageCollectionResponse = mock(MessageCollectionResponse.class);
-		when(messageCollectionResponse.getValue()).thenReturn(null);
-		when(graphClient.getInbox(userId, consumerMock)).thenReturn(messageCollectionResponse);
-		when(encryptionUtility.decrypt(clientId)).thenReturn("decryptedClientId");
-		when(encryptionUtility.decrypt(clientSecret)).thenReturn("decryptedClientSecret");
-		when(encryptionUtility.decrypt(tenantId)).thenReturn("decryptedTenantId");
+		// Assert
+		assertThat(result).containsExactlyElementsOf(emailEntities);
+		verify(graphClient).getInboxMessages(graphServiceClient, userId, messageIds, consumerMock);
+		verify(graphMapper).toEmails(messages, municipalityId, namespace, metadata);
+		verifyNoMoreInteractions(graphClient, graphMapper, consumerMock);
+	}
+
+	@Test
+	void getEmailsOrThrow() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var municipalityId = "municipalityId";
+		final var namespace = "namespace";
+		final Map<String, String> metadata = emptyMap();
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.withMunicipalityId(municipalityId)
+			.withNamespace(namespace)
+			.withMetadata(metadata)
+			.build();
+		final var messageIds = List.of("messageId");
+		final var messages = List.of(new Message());
+		final var emailEntities = List.of(new EmailEntity());
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxMessagesOrThrow(graphServiceClient, userId, messageIds)).thenReturn(messages);
+		when(graphMapper.toEmails(messages, municipalityId, namespace, metadata)).thenReturn(emailEntities);
 
 		// Act
-		final var result = graphIntegration.getEmails(userId, credentials, consumerMock);
+		final var result = graphIntegration.getEmailsOrThrow(userId, credentials, messageIds);
 
 		// Assert
-		assertThat(result).isEmpty();
-		verify(graphClient).initializeGraph(any(ClientSecretCredential.class), eq(consumerMock));
-		verify(graphClient).getInbox(userId, consumerMock);
-		verify(graphMapper).toEmails(emptyList(), municipalityId, namespace, metadata);
-		verify(encryptionUtility).decrypt(clientId);
-		verify(encryptionUtility).decrypt(clientSecret);
-		verify(encryptionUtility).decrypt(tenantId);
-		verifyNoMoreInteractions(graphClient, graphMapper, encryptionUtility, consumerMock);
+		assertThat(result).containsExactlyElementsOf(emailEntities);
+		verify(graphClient).getInboxMessagesOrThrow(graphServiceClient, userId, messageIds);
+		verify(graphMapper).toEmails(messages, municipalityId, namespace, metadata);
+		verifyNoMoreInteractions(graphClient, graphMapper);
+	}
+
+	@Test
+	void getEmailsOrThrow_fails() throws Exception {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var messageIds = List.of("messageId");
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getInboxMessagesOrThrow(graphServiceClient, "userId", messageIds)).thenThrow(new IOException("Could not get message 'messageId'"));
+
+		// Act & Assert
+		assertThatThrownBy(() -> graphIntegration.getEmailsOrThrow("userId", credentials, messageIds))
+			.isInstanceOf(IOException.class);
+		verifyNoMoreInteractions(graphMapper);
+	}
+
+	@Test
+	void subscribeToInbox() {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var expiration = OffsetDateTime.parse("2026-01-04T12:00:00Z");
+		final var subscription = new Subscription();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.createSubscription(graphServiceClient, "userId", "notificationUrl", "clientState", expiration)).thenReturn(subscription);
+
+		// Act
+		final var result = graphIntegration.subscribeToInbox("userId", credentials, "notificationUrl", "clientState", expiration);
+
+		// Assert
+		assertThat(result).isSameAs(subscription);
+	}
+
+	@Test
+	void renewSubscription() {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var expiration = OffsetDateTime.parse("2026-01-04T12:00:00Z");
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.renewSubscription(graphServiceClient, "subscriptionId", expiration)).thenReturn(expiration);
+
+		// Act
+		final var result = graphIntegration.renewSubscription(credentials, "subscriptionId", expiration);
+
+		// Assert
+		assertThat(result).isEqualTo(expiration);
+	}
+
+	@Test
+	void unsubscribe() {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder().build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+
+		// Act
+		graphIntegration.unsubscribe(credentials, "subscriptionId");
 
+		// Assert
+		verify(graphClient).deleteSubscription(graphServiceClient, "subscriptionId");
 	}
 
 	@Test
@@ -165,64 +348,240 @@ class GraphIntegrationTest {
 			.withNamespace(namespace)
 			.withMetadata(metadata)
 			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
 		final var attachments = List.of(new Attachment());
 		final var attachmentEntities = List.of(new AttachmentEntity());
-		when(graphClient.getAttachments(userId, messageId, consumerMock)).thenReturn(attachments);
+		when(graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock)).thenReturn(Map.of(messageId, attachments));
 		when(graphMapper.toAttachments(attachments)).thenReturn(attachmentEntities);
-		when(encryptionUtility.decrypt(clientId)).thenReturn("decryptedClientId");
-		when(encryptionUtility.decrypt(clientSecret)).thenReturn("decryptedClientSecret");
-		when(encryptionUtility.decrypt(tenantId)).thenReturn("decryptedTenantId");
 
 		// Act
-		final var result = graphIntegration.getAttachments(userId, credentials, messageId, consumerMock);
+		final var result = graphIntegration.getAttachments(userId, credentials, List.of(messageId), consumerMock);
 
 		// Assert
-		assertThat(result).isNotNull().hasSize(1).containsExactlyElementsOf(attachmentEntities);
-		verify(graphClient).initializeGraph(any(ClientSecretCredential.class), eq(consumerMock));
-		verify(graphClient).getAttachments(userId, messageId, consumerMock);
+		assertThat(result).hasSize(1).containsEntry(messageId, attachmentEntities);
+		verify(graphServiceClientPool).get(credentials);
+		verify(graphClient).getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock);
 		verify(graphMapper).toAttachments(attachments);
-		verify(encryptionUtility).decrypt(clientId);
-		verify(encryptionUtility).decrypt(clientSecret);
-		verify(encryptionUtility).decrypt(tenantId);
-		verifyNoMoreInteractions(graphClient, graphMapper, encryptionUtility, consumerMock);
+		verifyNoMoreInteractions(graphClient, graphMapper, graphServiceClientPool, consumerMock);
 	}
 
 	@Test
-	void testMoveEmail() {
+	void testGetAttachmentsStreamsLargeAttachments() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var small = new FileAttachment();
+		final var large = new FileAttachment();
+		large.setId("largeId");
+		final var content = new ByteArrayInputStream(new byte[] {
+			1, 2, 3
+		});
+		final var smallEntity = AttachmentEntity.builder().withName("small").build();
+		final var largeEntity = AttachmentEntity.builder().withName("large").build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock)).thenReturn(Map.of(messageId, List.of(small, large)));
+		when(graphClient.isStreamed(small)).thenReturn(false);
+		when(graphClient.isStreamed(large)).thenReturn(true);
+		when(graphMapper.toAttachments(List.of(small))).thenReturn(List.of(smallEntity));
+		when(graphClient.getAttachmentContent(graphServiceClient, userId, messageId, "largeId", consumerMock)).thenReturn(content);
+		when(graphMapper.toAttachment(large, content)).thenReturn(largeEntity);
+
+		// Act
+		final var result = graphIntegration.getAttachments(userId, credentials, List.of(messageId), consumerMock);
+
+		// Assert
+		assertThat(result).hasSize(1).containsEntry(messageId, List.of(smallEntity, largeEntity));
+		verify(graphClient).getAttachmentContent(graphServiceClient, userId, messageId, "largeId", consumerMock);
+		verify(graphMapper).toAttachment(large, content);
+	}
+
+	@Test
+	void testGetAttachmentsStreamFailed() {
+		// Arrange
+		final var userId = "userId";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var large = new FileAttachment();
+		large.setId("largeId");
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock)).thenReturn(Map.of(messageId, List.of(large)));
+		when(graphClient.isStreamed(large)).thenReturn(true);
+		when(graphMapper.toAttachments(List.of())).thenReturn(List.of());
+		when(graphClient.getAttachmentContent(graphServiceClient, userId, messageId, "largeId", consumerMock)).thenReturn(null);
+
+		// Act
+		final var result = graphIntegration.getAttachments(userId, credentials, List.of(messageId), consumerMock);
+
+		// Assert
+		assertThat(result).isEmpty();
+		verify(graphMapper, never()).toAttachment(any(), any());
+	}
+
+	@Test
+	void testGetAttachmentsStreamFailedFreesStreamedAttachments() throws Exception {
+		// Arrange
+		final var userId = "userId";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder().build();
+		final var large = new FileAttachment();
+		large.setId("largeId");
+		final var other = new FileAttachment();
+		other.setId("otherId");
+		final var content = new ByteArrayInputStream(new byte[] {
+			1, 2, 3
+		});
+		final var largeEntity = AttachmentEntity.builder().withName("large").build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphClient.getAttachments(graphServiceClient, userId, List.of(messageId), consumerMock)).thenReturn(Map.of(messageId, List.of(large, other)));
+		when(graphClient.isStreamed(any())).thenReturn(true);
+		when(graphMapper.toAttachments(List.of())).thenReturn(List.of());
+		when(graphClient.getAttachmentContent(graphServiceClient, userId, messageId, "largeId", consumerMock)).thenReturn(content);
+		when(graphMapper.toAttachment(large, content)).thenReturn(largeEntity);
+		when(graphClient.getAttachmentContent(graphServiceClient, userId, messageId, "otherId", consumerMock)).thenReturn(null);
+
+		// Act
+		final var result = graphIntegration.getAttachments(userId, credentials, List.of(messageId), consumerMock);
+
+		// Assert
+		assertThat(result).isEmpty();
+		verify(graphMapper).free(List.of(largeEntity));
+	}
+
+	@Test
+	void testMoveEmails() {
 		// Arrange
 		final var userId = "userId";
 		final var messageId = "messageId";
-		final var municipalityId = "municipalityId";
-		final var namespace = "namespace";
-		final var clientId = "clientId";
-		final var clientSecret = "clientSecret";
-		final var tenantId = "tenantId";
 		final var destinationFolder = "Archive";
-		final Map<String, String> metadata = emptyMap();
 		final var credentials = GraphCredentialsEntity.builder()
-			.withClientId(clientId)
-			.withClientSecret(clientSecret)
-			.withTenantId(tenantId)
 			.withEmailAddress(List.of(userId))
-			.withMunicipalityId(municipalityId)
-			.withNamespace(namespace)
-			.withMetadata(metadata)
 			.withDestinationFolder(destinationFolder)
 			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq(userId), eq(destinationFolder), any())).thenReturn("folderId");
+		when(graphClient.moveEmails(graphServiceClient, userId, List.of(messageId), "folderId", consumerMock)).thenReturn(new GraphClient.MoveResult(Set.of(messageId), Set.of()));
+
+		// Act
+		final var result = graphIntegration.moveEmails(userId, List.of(messageId), credentials, consumerMock);
+
+		// Assert
+		assertThat(result).containsExactly(messageId);
+		verify(graphServiceClientPool).get(credentials);
+		verify(graphClient).moveEmails(graphServiceClient, userId, List.of(messageId), "folderId", consumerMock);
+		verify(graphFolderIdCache, never()).invalidate(any(), any());
+		verifyNoMoreInteractions(graphClient, graphMapper, graphServiceClientPool, consumerMock);
+	}
+
+	@Test
+	void testMoveEmailsResolvesFolder() {
+		// Arrange
+		final var userId = "userId";
+		final var destinationFolder = "Archive";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withDestinationFolder(destinationFolder)
+			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq(userId), eq(destinationFolder), any()))
+			.thenAnswer(invocation -> invocation.<Supplier<String>>getArgument(2).get());
+		when(graphClient.findFolderId(graphServiceClient, userId, destinationFolder)).thenReturn("folderId");
+		when(graphClient.moveEmails(graphServiceClient, userId, List.of("messageId"), "folderId", consumerMock)).thenReturn(new GraphClient.MoveResult(Set.of("messageId"), Set.of()));
 
-		when(encryptionUtility.decrypt(clientId)).thenReturn("decryptedClientId");
-		when(encryptionUtility.decrypt(clientSecret)).thenReturn("decryptedClientSecret");
-		when(encryptionUtility.decrypt(tenantId)).thenReturn("decryptedTenantId");
+		// Act
+		final var result = graphIntegration.moveEmails(userId, List.of("messageId"), credentials, consumerMock);
+
+		// Assert
+		assertThat(result).containsExactly("messageId");
+		verify(graphClient).findFolderId(graphServiceClient, userId, destinationFolder);
+	}
+
+	@Test
+	void testMoveEmailsFolderChanged() {
+		// Arrange
+		final var userId = "userId";
+		final var destinationFolder = "Archive";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withDestinationFolder(destinationFolder)
+			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq(userId), eq(destinationFolder), any())).thenReturn("staleFolderId", "folderId");
+		when(graphClient.moveEmails(graphServiceClient, userId, List.of("messageId1", "messageId2"), "staleFolderId", consumerMock))
+			.thenReturn(new GraphClient.MoveResult(Set.of("messageId1"), Set.of("messageId2")));
+		when(graphClient.moveEmails(graphServiceClient, userId, List.of("messageId2"), "folderId", consumerMock))
+			.thenReturn(new GraphClient.MoveResult(Set.of("messageId2"), Set.of()));
 
 		// Act
-		graphIntegration.moveEmail(userId, messageId, credentials, consumerMock);
+		final var result = graphIntegration.moveEmails(userId, List.of("messageId1", "messageId2"), credentials, consumerMock);
 
 		// Assert
-		verify(graphClient).initializeGraph(any(ClientSecretCredential.class), eq(consumerMock));
-		verify(graphClient).moveEmail(userId, messageId, destinationFolder, consumerMock);
-		verify(encryptionUtility).decrypt(clientId);
-		verify(encryptionUtility).decrypt(clientSecret);
-		verify(encryptionUtility).decrypt(tenantId);
-		verifyNoMoreInteractions(graphClient, graphMapper, encryptionUtility, consumerMock);
+		assertThat(result).containsExactlyInAnyOrder("messageId1", "messageId2");
+		verify(graphFolderIdCache).invalidate(userId, destinationFolder);
+	}
+
+	@Test
+	void testMoveEmailsMessageNotFound() {
+		// Arrange
+		final var userId = "userId";
+		final var destinationFolder = "Archive";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withDestinationFolder(destinationFolder)
+			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq(userId), eq(destinationFolder), any())).thenReturn("folderId");
+		when(graphClient.moveEmails(graphServiceClient, userId, List.of("messageId"), "folderId", consumerMock))
+			.thenReturn(new GraphClient.MoveResult(Set.of(), Set.of("messageId")));
+
+		// Act
+		final var result = graphIntegration.moveEmails(userId, List.of("messageId"), credentials, consumerMock);
+
+		// Assert
+		assertThat(result).isEmpty();
+		verify(graphFolderIdCache).invalidate(userId, destinationFolder);
+		verify(graphClient).moveEmails(graphServiceClient, userId, List.of("messageId"), "folderId", consumerMock);
+		verifyNoMoreInteractions(graphClient);
+	}
+
+	@Test
+	void testMoveEmailsFolderNotFound() {
+		// Arrange
+		final var userId = "userId";
+		final var destinationFolder = "Archive";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withDestinationFolder(destinationFolder)
+			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq(userId), eq(destinationFolder), any())).thenThrow(new IllegalStateException("Test exception"));
+
+		// Act
+		final var result = graphIntegration.moveEmails(userId, List.of("messageId"), credentials, consumerMock);
+
+		// Assert
+		assertThat(result).isEmpty();
+		verify(consumerMock).accept("[GRAPH] Could not move email from inbox");
+		verifyNoMoreInteractions(graphClient);
+	}
+
+	@Test
+	void testWarmFolderIds() {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of("userId1", "userId2"))
+			.withDestinationFolder("Archive")
+			.build();
+		when(graphServiceClientPool.get(credentials)).thenReturn(graphServiceClient);
+		when(graphFolderIdCache.get(eq("userId1"), eq("Archive"), any())).thenThrow(new IllegalStateException("Test exception"));
+
+		// Act
+		graphIntegration.warmFolderIds(credentials);
+
+		// Assert
+		verify(graphFolderIdCache).get(eq("userId1"), eq("Archive"), any());
+		verify(graphFolderIdCache).get(eq("userId2"), eq("Archive"), any());
+	}
+
+	private static MessageCollectionResponse messageCollectionResponse(final List<Message> messages) {
+		final var response = new MessageCollectionResponse();
+		response.setValue(messages);
+		return response;
 	}
 }
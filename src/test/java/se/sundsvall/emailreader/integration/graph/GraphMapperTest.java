@@ -8,6 +8,9 @@ import com.microsoft.graph.models.ItemAttachment;
 import com.microsoft.graph.models.ItemBody;
 import com.microsoft.graph.models.Message;
 import com.microsoft.graph.models.Recipient;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Blob;
 import java.time.OffsetDateTime;
 import java.util.List;
@@ -25,14 +28,21 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import se.sundsvall.emailreader.api.model.Header;
+import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.utility.BlobBuilder;
+import se.sundsvall.emailreader.utility.TempFileInputStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static se.sundsvall.emailreader.TestUtility.createEmailHeaderEntity;
 import static se.sundsvall.emailreader.TestUtility.createMessageWithHeaders;
@@ -111,6 +121,46 @@ class GraphMapperTest {
 		assertThat(result.getFirst().getName()).isEqualTo("test.txt");
 	}
 
+	@Test
+	void toAttachmentFromStream() throws Exception {
+		final var attachment = new FileAttachment();
+		attachment.setName("large.pdf");
+		attachment.setContentType("application/pdf");
+		final var content = new ByteArrayInputStream("Test Content".getBytes());
+
+		when(blobBuilder.createBlob(any(InputStream.class), eq(12L))).thenReturn(blob);
+
+		final var result = graphMapper.toAttachment(attachment, content);
+
+		assertThat(result.getName()).isEqualTo("large.pdf");
+		assertThat(result.getContentType()).isEqualTo("application/pdf");
+		assertThat(result.getContent()).isEqualTo(blob);
+		assertThat(result.getSize()).isEqualTo(12L);
+		assertThat(content.available()).isZero();
+		verify(blobBuilder).createBlob(any(TempFileInputStream.class), eq(12L));
+	}
+
+	@Test
+	void free() {
+		final var attachment = AttachmentEntity.builder().withContent(blob).build();
+
+		graphMapper.free(List.of(attachment));
+
+		verify(blobBuilder).free(blob);
+	}
+
+	@Test
+	void toAttachmentFromStreamFails() throws Exception {
+		final var attachment = new FileAttachment();
+		final var content = Mockito.mock(InputStream.class);
+
+		when(content.read(any(byte[].class), anyInt(), anyInt())).thenThrow(new IOException("Connection reset"));
+
+		assertThatExceptionOfType(IOException.class).isThrownBy(() -> graphMapper.toAttachment(attachment, content));
+		verify(content).close();
+		verifyNoInteractions(blobBuilder);
+	}
+
 	@Test
 	void toAttachmentsHandlesNullInput() {
 		assertThat(graphMapper.toAttachments(null)).isEmpty();
@@ -154,6 +204,63 @@ class GraphMapperTest {
 		});
 	}
 
+	@Test
+	void toKnownAttachmentsWithoutAttachments() {
+		final var message = createMessage();
+		message.setHasAttachments(false);
+
+		assertThat(graphMapper.toKnownAttachments(message)).isNotNull().isEmpty();
+	}
+
+	@Test
+	void toKnownAttachmentsWithAttachments() {
+		final var message = createMessage();
+		message.setHasAttachments(true);
+
+		assertThat(graphMapper.toKnownAttachments(message)).isNull();
+	}
+
+	@Test
+	void toKnownAttachmentsWithInlineAttachments() {
+		// hasAttachments is false for messages that only have inline attachments
+		final var message = createMessage();
+		message.setHasAttachments(false);
+		message.getBody().setContent("<img src=\"cid:image001.png@01DA0000.00000000\">");
+
+		assertThat(graphMapper.toKnownAttachments(message)).isNull();
+	}
+
+	@Test
+	void toKnownAttachmentsExpandedWithinMaxSize() {
+		final var message = createMessage();
+		final var attachments = createAttachments();
+		attachments.getFirst().setSize(12);
+		message.setHasAttachments(true);
+		message.setAttachments(attachments);
+		ReflectionTestUtils.setField(graphMapper, "expandMaxSize", 12L);
+
+		when(blobBuilder.createBlob(any())).thenReturn(blob);
+
+		final var result = graphMapper.toKnownAttachments(message);
+
+		assertThat(result).hasSize(1);
+		assertThat(result.getFirst().getName()).isEqualTo("test.txt");
+		assertThat(result.getFirst().getContent()).isEqualTo(blob);
+	}
+
+	@Test
+	void toKnownAttachmentsExpandedExceedingMaxSize() {
+		final var message = createMessage();
+		final var attachments = createAttachments();
+		attachments.getFirst().setSize(13);
+		message.setHasAttachments(true);
+		message.setAttachments(attachments);
+		ReflectionTestUtils.setField(graphMapper, "expandMaxSize", 12L);
+
+		assertThat(graphMapper.toKnownAttachments(message)).isNull();
+		verifyNoInteractions(blobBuilder);
+	}
+
 	@Test
 	void toHeaders() {
 		final var message = createMessageWithHeaders();
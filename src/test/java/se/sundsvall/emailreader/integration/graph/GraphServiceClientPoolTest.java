@@ -0,0 +1,158 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+import se.sundsvall.emailreader.utility.EncryptionException;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GraphServiceClientPoolTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+	private static final String BASE_URL = "http://localhost:8080/graph";
+
+	@Mock
+	private EncryptionUtility encryptionUtilityMock;
+
+	@Mock
+	private ThrottlingGovernor throttlingGovernorMock;
+
+	@Mock
+	private Clock clockMock;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private GraphServiceClientPool pool;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		pool = new GraphServiceClientPool(encryptionUtilityMock, throttlingGovernorMock, meterRegistry, Duration.ofMinutes(15), BASE_URL, "https://login.microsoftonline.com/", clockMock);
+	}
+
+	@Test
+	void get_reusesClientForSameCredential() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW);
+		stubDecryption();
+
+		final var first = pool.get(credential);
+		final var second = pool.get(credential);
+
+		assertThat(first).isNotNull().isSameAs(second);
+		assertThat(first.getRequestAdapter().getBaseUrl()).isEqualTo(BASE_URL);
+		assertThat(pool.size()).isOne();
+		assertThat(meterRegistry.get("emailreader.graph.client.pool.requests").tag("result", "hit").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.graph.client.pool.requests").tag("result", "miss").counter().count()).isOne();
+		assertThat(meterRegistry.get("emailreader.graph.client.pool.size").gauge().value()).isOne();
+		verify(encryptionUtilityMock).decrypt("encryptedClientId");
+		verify(encryptionUtilityMock).decrypt("encryptedClientSecret");
+		verify(encryptionUtilityMock).decrypt("encryptedTenantId");
+	}
+
+	@Test
+	void get_replacesClientWhenSecretChanged() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW);
+		stubDecryption();
+		when(encryptionUtilityMock.decrypt("otherEncryptedClientSecret")).thenReturn("otherClientSecret");
+
+		final var first = pool.get(credential);
+		credential.setClientSecret("otherEncryptedClientSecret");
+		final var second = pool.get(credential);
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(pool.size()).isOne();
+	}
+
+	@Test
+	void get_evictsIdleClients() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW, NOW, NOW.plus(Duration.ofMinutes(16)));
+		stubDecryption();
+
+		final var first = pool.get(credential);
+		final var second = pool.get(credential);
+
+		assertThat(second).isNotSameAs(first);
+		assertThat(meterRegistry.get("emailreader.graph.client.pool.requests").tag("result", "miss").counter().count()).isEqualTo(2);
+		verify(encryptionUtilityMock, times(2)).decrypt("encryptedClientSecret");
+	}
+
+	@Test
+	void get_decryptionFails() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW);
+		when(encryptionUtilityMock.decrypt("encryptedClientId")).thenThrow(new EncryptionException("someMessage"));
+
+		assertThatExceptionOfType(EncryptionException.class).isThrownBy(() -> pool.get(credential));
+		assertThat(pool.size()).isZero();
+	}
+
+	@Test
+	void get_faultyCredentials() {
+		final var credential = GraphCredentialsEntity.builder().withId("someId").build();
+		when(clockMock.instant()).thenReturn(NOW);
+
+		assertThatExceptionOfType(IllegalArgumentException.class)
+			.isThrownBy(() -> pool.get(credential))
+			.withMessage("Must provide non-null values for clientId, tenantId, clientSecret properties in ClientSecretCredentialBuilder");
+		assertThat(pool.size()).isZero();
+	}
+
+	@Test
+	void throttlingKey() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW);
+		stubDecryption();
+		final var client = pool.get(credential);
+
+		assertThat(pool.throttlingKey(client)).contains("graph:tenantId");
+
+		pool.invalidate(credential.getId());
+
+		assertThat(pool.throttlingKey(client)).isEmpty();
+	}
+
+	@Test
+	void invalidate() {
+		final var credential = createGraphCredentialsEntity();
+		when(clockMock.instant()).thenReturn(NOW);
+		stubDecryption();
+		pool.get(credential);
+
+		pool.invalidate(credential.getId());
+
+		assertThat(pool.size()).isZero();
+	}
+
+	private void stubDecryption() {
+		when(encryptionUtilityMock.decrypt("encryptedClientId")).thenReturn("clientId");
+		when(encryptionUtilityMock.decrypt("encryptedClientSecret")).thenReturn("clientSecret");
+		when(encryptionUtilityMock.decrypt("encryptedTenantId")).thenReturn("tenantId");
+	}
+
+	private static GraphCredentialsEntity createGraphCredentialsEntity() {
+		return GraphCredentialsEntity.builder()
+			.withId("someId")
+			.withClientId("encryptedClientId")
+			.withClientSecret("encryptedClientSecret")
+			.withTenantId("encryptedTenantId")
+			.build();
+	}
+}
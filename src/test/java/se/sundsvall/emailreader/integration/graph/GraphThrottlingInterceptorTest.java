@@ -0,0 +1,122 @@
+package se.sundsvall.emailreader.integration.graph;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GraphThrottlingInterceptorTest {
+
+	private static final String KEY = "graph:tenantId";
+	private static final Request REQUEST = new Request.Builder().url("https://graph.microsoft.com/v1.0/users").build();
+
+	@Mock
+	private ThrottlingGovernor throttlingGovernorMock;
+
+	@Mock
+	private Interceptor.Chain chainMock;
+
+	private GraphThrottlingInterceptor interceptor;
+
+	@BeforeEach
+	void setUp() {
+		interceptor = new GraphThrottlingInterceptor(throttlingGovernorMock, KEY);
+	}
+
+	@Test
+	void intercept_success() throws Exception {
+		// Arrange
+		final var response = response(200, null);
+		when(chainMock.request()).thenReturn(REQUEST);
+		when(chainMock.proceed(REQUEST)).thenReturn(response);
+
+		// Act
+		final var result = interceptor.intercept(chainMock);
+
+		// Assert
+		assertThat(result).isSameAs(response);
+		verify(throttlingGovernorMock).acquire(KEY);
+		verify(throttlingGovernorMock).onSuccess(KEY);
+		verifyNoMoreInteractions(throttlingGovernorMock);
+	}
+
+	@Test
+	void intercept_throttled() throws Exception {
+		// Arrange
+		when(chainMock.request()).thenReturn(REQUEST);
+		when(chainMock.proceed(REQUEST)).thenReturn(response(429, "7"));
+
+		// Act
+		final var result = interceptor.intercept(chainMock);
+
+		// Assert
+		assertThat(result.code()).isEqualTo(429);
+		verify(throttlingGovernorMock).acquire(KEY);
+		verify(throttlingGovernorMock).onThrottled(KEY, Duration.ofSeconds(7));
+		verifyNoMoreInteractions(throttlingGovernorMock);
+	}
+
+	@Test
+	void intercept_otherFailure() throws Exception {
+		// Arrange
+		when(chainMock.request()).thenReturn(REQUEST);
+		when(chainMock.proceed(REQUEST)).thenReturn(response(404, null));
+
+		// Act
+		interceptor.intercept(chainMock);
+
+		// Assert
+		verify(throttlingGovernorMock).acquire(KEY);
+		verifyNoMoreInteractions(throttlingGovernorMock);
+	}
+
+	@Test
+	void intercept_interrupted() throws Exception {
+		// Arrange
+		doThrow(new InterruptedException()).when(throttlingGovernorMock).acquire(KEY);
+
+		// Act & Assert
+		assertThatExceptionOfType(InterruptedIOException.class).isThrownBy(() -> interceptor.intercept(chainMock));
+		assertThat(Thread.interrupted()).isTrue();
+		verify(chainMock, never()).proceed(any());
+		verify(throttlingGovernorMock, never()).onSuccess(anyString());
+	}
+
+	@Test
+	void parseRetryAfter() {
+		assertThat(GraphThrottlingInterceptor.parseRetryAfter("12")).isEqualTo(Duration.ofSeconds(12));
+		assertThat(GraphThrottlingInterceptor.parseRetryAfter(null)).isEqualTo(Duration.ZERO);
+		assertThat(GraphThrottlingInterceptor.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT")).isEqualTo(Duration.ZERO);
+	}
+
+	private static Response response(final int code, final String retryAfter) {
+		final var builder = new Response.Builder()
+			.request(REQUEST)
+			.protocol(Protocol.HTTP_1_1)
+			.code(code)
+			.message("message");
+		if (retryAfter != null) {
+			builder.header("Retry-After", retryAfter);
+		}
+		return builder.build();
+	}
+}
@@ -0,0 +1,238 @@
+package se.sundsvall.emailreader.integration.throttling;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ThrottlingGovernorTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+	private static final String KEY = "graph:tenantId";
+
+	@Mock
+	private Clock clockMock;
+
+	@Mock
+	private ThrottlingGovernor.Sleeper sleeperMock;
+
+	@Mock
+	private ThrottlingGovernor.ThrottledCall<String> callMock;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private ThrottlingGovernor governor;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		governor = new ThrottlingGovernor(meterRegistry, true, 2, 0.5, 4, 0.5, 0.5, Duration.ofSeconds(1), Duration.ofSeconds(60), clockMock, sleeperMock);
+	}
+
+	@Test
+	void acquire_withinCapacity_doesNotWait() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+
+		verifyNoInteractions(sleeperMock);
+	}
+
+	@Test
+	void acquire_beyondCapacity_waitsForToken() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+
+		verify(sleeperMock).sleep(Duration.ofMillis(500));
+		verify(sleeperMock).sleep(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void acquire_refillsOverTime() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW, NOW, NOW, NOW.plusMillis(500));
+
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+
+		verifyNoInteractions(sleeperMock);
+	}
+
+	@Test
+	void acquire_keysAreIndependent() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+		governor.acquire("ews:mail.example.com");
+
+		verifyNoInteractions(sleeperMock);
+	}
+
+	@Test
+	void onThrottled_pausesAndLowersRate() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		governor.acquire(KEY);
+
+		governor.onThrottled(KEY, Duration.ofSeconds(10));
+		governor.acquire(KEY);
+		governor.acquire(KEY);
+
+		assertThat(governor.rate(KEY)).isEqualTo(1);
+		verify(sleeperMock).sleep(Duration.ofSeconds(10));
+		verify(sleeperMock).sleep(Duration.ofSeconds(11));
+		assertThat(meterRegistry.get("emailreader.throttling.rate").tag("key", KEY).gauge().value()).isEqualTo(1);
+		assertThat(meterRegistry.get("emailreader.throttling.throttled").tag("key", KEY).counter().count()).isOne();
+	}
+
+	@Test
+	void onThrottled_severalTimesDuringPause_lowersRateOnce() {
+		when(clockMock.instant()).thenReturn(NOW, NOW, NOW.plusSeconds(5), NOW.plusSeconds(15));
+
+		governor.onThrottled(KEY, Duration.ofSeconds(10));
+		governor.onThrottled(KEY, Duration.ofSeconds(10));
+		assertThat(governor.rate(KEY)).isEqualTo(1);
+
+		governor.onThrottled(KEY, Duration.ofSeconds(10));
+		assertThat(governor.rate(KEY)).isEqualTo(0.5);
+		assertThat(meterRegistry.get("emailreader.throttling.throttled").tag("key", KEY).counter().count()).isEqualTo(3);
+	}
+
+	@Test
+	void onThrottled_neverBelowMinRate() {
+		when(clockMock.instant()).thenReturn(NOW, NOW, NOW.plusSeconds(2), NOW.plusSeconds(4), NOW.plusSeconds(6));
+
+		governor.onThrottled(KEY, Duration.ofSeconds(1));
+		governor.onThrottled(KEY, Duration.ofSeconds(1));
+		governor.onThrottled(KEY, Duration.ofSeconds(1));
+		governor.onThrottled(KEY, Duration.ofSeconds(1));
+
+		assertThat(governor.rate(KEY)).isEqualTo(0.5);
+	}
+
+	@Test
+	void onThrottled_withoutBackOff_usesDefaultBackOff() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.onThrottled(KEY, Duration.ZERO);
+		governor.acquire(KEY);
+
+		verify(sleeperMock).sleep(Duration.ofSeconds(1));
+	}
+
+	@Test
+	void onThrottled_longBackOff_isCapped() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.onThrottled(KEY, Duration.ofHours(1));
+		governor.acquire(KEY);
+
+		verify(sleeperMock).sleep(Duration.ofSeconds(60));
+	}
+
+	@Test
+	void onSuccess_raisesRateUpToMax() {
+		when(clockMock.instant()).thenReturn(NOW);
+
+		governor.onSuccess(KEY);
+		assertThat(governor.rate(KEY)).isEqualTo(2.5);
+
+		for (var i = 0; i < 10; i++) {
+			governor.onSuccess(KEY);
+		}
+		assertThat(governor.rate(KEY)).isEqualTo(4);
+	}
+
+	@Test
+	void execute() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(callMock.call()).thenReturn("result");
+
+		final var result = governor.execute(KEY, callMock, e -> Optional.of(Duration.ofSeconds(1)));
+
+		assertThat(result).isEqualTo("result");
+		assertThat(governor.rate(KEY)).isEqualTo(2.5);
+		verifyNoInteractions(sleeperMock);
+	}
+
+	@Test
+	void execute_throttled_retriesAfterBackOff() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(callMock.call()).thenThrow(new IllegalStateException("Busy")).thenReturn("result");
+
+		final var result = governor.execute(KEY, callMock, e -> Optional.of(Duration.ofSeconds(2)));
+
+		assertThat(result).isEqualTo("result");
+		assertThat(governor.rate(KEY)).isEqualTo(1.5);
+		verify(callMock, times(2)).call();
+		verify(sleeperMock).sleep(Duration.ofSeconds(2));
+	}
+
+	@Test
+	void execute_stillThrottled_givesUp() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(callMock.call()).thenThrow(new IllegalStateException("Busy"));
+
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> governor.execute(KEY, callMock, e -> Optional.of(Duration.ofSeconds(2))))
+			.withMessage("Busy");
+
+		verify(callMock, times(ThrottlingGovernor.MAX_ATTEMPTS)).call();
+		assertThat(meterRegistry.get("emailreader.throttling.throttled").tag("key", KEY).counter().count()).isEqualTo(ThrottlingGovernor.MAX_ATTEMPTS);
+	}
+
+	@Test
+	void execute_otherFailure_isNotRetried() throws Exception {
+		when(clockMock.instant()).thenReturn(NOW);
+		when(callMock.call()).thenThrow(new IllegalStateException("Failure"));
+
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> governor.execute(KEY, callMock, e -> Optional.empty()))
+			.withMessage("Failure");
+
+		verify(callMock).call();
+		verify(sleeperMock, never()).sleep(any());
+		assertThat(governor.rate(KEY)).isEqualTo(2);
+	}
+
+	@Test
+	void disabled_makesCallsRightAway() throws Exception {
+		final var disabled = new ThrottlingGovernor(meterRegistry, false, 2, 0.5, 4, 0.5, 0.5, Duration.ofSeconds(1), Duration.ofSeconds(60), clockMock, sleeperMock);
+		when(callMock.call()).thenThrow(new IllegalStateException("Busy")).thenReturn("result");
+
+		for (var i = 0; i < 10; i++) {
+			disabled.acquire(KEY);
+		}
+		disabled.onThrottled(KEY, Duration.ofSeconds(2));
+		assertThatExceptionOfType(IllegalStateException.class)
+			.isThrownBy(() -> disabled.execute(KEY, callMock, e -> Optional.of(Duration.ofSeconds(2))));
+		assertThat(disabled.execute(KEY, callMock, e -> Optional.of(Duration.ofSeconds(2)))).isEqualTo("result");
+
+		verify(callMock, times(2)).call();
+		verifyNoInteractions(clockMock, sleeperMock);
+		assertThat(meterRegistry.getMeters()).isEmpty();
+		assertThat(disabled.isEnabled()).isFalse();
+		assertThat(governor.isEnabled()).isTrue();
+	}
+}
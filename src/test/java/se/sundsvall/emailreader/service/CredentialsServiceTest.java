@@ -1,13 +1,17 @@
 package se.sundsvall.emailreader.service;
 
 import java.util.List;
+import java.util.Optional;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import se.sundsvall.emailreader.integration.db.CredentialsRepository;
+import se.sundsvall.emailreader.integration.db.EwsSyncStateRepository;
 import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.ews.EwsFolderIdCache;
+import se.sundsvall.emailreader.integration.ews.ExchangeServicePool;
 import se.sundsvall.emailreader.utility.EncryptionUtility;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -31,6 +35,15 @@ class CredentialsServiceTest {
 	@Mock
 	private CredentialsRepository repository;
 
+	@Mock
+	private EwsSyncStateRepository ewsSyncStateRepository;
+
+	@Mock
+	private ExchangeServicePool exchangeServicePool;
+
+	@Mock
+	private EwsFolderIdCache ewsFolderIdCache;
+
 	@InjectMocks
 	private CredentialsService service;
 
@@ -65,29 +78,49 @@ class CredentialsServiceTest {
 		verify(encryptionUtility).encrypt(any(byte[].class));
 		verify(repository).save(any(CredentialsEntity.class));
 		verifyNoMoreInteractions(repository, encryptionUtility);
+		verifyNoInteractions(exchangeServicePool);
 
 	}
 
 	@Test
 	void delete() {
 
+		when(repository.findByMunicipalityIdAndId(MUNICIPALITY_ID, "someId")).thenReturn(Optional.of(createCredentialsEntity()));
+
 		service.delete(MUNICIPALITY_ID, "someId");
 
+		verify(repository).findByMunicipalityIdAndId(MUNICIPALITY_ID, "someId");
+		verify(ewsFolderIdCache).invalidate("someEmailAddress", "someDestinationFolder");
 		verify(repository).deleteByMunicipalityIdAndId(eq(MUNICIPALITY_ID), any());
-		verifyNoMoreInteractions(repository);
+		verify(ewsSyncStateRepository).deleteByCredentialsId("someId");
+		verify(exchangeServicePool).invalidate("someId");
+		verifyNoMoreInteractions(repository, ewsSyncStateRepository, exchangeServicePool, ewsFolderIdCache);
 		verifyNoInteractions(encryptionUtility);
 	}
 
+	@Test
+	void delete_notFound() {
+
+		when(repository.findByMunicipalityIdAndId(MUNICIPALITY_ID, "someId")).thenReturn(Optional.empty());
+
+		service.delete(MUNICIPALITY_ID, "someId");
+
+		verify(repository).deleteByMunicipalityIdAndId(MUNICIPALITY_ID, "someId");
+		verifyNoInteractions(ewsFolderIdCache, encryptionUtility);
+	}
+
 	@Test
 	void update() {
 
-		when(repository.findByMunicipalityIdAndId(eq(MUNICIPALITY_ID), any())).thenReturn(java.util.Optional.of(createCredentialsEntity()));
+		when(repository.findByMunicipalityIdAndId(eq(MUNICIPALITY_ID), any())).thenReturn(Optional.of(createCredentialsEntity()));
 
 		service.update(MUNICIPALITY_ID, "someId", createCredentialsWithPassword("somePassword"));
 
 		verify(repository).findByMunicipalityIdAndId(eq(MUNICIPALITY_ID), any());
 		verify(repository).save(any());
 		verify(encryptionUtility).encrypt(any());
-		verifyNoMoreInteractions(repository, encryptionUtility);
+		verify(exchangeServicePool).invalidate("someId");
+		verifyNoMoreInteractions(repository, encryptionUtility, exchangeServicePool);
+		verifyNoInteractions(ewsFolderIdCache);
 	}
 }
@@ -3,20 +3,26 @@ package se.sundsvall.emailreader.service;
 import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.sql.Blob;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.Consumer;
+import microsoft.exchange.webservices.data.core.exception.service.local.ServiceLocalException;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
 import microsoft.exchange.webservices.data.property.complex.ItemId;
-import microsoft.exchange.webservices.data.property.complex.MessageBody;
 import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -32,23 +38,38 @@ import se.sundsvall.emailreader.api.model.Header;
 import se.sundsvall.emailreader.integration.db.AttachmentRepository;
 import se.sundsvall.emailreader.integration.db.CredentialsRepository;
 import se.sundsvall.emailreader.integration.db.EmailRepository;
+import se.sundsvall.emailreader.integration.db.EwsSyncStateRepository;
 import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
+import se.sundsvall.emailreader.integration.db.entity.EmailHeaderEntity;
+import se.sundsvall.emailreader.integration.db.entity.EwsSyncStateEntity;
 import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.InboxSync;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LeasedEmails;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LoadedEmailMessage;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.MoveResult;
 import se.sundsvall.emailreader.integration.ews.EWSMapper;
+import se.sundsvall.emailreader.integration.ews.EwsInboxPages;
+import se.sundsvall.emailreader.integration.ews.ExchangeServicePool;
 import se.sundsvall.emailreader.integration.messaging.MessagingIntegration;
+import se.sundsvall.emailreader.utility.BlobBuilder;
 import se.sundsvall.emailreader.utility.EncryptionException;
-import se.sundsvall.emailreader.utility.EncryptionUtility;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyMap;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
@@ -57,6 +78,7 @@ import static org.mockito.Mockito.when;
 import static org.springframework.boot.jdbc.test.autoconfigure.AutoConfigureTestDatabase.Replace.NONE;
 import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
 import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
+import static org.springframework.http.HttpStatus.BAD_GATEWAY;
 import static org.springframework.http.HttpStatus.INTERNAL_SERVER_ERROR;
 import static org.springframework.http.HttpStatus.NOT_FOUND;
 import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
@@ -92,9 +114,6 @@ class EmailServiceTest {
 	@Mock
 	private MessagingIntegration messagingIntegrationMock;
 
-	@Mock
-	private EncryptionUtility mockEncryptionUtility;
-
 	@Mock
 	private AttachmentRepository mockAttachmentRepository;
 
@@ -110,17 +129,29 @@ class EmailServiceTest {
 	@Mock
 	private EWSMapper ewsMapperMock;
 
+	@Mock
+	private EwsSyncStateRepository ewsSyncStateRepositoryMock;
+
 	@Mock
 	private Consumer<String> consumerMock;
 
 	@Mock
 	private Blob blobMock;
 
+	@Mock
+	private BlobBuilder blobBuilderMock;
+
+	@Captor
+	private ArgumentCaptor<EwsSyncStateEntity> syncStateCaptor;
+
+	@Captor
+	private ArgumentCaptor<List<ItemId>> itemIdsCaptor;
+
 	private EmailService emailService;
 
 	@BeforeEach
 	void init() {
-		emailService = new EmailService(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, ewsIntegrationMock, mockEncryptionUtility, mockAttachmentRepository, ewsMapperMock);
+		emailService = new EmailService(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, ewsIntegrationMock, mockAttachmentRepository, ewsMapperMock, ewsSyncStateRepositoryMock, blobBuilderMock);
 	}
 
 	@Test
@@ -146,7 +177,7 @@ class EmailServiceTest {
 
 		verify(emailRepositoryMock).findByMunicipalityIdAndNamespace("someMunicipalityId", "someNamespace");
 		verifyNoMoreInteractions(emailRepositoryMock);
-		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock);
 	}
 
 	@Test
@@ -155,7 +186,7 @@ class EmailServiceTest {
 
 		verify(emailRepositoryMock, times(1)).deleteByMunicipalityIdAndId("2281", "someId");
 		verifyNoMoreInteractions(emailRepositoryMock);
-		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock);
 	}
 
 	@Test
@@ -168,7 +199,7 @@ class EmailServiceTest {
 
 		verify(credentialsRepositoryMock).findAll();
 		verifyNoMoreInteractions(credentialsRepositoryMock);
-		verifyNoInteractions(emailRepositoryMock, ewsIntegrationMock, messagingIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(emailRepositoryMock, ewsIntegrationMock, messagingIntegrationMock);
 	}
 
 	@Test
@@ -188,15 +219,13 @@ class EmailServiceTest {
 		final var emailAddress = "someEmailAddress";
 		final var emailMessage = mock(EmailMessage.class);
 
-		when(mockEncryptionUtility.decrypt("somePassword")).thenReturn("somePassword");
-		when(ewsIntegrationMock.pageThroughEntireInbox(credentials.getUsername(), "somePassword", credentials.getDomain(), emailAddress, consumerMock))
-			.thenReturn(List.of(emailMessage));
+		when(ewsIntegrationMock.pageThroughEntireInbox(credentials, emailAddress, consumerMock)).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 
 		final var emails = emailService.getAllEmailsInInbox(credentials, emailAddress, consumerMock);
 
-		assertThat(emails).hasSize(1);
+		assertThat(emails.emails()).hasSize(1);
 
-		verify(ewsIntegrationMock).pageThroughEntireInbox(credentials.getUsername(), "somePassword", credentials.getDomain(), emailAddress, consumerMock);
+		verify(ewsIntegrationMock).pageThroughEntireInbox(credentials, emailAddress, consumerMock);
 		verifyNoMoreInteractions(ewsIntegrationMock);
 		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
 	}
@@ -206,15 +235,184 @@ class EmailServiceTest {
 		final var credentials = createCredentialsEntity();
 		final var emailAddress = "someEmailAddress";
 
-		when(mockEncryptionUtility.decrypt("somePassword")).thenThrow(new EncryptionException("someMessage"));
+		when(ewsIntegrationMock.pageThroughEntireInbox(credentials, emailAddress, consumerMock)).thenThrow(new EncryptionException("someMessage"));
 
 		final var emails = emailService.getAllEmailsInInbox(credentials, emailAddress, consumerMock);
 
-		assertThat(emails).isEmpty();
+		assertThat(emails.emails()).isEmpty();
+		assertThat(emails.lease()).isNull();
+
+		verify(consumerMock).accept("[EWS] Failed to decrypt password for credential");
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
+	}
+
+	@Test
+	void streamEmailsInInbox() {
+		final var credentials = createCredentialsEntity();
+		final var emailAddress = "someEmailAddress";
+		final var pages = EwsInboxPages.empty();
+
+		when(ewsIntegrationMock.streamInbox(credentials, emailAddress, consumerMock)).thenReturn(pages);
 
-		verify(mockEncryptionUtility).decrypt("somePassword");
-		verifyNoMoreInteractions(mockEncryptionUtility);
-		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock);
+		final var result = emailService.streamEmailsInInbox(credentials, emailAddress, consumerMock);
+
+		assertThat(result).isSameAs(pages);
+		verify(ewsIntegrationMock).streamInbox(credentials, emailAddress, consumerMock);
+		verifyNoMoreInteractions(ewsIntegrationMock);
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
+	}
+
+	@Test
+	void streamEmailsInInbox_decryptionException() {
+		final var credentials = createCredentialsEntity();
+		final var emailAddress = "someEmailAddress";
+
+		when(ewsIntegrationMock.streamInbox(credentials, emailAddress, consumerMock)).thenThrow(new EncryptionException("someMessage"));
+
+		try (final var result = emailService.streamEmailsInInbox(credentials, emailAddress, consumerMock)) {
+			assertThat(result.hasNext()).isFalse();
+		}
+
+		verify(consumerMock).accept("[EWS] Failed to decrypt password for credential");
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
+	}
+
+	@Test
+	void getEwsEmails() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var emailMessage = mock(EmailMessage.class);
+		final var itemIds = List.of(new ItemId("someId"));
+
+		when(ewsIntegrationMock.bindEmails(credentials, "someEmailAddress", itemIds, consumerMock)).thenReturn(new LeasedEmails(List.of(emailMessage), null));
+
+		final var emails = emailService.getEwsEmails(credentials, "someEmailAddress", itemIds, consumerMock);
+
+		assertThat(emails.emails()).containsExactly(emailMessage);
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
+	}
+
+	@Test
+	void getEwsEmails_decryptionException() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var itemIds = List.of(new ItemId("someId"));
+
+		when(ewsIntegrationMock.bindEmails(credentials, "someEmailAddress", itemIds, consumerMock)).thenThrow(new EncryptionException("someMessage"));
+
+		final var emails = emailService.getEwsEmails(credentials, "someEmailAddress", itemIds, consumerMock);
+
+		assertThat(emails.emails()).isEmpty();
+		verify(consumerMock).accept("[EWS] Failed to decrypt password for credential");
+	}
+
+	@Test
+	void syncEmailsInInbox() {
+		final var credential = createCredentialsEntity();
+		final var syncStateEntity = EwsSyncStateEntity.builder().withSyncState("storedSyncState").build();
+		final var inboxSync = new InboxSync(List.of(), "newSyncState");
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.of(syncStateEntity));
+		when(ewsIntegrationMock.syncInbox(credential, "someEmailAddress", "storedSyncState", consumerMock)).thenReturn(inboxSync);
+
+		final var result = emailService.syncEmailsInInbox(credential, "someEmailAddress", consumerMock);
+
+		assertThat(result).isSameAs(inboxSync);
+		verifyNoInteractions(consumerMock);
+	}
+
+	@Test
+	void syncEmailsInInbox_decryptionException() {
+		final var credential = createCredentialsEntity();
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.empty());
+		when(ewsIntegrationMock.syncInbox(credential, "someEmailAddress", null, consumerMock)).thenThrow(new EncryptionException("someMessage"));
+
+		final var result = emailService.syncEmailsInInbox(credential, "someEmailAddress", consumerMock);
+
+		assertThat(result.emails()).isEmpty();
+		assertThat(result.syncState()).isNull();
+		verify(consumerMock).accept("[EWS] Failed to decrypt password for credential");
+	}
+
+	@Test
+	void syncEmailsInInbox_withPendingEmails() throws Exception {
+		final var credential = createCredentialsEntity();
+		final var pendingMessage = mock(EmailMessage.class);
+		final var syncedPendingMessage = mock(EmailMessage.class);
+		final var newMessage = mock(EmailMessage.class);
+		final var lease = mock(ExchangeServicePool.Lease.class);
+		when(syncedPendingMessage.getId()).thenReturn(new ItemId("somePendingId"));
+		when(newMessage.getId()).thenReturn(new ItemId("someNewId"));
+		final var syncStateEntity = EwsSyncStateEntity.builder()
+			.withSyncState("storedSyncState")
+			.withPendingItemIds(Set.of("somePendingId", "someRemovedId"))
+			.build();
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.of(syncStateEntity));
+		when(ewsIntegrationMock.syncInbox(credential, "someEmailAddress", "storedSyncState", consumerMock)).thenReturn(new InboxSync(List.of(syncedPendingMessage, newMessage), "newSyncState", lease));
+		when(ewsIntegrationMock.bindEmailsOrThrow(eq(lease), eq("someEmailAddress"), any(), eq(consumerMock))).thenReturn(List.of(pendingMessage));
+
+		final var result = emailService.syncEmailsInInbox(credential, "someEmailAddress", consumerMock);
+
+		assertThat(result.emails()).containsExactly(pendingMessage, newMessage);
+		assertThat(result.syncState()).isEqualTo("newSyncState");
+		assertThat(result.lease()).isSameAs(lease);
+		verify(ewsIntegrationMock).bindEmailsOrThrow(eq(lease), eq("someEmailAddress"), itemIdsCaptor.capture(), eq(consumerMock));
+		assertThat(itemIdsCaptor.getValue()).extracting(ItemId::getUniqueId).containsExactlyInAnyOrder("somePendingId", "someRemovedId");
+		verifyNoInteractions(consumerMock, lease);
+	}
+
+	@Test
+	void syncEmailsInInbox_bindingPendingEmailsFails() throws Exception {
+		final var credential = createCredentialsEntity();
+		final var lease = mock(ExchangeServicePool.Lease.class);
+		final var syncStateEntity = EwsSyncStateEntity.builder()
+			.withSyncState("storedSyncState")
+			.withPendingItemIds(Set.of("somePendingId"))
+			.build();
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.of(syncStateEntity));
+		when(ewsIntegrationMock.syncInbox(credential, "someEmailAddress", "storedSyncState", consumerMock)).thenReturn(new InboxSync(List.of(mock(EmailMessage.class)), "newSyncState", lease));
+		when(ewsIntegrationMock.bindEmailsOrThrow(eq(lease), eq("someEmailAddress"), any(), eq(consumerMock))).thenThrow(new IllegalStateException("someMessage"));
+
+		final var result = emailService.syncEmailsInInbox(credential, "someEmailAddress", consumerMock);
+
+		assertThat(result.emails()).isEmpty();
+		assertThat(result.syncState()).isNull();
+		assertThat(result.lease()).isNull();
+		verify(lease).close();
+		verify(consumerMock).accept("[EWS] Failed to bind pending emails, address: someEmailAddress");
+	}
+
+	@Test
+	void saveSyncState_createsNewState() {
+		final var credential = createCredentialsEntity();
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.empty());
+
+		emailService.saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of("somePendingId"));
+
+		verify(ewsSyncStateRepositoryMock).save(syncStateCaptor.capture());
+		assertThat(syncStateCaptor.getValue()).satisfies(entity -> {
+			assertThat(entity.getCredentialsId()).isEqualTo(credential.getId());
+			assertThat(entity.getEmailAddress()).isEqualTo("someEmailAddress");
+			assertThat(entity.getSyncState()).isEqualTo("newSyncState");
+			assertThat(entity.getPendingItemIds()).containsExactly("somePendingId");
+		});
+	}
+
+	@Test
+	void saveSyncState_updatesExistingState() {
+		final var credential = createCredentialsEntity();
+		final var syncStateEntity = EwsSyncStateEntity.builder().withId("someId").withSyncState("storedSyncState").build();
+		when(ewsSyncStateRepositoryMock.findByCredentialsIdAndEmailAddress(credential.getId(), "someEmailAddress")).thenReturn(Optional.of(syncStateEntity));
+
+		emailService.saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of("somePendingId"));
+
+		verify(ewsSyncStateRepositoryMock).save(syncStateEntity);
+		assertThat(syncStateEntity.getSyncState()).isEqualTo("newSyncState");
+		assertThat(syncStateEntity.getPendingItemIds()).containsExactly("somePendingId");
+	}
+
+	@Test
+	void saveSyncState_withoutSyncState_doesNothing() {
+		emailService.saveSyncState(createCredentialsEntity(), "someEmailAddress", null, Set.of());
+
+		verifyNoInteractions(ewsSyncStateRepositoryMock);
 	}
 
 	@Test
@@ -230,7 +428,7 @@ class EmailServiceTest {
 
 		verify(emailRepositoryMock).findAll();
 		verifyNoMoreInteractions(emailRepositoryMock);
-		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, messagingIntegrationMock);
 	}
 
 	@Test
@@ -251,59 +449,83 @@ class EmailServiceTest {
 			"EmailReader has detected unhandled emails with the following IDs: [Test!]",
 			"[Warning] EmailReader has detected unhandled emails");
 		verifyNoMoreInteractions(messagingIntegrationMock);
-		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock);
 	}
 
 	@Test
-	void loadEwsEmail_returnsEmptyWhenMappingFails() throws Exception {
+	void loadEwsEmails_skipsEmailWhenMappingReturnsNull() throws Exception {
 		final var emailMessageMock = mock(EmailMessage.class);
 		final var credentials = createCredentialsEntity();
 
 		when(emailMessageMock.getId()).thenReturn(new ItemId("ews-id"));
-		when(ewsIntegrationMock.loadMessage(emailMessageMock, consumerMock)).thenReturn(emailMessageMock);
-		when(ewsMapperMock.toEmail(any(), any(), any(), any())).thenReturn(null);
+		when(ewsIntegrationMock.loadMessages(List.of(emailMessageMock), consumerMock)).thenReturn(List.of(new LoadedEmailMessage(emailMessageMock, "text-body", "html-body")));
+		when(ewsIntegrationMock.loadAttachments(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(ewsMapperMock.toEmail(any(), any(), any(), any(), any())).thenReturn(null);
 
-		final var result = emailService.loadEwsEmail(emailMessageMock, credentials, consumerMock);
+		final var result = emailService.loadEwsEmails(List.of(emailMessageMock), credentials, consumerMock);
 
 		assertThat(result).isEmpty();
-		verify(ewsIntegrationMock).loadMessage(emailMessageMock, consumerMock);
+		verify(ewsIntegrationMock).loadMessages(List.of(emailMessageMock), consumerMock);
+		verify(ewsIntegrationMock).loadAttachments(any());
 		verifyNoMoreInteractions(ewsIntegrationMock);
-		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, mockEncryptionUtility);
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
 	}
 
 	@Test
-	void loadEwsEmail_returnsEmptyWhenHtmlMessageMissing() throws Exception {
+	void loadEwsEmails_mappingThrows_continuesWithNextEmail() throws Exception {
 		final var emailMessageMock = mock(EmailMessage.class);
+		final var otherEmailMessageMock = mock(EmailMessage.class);
 		final var emailEntity = createEmailEntity(emptyMap());
 		final var credentials = createCredentialsEntity();
 
-		when(emailMessageMock.getId()).thenReturn(new ItemId("ews-id"));
-		when(ewsIntegrationMock.loadMessage(emailMessageMock, consumerMock)).thenReturn(emailMessageMock);
-		when(ewsMapperMock.toEmail(any(), any(), any(), any())).thenReturn(emailEntity);
-		when(ewsIntegrationMock.loadHTMLMessage(emailMessageMock, consumerMock)).thenReturn(null);
+		final var loadedMessage = new LoadedEmailMessage(emailMessageMock, "text-body", "html-body");
+		final var otherLoadedMessage = new LoadedEmailMessage(otherEmailMessageMock, "other-text-body", "other-html-body");
 
-		final var result = emailService.loadEwsEmail(emailMessageMock, credentials, consumerMock);
+		when(ewsIntegrationMock.loadMessages(List.of(emailMessageMock, otherEmailMessageMock), consumerMock)).thenReturn(List.of(loadedMessage, otherLoadedMessage));
+		when(ewsIntegrationMock.loadAttachments(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(ewsMapperMock.toEmail(eq(loadedMessage), any(), any(), any(), any())).thenThrow(new ServiceLocalException("someMessage"));
+		when(ewsMapperMock.toEmail(eq(otherLoadedMessage), any(), any(), any(), any())).thenReturn(emailEntity);
 
-		assertThat(result).isEmpty();
-		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, mockEncryptionUtility);
+		final var result = emailService.loadEwsEmails(List.of(emailMessageMock, otherEmailMessageMock), credentials, consumerMock);
+
+		assertThat(result).containsExactly(emailEntity);
+		verify(consumerMock).accept("[EWS] Failed to map email");
 	}
 
 	@Test
-	void loadEwsEmail_returnsEntityOnHappyPath() throws Exception {
+	void loadEwsEmails_returnsEntitiesOnHappyPath() throws Exception {
 		final var emailMessageMock = mock(EmailMessage.class);
 		final var emailEntity = createEmailEntity(emptyMap());
 		final var credentials = createCredentialsEntity();
 
-		when(ewsIntegrationMock.loadMessage(emailMessageMock, consumerMock)).thenReturn(emailMessageMock);
-		when(ewsIntegrationMock.loadHTMLMessage(emailMessageMock, consumerMock)).thenReturn(emailMessageMock);
-		when(emailMessageMock.getBody()).thenReturn(new MessageBody("html-body"));
-		when(ewsMapperMock.toEmail(any(), any(), any(), any())).thenReturn(emailEntity);
+		final var loadedMessage = new LoadedEmailMessage(emailMessageMock, "text-body", "html-body");
 
-		final var result = emailService.loadEwsEmail(emailMessageMock, credentials, consumerMock);
+		when(ewsIntegrationMock.loadMessages(List.of(emailMessageMock), consumerMock)).thenReturn(List.of(loadedMessage));
+		when(ewsIntegrationMock.loadAttachments(List.of(loadedMessage))).thenReturn(List.of(loadedMessage));
+		when(ewsMapperMock.toEmail(loadedMessage, credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata(), null)).thenReturn(emailEntity);
 
-		assertThat(result).contains(emailEntity);
-		assertThat(emailEntity.getHtmlMessage()).isEqualTo("html-body");
-		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, mockEncryptionUtility);
+		final var result = emailService.loadEwsEmails(List.of(emailMessageMock), credentials, consumerMock);
+
+		assertThat(result).containsExactly(emailEntity);
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, consumerMock);
+	}
+
+	@Test
+	void loadEwsEmails_lazyAttachments_mapsAttachmentsAsReferences() throws Exception {
+		final var emailMessageMock = mock(EmailMessage.class);
+		final var emailEntity = createEmailEntity(emptyMap());
+		final var credentials = createCredentialsEntity();
+		credentials.setLazyAttachments(true);
+
+		final var loadedMessage = new LoadedEmailMessage(emailMessageMock, "text-body", "html-body");
+
+		when(ewsIntegrationMock.loadMessages(List.of(emailMessageMock), consumerMock)).thenReturn(List.of(loadedMessage));
+		when(ewsMapperMock.toEmail(loadedMessage, credentials.getMunicipalityId(), credentials.getNamespace(), credentials.getMetadata(), credentials.getId())).thenReturn(emailEntity);
+
+		final var result = emailService.loadEwsEmails(List.of(emailMessageMock), credentials, consumerMock);
+
+		assertThat(result).containsExactly(emailEntity);
+		verify(ewsIntegrationMock, never()).loadAttachments(any());
 	}
 
 	@Test
@@ -320,9 +542,23 @@ class EmailServiceTest {
 		assertThat(emailEntity.getId()).isEqualTo("someId");
 		verify(emailRepositoryMock).findByOriginalIdAndMunicipalityIdAndNamespace(emailEntity.getOriginalId(), emailEntity.getMunicipalityId(), emailEntity.getNamespace());
 		verify(emailRepositoryMock).saveAndFlush(emailEntity);
+		verify(blobBuilderMock).free(emailEntity.getAttachments().getFirst().getContent());
 		verifyNoMoreInteractions(emailRepositoryMock);
 	}
 
+	@Test
+	void saveEmail_fails_freesAttachmentContent() {
+		final var emailEntity = createEmailEntity(emptyMap());
+
+		when(emailRepositoryMock.findByOriginalIdAndMunicipalityIdAndNamespace(emailEntity.getOriginalId(), emailEntity.getMunicipalityId(), emailEntity.getNamespace()))
+			.thenReturn(Optional.empty());
+		when(emailRepositoryMock.saveAndFlush(emailEntity)).thenThrow(new RuntimeException("DB constraint violation"));
+
+		assertThatThrownBy(() -> emailService.saveEmail(emailEntity)).hasMessage("DB constraint violation");
+
+		verify(blobBuilderMock).free(emailEntity.getAttachments().getFirst().getContent());
+	}
+
 	@Test
 	void saveEmail_idempotent_setsIdFromExistingAndUpdates() {
 		final var incoming = createEmailEntity(emptyMap());
@@ -358,7 +594,7 @@ class EmailServiceTest {
 		assertThat(emailRepository.findByMunicipalityIdAndNamespace("municipality_id-1", "namespace-1")).isEmpty();
 
 		// Arrange
-		final var service = new EmailService(emailRepository, credentialsRepository, messagingIntegrationMock, ewsIntegrationMock, mockEncryptionUtility, mockAttachmentRepository, ewsMapperMock);
+		final var service = new EmailService(emailRepository, credentialsRepository, messagingIntegrationMock, ewsIntegrationMock, mockAttachmentRepository, ewsMapperMock, ewsSyncStateRepositoryMock, blobBuilderMock);
 		final var originalId = UUID.randomUUID().toString();
 
 		final var first = createEmailEntity(emptyMap());
@@ -396,11 +632,44 @@ class EmailServiceTest {
 	}
 
 	@Test
-	void moveEwsEmail_delegatesToIntegration() throws Exception {
-		emailService.moveEwsEmail("originalId-xyz", "user@example.com", "destFolder");
-		verify(ewsIntegrationMock).moveEmail(ItemId.getItemIdFromString("originalId-xyz"), "user@example.com", "destFolder");
-		verifyNoMoreInteractions(ewsIntegrationMock);
-		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock, mockEncryptionUtility);
+	void moveEwsEmails_delegatesToIntegration() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var moveResult = new MoveResult(Map.of("originalId-xyz", "movedId-xyz"), Map.of("originalId-abc", "ErrorMoveCopyFailed: someMessage"));
+		when(ewsIntegrationMock.markAsReadAndMoveEmails(credentials, List.of(ItemId.getItemIdFromString("originalId-xyz"), ItemId.getItemIdFromString("originalId-abc")),
+			"user@example.com", credentials.getDestinationFolder())).thenReturn(moveResult);
+
+		final var result = emailService.moveEwsEmails(credentials, List.of("originalId-xyz", "originalId-abc"), "user@example.com");
+
+		assertThat(result).isEqualTo(moveResult);
+		verifyNoInteractions(emailRepositoryMock, credentialsRepositoryMock, messagingIntegrationMock);
+	}
+
+	@Test
+	void findMovedEwsEmails() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var withMessageId = EmailEntity.builder()
+			.withOriginalId("originalId-xyz")
+			.withHeaders(List.of(
+				EmailHeaderEntity.builder().withHeader(Header.IN_REPLY_TO).withValues(List.of("<reply@sundsvall.se>")).build(),
+				EmailHeaderEntity.builder().withHeader(Header.MESSAGE_ID).withValues(List.of("<message@sundsvall.se>")).build()))
+			.build();
+		final var withoutHeaders = EmailEntity.builder()
+			.withOriginalId("originalId-abc")
+			.build();
+		when(ewsIntegrationMock.findItemIds(credentials, "user@example.com", credentials.getDestinationFolder(), Map.of("originalId-xyz", "<message@sundsvall.se>")))
+			.thenReturn(Map.of("originalId-xyz", "movedId-xyz"));
+
+		final var result = emailService.findMovedEwsEmails(credentials, List.of(withMessageId, withoutHeaders), "user@example.com");
+
+		assertThat(result).containsExactly(entry("originalId-xyz", "movedId-xyz"));
+		verifyNoInteractions(emailRepositoryMock, mockAttachmentRepository);
+	}
+
+	@Test
+	void updateAttachmentSourceItemIds() {
+		emailService.updateAttachmentSourceItemIds(Map.of("originalId-xyz", "movedId-xyz"));
+
+		verify(mockAttachmentRepository).updateSourceItemId("originalId-xyz", "movedId-xyz");
 	}
 
 	@Test
@@ -410,14 +679,14 @@ class EmailServiceTest {
 	}
 
 	@Test
-	void loadEwsEmail_isNotTransactional() throws Exception {
-		final var method = EmailService.class.getDeclaredMethod("loadEwsEmail", EmailMessage.class, CredentialsEntity.class, Consumer.class);
+	void loadEwsEmails_isNotTransactional() throws Exception {
+		final var method = EmailService.class.getDeclaredMethod("loadEwsEmails", List.class, CredentialsEntity.class, Consumer.class);
 		assertThat(method.getAnnotation(Transactional.class)).isNull();
 	}
 
 	@Test
-	void moveEwsEmail_isNotTransactional() throws Exception {
-		final var method = EmailService.class.getDeclaredMethod("moveEwsEmail", String.class, String.class, String.class);
+	void moveEwsEmails_isNotTransactional() throws Exception {
+		final var method = EmailService.class.getDeclaredMethod("moveEwsEmails", CredentialsEntity.class, List.class, String.class);
 		assertThat(method.getAnnotation(Transactional.class)).isNull();
 	}
 
@@ -473,4 +742,70 @@ class EmailServiceTest {
 		verifyNoMoreInteractions(mockAttachmentRepository, messageAttachmentEntityMock);
 		verifyNoInteractions(blobMock, servletOutputStreamMock);
 	}
+
+	@Test
+	void getMessageAttachmentStreamed_withoutContent_fetchesFromMailbox() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var content = "content";
+		final var attachmentEntity = AttachmentEntity.builder()
+			.withId(12L)
+			.withName("fileName")
+			.withContentType("contentType")
+			.withSourceCredentialsId(credentials.getId())
+			.withSize(7L)
+			.withSourceItemId("someItemId")
+			.withSourceAttachmentId("someAttachmentId")
+			.build();
+		when(mockAttachmentRepository.findById(12L)).thenReturn(Optional.of(attachmentEntity));
+		when(credentialsRepositoryMock.findById(credentials.getId())).thenReturn(Optional.of(credentials));
+		doAnswer(invocation -> {
+			invocation.<OutputStream>getArgument(5).write(content.getBytes(UTF_8));
+			return null;
+		}).when(ewsIntegrationMock).loadAttachment(eq(credentials), eq("someItemId"), eq("someAttachmentId"), eq("fileName"), eq(7L), any());
+		when(blobBuilderMock.createBlob(any(InputStream.class), eq((long) content.length()))).thenReturn(blobMock);
+		when(servletResponseMock.getOutputStream()).thenReturn(servletOutputStreamMock);
+
+		emailService.getMessageAttachmentStreamed(12L, servletResponseMock);
+
+		assertThat(attachmentEntity.getContent()).isSameAs(blobMock);
+		assertThat(attachmentEntity.getSize()).isEqualTo((long) content.length());
+		verify(mockAttachmentRepository).saveAndFlush(attachmentEntity);
+		verify(servletResponseMock).addHeader(CONTENT_TYPE, "contentType");
+		verify(servletResponseMock).addHeader(CONTENT_DISPOSITION, "attachment; filename=\"fileName\"");
+		verify(servletResponseMock).setContentLengthLong(content.length());
+		verify(servletOutputStreamMock).write(any(byte[].class), eq(0), eq(content.length()));
+	}
+
+	@Test
+	void getMessageAttachmentStreamed_withoutContent_mailboxFails() throws Exception {
+		final var credentials = createCredentialsEntity();
+		final var attachmentEntity = AttachmentEntity.builder()
+			.withId(12L)
+			.withSourceCredentialsId(credentials.getId())
+			.withName("fileName")
+			.withSourceItemId("someItemId")
+			.withSourceAttachmentId("someAttachmentId")
+			.build();
+		when(mockAttachmentRepository.findById(12L)).thenReturn(Optional.of(attachmentEntity));
+		when(credentialsRepositoryMock.findById(credentials.getId())).thenReturn(Optional.of(credentials));
+		doThrow(new IllegalStateException("someMessage")).when(ewsIntegrationMock).loadAttachment(eq(credentials), eq("someItemId"), eq("someAttachmentId"), eq("fileName"), isNull(), any());
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> emailService.getMessageAttachmentStreamed(12L, servletResponseMock))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(BAD_GATEWAY));
+
+		verify(mockAttachmentRepository, never()).saveAndFlush(any());
+		verifyNoInteractions(servletResponseMock, blobBuilderMock);
+	}
+
+	@Test
+	void getMessageAttachmentStreamed_withoutContentOrSource() {
+		when(mockAttachmentRepository.findById(12L)).thenReturn(Optional.of(AttachmentEntity.builder().withId(12L).build()));
+
+		assertThatExceptionOfType(ThrowableProblem.class)
+			.isThrownBy(() -> emailService.getMessageAttachmentStreamed(12L, servletResponseMock))
+			.satisfies(problem -> assertThat(problem.getStatus()).isEqualTo(NOT_FOUND));
+
+		verifyNoInteractions(credentialsRepositoryMock, ewsIntegrationMock, servletResponseMock);
+	}
 }
@@ -10,7 +10,10 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import se.sundsvall.dept44.problem.Problem;
 import se.sundsvall.emailreader.api.model.GraphCredentials;
 import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphDeltaLinkRepository;
+import se.sundsvall.emailreader.integration.db.GraphSubscriptionRepository;
 import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.graph.GraphServiceClientPool;
 import se.sundsvall.emailreader.utility.EncryptionUtility;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -32,6 +35,15 @@ class GraphCredentialsServiceTest {
 	@Mock
 	private EncryptionUtility encryptionUtility;
 
+	@Mock
+	private GraphServiceClientPool graphServiceClientPool;
+
+	@Mock
+	private GraphDeltaLinkRepository graphDeltaLinkRepository;
+
+	@Mock
+	private GraphSubscriptionRepository graphSubscriptionRepository;
+
 	@InjectMocks
 	private GraphCredentialsService service;
 
@@ -110,7 +122,8 @@ class GraphCredentialsServiceTest {
 		verify(graphCredentialsRepository).findByMunicipalityIdAndId(municipalityId, id);
 		verify(graphCredentialsRepository).save(any(GraphCredentialsEntity.class));
 		verify(encryptionUtility, times(3)).encrypt(any(byte[].class));
-		verifyNoMoreInteractions(graphCredentialsRepository, encryptionUtility);
+		verify(graphServiceClientPool).invalidate(id);
+		verifyNoMoreInteractions(graphCredentialsRepository, encryptionUtility, graphServiceClientPool);
 
 	}
 
@@ -130,7 +143,7 @@ class GraphCredentialsServiceTest {
 
 		verify(graphCredentialsRepository).findByMunicipalityIdAndId(municipalityId, id);
 		verify(graphCredentialsRepository, never()).save(any(GraphCredentialsEntity.class));
-		verifyNoInteractions(encryptionUtility);
+		verifyNoInteractions(encryptionUtility, graphServiceClientPool, graphDeltaLinkRepository);
 		verifyNoMoreInteractions(graphCredentialsRepository);
 	}
 
@@ -148,8 +161,11 @@ class GraphCredentialsServiceTest {
 		// Assert
 		verify(graphCredentialsRepository).findByMunicipalityIdAndId(municipalityId, id);
 		verify(graphCredentialsRepository).delete(entity);
+		verify(graphDeltaLinkRepository).deleteByGraphCredentialsId(id);
+		verify(graphSubscriptionRepository).deleteByGraphCredentialsId(id);
+		verify(graphServiceClientPool).invalidate(id);
 		verifyNoInteractions(encryptionUtility);
-		verifyNoMoreInteractions(graphCredentialsRepository);
+		verifyNoMoreInteractions(graphCredentialsRepository, graphDeltaLinkRepository, graphSubscriptionRepository);
 	}
 
 	@Test
@@ -166,7 +182,7 @@ class GraphCredentialsServiceTest {
 
 		verify(graphCredentialsRepository).findByMunicipalityIdAndId(municipalityId, id);
 		verify(graphCredentialsRepository, never()).delete(any(GraphCredentialsEntity.class));
-		verifyNoInteractions(encryptionUtility);
+		verifyNoInteractions(encryptionUtility, graphServiceClientPool, graphDeltaLinkRepository, graphSubscriptionRepository);
 		verifyNoMoreInteractions(graphCredentialsRepository);
 	}
 
@@ -1,13 +1,16 @@
 package se.sundsvall.emailreader.service.scheduler;
 
 import generated.se.sundsvall.messaging.SmsRequest;
+import java.util.ArrayDeque;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
 import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
 import microsoft.exchange.webservices.data.property.complex.EmailAddress;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
 import microsoft.exchange.webservices.data.property.complex.MessageBody;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
@@ -15,17 +18,26 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import se.sundsvall.dept44.scheduling.health.Dept44HealthUtility;
 import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.InboxSync;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.LeasedEmails;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration.MoveResult;
+import se.sundsvall.emailreader.integration.ews.EwsInboxPages;
+import se.sundsvall.emailreader.integration.ews.ExchangeServicePool;
 import se.sundsvall.emailreader.integration.messaging.MessagingIntegration;
 import se.sundsvall.emailreader.service.EmailService;
 
 import static java.util.Collections.emptyMap;
+import static java.util.Collections.nCopies;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -33,6 +45,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
 import static se.sundsvall.emailreader.TestUtility.createEmailEntity;
 
@@ -58,9 +71,17 @@ class EwsSchedulerTest {
 	@Captor
 	private ArgumentCaptor<MessageBody> messageBodyCaptor;
 
+	@Captor
+	private ArgumentCaptor<List<EmailMessage>> pageCaptor;
+
 	@InjectMocks
 	private EwsScheduler ewsScheduler;
 
+	@BeforeEach
+	void setUp() throws Exception {
+		lenient().when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(emptyMap(), emptyMap()));
+	}
+
 	@Test
 	void checkForNewEmails() throws Exception {
 		// Arrange
@@ -70,8 +91,8 @@ class EwsSchedulerTest {
 		final var email = createEmailEntity(emptyMap());
 
 		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq(emailAddresses), any())).thenReturn(List.of(emailMessage));
-		when(emailServiceMock.loadEwsEmail(eq(emailMessage), eq(credential), any())).thenReturn(Optional.of(email));
+		when(emailServiceMock.streamEmailsInInbox(eq(credential), eq(emailAddresses), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any())).thenReturn(List.of(email));
 		when(emailServiceMock.saveEmail(email)).thenReturn(email);
 
 		// Act
@@ -79,10 +100,10 @@ class EwsSchedulerTest {
 
 		// Assert
 		verify(emailServiceMock).findAllByActionAndActive("PERSIST");
-		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq(emailAddresses), any());
-		verify(emailServiceMock).loadEwsEmail(eq(emailMessage), eq(credential), any());
+		verify(emailServiceMock).streamEmailsInInbox(eq(credential), eq(emailAddresses), any());
+		verify(emailServiceMock).loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any());
 		verify(emailServiceMock).saveEmail(email);
-		verify(emailServiceMock).moveEwsEmail(email.getOriginalId(), emailAddresses, credential.getDestinationFolder());
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email.getOriginalId()), emailAddresses);
 		verifyNoMoreInteractions(emailServiceMock);
 	}
 
@@ -102,29 +123,59 @@ class EwsSchedulerTest {
 		final var credential = createCredentialsEntity();
 
 		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(any(), any(), any())).thenReturn(List.of(emailMessage));
-		when(emailServiceMock.loadEwsEmail(any(), any(), any())).thenReturn(Optional.empty());
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of());
 
 		ewsScheduler.checkForNewEmails();
 
-		verify(emailServiceMock).loadEwsEmail(any(), any(), any());
+		verify(emailServiceMock).loadEwsEmails(any(), any(), any());
 		verify(emailServiceMock, never()).saveEmail(any());
-		verify(emailServiceMock, never()).moveEwsEmail(any(), any(), any());
+		verify(emailServiceMock, never()).moveEwsEmails(any(), any(), any());
+	}
+
+	@Test
+	void checkForNewEmails_loadsEmailsInPages() throws Exception {
+		final var emailMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var credential = createCredentialsEntity();
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(nCopies(120, emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of());
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock, times(3)).loadEwsEmails(pageCaptor.capture(), eq(credential), any());
+		assertThat(pageCaptor.getAllValues()).extracting(List::size).containsExactly(50, 50, 20);
 	}
 
 	@Test
-	void checkForNewEmails_loadThrows_continuesToNextEmail() throws Exception {
-		final var emailMessage1 = mock(EmailMessage.class);
-		final var emailMessage2 = mock(EmailMessage.class);
+	void checkForNewEmails_handlesEachFetchedPage() throws Exception {
+		final var firstMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var secondMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var credential = createCredentialsEntity();
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(firstMessage), List.of(secondMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of());
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock, times(2)).loadEwsEmails(pageCaptor.capture(), eq(credential), any());
+		assertThat(pageCaptor.getAllValues()).containsExactly(List.of(firstMessage), List.of(secondMessage));
+	}
+
+	@Test
+	void checkForNewEmails_loadThrows_continuesToNextPage() throws Exception {
+		final var emailMessage = mock(EmailMessage.class, withSettings().stubOnly());
 		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(createCredentialsEntity()));
-		when(emailServiceMock.getAllEmailsInInbox(any(), any(), any())).thenReturn(List.of(emailMessage1, emailMessage2));
-		when(emailServiceMock.loadEwsEmail(any(), any(), any())).thenThrow(new RuntimeException("EWS unavailable"));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(nCopies(51, emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenThrow(new RuntimeException("EWS unavailable"));
 
 		ewsScheduler.checkForNewEmails();
 
-		verify(emailServiceMock, times(2)).loadEwsEmail(any(), any(), any());
+		verify(emailServiceMock, times(2)).loadEwsEmails(any(), any(), any());
 		verify(emailServiceMock, never()).saveEmail(any());
-		verify(emailServiceMock, never()).moveEwsEmail(any(), any(), any());
+		verify(emailServiceMock, never()).moveEwsEmails(any(), any(), any());
 	}
 
 	@Test
@@ -134,14 +185,14 @@ class EwsSchedulerTest {
 		final var email = createEmailEntity(emptyMap());
 
 		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(any(), any(), any())).thenReturn(List.of(emailMessage));
-		when(emailServiceMock.loadEwsEmail(any(), any(), any())).thenReturn(Optional.of(email));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
 		when(emailServiceMock.saveEmail(email)).thenThrow(new RuntimeException("DB constraint violation"));
 
 		ewsScheduler.checkForNewEmails();
 
 		verify(emailServiceMock).saveEmail(email);
-		verify(emailServiceMock, never()).moveEwsEmail(any(), any(), any());
+		verify(emailServiceMock, never()).moveEwsEmails(any(), any(), any());
 	}
 
 	@Test
@@ -151,15 +202,332 @@ class EwsSchedulerTest {
 		final var email = createEmailEntity(emptyMap());
 
 		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(any(), any(), any())).thenReturn(List.of(emailMessage));
-		when(emailServiceMock.loadEwsEmail(any(), any(), any())).thenReturn(Optional.of(email));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
 		when(emailServiceMock.saveEmail(email)).thenReturn(email);
-		doThrow(new RuntimeException("EWS move failed")).when(emailServiceMock).moveEwsEmail(any(), any(), any());
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(emptyMap(), Map.of(email.getOriginalId(), "ErrorMoveCopyFailed: someMessage")));
 
 		ewsScheduler.checkForNewEmails();
 
 		verify(emailServiceMock).saveEmail(email);
-		verify(emailServiceMock).moveEwsEmail(eq(email.getOriginalId()), any(), any());
+		verify(emailServiceMock).moveEwsEmails(any(), eq(List.of(email.getOriginalId())), any());
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(null, "Email error: Failed to move email for someEmailAddress");
+	}
+
+	@Test
+	void checkForNewEmails_lazyAttachments_updatesAttachmentSources() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		credential.setLazyAttachments(true);
+		final var email = createEmailEntity(emptyMap());
+		final var movedIds = Map.of(email.getOriginalId(), "someMovedId");
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(movedIds, emptyMap()));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).updateAttachmentSourceItemIds(movedIds);
+		verifyNoInteractions(dept44HealthUtilityMock);
+	}
+
+	@Test
+	void checkForNewEmails_lazyAttachments_movedWithoutNewId_findsMovedEmail() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		credential.setLazyAttachments(true);
+		final var email = createEmailEntity(emptyMap());
+		final var movedIds = Map.of(email.getOriginalId(), "someMovedId");
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(emptyMap(), emptyMap()));
+		when(emailServiceMock.findMovedEwsEmails(credential, List.of(email), "someEmailAddress")).thenReturn(movedIds);
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).updateAttachmentSourceItemIds(movedIds);
+		verifyNoInteractions(dept44HealthUtilityMock);
+	}
+
+	@Test
+	void checkForNewEmails_lazyAttachments_movedEmailNotFound_reportsUnhealthy() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		credential.setLazyAttachments(true);
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(emptyMap(), emptyMap()));
+		when(emailServiceMock.findMovedEwsEmails(credential, List.of(email), "someEmailAddress")).thenReturn(emptyMap());
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock, never()).updateAttachmentSourceItemIds(any());
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(null, "Email error: Failed to update attachment sources for someEmailAddress");
+	}
+
+	@Test
+	void checkForNewEmails_eagerAttachments_leavesAttachmentSources() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenReturn(new MoveResult(Map.of(email.getOriginalId(), "someMovedId"), emptyMap()));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock, never()).updateAttachmentSourceItemIds(any());
+	}
+
+	@Test
+	void checkForNewEmails_moveThrows_reportsEveryPersistedEmail() throws Exception {
+		final var emailMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var credential = createCredentialsEntity();
+		final var email1 = createEmailEntity(emptyMap());
+		final var email2 = createEmailEntity(emptyMap());
+		email2.setOriginalId("someOtherOriginalId");
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage, emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email1, email2));
+		when(emailServiceMock.saveEmail(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenThrow(new RuntimeException("Destination folder not found"));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email1.getOriginalId(), "someOtherOriginalId"), "someEmailAddress");
+		verify(dept44HealthUtilityMock, times(2)).setHealthIndicatorUnhealthy(null, "Email error: Failed to move email for someEmailAddress");
+	}
+
+	@Test
+	void checkForNewEmails_movesPersistedEmailsOfPageInOneCall() throws Exception {
+		final var emailMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var credential = createCredentialsEntity();
+		final var email1 = createEmailEntity(emptyMap());
+		final var email2 = createEmailEntity(emptyMap());
+		email2.setOriginalId("someOtherOriginalId");
+		final var email3 = createEmailEntity(emptyMap());
+		email3.setOriginalId("failingOriginalId");
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage, emailMessage, emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email1, email2, email3));
+		when(emailServiceMock.saveEmail(email1)).thenReturn(email1);
+		when(emailServiceMock.saveEmail(email2)).thenReturn(email2);
+		when(emailServiceMock.saveEmail(email3)).thenThrow(new RuntimeException("DB constraint violation"));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email1.getOriginalId(), "someOtherOriginalId"), "someEmailAddress");
+	}
+
+	@Test
+	void checkForNewEmails_mailboxThrows_continuesToNextMailbox() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		credential.setEmailAddress(List.of("failingAddress", "someEmailAddress"));
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(eq(credential), eq("failingAddress"), any())).thenThrow(new RuntimeException("Exchange unavailable"));
+		when(emailServiceMock.streamEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).saveEmail(email);
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email.getOriginalId()), "someEmailAddress");
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(null, "Email error: Failed to process mailbox failingAddress");
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "incrementalSyncEnabled", true);
+		final var emailMessage = emailMessage("someOriginalId");
+		final var credential = createCredentialsEntity();
+		final var email = createEmailEntity(emptyMap());
+		final var lease = mock(ExchangeServicePool.Lease.class);
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.syncEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new InboxSync(List.of(emailMessage), "newSyncState", lease));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+
+		ewsScheduler.checkForNewEmails();
+
+		final var inOrder = inOrder(emailServiceMock, lease);
+		inOrder.verify(emailServiceMock).loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any());
+		inOrder.verify(lease).close();
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email.getOriginalId()), "someEmailAddress");
+		verify(emailServiceMock).saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of());
+		verify(emailServiceMock, never()).streamEmailsInInbox(any(), any(), any());
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_moveFailed_storesSyncStateWithPendingEmail() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "incrementalSyncEnabled", true);
+		final var emailMessage = emailMessage("someOriginalId");
+		final var credential = createCredentialsEntity();
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.syncEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new InboxSync(List.of(emailMessage), "newSyncState"));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+		when(emailServiceMock.moveEwsEmails(any(), any(), any())).thenThrow(new RuntimeException("EWS move failed"));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of("someOriginalId"));
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(null, "Email error: Failed to move email for someEmailAddress");
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_emailNotLoaded_storesSyncStateWithPendingEmail() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "incrementalSyncEnabled", true);
+		final var loadedMessage = emailMessage("someOriginalId");
+		final var unloadableMessage = emailMessage("someUnloadableId");
+		final var credential = createCredentialsEntity();
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.syncEmailsInInbox(eq(credential), eq("someEmailAddress"), any()))
+			.thenReturn(new InboxSync(List.of(loadedMessage, unloadableMessage), "newSyncState"));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(loadedMessage, unloadableMessage)), eq(credential), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).saveEmail(email);
+		verify(emailServiceMock).saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of("someUnloadableId"));
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_loadThrows_storesSyncStateWithPendingEmails() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "incrementalSyncEnabled", true);
+		final var emailMessage = emailMessage("someOriginalId");
+		final var credential = createCredentialsEntity();
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.syncEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new InboxSync(List.of(emailMessage), "newSyncState"));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenThrow(new RuntimeException("someMessage"));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock, never()).saveEmail(any());
+		verify(emailServiceMock).saveSyncState(credential, "someEmailAddress", "newSyncState", Set.of("someOriginalId"));
+	}
+
+	@Test
+	void checkForNewEmails_parallel() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "parallelEnabled", true);
+		ReflectionTestUtils.setField(ewsScheduler, "maxConcurrency", 2);
+		ReflectionTestUtils.setField(ewsScheduler, "maxConcurrencyPerCredential", 1);
+
+		final var emailMessage = mock(EmailMessage.class, withSettings().stubOnly());
+		final var credential1 = createCredentialsEntity();
+		credential1.setEmailAddress(List.of("address1", "address2"));
+		final var credential2 = createCredentialsEntity();
+		credential2.setId("someOtherId");
+		credential2.setEmailAddress(List.of("address3"));
+		final var email = createEmailEntity(emptyMap());
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential1, credential2));
+		when(emailServiceMock.streamEmailsInInbox(any(), any(), any())).thenAnswer(invocation -> pages(List.of(emailMessage)));
+		when(emailServiceMock.loadEwsEmails(any(), any(), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).streamEmailsInInbox(eq(credential1), eq("address1"), any());
+		verify(emailServiceMock).streamEmailsInInbox(eq(credential1), eq("address2"), any());
+		verify(emailServiceMock).streamEmailsInInbox(eq(credential2), eq("address3"), any());
+		verify(emailServiceMock, times(3)).saveEmail(email);
+		verify(emailServiceMock).moveEwsEmails(credential1, List.of(email.getOriginalId()), "address1");
+		verify(emailServiceMock).moveEwsEmails(credential1, List.of(email.getOriginalId()), "address2");
+		verify(emailServiceMock).moveEwsEmails(credential2, List.of(email.getOriginalId()), "address3");
+	}
+
+	@Test
+	void checkForNewEmails_parallel_mailboxThrows_continuesWithOtherMailboxes() throws Exception {
+		ReflectionTestUtils.setField(ewsScheduler, "parallelEnabled", true);
+		ReflectionTestUtils.setField(ewsScheduler, "maxConcurrency", 4);
+		ReflectionTestUtils.setField(ewsScheduler, "maxConcurrencyPerCredential", 2);
+
+		final var credential = createCredentialsEntity();
+		credential.setEmailAddress(List.of("failingAddress", "someEmailAddress"));
+
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(emailServiceMock.streamEmailsInInbox(eq(credential), eq("failingAddress"), any())).thenThrow(new RuntimeException("Exchange unavailable"));
+		when(emailServiceMock.streamEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenAnswer(invocation -> pages(List.of()));
+
+		ewsScheduler.checkForNewEmails();
+
+		verify(emailServiceMock).streamEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(null, "Email error: Failed to process mailbox failingAddress");
+	}
+
+	@Test
+	void handleNewEmails() throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		final var credential = createCredentialsEntity();
+		final var email = createEmailEntity(emptyMap());
+		final var itemIds = List.of(new ItemId("someId"));
+		final var lease = mock(ExchangeServicePool.Lease.class);
+
+		when(emailServiceMock.getEwsEmails(eq(credential), eq("someEmailAddress"), eq(itemIds), any())).thenReturn(new LeasedEmails(List.of(emailMessage), lease));
+		when(emailServiceMock.loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any())).thenReturn(List.of(email));
+		when(emailServiceMock.saveEmail(email)).thenReturn(email);
+
+		final var result = ewsScheduler.handleNewEmails(credential, "someEmailAddress", itemIds);
+
+		assertThat(result).isTrue();
+		final var inOrder = inOrder(emailServiceMock, lease);
+		inOrder.verify(emailServiceMock).loadEwsEmails(eq(List.of(emailMessage)), eq(credential), any());
+		inOrder.verify(lease).close();
+		verify(emailServiceMock).saveEmail(email);
+		verify(emailServiceMock).moveEwsEmails(credential, List.of(email.getOriginalId()), "someEmailAddress");
+		verifyNoMoreInteractions(emailServiceMock);
+	}
+
+	@Test
+	void handleNewEmails_alreadyHandled() throws Exception {
+		final var credential = createCredentialsEntity();
+		final var itemIds = List.of(new ItemId("someId"));
+
+		when(emailServiceMock.getEwsEmails(eq(credential), eq("someEmailAddress"), eq(itemIds), any())).thenReturn(new LeasedEmails(List.of(), null));
+
+		final var result = ewsScheduler.handleNewEmails(credential, "someEmailAddress", itemIds);
+
+		assertThat(result).isTrue();
+		verify(emailServiceMock, never()).loadEwsEmails(any(), any(), any());
+	}
+
+	@Test
+	void handleNewEmails_bindThrows() throws Exception {
+		final var credential = createCredentialsEntity();
+		final var itemIds = List.of(new ItemId("someId"));
+
+		when(emailServiceMock.getEwsEmails(any(), any(), any(), any())).thenThrow(new RuntimeException("someMessage"));
+
+		final var result = ewsScheduler.handleNewEmails(credential, "someEmailAddress", itemIds);
+
+		assertThat(result).isFalse();
+		verify(dept44HealthUtilityMock).setHealthIndicatorUnhealthy(any(), any());
 	}
 
 	@Test
@@ -183,7 +551,7 @@ class EwsSchedulerTest {
 		when(emailMessage.getReceivedBy()).thenReturn(emailAddress);
 		when(emailAddress.getAddress()).thenReturn("someEmailAddress");
 		when(emailServiceMock.findAllByActionAndActive("SEND_SMS")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(List.of(emailMessage));
+		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 		when(ewsIntegrationMock.extractValuesEmailMessage(any())).thenReturn(emailMap);
 		when(ewsIntegrationMock.validateRecipientNumbers(any())).thenReturn(resultMap);
 
@@ -194,7 +562,7 @@ class EwsSchedulerTest {
 		verify(emailServiceMock).findAllByActionAndActive("SEND_SMS");
 		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
 		verify(ewsIntegrationMock).extractValuesEmailMessage(emailMessage);
-		verify(ewsIntegrationMock).moveEmail(any(), any(), any());
+		verify(ewsIntegrationMock).moveEmail(any(), any(), any(), any());
 	}
 
 	@Test
@@ -206,14 +574,14 @@ class EwsSchedulerTest {
 		when(emailMessage.getReceivedBy()).thenReturn(emailAddress);
 		when(emailAddress.getAddress()).thenReturn("someEmailAddress");
 		when(emailServiceMock.findAllByActionAndActive("SEND_SMS")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(List.of(emailMessage));
+		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 		when(ewsIntegrationMock.extractValuesEmailMessage(any())).thenThrow(new RuntimeException("Something went wrong"));
 		ewsScheduler.checkForNewSmsEmails();
 
 		verify(emailServiceMock).findAllByActionAndActive("SEND_SMS");
 		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
 		verify(ewsIntegrationMock).extractValuesEmailMessage(emailMessage);
-		verify(ewsIntegrationMock).moveEmail(any(), any(), any());
+		verify(ewsIntegrationMock).moveEmail(any(), any(), any(), any());
 		verifyNoMoreInteractions(emailServiceMock, ewsIntegrationMock);
 		verifyNoInteractions(messagingIntegrationMock);
 	}
@@ -228,7 +596,7 @@ class EwsSchedulerTest {
 		when(emailMessage.getReceivedBy()).thenReturn(emailAddress);
 		when(emailAddress.getAddress()).thenReturn("someEmailAddress");
 		when(emailServiceMock.findAllByActionAndActive("SEND_SMS")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(List.of(emailMessage));
+		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 		when(ewsIntegrationMock.extractValuesEmailMessage(any())).thenReturn(emailMap);
 
 		ewsScheduler.checkForNewSmsEmails();
@@ -236,7 +604,7 @@ class EwsSchedulerTest {
 		verify(emailServiceMock).findAllByActionAndActive("SEND_SMS");
 		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
 		verify(ewsIntegrationMock).extractValuesEmailMessage(emailMessage);
-		verify(ewsIntegrationMock).moveEmail(any(), any(), any());
+		verify(ewsIntegrationMock).moveEmail(any(), any(), any(), any());
 		verifyNoInteractions(messagingIntegrationMock);
 	}
 
@@ -251,7 +619,7 @@ class EwsSchedulerTest {
 		when(emailMessage.getReceivedBy()).thenReturn(emailAddress);
 		when(emailAddress.getAddress()).thenReturn("someEmailAddress");
 		when(emailServiceMock.findAllByActionAndActive("SEND_SMS")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(List.of(emailMessage));
+		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 		when(ewsIntegrationMock.extractValuesEmailMessage(any())).thenReturn(emailMap);
 		when(ewsIntegrationMock.validateRecipientNumbers(any())).thenReturn(resultMap);
 
@@ -273,7 +641,7 @@ class EwsSchedulerTest {
 		verify(emailServiceMock).findAllByActionAndActive("SEND_SMS");
 		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
 		verify(ewsIntegrationMock).extractValuesEmailMessage(emailMessage);
-		verify(ewsIntegrationMock).moveEmail(any(), any(), any());
+		verify(ewsIntegrationMock).moveEmail(any(), any(), any(), any());
 	}
 
 	@Test
@@ -287,7 +655,7 @@ class EwsSchedulerTest {
 		when(emailMessage.getReceivedBy()).thenReturn(emailAddress);
 		when(emailAddress.getAddress()).thenReturn("someEmailAddress");
 		when(emailServiceMock.findAllByActionAndActive("SEND_SMS")).thenReturn(List.of(credential));
-		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(List.of(emailMessage));
+		when(emailServiceMock.getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any())).thenReturn(new LeasedEmails(List.of(emailMessage), null));
 		when(ewsIntegrationMock.extractValuesEmailMessage(any())).thenReturn(emailMap);
 		when(ewsIntegrationMock.validateRecipientNumbers(any())).thenReturn(resultMap);
 
@@ -296,7 +664,22 @@ class EwsSchedulerTest {
 		verify(emailServiceMock).findAllByActionAndActive("SEND_SMS");
 		verify(emailServiceMock).getAllEmailsInInbox(eq(credential), eq("someEmailAddress"), any());
 		verify(ewsIntegrationMock).extractValuesEmailMessage(emailMessage);
-		verify(ewsIntegrationMock).moveEmail(any(), any(), any());
+		verify(ewsIntegrationMock).moveEmail(any(), any(), any(), any());
+	}
+
+
+	private static EmailMessage emailMessage(final String uniqueId) throws Exception {
+		final var emailMessage = mock(EmailMessage.class);
+		when(emailMessage.getId()).thenReturn(new ItemId(uniqueId));
+		return emailMessage;
 	}
 
+	@SafeVarargs
+	private static EwsInboxPages pages(final List<EmailMessage>... pages) {
+		final var remaining = new ArrayDeque<>(List.of(pages));
+		return new EwsInboxPages(() -> {
+			final var page = remaining.poll();
+			return page == null ? null : new LeasedEmails(page, null);
+		}, 1);
+	}
 }
@@ -0,0 +1,237 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import microsoft.exchange.webservices.data.core.service.item.EmailMessage;
+import net.javacrumbs.shedlock.core.LockProvider;
+import net.javacrumbs.shedlock.core.SimpleLock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import se.sundsvall.dept44.scheduling.health.Dept44HealthUtility;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EwsFolderIdCache;
+import se.sundsvall.emailreader.integration.ews.EwsInboxPages;
+import se.sundsvall.emailreader.integration.ews.ExchangeServicePool;
+import se.sundsvall.emailreader.integration.messaging.MessagingIntegration;
+import se.sundsvall.emailreader.integration.throttling.ThrottlingGovernor;
+import se.sundsvall.emailreader.service.EmailService;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
+
+/**
+ * Runs a streaming subscription against a fake EWS endpoint, from the NewMail notification to the fetch of the notified
+ * email.
+ */
+@ExtendWith(MockitoExtension.class)
+class EwsStreamingFakeEwsTest {
+
+	private static final String ADDRESS = "someEmailAddress";
+	private static final String ITEM_ID = "someItemId";
+
+	private static final String SUBSCRIBE_RESPONSE = """
+		<m:SubscribeResponse>
+			<m:ResponseMessages>
+				<m:SubscribeResponseMessage ResponseClass="Success">
+					<m:ResponseCode>NoError</m:ResponseCode>
+					<m:SubscriptionId>someSubscriptionId</m:SubscriptionId>
+				</m:SubscribeResponseMessage>
+			</m:ResponseMessages>
+		</m:SubscribeResponse>
+		""";
+
+	private static final String NEW_MAIL_RESPONSE = """
+		<m:GetStreamingEventsResponse>
+			<m:ResponseMessages>
+				<m:GetStreamingEventsResponseMessage ResponseClass="Success">
+					<m:ResponseCode>NoError</m:ResponseCode>
+					<m:Notifications>
+						<m:Notification>
+							<t:SubscriptionId>someSubscriptionId</t:SubscriptionId>
+							<t:NewMailEvent>
+								<t:TimeStamp>2026-01-01T12:00:00Z</t:TimeStamp>
+								<t:ItemId Id="someItemId" ChangeKey="someChangeKey"/>
+								<t:ParentFolderId Id="someFolderId" ChangeKey="someChangeKey"/>
+							</t:NewMailEvent>
+						</m:Notification>
+					</m:Notifications>
+				</m:GetStreamingEventsResponseMessage>
+			</m:ResponseMessages>
+		</m:GetStreamingEventsResponse>
+		""";
+
+	private static final String GET_ITEM_RESPONSE = """
+		<m:GetItemResponse>
+			<m:ResponseMessages>
+				<m:GetItemResponseMessage ResponseClass="Success">
+					<m:ResponseCode>NoError</m:ResponseCode>
+					<m:Items>
+						<t:Message>
+							<t:ItemId Id="someItemId" ChangeKey="someChangeKey"/>
+							<t:Size>1024</t:Size>
+						</t:Message>
+					</m:Items>
+				</m:GetItemResponseMessage>
+			</m:ResponseMessages>
+		</m:GetItemResponse>
+		""";
+
+	@Mock
+	private EmailService emailServiceMock;
+
+	@Mock
+	private MessagingIntegration messagingIntegrationMock;
+
+	@Mock
+	private Dept44HealthUtility dept44HealthUtilityMock;
+
+	@Mock
+	private EncryptionUtility encryptionUtilityMock;
+
+	@Mock
+	private EwsFolderIdCache folderIdCacheMock;
+
+	@Mock
+	private LockProvider lockProviderMock;
+
+	@Mock
+	private SimpleLock ownershipMock;
+
+	@Mock
+	private ScheduledExecutorService schedulerMock;
+
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+	private final AtomicInteger streamingRequests = new AtomicInteger();
+
+	private HttpServer server;
+	private ExecutorService processingExecutor;
+	private CredentialsEntity credential;
+	private EWSIntegration ewsIntegration;
+	private EwsStreamingListener listener;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/EWS/Exchange.asmx", this::handle);
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.start();
+
+		credential = createCredentialsEntity();
+		credential.setDomain("http://localhost:" + server.getAddress().getPort() + "/EWS/Exchange.asmx");
+		credential.setEmailAddress(List.of(ADDRESS));
+		when(encryptionUtilityMock.decrypt(credential.getPassword())).thenReturn("decryptedPassword");
+
+		final var pool = new ExchangeServicePool(encryptionUtilityMock, new SimpleMeterRegistry(), Duration.ofMinutes(15));
+		final var throttlingGovernor = new ThrottlingGovernor(new SimpleMeterRegistry(), false, 10, 0.5, 50, 0.05, 0.5, Duration.ofSeconds(1), Duration.ofMinutes(1));
+		ewsIntegration = new EWSIntegration(pool, folderIdCacheMock, throttlingGovernor);
+		ReflectionTestUtils.setField(ewsIntegration, "maxFileSize", "10485760");
+		final var ewsScheduler = new EwsScheduler(emailServiceMock, messagingIntegrationMock, ewsIntegration, dept44HealthUtilityMock);
+
+		processingExecutor = Executors.newVirtualThreadPerTaskExecutor();
+		listener = new EwsStreamingListener(emailServiceMock, ewsIntegration, ewsScheduler, lockProviderMock,
+			30, Duration.ofSeconds(10), Duration.ofMinutes(5), Duration.ofMinutes(5), schedulerMock, processingExecutor);
+	}
+
+	@AfterEach
+	void tearDown() {
+		listener.stop();
+		server.stop(0);
+	}
+
+	@Test
+	void newMailNotification_fetchesNotifiedEmail() throws Exception {
+		final var loaded = new CompletableFuture<List<EmailMessage>>();
+		when(lockProviderMock.lock(any())).thenReturn(Optional.of(ownershipMock));
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		// The catch-up poll finds an empty inbox
+		lenient().when(emailServiceMock.streamEmailsInInbox(eq(credential), eq(ADDRESS), any())).thenReturn(EwsInboxPages.empty());
+		when(emailServiceMock.getEwsEmails(eq(credential), eq(ADDRESS), any(), any()))
+			.thenAnswer(invocation -> ewsIntegration.bindEmails(credential, ADDRESS, invocation.getArgument(2), invocation.getArgument(3)));
+		when(emailServiceMock.loadEwsEmails(any(), eq(credential), any())).thenAnswer(invocation -> {
+			loaded.complete(List.copyOf(invocation.<List<EmailMessage>>getArgument(0)));
+			return emptyList();
+		});
+
+		listener.refreshSubscriptions();
+
+		assertThat(loaded.get(10, SECONDS)).singleElement().satisfies(message -> {
+			assertThat(message.getId().getUniqueId()).isEqualTo(ITEM_ID);
+			assertThat(message.getSize()).isEqualTo(1024);
+		});
+		assertThat(requests).anySatisfy(request -> assertThat(request).contains("StreamingSubscriptionRequest").contains(ADDRESS));
+		assertThat(requests).anySatisfy(request -> assertThat(request).contains("GetItem").contains(ITEM_ID));
+	}
+
+	/**
+	 * Answers the SOAP requests of a streaming subscription. The first streaming connection gets a NewMail notification and
+	 * is then ended, and later connections are refused, so the listener backs off instead of reconnecting.
+	 */
+	private void handle(final HttpExchange exchange) throws IOException {
+		final var request = new String(exchange.getRequestBody().readAllBytes(), UTF_8);
+		requests.add(request);
+
+		final String response;
+		if (request.contains("GetStreamingEvents")) {
+			response = streamingRequests.getAndIncrement() == 0 ? envelope(NEW_MAIL_RESPONSE) : null;
+		} else if (request.contains("GetItem")) {
+			response = envelope(GET_ITEM_RESPONSE);
+		} else if (request.contains("StreamingSubscriptionRequest")) {
+			response = envelope(SUBSCRIBE_RESPONSE);
+		} else {
+			response = null;
+		}
+
+		if (response == null) {
+			exchange.sendResponseHeaders(500, -1);
+			exchange.close();
+			return;
+		}
+		final var body = response.getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		try (final var responseBody = exchange.getResponseBody()) {
+			responseBody.write(body);
+		}
+	}
+
+	private static String envelope(final String body) {
+		return """
+			<?xml version="1.0" encoding="utf-8"?>
+			<s:Envelope xmlns:s="http://schemas.xmlsoap.org/soap/envelope/">
+				<s:Header>
+					<h:ServerVersionInfo xmlns:h="http://schemas.microsoft.com/exchange/services/2006/types" MajorVersion="14" MinorVersion="3" MajorBuildNumber="123" MinorBuildNumber="3" Version="Exchange2010_SP2"/>
+				</s:Header>
+				<s:Body xmlns:m="http://schemas.microsoft.com/exchange/services/2006/messages" xmlns:t="http://schemas.microsoft.com/exchange/services/2006/types">
+				%s
+				</s:Body>
+			</s:Envelope>
+			""".formatted(body);
+	}
+}
@@ -0,0 +1,282 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import microsoft.exchange.webservices.data.property.complex.ItemId;
+import net.javacrumbs.shedlock.core.LockConfiguration;
+import net.javacrumbs.shedlock.core.LockProvider;
+import net.javacrumbs.shedlock.core.SimpleLock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.integration.db.entity.CredentialsEntity;
+import se.sundsvall.emailreader.integration.ews.EWSIntegration;
+import se.sundsvall.emailreader.integration.ews.EwsInboxSubscription;
+import se.sundsvall.emailreader.service.EmailService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static se.sundsvall.emailreader.TestUtility.createCredentialsEntity;
+
+@ExtendWith(MockitoExtension.class)
+class EwsStreamingListenerTest {
+
+	private static final String ADDRESS = "someEmailAddress";
+
+	@Mock
+	private EmailService emailServiceMock;
+
+	@Mock
+	private EWSIntegration ewsIntegrationMock;
+
+	@Mock
+	private EwsScheduler ewsSchedulerMock;
+
+	@Mock
+	private LockProvider lockProviderMock;
+
+	@Mock
+	private SimpleLock ownershipMock;
+
+	@Mock
+	private ScheduledExecutorService schedulerMock;
+
+	@Mock
+	private ExecutorService processingExecutorMock;
+
+	@Mock
+	private EwsInboxSubscription subscriptionMock;
+
+	@Captor
+	private ArgumentCaptor<Runnable> runnableCaptor;
+
+	@Captor
+	private ArgumentCaptor<EwsInboxSubscription.Listener> listenerCaptor;
+
+	@Captor
+	private ArgumentCaptor<LockConfiguration> lockConfigurationCaptor;
+
+	private CredentialsEntity credential;
+
+	private EwsStreamingListener listener;
+
+	@BeforeEach
+	void setUp() {
+		credential = createCredentialsEntity();
+		credential.setEmailAddress(List.of(ADDRESS));
+		lenient().when(lockProviderMock.lock(any())).thenReturn(Optional.of(ownershipMock));
+		lenient().when(ownershipMock.extend(any(), any())).thenReturn(Optional.of(ownershipMock));
+		listener = new EwsStreamingListener(emailServiceMock, ewsIntegrationMock, ewsSchedulerMock, lockProviderMock,
+			30, Duration.ofSeconds(10), Duration.ofMinutes(5), Duration.ofMinutes(5), schedulerMock, processingExecutorMock);
+	}
+
+	@Test
+	void start() {
+		listener.start();
+
+		verify(schedulerMock).scheduleWithFixedDelay(any(), eq(0L), eq(300000L), eq(MILLISECONDS));
+	}
+
+	@Test
+	void refreshSubscriptions_subscribesAndCatchesUp() throws Exception {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(ewsIntegrationMock.subscribeToInbox(eq(credential), eq(ADDRESS), eq(30), any())).thenReturn(subscriptionMock);
+
+		listener.refreshSubscriptions();
+
+		assertThat(listener.size()).isOne();
+		verify(lockProviderMock).lock(lockConfigurationCaptor.capture());
+		assertThat(lockConfigurationCaptor.getValue().getName()).isEqualTo(EwsStreamingListener.lockName(new EwsStreamingListener.MailboxKey(credential.getId(), ADDRESS)));
+		assertThat(lockConfigurationCaptor.getValue().getLockAtMostFor()).isEqualTo(Duration.ofMinutes(15));
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(ewsSchedulerMock).handleMailbox(credential, ADDRESS);
+	}
+
+	@Test
+	void refreshSubscriptions_mailboxOwnedByOtherInstance() throws Exception {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(lockProviderMock.lock(any())).thenReturn(Optional.empty());
+
+		listener.refreshSubscriptions();
+
+		assertThat(listener.size()).isZero();
+		verify(ewsIntegrationMock, never()).subscribeToInbox(any(), any(), eq(30), any());
+		verifyNoInteractions(processingExecutorMock, ewsSchedulerMock);
+	}
+
+	@Test
+	void refreshSubscriptions_ownershipLost_closesSubscriptionWithoutReleasingOwnership() throws Exception {
+		subscribe();
+		when(ownershipMock.extend(Duration.ofMinutes(15), Duration.ZERO)).thenReturn(Optional.empty());
+
+		listener.refreshSubscriptions();
+
+		assertThat(listener.size()).isZero();
+		verify(subscriptionMock).close();
+		verify(ownershipMock, never()).unlock();
+
+		listener.refreshSubscriptions();
+
+		// The mailbox is subscribed again once the ownership can be taken
+		verify(lockProviderMock, times(2)).lock(any());
+		verify(ewsIntegrationMock, times(2)).subscribeToInbox(any(), any(), eq(30), any());
+	}
+
+	@Test
+	void lockName() {
+		final var lockName = EwsStreamingListener.lockName(new EwsStreamingListener.MailboxKey("someCredentialId", "some.rather.long.email.address@some-sub.domain.example.com"));
+
+		assertThat(lockName).startsWith("ewsStreaming-").hasSizeLessThanOrEqualTo(64)
+			.isEqualTo(EwsStreamingListener.lockName(new EwsStreamingListener.MailboxKey("someCredentialId", "some.rather.long.email.address@some-sub.domain.example.com")))
+			.isNotEqualTo(EwsStreamingListener.lockName(new EwsStreamingListener.MailboxKey("someOtherCredentialId", "some.rather.long.email.address@some-sub.domain.example.com")));
+	}
+
+	@Test
+	void refreshSubscriptions_keepsExistingAndClosesRemoved() throws Exception {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential), List.of(credential), List.of());
+		when(ewsIntegrationMock.subscribeToInbox(eq(credential), eq(ADDRESS), eq(30), any())).thenReturn(subscriptionMock);
+
+		listener.refreshSubscriptions();
+		listener.refreshSubscriptions();
+
+		verify(ewsIntegrationMock, times(1)).subscribeToInbox(any(), any(), eq(30), any());
+		verify(ownershipMock).extend(Duration.ofMinutes(15), Duration.ZERO);
+		verify(subscriptionMock, never()).close();
+
+		listener.refreshSubscriptions();
+
+		assertThat(listener.size()).isZero();
+		verify(subscriptionMock).close();
+		verify(ownershipMock).unlock();
+	}
+
+	@Test
+	void refreshSubscriptions_fails() {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenThrow(new RuntimeException("someMessage"));
+
+		listener.refreshSubscriptions();
+
+		assertThat(listener.size()).isZero();
+		verifyNoInteractions(ewsIntegrationMock);
+	}
+
+	@Test
+	void subscribeFails_resubscribesWithBackoff() throws Exception {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(ewsIntegrationMock.subscribeToInbox(eq(credential), eq(ADDRESS), eq(30), any()))
+			.thenThrow(new RuntimeException("someMessage"))
+			.thenThrow(new RuntimeException("someMessage"))
+			.thenReturn(subscriptionMock);
+
+		listener.refreshSubscriptions();
+		verify(schedulerMock).schedule(runnableCaptor.capture(), eq(10000L), eq(MILLISECONDS));
+		runnableCaptor.getValue().run();
+		verify(schedulerMock).schedule(runnableCaptor.capture(), eq(20000L), eq(MILLISECONDS));
+		runnableCaptor.getValue().run();
+
+		verify(ewsIntegrationMock, times(3)).subscribeToInbox(any(), any(), eq(30), any());
+		verify(processingExecutorMock).execute(any());
+	}
+
+	@Test
+	void newEmails_areHandledByScheduler() throws Exception {
+		final var itemIds = List.of(new ItemId("someId"));
+		subscribe();
+
+		listenerCaptor.getValue().onNewEmails(itemIds);
+
+		verify(processingExecutorMock, times(2)).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(ewsSchedulerMock).handleNewEmails(credential, ADDRESS, itemIds);
+	}
+
+	@Test
+	void disconnect_reopensConnection() throws Exception {
+		subscribe();
+
+		listenerCaptor.getValue().onDisconnect(null);
+
+		verify(subscriptionMock).open();
+		verify(subscriptionMock, never()).close();
+		verify(schedulerMock, never()).schedule(any(Runnable.class), anyLong(), any());
+	}
+
+	@Test
+	void disconnect_reopenFails_recreatesSubscription() throws Exception {
+		subscribe();
+		doThrow(new RuntimeException("someMessage")).when(subscriptionMock).open();
+
+		listenerCaptor.getValue().onDisconnect(new RuntimeException("someOtherMessage"));
+
+		verify(subscriptionMock).close();
+		verify(schedulerMock).schedule(runnableCaptor.capture(), eq(10000L), eq(MILLISECONDS));
+		runnableCaptor.getValue().run();
+		verify(ewsIntegrationMock, times(2)).subscribeToInbox(any(), any(), eq(30), any());
+	}
+
+	@Test
+	void subscriptionError_recreatesSubscription() throws Exception {
+		subscribe();
+
+		listenerCaptor.getValue().onSubscriptionError(new RuntimeException("someMessage"));
+
+		verify(subscriptionMock).close();
+		verify(schedulerMock).schedule(any(Runnable.class), eq(10000L), eq(MILLISECONDS));
+	}
+
+	@Test
+	void disconnect_afterSubscriptionClosed_isIgnored() throws Exception {
+		subscribe();
+		listenerCaptor.getValue().onSubscriptionError(new RuntimeException("someMessage"));
+
+		listenerCaptor.getValue().onDisconnect(null);
+
+		verify(subscriptionMock, never()).open();
+	}
+
+	@Test
+	void reconnectDelayFor() {
+		assertThat(listener.reconnectDelayFor(0)).isEqualTo(Duration.ofSeconds(10));
+		assertThat(listener.reconnectDelayFor(1)).isEqualTo(Duration.ofSeconds(20));
+		assertThat(listener.reconnectDelayFor(4)).isEqualTo(Duration.ofSeconds(160));
+		assertThat(listener.reconnectDelayFor(5)).isEqualTo(Duration.ofMinutes(5));
+		assertThat(listener.reconnectDelayFor(100)).isEqualTo(Duration.ofMinutes(5));
+	}
+
+	@Test
+	void stop() throws Exception {
+		subscribe();
+
+		listener.stop();
+
+		assertThat(listener.size()).isZero();
+		verify(schedulerMock).shutdownNow();
+		verify(subscriptionMock).close();
+		verify(ownershipMock).unlock();
+		verify(processingExecutorMock).shutdown();
+	}
+
+	private void subscribe() throws Exception {
+		when(emailServiceMock.findAllByActionAndActive("PERSIST")).thenReturn(List.of(credential));
+		when(ewsIntegrationMock.subscribeToInbox(eq(credential), eq(ADDRESS), eq(30), listenerCaptor.capture())).thenReturn(subscriptionMock);
+		listener.refreshSubscriptions();
+	}
+}
@@ -0,0 +1,379 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webtestclient.autoconfigure.AutoConfigureWebTestClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import se.sundsvall.emailreader.Application;
+import se.sundsvall.emailreader.api.model.GraphNotification;
+import se.sundsvall.emailreader.api.model.GraphNotifications;
+import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphDeltaLinkRepository;
+import se.sundsvall.emailreader.integration.db.GraphSubscriptionRepository;
+import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphDeltaLinkEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphSubscriptionEntity;
+import se.sundsvall.emailreader.service.EmailService;
+import se.sundsvall.emailreader.utility.EncryptionUtility;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+/**
+ * Runs Graph change notifications end to end, from the webhook request through the client state check and the per
+ * mailbox queue to the delta fetch, against a fake Graph and token endpoint. The fake is served over https, since the
+ * token credential only accepts an https authority host.
+ */
+@AutoConfigureWebTestClient
+@SpringBootTest(classes = Application.class, webEnvironment = RANDOM_PORT)
+@ActiveProfiles("junit")
+class GraphNotificationFakeGraphTest {
+
+	private static final String PATH = "/{municipalityId}/graph/notifications";
+	private static final String MUNICIPALITY_ID = "2281";
+	private static final String CREDENTIALS_ID = "someCredentialsId";
+	private static final String TENANT_ID = "someTenantId";
+	private static final String ADDRESS = "someAddress";
+	private static final String SUBSCRIPTION_ID = "someSubscriptionId";
+	private static final String CLIENT_STATE = "someClientState";
+	private static final String MESSAGE_ID = "someMessageId";
+	private static final String STORE_PASSWORD = "changeit";
+	private static final Pattern BATCH_STEP_ID = Pattern.compile("\"id\"\\s*:\\s*\"([^\"]+)\"");
+
+	private static final String TOKEN_RESPONSE = """
+		{"token_type": "Bearer", "expires_in": 3600, "ext_expires_in": 3600, "access_token": "someAccessToken"}
+		""";
+
+	private static final String FOLDERS_RESPONSE = """
+		{"value": [{"id": "someFolderId"}]}
+		""";
+
+	private static final String FIRST_DELTA_RESPONSE = """
+		{
+			"value": [{
+				"id": "someMessageId",
+				"subject": "someSubject",
+				"hasAttachments": false,
+				"parentFolderId": "someInboxId",
+				"receivedDateTime": "2026-01-01T12:00:00Z",
+				"body": {"contentType": "html", "content": "<p>someContent</p>"},
+				"sender": {"emailAddress": {"address": "someSender"}},
+				"toRecipients": [{"emailAddress": {"address": "someAddress"}}]
+			}],
+			"@odata.deltaLink": "%s"
+		}
+		""";
+
+	private static final String NEXT_DELTA_RESPONSE = """
+		{"value": [], "@odata.deltaLink": "%s"}
+		""";
+
+	// Handler of the current test, the fake is started once for the context
+	private static final AtomicReference<HttpHandler> HANDLER = new AtomicReference<>();
+
+	@TempDir
+	private static Path tempDir;
+
+	private static HttpsServer server;
+	private static Map<String, String> previousTrustStore;
+
+	private final List<String> deltaRequests = new CopyOnWriteArrayList<>();
+	private final List<String> batchRequests = new CopyOnWriteArrayList<>();
+	private final CountDownLatch firstDeltaRequested = new CountDownLatch(1);
+	private final CountDownLatch firstDeltaReleased = new CountDownLatch(1);
+	private final AtomicReference<GraphDeltaLinkEntity> storedDeltaLink = new AtomicReference<>();
+
+	@Autowired
+	private WebTestClient webTestClient;
+
+	@MockitoBean
+	private EncryptionUtility encryptionUtilityMock;
+
+	@MockitoBean
+	private GraphCredentialsRepository graphCredentialsRepositoryMock;
+
+	@MockitoBean
+	private GraphSubscriptionRepository graphSubscriptionRepositoryMock;
+
+	@MockitoBean
+	private GraphDeltaLinkRepository graphDeltaLinkRepositoryMock;
+
+	@MockitoBean
+	private EmailService emailServiceMock;
+
+	@BeforeAll
+	static void startFakeGraph() throws Exception {
+		final var keyStore = createKeyStore();
+		final var keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, STORE_PASSWORD.toCharArray());
+		final var sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+		server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+		server.createContext("/", exchange -> HANDLER.get().handle(exchange));
+		server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		server.start();
+
+		// Both the Graph client and the token credential trust the certificate of the fake through the default trust store
+		previousTrustStore = Map.of(
+			"javax.net.ssl.trustStore", System.getProperty("javax.net.ssl.trustStore", ""),
+			"javax.net.ssl.trustStorePassword", System.getProperty("javax.net.ssl.trustStorePassword", ""),
+			"javax.net.ssl.trustStoreType", System.getProperty("javax.net.ssl.trustStoreType", ""));
+		System.setProperty("javax.net.ssl.trustStore", createTrustStore(keyStore).toString());
+		System.setProperty("javax.net.ssl.trustStorePassword", STORE_PASSWORD);
+		System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+	}
+
+	@AfterAll
+	static void stopFakeGraph() {
+		server.stop(0);
+		previousTrustStore.forEach((key, value) -> {
+			if (value.isEmpty()) {
+				System.clearProperty(key);
+			} else {
+				System.setProperty(key, value);
+			}
+		});
+	}
+
+	@DynamicPropertySource
+	static void graphProperties(final DynamicPropertyRegistry registry) {
+		registry.add("integration.graph.base-url", () -> baseUrl() + "/v1.0");
+		registry.add("integration.graph.authority-host", () -> baseUrl() + "/");
+		registry.add("integration.graph.notifications.max-concurrency", () -> 1);
+		registry.add("scheduled.check-for-new-emails.graph.incremental-sync.enabled", () -> true);
+	}
+
+	@BeforeEach
+	void setUp() {
+		HANDLER.set(this::handle);
+
+		final var credential = GraphCredentialsEntity.builder()
+			.withId(CREDENTIALS_ID)
+			.withClientId("someClientId")
+			.withClientSecret("someClientSecret")
+			.withTenantId(TENANT_ID)
+			.withMunicipalityId(MUNICIPALITY_ID)
+			.withNamespace("someNamespace")
+			.withDestinationFolder("someFolder")
+			.withEmailAddress(List.of(ADDRESS))
+			.build();
+		final var subscription = GraphSubscriptionEntity.builder()
+			.withGraphCredentialsId(CREDENTIALS_ID)
+			.withEmailAddress(ADDRESS)
+			.withSubscriptionId(SUBSCRIPTION_ID)
+			.withClientState(CLIENT_STATE)
+			.build();
+
+		when(encryptionUtilityMock.decrypt(anyString())).then(returnsFirstArg());
+		when(graphCredentialsRepositoryMock.findById(CREDENTIALS_ID)).thenReturn(Optional.of(credential));
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId(SUBSCRIPTION_ID)).thenReturn(Optional.of(subscription));
+		when(graphDeltaLinkRepositoryMock.findByGraphCredentialsIdAndEmailAddress(CREDENTIALS_ID, ADDRESS)).thenAnswer(invocation -> Optional.ofNullable(storedDeltaLink.get()));
+		when(graphDeltaLinkRepositoryMock.save(any())).thenAnswer(invocation -> {
+			storedDeltaLink.set(invocation.getArgument(0));
+			return invocation.getArgument(0);
+		});
+		when(emailServiceMock.saveEmail(any())).then(returnsFirstArg());
+	}
+
+	@Test
+	void notifications_areMergedPerMailboxAndFetchedWithDeltaQuery() throws Exception {
+		// A notification with the wrong client state is ignored. Had it been accepted, the email would be fetched by id
+		post(notification("otherMessageId").withClientState("wrongClientState"));
+
+		// The first poll of the mailbox is held by the fake, keeping the only processing thread busy
+		post(missed());
+		assertThat(firstDeltaRequested.await(30, SECONDS)).isTrue();
+
+		// Everything that arrives meanwhile is merged into one queued poll of the mailbox
+		post(notification(MESSAGE_ID), notification("otherMessageId"), missed());
+		firstDeltaReleased.countDown();
+
+		verify(graphDeltaLinkRepositoryMock, timeout(30_000).times(2)).save(any());
+		assertThat(deltaRequests).hasSize(2);
+		assertThat(deltaRequests.getFirst()).doesNotContain("deltatoken");
+		assertThat(deltaRequests.getLast()).contains("deltatoken=firstToken");
+		assertThat(storedDeltaLink.get().getDeltaLink()).endsWith("deltatoken=nextToken");
+
+		verify(emailServiceMock).saveEmail(any(EmailEntity.class));
+		// The only batch is the move of the saved email, no email was fetched by id
+		assertThat(batchRequests).singleElement().satisfies(batch -> assertThat(batch).contains(MESSAGE_ID).contains("/move"));
+	}
+
+	private void post(final GraphNotification... notifications) {
+		webTestClient.post()
+			.uri(builder -> builder.path(PATH).build(Map.of("municipalityId", MUNICIPALITY_ID)))
+			.contentType(APPLICATION_JSON)
+			.bodyValue(GraphNotifications.builder().withValue(List.of(notifications)).build())
+			.exchange()
+			.expectStatus().isAccepted();
+	}
+
+	private static GraphNotification notification(final String messageId) {
+		return GraphNotification.builder()
+			.withSubscriptionId(SUBSCRIPTION_ID)
+			.withClientState(CLIENT_STATE)
+			.withChangeType("created")
+			.withResourceData(new GraphNotification.ResourceData(messageId))
+			.build();
+	}
+
+	private static GraphNotification missed() {
+		return GraphNotification.builder()
+			.withSubscriptionId(SUBSCRIPTION_ID)
+			.withClientState(CLIENT_STATE)
+			.withLifecycleEvent("missed")
+			.build();
+	}
+
+	/**
+	 * Answers the token request, the delta query of the inbox, the lookup of the destination folder and batched requests.
+	 * The first delta query is held until the test releases it.
+	 */
+	private void handle(final HttpExchange exchange) throws IOException {
+		final var path = exchange.getRequestURI().getPath();
+		final var request = readBody(exchange);
+
+		final String response;
+		if (path.equals("/" + TENANT_ID + "/oauth2/v2.0/token")) {
+			response = TOKEN_RESPONSE;
+		} else if (path.endsWith("/users/" + ADDRESS + "/mailFolders/inbox/messages/delta()")) {
+			response = delta(exchange.getRequestURI().getQuery());
+		} else if (path.endsWith("/users/" + ADDRESS + "/mailFolders")) {
+			response = FOLDERS_RESPONSE;
+		} else if (path.endsWith("/$batch")) {
+			batchRequests.add(request);
+			response = batch(request);
+		} else {
+			response = null;
+		}
+
+		if (response == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+		final var body = response.getBytes(UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (final var responseBody = exchange.getResponseBody()) {
+			responseBody.write(body);
+		}
+	}
+
+	private String delta(final String query) {
+		deltaRequests.add(query == null ? "" : query);
+		if (deltaRequests.size() > 1) {
+			return NEXT_DELTA_RESPONSE.formatted(deltaLink("nextToken"));
+		}
+		firstDeltaRequested.countDown();
+		try {
+			firstDeltaReleased.await(30, SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return FIRST_DELTA_RESPONSE.formatted(deltaLink("firstToken"));
+	}
+
+	/**
+	 * Answers every step of a batch as successful.
+	 */
+	private static String batch(final String request) {
+		final var responses = BATCH_STEP_ID.matcher(request).results()
+			.map(step -> """
+				{"id": "%s", "status": 201, "headers": {"Content-Type": "application/json"}, "body": {}}""".formatted(step.group(1)))
+			.toList();
+		return "{\"responses\": [" + String.join(", ", responses) + "]}";
+	}
+
+	private static String readBody(final HttpExchange exchange) throws IOException {
+		final InputStream body = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+			? new GZIPInputStream(exchange.getRequestBody())
+			: exchange.getRequestBody();
+		try (body) {
+			return new String(body.readAllBytes(), UTF_8);
+		}
+	}
+
+	private static String deltaLink(final String token) {
+		return baseUrl() + "/v1.0/users/" + ADDRESS + "/mailFolders/inbox/messages/delta()?$deltatoken=" + token;
+	}
+
+	private static String baseUrl() {
+		return "https://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Creates a self-signed certificate for the loopback address of the fake.
+	 */
+	private static KeyStore createKeyStore() throws IOException, InterruptedException, GeneralSecurityException {
+		final var keyStorePath = tempDir.resolve("fake-graph.p12");
+		final var keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+		final var process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "fake-graph", "-keyalg", "RSA", "-keysize", "2048",
+			"-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:" + InetAddress.getLoopbackAddress().getHostAddress(), "-validity", "1",
+			"-storetype", "PKCS12", "-keystore", keyStorePath.toString(), "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD)
+			.inheritIO()
+			.start();
+		assertThat(process.waitFor()).isZero();
+
+		final var keyStore = KeyStore.getInstance("PKCS12");
+		try (final var input = Files.newInputStream(keyStorePath)) {
+			keyStore.load(input, STORE_PASSWORD.toCharArray());
+		}
+		return keyStore;
+	}
+
+	private static Path createTrustStore(final KeyStore keyStore) throws IOException, GeneralSecurityException {
+		final var trustStorePath = tempDir.resolve("fake-graph-trust.p12");
+		final var trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+		trustStore.setCertificateEntry("fake-graph", keyStore.getCertificate("fake-graph"));
+		try (final var output = Files.newOutputStream(trustStorePath)) {
+			trustStore.store(output, STORE_PASSWORD.toCharArray());
+		}
+		return trustStorePath;
+	}
+}
@@ -1,26 +1,45 @@
 package se.sundsvall.emailreader.service.scheduler;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import se.sundsvall.dept44.scheduling.health.Dept44HealthUtility;
 import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphDeltaLinkRepository;
+import se.sundsvall.emailreader.integration.db.entity.AttachmentEntity;
 import se.sundsvall.emailreader.integration.db.entity.EmailEntity;
 import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphDeltaLinkEntity;
 import se.sundsvall.emailreader.integration.graph.GraphIntegration;
+import se.sundsvall.emailreader.integration.graph.GraphIntegration.InboxDelta;
 import se.sundsvall.emailreader.service.EmailService;
 
 import static java.util.Collections.emptyMap;
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
@@ -33,6 +52,9 @@ class GraphSchedulerTest {
 	@Mock
 	private GraphCredentialsRepository graphCredentialsRepository;
 
+	@Mock
+	private GraphDeltaLinkRepository graphDeltaLinkRepository;
+
 	@Mock
 	private EmailService emailService;
 
@@ -67,21 +89,65 @@ class GraphSchedulerTest {
 		final var emails = List.of(email);
 
 		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
-		when(graphIntegration.getEmails(eq(userId), eq(credentials), any())).thenReturn(emails);
-		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(messageId), any())).thenReturn(List.of());
+		mockStreamEmails(userId, credentials, emails);
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any())).thenReturn(Set.of(messageId));
 
 		// Act
 		graphScheduler.checkForNewEmails();
 
 		// Assert
 		verify(graphCredentialsRepository).findAll();
-		verify(graphIntegration).getEmails(eq(userId), eq(credentials), any());
-		verify(emailService, times(2)).saveEmail(email);
-		verify(graphIntegration).moveEmail(eq(userId), eq(email.getOriginalId()), eq(credentials), any());
+		verify(graphIntegration).streamEmails(eq(userId), eq(credentials), any(), any());
+		final var inOrder = inOrder(graphIntegration, emailService);
+		inOrder.verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any());
+		inOrder.verify(emailService).saveEmail(email);
+		inOrder.verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+		assertThat(email.getAttachments()).isEmpty();
 
 		verifyNoMoreInteractions(graphCredentialsRepository, emailService, graphIntegration, dept44HealthUtility);
 	}
 
+	@Test
+	void checkForNewEmails_savesEachAttachmentBatchBeforeFetchingNext() {
+		// Arrange
+		final var userId = "test@example.com";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var messageIds = IntStream.range(0, 21).mapToObj(i -> "messageId" + i).toList();
+		final var emails = messageIds.stream()
+			.map(messageId -> EmailEntity.builder().withOriginalId(messageId).build())
+			.toList();
+		final var attachmentsAtSave = new ArrayList<Integer>();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		mockStreamEmails(userId, credentials, emails);
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), any(), any())).thenAnswer(invocation -> {
+			final List<String> ids = invocation.getArgument(2);
+			return ids.stream().collect(toMap(identity(), id -> List.of(AttachmentEntity.builder().withName(id).build())));
+		});
+		when(emailService.saveEmail(any())).thenAnswer(invocation -> {
+			attachmentsAtSave.add(invocation.<EmailEntity>getArgument(0).getAttachments().size());
+			return invocation.getArgument(0);
+		});
+		when(graphIntegration.moveEmails(eq(userId), eq(messageIds), eq(credentials), any())).thenReturn(Set.copyOf(messageIds));
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		final var inOrder = inOrder(graphIntegration, emailService);
+		inOrder.verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(messageIds.subList(0, 20)), any());
+		inOrder.verify(emailService, times(20)).saveEmail(any());
+		inOrder.verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(messageIds.subList(20, 21)), any());
+		inOrder.verify(emailService).saveEmail(any());
+		inOrder.verify(graphIntegration).moveEmails(eq(userId), eq(messageIds), eq(credentials), any());
+		assertThat(attachmentsAtSave).hasSize(21).containsOnly(1);
+		assertThat(emails).allSatisfy(email -> assertThat(email.getAttachments()).isEmpty());
+		verifyNoInteractions(dept44HealthUtility);
+	}
+
 	@Test
 	void continuesWhenCheckedException() {
 		// Arrange
@@ -110,27 +176,27 @@ class GraphSchedulerTest {
 		final var emails = List.of(email, email2);
 
 		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
-		when(graphIntegration.getEmails(eq(userId), eq(credentials), any())).thenReturn(emails);
-		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(messageId), any())).thenThrow(new RuntimeException("Test exception"));
-		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(messageId2), any())).thenReturn(List.of());
+		mockStreamEmails(userId, credentials, emails);
+		// email1: attachments could not be fetched, so it is left out of the result
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId, messageId2)), any())).thenReturn(Map.of(messageId2, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId2)), eq(credentials), any())).thenReturn(Set.of(messageId2));
 		// Act
 		graphScheduler.checkForNewEmails();
 
 		// Assert
 		verify(graphCredentialsRepository).findAll();
-		verify(graphIntegration).getEmails(eq(userId), eq(credentials), any());
-		verify(emailService).saveEmail(email);
-		verify(emailService, times(2)).saveEmail(email2);
-		// email1: attachment fetch failed → no move (will retry on next run)
-		verify(graphIntegration, never()).moveEmail(eq(userId), eq(email.getOriginalId()), eq(credentials), any());
-		// email2: full success → moved
-		verify(graphIntegration).moveEmail(eq(userId), eq(email2.getOriginalId()), eq(credentials), any());
+		verify(graphIntegration).streamEmails(eq(userId), eq(credentials), any(), any());
+		verify(emailService, never()).saveEmail(email);
+		verify(emailService).saveEmail(email2);
+		verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(List.of(messageId, messageId2)), any());
+		// email1: attachment fetch failed → not persisted, no move (will retry on next run), email2: full success → moved
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId2)), eq(credentials), any());
 		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to handle individual email");
 		verifyNoMoreInteractions(graphCredentialsRepository, emailService, graphIntegration, dept44HealthUtility);
 	}
 
 	@Test
-	void checkForNewEmails_firstSaveFailed_doesNotMove() {
+	void checkForNewEmails_saveFailed_doesNotMove() {
 		final var userId = "test@example.com";
 		final var messageId = "messageId";
 		final var credentials = GraphCredentialsEntity.builder()
@@ -141,14 +207,14 @@ class GraphSchedulerTest {
 		final var email = EmailEntity.builder().withOriginalId(messageId).build();
 
 		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
-		when(graphIntegration.getEmails(eq(userId), eq(credentials), any())).thenReturn(List.of(email));
+		mockStreamEmails(userId, credentials, List.of(email));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
 		when(emailService.saveEmail(email)).thenThrow(new RuntimeException("DB constraint violation"));
 
 		graphScheduler.checkForNewEmails();
 
 		verify(emailService).saveEmail(email);
-		verify(graphIntegration, never()).getAttachments(any(), any(), any(), any());
-		verify(graphIntegration, never()).moveEmail(any(), any(), any(), any());
+		verify(graphIntegration, never()).moveEmails(any(), any(), any(), any());
 		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to handle individual email");
 	}
 
@@ -164,15 +230,373 @@ class GraphSchedulerTest {
 		final var email = EmailEntity.builder().withOriginalId(messageId).build();
 
 		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
-		when(graphIntegration.getEmails(eq(userId), eq(credentials), any())).thenReturn(List.of(email));
-		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(messageId), any())).thenReturn(List.of());
+		mockStreamEmails(userId, credentials, List.of(email));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
 		doThrow(new RuntimeException("Graph move failed"))
-			.when(graphIntegration).moveEmail(eq(userId), eq(messageId), eq(credentials), any());
+			.when(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+
+		graphScheduler.checkForNewEmails();
+
+		verify(emailService).saveEmail(email);
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to move email after successful persistence");
+	}
+
+	@Test
+	void checkForNewEmails_emailNotMoved() {
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		mockStreamEmails(userId, credentials, List.of(email));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any())).thenReturn(Set.of());
 
 		graphScheduler.checkForNewEmails();
 
-		verify(emailService, times(2)).saveEmail(email);
-		verify(graphIntegration).moveEmail(eq(userId), eq(messageId), eq(credentials), any());
+		verify(emailService).saveEmail(email);
 		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to move email after successful persistence");
 	}
+
+	@Test
+	void checkForNewEmails_attachmentFetchFailed_doesNotPersistOrMove() {
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		mockStreamEmails(userId, credentials, List.of(email));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenThrow(new RuntimeException("Graph batch failed"));
+
+		graphScheduler.checkForNewEmails();
+
+		verify(emailService, never()).saveEmail(any());
+		verify(graphIntegration, never()).moveEmails(any(), any(), any(), any());
+		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to handle individual email");
+	}
+
+	@Test
+	void checkForNewEmails_attachmentsKnown_skipsAttachmentFetch() {
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var otherMessageId = "otherMessageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).withAttachments(List.of()).build();
+		final var otherEmail = EmailEntity.builder().withOriginalId(otherMessageId).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		mockStreamEmails(userId, credentials, List.of(email, otherEmail));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(otherMessageId)), any())).thenReturn(Map.of(otherMessageId, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId, otherMessageId)), eq(credentials), any())).thenReturn(Set.of(messageId, otherMessageId));
+
+		graphScheduler.checkForNewEmails();
+
+		verify(emailService).saveEmail(email);
+		verify(emailService).saveEmail(otherEmail);
+		verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(List.of(otherMessageId)), any());
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId, otherMessageId)), eq(credentials), any());
+		verifyNoMoreInteractions(emailService);
+	}
+
+	@Test
+	void checkForNewEmails_noAttachmentsToFetch_doesNotCallGraph() {
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).withAttachments(List.of()).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		mockStreamEmails(userId, credentials, List.of(email));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any())).thenReturn(Set.of(messageId));
+
+		graphScheduler.checkForNewEmails();
+
+		verify(emailService).saveEmail(email);
+		verify(graphIntegration, never()).getAttachments(any(), any(), any(), any());
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+		verifyNoMoreInteractions(emailService, dept44HealthUtility);
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_storesNewDeltaLink() {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.empty());
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq(null), any())).thenReturn(new InboxDelta(List.of(email), "deltaLink"));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any())).thenReturn(Set.of(messageId));
+		final var captor = ArgumentCaptor.forClass(GraphDeltaLinkEntity.class);
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(graphDeltaLinkRepository).findByGraphCredentialsIdAndEmailAddress("credentialsId", userId);
+		verify(graphIntegration).getEmailsDelta(eq(userId), eq(credentials), eq(null), any());
+		verify(emailService).saveEmail(email);
+		verify(graphIntegration).getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any());
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+		verify(graphDeltaLinkRepository).save(captor.capture());
+		assertThat(captor.getValue().getGraphCredentialsId()).isEqualTo("credentialsId");
+		assertThat(captor.getValue().getEmailAddress()).isEqualTo(userId);
+		assertThat(captor.getValue().getDeltaLink()).isEqualTo("deltaLink");
+		verify(graphIntegration, never()).streamEmails(any(), any(), any(), any());
+		verifyNoMoreInteractions(emailService, graphIntegration, graphDeltaLinkRepository, dept44HealthUtility);
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_updatesStoredDeltaLink() {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var stored = GraphDeltaLinkEntity.builder()
+			.withGraphCredentialsId("credentialsId")
+			.withEmailAddress(userId)
+			.withDeltaLink("oldDeltaLink")
+			.build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.of(stored));
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq("oldDeltaLink"), any())).thenReturn(new InboxDelta(List.of(), "newDeltaLink"));
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(graphDeltaLinkRepository).save(stored);
+		assertThat(stored.getDeltaLink()).isEqualTo("newDeltaLink");
+		verifyNoMoreInteractions(emailService);
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_emailFailed_storesPendingId() {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.empty());
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq(null), any())).thenReturn(new InboxDelta(List.of(email), "deltaLink"));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
+		when(emailService.saveEmail(email)).thenThrow(new RuntimeException("DB constraint violation"));
+		final var captor = ArgumentCaptor.forClass(GraphDeltaLinkEntity.class);
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(graphIntegration, never()).moveEmails(any(), any(), any(), any());
+		verify(graphDeltaLinkRepository).save(captor.capture());
+		assertThat(captor.getValue().getDeltaLink()).isEqualTo("deltaLink");
+		assertThat(captor.getValue().getPendingMessageIds()).containsExactly(messageId);
+		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to handle individual email");
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_retriesPendingEmails() throws Exception {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var pendingId = "pendingId";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var stored = GraphDeltaLinkEntity.builder()
+			.withGraphCredentialsId("credentialsId")
+			.withEmailAddress(userId)
+			.withDeltaLink("oldDeltaLink")
+			.withPendingMessageIds(new HashSet<>(Set.of(pendingId)))
+			.build();
+		final var pendingEmail = EmailEntity.builder().withOriginalId(pendingId).withSubject("fetched by id").withAttachments(List.of()).build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).withAttachments(List.of()).build();
+		// The pending email is also in the delta, it must only be handled once
+		final var pendingEmailInDelta = EmailEntity.builder().withOriginalId(pendingId).withSubject("from delta").withAttachments(List.of()).build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.of(stored));
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq("oldDeltaLink"), any())).thenReturn(new InboxDelta(List.of(pendingEmailInDelta, email), "newDeltaLink"));
+		when(graphIntegration.getEmailsOrThrow(userId, credentials, List.of(pendingId))).thenReturn(List.of(pendingEmail));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(pendingId, messageId)), eq(credentials), any())).thenReturn(Set.of(pendingId, messageId));
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(emailService).saveEmail(pendingEmail);
+		verify(emailService).saveEmail(email);
+		verify(emailService, never()).saveEmail(pendingEmailInDelta);
+		verify(graphDeltaLinkRepository).save(stored);
+		assertThat(stored.getDeltaLink()).isEqualTo("newDeltaLink");
+		assertThat(stored.getPendingMessageIds()).isEmpty();
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_fetchPendingFailed_keepsDeltaLink() throws Exception {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var pendingId = "pendingId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var stored = GraphDeltaLinkEntity.builder()
+			.withGraphCredentialsId("credentialsId")
+			.withEmailAddress(userId)
+			.withDeltaLink("oldDeltaLink")
+			.withPendingMessageIds(new HashSet<>(Set.of(pendingId)))
+			.build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.of(stored));
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq("oldDeltaLink"), any())).thenReturn(new InboxDelta(List.of(), "newDeltaLink"));
+		when(graphIntegration.getEmailsOrThrow(userId, credentials, List.of(pendingId))).thenThrow(new IOException("Could not get message"));
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(graphDeltaLinkRepository, never()).save(any());
+		assertThat(stored.getDeltaLink()).isEqualTo("oldDeltaLink");
+		assertThat(stored.getPendingMessageIds()).containsExactly(pendingId);
+		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to fetch pending emails");
+		verifyNoMoreInteractions(emailService);
+	}
+
+	@Test
+	void checkForNewEmails_incrementalSync_deltaNotCompleted_keepsDeltaLink() {
+		// Arrange
+		ReflectionTestUtils.setField(graphScheduler, "incrementalSyncEnabled", true);
+		final var userId = "test@example.com";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withId("credentialsId")
+			.withEmailAddress(List.of(userId))
+			.build();
+
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials));
+		when(graphDeltaLinkRepository.findByGraphCredentialsIdAndEmailAddress("credentialsId", userId)).thenReturn(Optional.empty());
+		when(graphIntegration.getEmailsDelta(eq(userId), eq(credentials), eq(null), any())).thenReturn(new InboxDelta(List.of(), null));
+
+		// Act
+		graphScheduler.checkForNewEmails();
+
+		// Assert
+		verify(graphDeltaLinkRepository, never()).save(any());
+	}
+
+	@Test
+	void handleNewEmails() {
+		// Arrange
+		final var userId = "test@example.com";
+		final var messageId = "messageId";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		final var email = EmailEntity.builder().withOriginalId(messageId).build();
+		when(graphIntegration.getEmails(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(List.of(email));
+		when(graphIntegration.getAttachments(eq(userId), eq(credentials), eq(List.of(messageId)), any())).thenReturn(Map.of(messageId, List.of()));
+		when(graphIntegration.moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any())).thenReturn(Set.of(messageId));
+
+		// Act
+		final var result = graphScheduler.handleNewEmails(credentials, userId, List.of(messageId));
+
+		// Assert
+		assertThat(result).isTrue();
+		verify(emailService).saveEmail(email);
+		verify(graphIntegration).moveEmails(eq(userId), eq(List.of(messageId)), eq(credentials), any());
+		verifyNoMoreInteractions(graphCredentialsRepository, dept44HealthUtility);
+	}
+
+	@Test
+	void handleNewEmails_noLongerInInbox() {
+		// Arrange
+		final var userId = "test@example.com";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		when(graphIntegration.getEmails(eq(userId), eq(credentials), eq(List.of("messageId")), any())).thenReturn(List.of());
+
+		// Act
+		final var result = graphScheduler.handleNewEmails(credentials, userId, List.of("messageId"));
+
+		// Assert
+		assertThat(result).isTrue();
+		verify(graphIntegration, never()).moveEmails(any(), any(), any(), any());
+		verifyNoMoreInteractions(emailService);
+	}
+
+	@Test
+	void handleNewEmails_failed() {
+		// Arrange
+		final var userId = "test@example.com";
+		final var credentials = GraphCredentialsEntity.builder()
+			.withEmailAddress(List.of(userId))
+			.build();
+		when(graphIntegration.getEmails(eq(userId), eq(credentials), eq(List.of("messageId")), any())).thenThrow(new RuntimeException("Test exception"));
+
+		// Act
+		final var result = graphScheduler.handleNewEmails(credentials, userId, List.of("messageId"));
+
+		// Assert
+		assertThat(result).isFalse();
+		verify(dept44HealthUtility).setHealthIndicatorUnhealthy(null, "Email error: [Graph] Failed to handle notified emails");
+		verifyNoMoreInteractions(emailService);
+	}
+
+	@Test
+	void warmFolderIds() {
+		// Arrange
+		final var credentials = GraphCredentialsEntity.builder().withId("someId").build();
+		final var otherCredentials = GraphCredentialsEntity.builder().withId("otherId").build();
+		when(graphCredentialsRepository.findAll()).thenReturn(List.of(credentials, otherCredentials));
+		doThrow(new IllegalStateException("Test exception")).when(graphIntegration).warmFolderIds(credentials);
+
+		// Act
+		graphScheduler.warmFolderIds();
+
+		// Assert
+		verify(graphIntegration).warmFolderIds(credentials);
+		verify(graphIntegration).warmFolderIds(otherCredentials);
+		verifyNoMoreInteractions(graphIntegration, emailService);
+	}
+
+	private void mockStreamEmails(final String userId, final GraphCredentialsEntity credentials, final List<EmailEntity> emails) {
+		doAnswer(invocation -> {
+			final Consumer<List<EmailEntity>> pageHandler = invocation.getArgument(3);
+			pageHandler.accept(emails);
+			return null;
+		}).when(graphIntegration).streamEmails(eq(userId), eq(credentials), any(), any());
+	}
 }
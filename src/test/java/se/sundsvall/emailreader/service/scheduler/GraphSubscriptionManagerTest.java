@@ -0,0 +1,452 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import com.microsoft.graph.models.Subscription;
+import com.microsoft.kiota.ApiException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import se.sundsvall.emailreader.api.model.GraphNotification;
+import se.sundsvall.emailreader.integration.db.GraphCredentialsRepository;
+import se.sundsvall.emailreader.integration.db.GraphSubscriptionRepository;
+import se.sundsvall.emailreader.integration.db.entity.GraphCredentialsEntity;
+import se.sundsvall.emailreader.integration.db.entity.GraphSubscriptionEntity;
+import se.sundsvall.emailreader.integration.graph.GraphIntegration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GraphSubscriptionManagerTest {
+
+	private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+	private static final OffsetDateTime NOW_UTC = NOW.atOffset(ZoneOffset.UTC);
+	private static final String BASE_URL = "https://localhost:8080/api-email-reader";
+	private static final String ADDRESS = "someEmailAddress";
+	private static final String MUNICIPALITY_ID = "2281";
+
+	@Mock
+	private GraphIntegration graphIntegrationMock;
+
+	@Mock
+	private GraphCredentialsRepository graphCredentialsRepositoryMock;
+
+	@Mock
+	private GraphSubscriptionRepository graphSubscriptionRepositoryMock;
+
+	@Mock
+	private GraphScheduler graphSchedulerMock;
+
+	@Mock
+	private ExecutorService processingExecutorMock;
+
+	@Captor
+	private ArgumentCaptor<Runnable> runnableCaptor;
+
+	@Captor
+	private ArgumentCaptor<GraphSubscriptionEntity> subscriptionCaptor;
+
+	private GraphCredentialsEntity credential;
+
+	private GraphSubscriptionManager manager;
+
+	@BeforeEach
+	void setUp() {
+		credential = GraphCredentialsEntity.builder()
+			.withId("someCredentialsId")
+			.withMunicipalityId(MUNICIPALITY_ID)
+			.withEmailAddress(List.of(ADDRESS))
+			.build();
+		manager = new GraphSubscriptionManager(graphIntegrationMock, graphCredentialsRepositoryMock, graphSubscriptionRepositoryMock, graphSchedulerMock,
+			BASE_URL, Duration.ofHours(72), Duration.ofHours(24), Clock.fixed(NOW, ZoneOffset.UTC), processingExecutorMock);
+	}
+
+	@Test
+	void reconcileSubscriptions_withoutBaseUrl() {
+		manager = new GraphSubscriptionManager(graphIntegrationMock, graphCredentialsRepositoryMock, graphSubscriptionRepositoryMock, graphSchedulerMock,
+			"", Duration.ofHours(72), Duration.ofHours(24), Clock.fixed(NOW, ZoneOffset.UTC), processingExecutorMock);
+
+		manager.reconcileSubscriptions();
+
+		verifyNoInteractions(graphIntegrationMock, graphCredentialsRepositoryMock, graphSubscriptionRepositoryMock, graphSchedulerMock);
+	}
+
+	@Test
+	void reconcileSubscriptions_subscribesMissingMailbox() {
+		// Arrange
+		final var expiration = NOW_UTC.plusHours(72);
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of());
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphIntegrationMock.subscribeToInbox(eq(ADDRESS), eq(credential), eq(BASE_URL + "/2281/graph/notifications"), anyString(), eq(expiration)))
+			.thenReturn(createSubscription("someSubscriptionId", expiration));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphSubscriptionRepositoryMock).save(subscriptionCaptor.capture());
+		assertThat(subscriptionCaptor.getValue()).satisfies(subscription -> {
+			assertThat(subscription.getGraphCredentialsId()).isEqualTo("someCredentialsId");
+			assertThat(subscription.getEmailAddress()).isEqualTo(ADDRESS);
+			assertThat(subscription.getSubscriptionId()).isEqualTo("someSubscriptionId");
+			assertThat(subscription.getClientState()).isNotBlank();
+			assertThat(subscription.getExpiresAt()).isEqualTo(expiration);
+		});
+
+		// Catch up on emails that arrived before the subscription existed
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleMailbox(credential, ADDRESS);
+	}
+
+	@Test
+	void reconcileSubscriptions_subscribeFails() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of());
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphIntegrationMock.subscribeToInbox(eq(ADDRESS), eq(credential), anyString(), anyString(), any())).thenThrow(new RuntimeException("Subscription failed"));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphSubscriptionRepositoryMock, never()).save(any());
+		verifyNoInteractions(processingExecutorMock);
+	}
+
+	@Test
+	void reconcileSubscriptions_renewsExpiringSubscription() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(12));
+		final var expiration = NOW_UTC.plusHours(72);
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of(subscription));
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphIntegrationMock.renewSubscription(credential, "someSubscriptionId", expiration)).thenReturn(expiration);
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphSubscriptionRepositoryMock).save(subscription);
+		assertThat(subscription.getExpiresAt()).isEqualTo(expiration);
+		verify(graphIntegrationMock, never()).subscribeToInbox(any(), any(), any(), any(), any());
+	}
+
+	@Test
+	void reconcileSubscriptions_keepsValidSubscription() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verifyNoInteractions(graphIntegrationMock, processingExecutorMock);
+		verify(graphSubscriptionRepositoryMock, never()).save(any());
+	}
+
+	@Test
+	void reconcileSubscriptions_recreatesRemovedSubscription() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(12));
+		final var expiration = NOW_UTC.plusHours(72);
+		final var notFound = new ApiException("Not found");
+		notFound.setResponseStatusCode(404);
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of(subscription));
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphIntegrationMock.renewSubscription(credential, "someSubscriptionId", expiration)).thenThrow(notFound);
+		when(graphIntegrationMock.subscribeToInbox(eq(ADDRESS), eq(credential), anyString(), anyString(), eq(expiration)))
+			.thenReturn(createSubscription("otherSubscriptionId", expiration));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphSubscriptionRepositoryMock).delete(subscription);
+		verify(graphSubscriptionRepositoryMock).save(subscriptionCaptor.capture());
+		assertThat(subscriptionCaptor.getValue().getSubscriptionId()).isEqualTo("otherSubscriptionId");
+	}
+
+	@Test
+	void reconcileSubscriptions_keepsSubscriptionWhenRenewalFails() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(12));
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of(subscription));
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphIntegrationMock.renewSubscription(eq(credential), eq("someSubscriptionId"), any())).thenThrow(new RuntimeException("Service unavailable"));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphSubscriptionRepositoryMock, never()).delete(any());
+		verify(graphSubscriptionRepositoryMock, never()).save(any());
+		verify(graphIntegrationMock, never()).subscribeToInbox(any(), any(), any(), any(), any());
+	}
+
+	@Test
+	void reconcileSubscriptions_unsubscribesRemovedAddress() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		subscription.setEmailAddress("removedEmailAddress");
+		credential.setEmailAddress(List.of());
+		when(graphSubscriptionRepositoryMock.findAll()).thenReturn(List.of(subscription));
+		when(graphCredentialsRepositoryMock.findAll()).thenReturn(List.of(credential));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.reconcileSubscriptions();
+
+		// Assert
+		verify(graphIntegrationMock).unsubscribe(credential, "someSubscriptionId");
+		verify(graphSubscriptionRepositoryMock).delete(subscription);
+	}
+
+	@Test
+	void handleNotifications_createdEmails() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(subscription));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId"), createNotification("someClientState", "otherMessageId")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleNewEmails(credential, ADDRESS, List.of("someMessageId", "otherMessageId"));
+	}
+
+	@Test
+	void handleNotifications_mergesNotificationsForSameMailbox() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(subscription));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId")));
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "otherMessageId"), createNotification("someClientState", "someMessageId")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleNewEmails(credential, ADDRESS, List.of("someMessageId", "otherMessageId"));
+	}
+
+	@Test
+	void handleNotifications_afterProcessing_queuesNewTask() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(subscription));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId")));
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "otherMessageId")));
+
+		// Assert
+		verify(processingExecutorMock, times(2)).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleNewEmails(credential, ADDRESS, List.of("someMessageId"));
+		verify(graphSchedulerMock).handleNewEmails(credential, ADDRESS, List.of("otherMessageId"));
+	}
+
+	@Test
+	void handleNotifications_missedAndCreated_pollsOnce() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId"), createLifecycleNotification("missed"),
+			createLifecycleNotification("missed")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleMailbox(credential, ADDRESS);
+		verify(graphSchedulerMock, never()).handleNewEmails(any(), any(), any());
+	}
+
+	@Test
+	void handleNotifications_processingFails_isLogged() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+		when(graphSchedulerMock.handleNewEmails(credential, ADDRESS, List.of("someMessageId"))).thenThrow(new IllegalStateException("someMessage"));
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId")));
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+
+		// Act & Assert
+		assertThatNoException().isThrownBy(() -> runnableCaptor.getValue().run());
+	}
+
+	@Test
+	void handleNotifications_executorRejects() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+		doThrow(new RejectedExecutionException()).doNothing().when(processingExecutorMock).execute(any());
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId")));
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "otherMessageId")));
+
+		// Assert
+		verify(processingExecutorMock, times(2)).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleNewEmails(credential, ADDRESS, List.of("otherMessageId"));
+	}
+
+	@Test
+	void handleNotifications_invalidClientState() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("otherClientState", "someMessageId")));
+
+		// Assert
+		verifyNoInteractions(processingExecutorMock, graphSchedulerMock, graphCredentialsRepositoryMock);
+	}
+
+	@Test
+	void handleNotifications_unknownSubscription() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.empty());
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createNotification("someClientState", "someMessageId")));
+
+		// Assert
+		verifyNoInteractions(processingExecutorMock, graphSchedulerMock);
+	}
+
+	@Test
+	void handleNotifications_otherMunicipality() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications("2262", List.of(createNotification("someClientState", "someMessageId")));
+
+		// Assert
+		verifyNoInteractions(processingExecutorMock, graphSchedulerMock);
+	}
+
+	@Test
+	void handleNotifications_missed() {
+		// Arrange
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(createSubscriptionEntity(NOW_UTC.plusHours(48))));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createLifecycleNotification("missed")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSchedulerMock).handleMailbox(credential, ADDRESS);
+	}
+
+	@Test
+	void handleNotifications_reauthorizationRequired() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		final var expiration = NOW_UTC.plusHours(72);
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(subscription));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+		when(graphIntegrationMock.renewSubscription(credential, "someSubscriptionId", expiration)).thenReturn(expiration);
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createLifecycleNotification("reauthorizationRequired")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSubscriptionRepositoryMock).save(subscription);
+		assertThat(subscription.getExpiresAt()).isEqualTo(expiration);
+	}
+
+	@Test
+	void handleNotifications_subscriptionRemoved() {
+		// Arrange
+		final var subscription = createSubscriptionEntity(NOW_UTC.plusHours(48));
+		final var expiration = NOW_UTC.plusHours(72);
+		when(graphSubscriptionRepositoryMock.findBySubscriptionId("someSubscriptionId")).thenReturn(Optional.of(subscription));
+		when(graphCredentialsRepositoryMock.findById("someCredentialsId")).thenReturn(Optional.of(credential));
+		when(graphIntegrationMock.subscribeToInbox(eq(ADDRESS), eq(credential), anyString(), anyString(), eq(expiration)))
+			.thenReturn(createSubscription("otherSubscriptionId", expiration));
+
+		// Act
+		manager.handleNotifications(MUNICIPALITY_ID, List.of(createLifecycleNotification("subscriptionRemoved")));
+
+		// Assert
+		verify(processingExecutorMock).execute(runnableCaptor.capture());
+		runnableCaptor.getValue().run();
+		verify(graphSubscriptionRepositoryMock).delete(subscription);
+		verify(graphSubscriptionRepositoryMock).save(subscriptionCaptor.capture());
+		assertThat(subscriptionCaptor.getValue().getSubscriptionId()).isEqualTo("otherSubscriptionId");
+	}
+
+	private static GraphSubscriptionEntity createSubscriptionEntity(final OffsetDateTime expiresAt) {
+		return GraphSubscriptionEntity.builder()
+			.withGraphCredentialsId("someCredentialsId")
+			.withEmailAddress(ADDRESS)
+			.withSubscriptionId("someSubscriptionId")
+			.withClientState("someClientState")
+			.withExpiresAt(expiresAt)
+			.build();
+	}
+
+	private static Subscription createSubscription(final String id, final OffsetDateTime expiration) {
+		final var subscription = new Subscription();
+		subscription.setId(id);
+		subscription.setExpirationDateTime(expiration);
+		return subscription;
+	}
+
+	private static GraphNotification createNotification(final String clientState, final String messageId) {
+		return GraphNotification.builder()
+			.withSubscriptionId("someSubscriptionId")
+			.withClientState(clientState)
+			.withChangeType("created")
+			.withResourceData(new GraphNotification.ResourceData(messageId))
+			.build();
+	}
+
+	private static GraphNotification createLifecycleNotification(final String lifecycleEvent) {
+		return GraphNotification.builder()
+			.withSubscriptionId("someSubscriptionId")
+			.withClientState("someClientState")
+			.withLifecycleEvent(lifecycleEvent)
+			.build();
+	}
+}
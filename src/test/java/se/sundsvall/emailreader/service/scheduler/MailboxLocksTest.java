@@ -0,0 +1,106 @@
+package se.sundsvall.emailreader.service.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MailboxLocksTest {
+
+	private final MailboxLocks mailboxLocks = new MailboxLocks();
+
+	@Test
+	void withLock() {
+		final var result = mailboxLocks.withLock("credentialId", "address", () -> {
+			assertThat(mailboxLocks.size()).isOne();
+			return "result";
+		});
+
+		assertThat(result).isEqualTo("result");
+		assertThat(mailboxLocks.size()).isZero();
+	}
+
+	@Test
+	void withLock_removesLockWhenActionFails() {
+		try {
+			mailboxLocks.withLock("credentialId", "address", () -> {
+				throw new IllegalStateException("failure");
+			});
+		} catch (final IllegalStateException e) {
+			assertThat(e).hasMessage("failure");
+		}
+
+		assertThat(mailboxLocks.size()).isZero();
+	}
+
+	@Test
+	void withLock_reentrant() {
+		final var result = mailboxLocks.withLock("credentialId", "address", () -> mailboxLocks.withLock("credentialId", "address", () -> mailboxLocks.size()));
+
+		assertThat(result).isOne();
+		assertThat(mailboxLocks.size()).isZero();
+	}
+
+	@Test
+	void withLock_serializesSameMailbox() throws Exception {
+		final var threads = 8;
+		final var start = new CountDownLatch(1);
+		final var running = new AtomicInteger();
+		final var maxRunning = new AtomicInteger();
+
+		try (final var executor = Executors.newFixedThreadPool(threads)) {
+			for (var i = 0; i < threads; i++) {
+				executor.submit(() -> {
+					start.await();
+					for (var j = 0; j < 100; j++) {
+						mailboxLocks.withLock("credentialId", "address", () -> {
+							maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+							running.decrementAndGet();
+							return null;
+						});
+					}
+					return null;
+				});
+			}
+			start.countDown();
+			executor.shutdown();
+			assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+		}
+
+		assertThat(maxRunning.get()).isOne();
+		assertThat(mailboxLocks.size()).isZero();
+	}
+
+	@Test
+	void withLock_differentMailboxesDoNotBlock() throws Exception {
+		final var held = new CountDownLatch(1);
+		final var release = new CountDownLatch(1);
+
+		try (final var executor = Executors.newSingleThreadExecutor()) {
+			final var holder = executor.submit(() -> mailboxLocks.withLock("credentialId", "address1", () -> {
+				held.countDown();
+				await(release);
+				return null;
+			}));
+			assertThat(held.await(10, TimeUnit.SECONDS)).isTrue();
+
+			assertThat(mailboxLocks.withLock("credentialId", "address2", () -> mailboxLocks.size())).isEqualTo(2);
+
+			release.countDown();
+			holder.get(10, TimeUnit.SECONDS);
+		}
+
+		assertThat(mailboxLocks.size()).isZero();
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package se.sundsvall.emailreader.utility;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -10,6 +12,7 @@ import se.sundsvall.emailreader.Application;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.MOCK;
 
 @SpringBootTest(classes = {
@@ -32,4 +35,43 @@ class BlobBuilderTest {
 		// Assert
 		assertThat(blob.getBinaryStream().readAllBytes()).isEqualTo(fileContent.getBytes());
 	}
+
+	@Test
+	void createBlobFromStream() throws IOException, SQLException {
+		// Arrange
+		final var fileContent = "text-content-of-file".getBytes(UTF_8);
+
+		// Act
+		final var blob = blobBuilder.createBlob(new ByteArrayInputStream(fileContent), fileContent.length);
+
+		// Assert
+		assertThat(blob.length()).isEqualTo(fileContent.length);
+		assertThat(blob.getBinaryStream().readAllBytes()).isEqualTo(fileContent);
+	}
+
+	@Test
+	void free_closesStream() {
+		// Arrange
+		final var fileContent = "text-content-of-file".getBytes(UTF_8);
+		final var closed = new AtomicBoolean();
+		final var content = new ByteArrayInputStream(fileContent) {
+
+			@Override
+			public void close() {
+				closed.set(true);
+			}
+		};
+		final var blob = blobBuilder.createBlob(content, fileContent.length);
+
+		// Act
+		blobBuilder.free(blob);
+
+		// Assert
+		assertThat(closed).isTrue();
+	}
+
+	@Test
+	void free_null() {
+		assertThatNoException().isThrownBy(() -> blobBuilder.free(null));
+	}
 }
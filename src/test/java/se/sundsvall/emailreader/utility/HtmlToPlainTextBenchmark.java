@@ -0,0 +1,102 @@
+package se.sundsvall.emailreader.utility;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares {@link HtmlToPlainText} with the chained replacements that were used before it. Each operation converts one
+ * MiB of HTML, so the throughput is MiB per second and the gc.alloc.rate.norm of the GC profiler is the number of bytes
+ * allocated per MiB.
+ * <p>
+ * Not run by the build, run the main method from the test classpath, e.g. from the IDE, to get the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HtmlToPlainTextBenchmark {
+
+	private static final int SIZE = 1024 * 1024;
+	private static final String EMAIL = """
+		<html><head><meta http-equiv="Content-Type" content="text/html; charset=utf-8"><style>
+		<!--
+		p.MsoNormal, li.MsoNormal, div.MsoNormal
+			{margin:0in;
+			font-size:12.0pt;
+			font-family:"Aptos",sans-serif}
+		-->
+		</style></head><body lang="SV" style="word-wrap:break-word"><div class="WordSection1">
+		<p class="MsoNormal"><span lang="SV" style="font-size:11.0pt">Hej,</span></p>
+		<p class="MsoNormal"><span lang="SV" style="font-size:11.0pt">&nbsp;</span></p>
+		<p class="MsoNormal"><span lang="SV" style="font-size:11.0pt">Vi har f&aring;tt er ans&ouml;kan &amp; &aring;terkommer inom &#8470; 5 dagar.<br>
+		Med v&auml;nliga h&auml;lsningar</span></p>
+		<script type="text/javascript">if (a < b) { track(); }</script>
+		</div></body></html>
+		""";
+
+	private String html;
+
+	public static void main(final String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder()
+			.include(HtmlToPlainTextBenchmark.class.getSimpleName())
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+
+	@Setup
+	public void setUp() {
+		final var builder = new StringBuilder(SIZE + EMAIL.length());
+		while (builder.length() < SIZE) {
+			builder.append(EMAIL);
+		}
+		html = builder.substring(0, SIZE);
+	}
+
+	@Benchmark
+	public String singlePass() {
+		return HtmlToPlainText.convert(html);
+	}
+
+	@Benchmark
+	public String chainedReplace() {
+		return chainedReplace(html);
+	}
+
+	private static String chainedReplace(final String html) {
+		final var plainText = html
+			.replace("\u2028", "")
+			.replace("\\r\\n", "")
+			.replace("\\n", "")
+			.replaceAll("<style[^>]*>.*?</style>", "")
+			.replaceAll("<script[^>]*>.*?</script>", "")
+			.replaceAll("<br\\s*/?>", "\n")
+			.replaceAll("</span[^>]*>", "\n")
+			.replaceAll("<[^>]+>", "")
+			.replace("&nbsp;", " ")
+			.replace("&lt;", "<")
+			.replace("&gt;", ">")
+			.replace("&amp;", "&")
+			.replace("&quot;", "\"")
+			.replace("&apos;", "'")
+			.replace("&#(\\d+);", "")
+			.replaceAll(" ?\n ?", "\n")
+			.trim();
+
+		return plainText.isEmpty() ? null : plainText;
+	}
+}
@@ -0,0 +1,89 @@
+package se.sundsvall.emailreader.utility;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.NullAndEmptySource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HtmlToPlainTextTest {
+
+	@Test
+	void convert() {
+		final var html = """
+			<html>
+			<head>
+			<style type="text/css">
+			p { margin: 0; }
+			</style>
+			<script>if (a < b) { alert("</p>"); }</script>
+			</head>
+			<body>
+			<!-- <br> in a comment -->
+			<div title="a > b">Hej.<BR>
+			En rad&nbsp;<span>med text</span>
+			</div>
+			</body>
+			</html>
+			""";
+
+		assertThat(HtmlToPlainText.convert(html)).isEqualTo("Hej.\n\nEn rad med text");
+	}
+
+	@ParameterizedTest
+	@CsvSource(delimiter = '|', value = {
+		"a &lt;b&gt; &amp; c|a <b> & c",
+		"&Aring;&auml;&ouml; &eacute;|\u00C5\u00E4\u00F6 \u00E9",
+		"&#229;&#xE4;&#XF6; &#128512;|\u00E5\u00E4\u00F6 \uD83D\uDE00",
+		"a&#160;b|a b",
+		"a &unknown; b|a &unknown; b",
+		"a &#xZZ; &#0; b|a &#xZZ; &#0; b",
+		"fish & chips|fish & chips",
+		"1 < 2 and 3 > 2|1 < 2 and 3 > 2",
+		"a <b|a <b"
+	})
+	void convert_textAndEntities(final String html, final String expected) {
+		assertThat(HtmlToPlainText.convert(html)).isEqualTo(expected);
+	}
+
+	@Test
+	void convert_quotes() {
+		assertThat(HtmlToPlainText.convert("&quot;a&quot; &apos;b&apos;")).isEqualTo("\"a\" 'b'");
+	}
+
+	@Test
+	void convert_lineBreaks() {
+		assertThat(HtmlToPlainText.convert("line<br>break<BR/>and<br />more</span>end")).isEqualTo("line\nbreak\nand\nmore\nend");
+	}
+
+	@Test
+	void convert_whitespaceAroundLineBreaks() {
+		assertThat(HtmlToPlainText.convert("  one  \r\n \t two <br>  three\u2028 ")).isEqualTo("one\ntwo\nthree");
+	}
+
+	@Test
+	void convert_collapsesInlineWhitespace() {
+		assertThat(HtmlToPlainText.convert("<td>a</td>  \t  <td>b</td>\t\tc&nbsp;&nbsp; d")).isEqualTo("a b c d");
+	}
+
+	@Test
+	void convert_keepsBackslashes() {
+		assertThat(HtmlToPlainText.convert("C:\\new\\folder")).isEqualTo("C:\\new\\folder");
+	}
+
+	@Test
+	void convert_unterminatedStyle() {
+		assertThat(HtmlToPlainText.convert("Text<style>p { margin: 0; }")).isEqualTo("Text");
+	}
+
+	@ParameterizedTest
+	@NullAndEmptySource
+	@ValueSource(strings = {
+		" ", "<p>&nbsp;</p>", "<br><br>", "<style>p {}</style>"
+	})
+	void convert_noText(final String html) {
+		assertThat(HtmlToPlainText.convert(html)).isNull();
+	}
+}
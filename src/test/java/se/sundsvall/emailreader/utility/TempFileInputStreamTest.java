@@ -0,0 +1,65 @@
+package se.sundsvall.emailreader.utility;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TempFileInputStreamTest {
+
+	private static final byte[] CONTENT = "text-content-of-file".getBytes(UTF_8);
+
+	@TempDir
+	private Path directory;
+
+	@Test
+	void read_deletesFileWhenAllBytesAreRead() throws IOException {
+		final var file = Files.write(directory.resolve("attachment"), CONTENT);
+		final var stream = new TempFileInputStream(file, CONTENT.length);
+
+		assertThat(file).exists();
+		assertThat(stream.readNBytes(CONTENT.length)).isEqualTo(CONTENT);
+		assertThat(file).doesNotExist();
+		assertThat(stream.read()).isEqualTo(-1);
+	}
+
+	@Test
+	void read_singleBytes() throws IOException {
+		final var file = Files.write(directory.resolve("attachment"), CONTENT);
+		final var stream = new TempFileInputStream(file, CONTENT.length);
+
+		for (final var expected : CONTENT) {
+			assertThat(stream.read()).isEqualTo(expected);
+		}
+		assertThat(file).doesNotExist();
+	}
+
+	@Test
+	void close_deletesUnreadFile() throws IOException {
+		final var file = Files.write(directory.resolve("attachment"), CONTENT);
+		final var stream = new TempFileInputStream(file, CONTENT.length);
+
+		stream.close();
+		stream.close();
+
+		assertThat(file).doesNotExist();
+		assertThat(stream.read()).isEqualTo(-1);
+	}
+
+	@Test
+	void close_deletesPartlyReadFile() throws IOException {
+		final var file = Files.write(directory.resolve("attachment"), CONTENT);
+		final var stream = new TempFileInputStream(file, CONTENT.length);
+
+		assertThat(stream.readNBytes(4)).isEqualTo("text".getBytes(UTF_8));
+		assertThat(file).exists();
+
+		stream.close();
+
+		assertThat(file).doesNotExist();
+	}
+}
@@ -1,16 +1,23 @@
 
+    create sequence attachment_seq start with 1 increment by 50 nocache;
+
     create table attachment (
         created_at datetime(6),
-        id bigint not null auto_increment,
+        id bigint not null,
+        size bigint,
         content_type varchar(255),
         email_id varchar(255),
         name varchar(255),
+        source_credentials_id varchar(255),
+        source_attachment_id varchar(512),
+        source_item_id varchar(512),
         content longblob,
         primary key (id)
     ) engine=InnoDB;
 
     create table credentials (
         enabled bit,
+        lazy_attachments bit,
         created_at datetime(6),
         action varchar(255),
         destination_folder varchar(255),
@@ -80,6 +87,30 @@
         recipients varchar(255)
     ) engine=InnoDB;
 
+    create table ews_folder_id (
+        resolved_at datetime(6),
+        email_address varchar(255),
+        folder_id varchar(512),
+        folder_name varchar(255),
+        id varchar(255) not null,
+        primary key (id)
+    ) engine=InnoDB;
+
+    create table ews_sync_state (
+        updated_at datetime(6),
+        credentials_id varchar(255),
+        email_address varchar(255),
+        id varchar(255) not null,
+        sync_state longtext,
+        primary key (id)
+    ) engine=InnoDB;
+
+    create table ews_sync_state_pending_item (
+        ews_sync_state_id varchar(255) not null,
+        item_id varchar(512) not null,
+        primary key (ews_sync_state_id, item_id)
+    ) engine=InnoDB;
+
     create table graph_credentials (
         enabled bit,
         created_at datetime(6),
@@ -105,9 +136,53 @@
         primary key (graph_credentials_id, metadata_key)
     ) engine=InnoDB;
 
+    create table graph_delta_link (
+        updated_at datetime(6),
+        email_address varchar(255),
+        graph_credentials_id varchar(255),
+        id varchar(255) not null,
+        delta_link longtext,
+        primary key (id)
+    ) engine=InnoDB;
+
+    create table graph_delta_link_pending_message (
+        graph_delta_link_id varchar(255) not null,
+        message_id varchar(512) not null,
+        primary key (graph_delta_link_id, message_id)
+    ) engine=InnoDB;
+
+    create table graph_subscription (
+        expires_at datetime(6),
+        updated_at datetime(6),
+        client_state varchar(255),
+        email_address varchar(255),
+        graph_credentials_id varchar(255),
+        id varchar(255) not null,
+        subscription_id varchar(255),
+        primary key (id)
+    ) engine=InnoDB;
+
+    create index idx_attachment_source_item_id 
+       on attachment (source_item_id);
+
     alter table if exists email 
        add constraint uk_email_original_id_municipality_namespace unique (original_id, municipality_id, namespace);
 
+    alter table if exists ews_folder_id 
+       add constraint uk_ews_folder_id_email_address_folder_name unique (email_address, folder_name);
+
+    alter table if exists ews_sync_state 
+       add constraint uk_ews_sync_state_credentials_id_email_address unique (credentials_id, email_address);
+
+    alter table if exists graph_delta_link 
+       add constraint uk_graph_delta_link_graph_credentials_id_email_address unique (graph_credentials_id, email_address);
+
+    alter table if exists graph_subscription 
+       add constraint uk_graph_subscription_graph_credentials_id_email_address unique (graph_credentials_id, email_address);
+
+    alter table if exists graph_subscription 
+       add constraint uk_graph_subscription_subscription_id unique (subscription_id);
+
     alter table if exists attachment 
        add constraint fk_email_attachment_email_id 
        foreign key (email_id) 
@@ -148,6 +223,11 @@
        foreign key (email_id) 
        references email (id);
 
+    alter table if exists ews_sync_state_pending_item 
+       add constraint fk_ews_sync_state_pending_item_ews_sync_state_id 
+       foreign key (ews_sync_state_id) 
+       references ews_sync_state (id);
+
     alter table if exists graph_credentials_email_address 
        add constraint fk_graph_credentials_email_address_graph_credentials_id 
        foreign key (graph_credentials_id) 
@@ -157,3 +237,8 @@
        add constraint fk_graph_credentials_metadata_graph_credentials_id 
        foreign key (graph_credentials_id) 
        references graph_credentials (id);
+
+    alter table if exists graph_delta_link_pending_message 
+       add constraint fk_graph_delta_link_pending_message_graph_delta_link_id 
+       foreign key (graph_delta_link_id) 
+       references graph_delta_link (id);
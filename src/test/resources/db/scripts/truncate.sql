@@ -8,4 +8,10 @@ TRUNCATE table email_header;
 TRUNCATE table email_header_value;
 TRUNCATE table email_metadata;
 TRUNCATE table email_recipient;
+TRUNCATE table ews_folder_id;
+TRUNCATE table ews_sync_state;
+TRUNCATE table ews_sync_state_pending_item;
+TRUNCATE table graph_delta_link;
+TRUNCATE table graph_delta_link_pending_message;
+TRUNCATE table graph_subscription;
 SET FOREIGN_KEY_CHECKS = 1;
\ No newline at end of file